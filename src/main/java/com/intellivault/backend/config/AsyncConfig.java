@@ -1,11 +1,18 @@
 package com.intellivault.backend.config;
 
+import org.springframework.boot.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
@@ -13,12 +20,21 @@ import java.util.concurrent.ThreadPoolExecutor;
 public class AsyncConfig {
 
     @Bean(name = "taskExecutor") // 替换掉 Spring 默认的执行器
-    public Executor taskExecutor() {
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-
+    public Executor taskExecutor(Environment environment) {
         // 1. 核心线程数：CPU 核数 + 1 (计算密集型) 或 2 * CPU (IO 密集型)
         // 你的文档解析是 IO (读文件) + CPU (Tika解析) 混合，设为核数 2 倍比较合适
         int corePoolSize = Runtime.getRuntime().availableProcessors() * 2;
+
+        // 虚拟线程模式 (spring.threads.virtual.enabled)：@Async 任务现在都是读写 Mongo / GridFS 的 IO，
+        // 每个任务一个虚拟线程，阻塞时不占平台线程；并发上限沿用原来的最大线程数，到顶后提交方阻塞 (同样是背压)
+        if (Threading.VIRTUAL.isActive(environment)) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("Doc-Async-");
+            executor.setVirtualThreads(true);
+            executor.setConcurrencyLimit(corePoolSize * 2);
+            return executor;
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(corePoolSize);
 
         // 2. 最大线程数：流量突发时的缓冲
@@ -40,4 +56,134 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
-}
\ No newline at end of file
+
+    /**
+     * 向量化专用线程池：与 taskExecutor、ForkJoin 公共池隔离，
+     * 大文件入库时不会把解析线程和 parallelStream 的其它用户饿死
+     * ONNX 推理是 CPU 密集，虚拟线程模式下也保持固定大小的平台线程
+     * <p>
+     * 排满时提交方阻塞等空位，而不是 CallerRunsPolicy 让提交方自己推理：
+     * 提交方是落库阶段的虚拟线程 (最多 persist.max-concurrent 个)，让它们跑 ONNX 会绕过这里的线程数，把 CPU 超卖
+     */
+    @Bean(name = "embeddingExecutor")
+    public Executor embeddingExecutor(IngestionProperties properties) {
+        IngestionProperties.Embedding config = properties.getEmbedding();
+        ThreadPoolTaskExecutor executor = new BlockingSubmitExecutor(config.getThreads() + config.getQueueCapacity());
+        executor.setCorePoolSize(config.getThreads());
+        executor.setMaxPoolSize(config.getThreads());
+        executor.setQueueCapacity(config.getQueueCapacity());
+        executor.setThreadNamePrefix("Embedding-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 解析阶段线程 (Tika，CPU 密集，按核数)：IngestionWorker 只在有空闲槽位时才领取任务，这里不需要排队
+     * 排队发生在 Mongo 里，按短作业优先 + 老化的顺序领取
+     * 队列留 concurrency 个位置：worker 的槽位在任务 finally 里归还，那一刻线程还没空出来，
+     * 紧接着领到的任务先进队列等它，而不是被拒绝 (同时在途的任务数仍由槽位限制)
+     */
+    @Bean(name = "ingestionExecutor")
+    public Executor ingestionExecutor(IngestionProperties properties) {
+        int concurrency = properties.getJobs().getConcurrency();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setQueueCapacity(concurrency);
+        executor.setThreadNamePrefix("Parse-");
+        // 关闭时等正在执行的任务写完当前批次；没写完的靠租约过期后由其它节点 / 下次启动接着做
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 落库阶段 (GridFS / Mongo 阻塞 I/O)：虚拟线程，每批一个，阻塞时不占平台线程
+     * concurrencyLimit 到顶后提交方阻塞，起到有界队列的作用
+     */
+    @Bean(name = "persistExecutor")
+    public Executor persistExecutor(IngestionProperties properties) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("Persist-");
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(properties.getPersist().getMaxConcurrent());
+        return executor;
+    }
+
+    /**
+     * 混合检索的关键词一路：和查询向量化、向量检索并行，纯内存计算，按核数
+     * 排满时调用方自己算 (退化成串行)，不拒绝检索请求
+     */
+    @Bean(name = "searchExecutor")
+    public Executor searchExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(256);
+        executor.setThreadNamePrefix("Search-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 会话摘要 (调大模型，IO 为主)：写入记忆后提交，可能来自 Lettuce 的事件循环线程，
+     * 所以排满时直接拒绝 (这一轮不折叠，下一轮再试)，不能让提交方自己跑
+     */
+    @Bean(name = "summaryExecutor")
+    public Executor summaryExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.setMaxPoolSize(4);
+        executor.setQueueCapacity(1000);
+        executor.setThreadNamePrefix("Summary-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 流式对话的检索阶段：有界弹性调度器，几千个 SSE 连接同时在线时，
+     * 只有正在检索的请求占线程，其余时间连接只挂在事件上
+     */
+    @Bean(name = "retrievalScheduler", destroyMethod = "dispose")
+    public Scheduler retrievalScheduler(SearchProperties properties) {
+        SearchProperties.Retrieval config = properties.getRetrieval();
+        return Schedulers.newBoundedElastic(config.getThreads(), config.getQueueCapacity(), "Retrieval");
+    }
+
+    /**
+     * 线程 + 队列都占满时，execute 阻塞到有任务完成 (信号量计数 = 线程数 + 队列容量，永远不会触发拒绝策略)
+     */
+    static final class BlockingSubmitExecutor extends ThreadPoolTaskExecutor {
+
+        private final Semaphore slots;
+
+        BlockingSubmitExecutor(int slots) {
+            this.slots = new Semaphore(slots);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            try {
+                slots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TaskRejectedException("等待 " + getThreadNamePrefix() + " 线程池空位时被中断", e);
+            }
+            try {
+                super.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                slots.release();
+                throw e;
+            }
+        }
+    }
+}
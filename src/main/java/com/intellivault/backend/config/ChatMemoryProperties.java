@@ -0,0 +1,77 @@
+package com.intellivault.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 会话记忆配置 (application.yml 中的 intellivault.memory.*)
+ */
+@Data
+@ConfigurationProperties(prefix = "intellivault.memory")
+public class ChatMemoryProperties {
+
+    /**
+     * 每个会话在 Redis 里保留的最近消息数 (同步 / 流式两个实现共用)
+     */
+    private int retention = 20;
+
+    /**
+     * 会话最后一次写入后多久过期
+     */
+    private Duration ttl = Duration.ofMinutes(60);
+
+    private NearCache nearCache = new NearCache();
+
+    private Summary summary = new Summary();
+
+    /**
+     * 本节点的近端缓存：同一会话连续几轮对话直接读本地，不再回 Redis 取历史
+     * 写入时 (同一个 Lua 脚本里) 发布失效通知，其它节点收到后丢弃本地副本
+     */
+    @Data
+    public static class NearCache {
+        private boolean enabled = true;
+
+        /**
+         * 本地最多缓存多少个会话，超出按 LRU 淘汰
+         */
+        private int maxConversations = 10_000;
+
+        /**
+         * 本地副本的最长存活时间：失效通知是 "最多一次" 投递，丢了也只会旧这么久
+         */
+        private Duration ttl = Duration.ofMinutes(2);
+
+        /**
+         * 失效通知的频道
+         */
+        private String channel = "chat:memory:invalidate";
+    }
+
+    /**
+     * 滚动摘要：原始历史超过 token 预算后，较早的几轮在后台折叠进一段摘要 (与会话存在一起)，
+     * 提示词里只带 "摘要 + 最近几条原文"，每轮的输入大小不随会话长度增长
+     * retention 仍是原始历史的硬上限，预算应在它之前触发折叠
+     */
+    @Data
+    public static class Summary {
+        private boolean enabled = false;
+
+        /**
+         * 原始历史的估算 token 数超过它就折叠
+         */
+        private int tokenBudget = 1200;
+
+        /**
+         * 折叠后至少保留的最近原文消息数 (一问一答算两条)
+         */
+        private int keepRecent = 4;
+
+        /**
+         * 摘要的长度上限 (字数，写进给模型的指令里)
+         */
+        private int maxSummaryChars = 500;
+    }
+}
@@ -0,0 +1,130 @@
+package com.intellivault.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 向量索引配置 (application.yml 中的 intellivault.index.*)
+ */
+@Data
+@ConfigurationProperties(prefix = "intellivault.index")
+public class IndexProperties {
+
+    /**
+     * 索引实现：flat (精确扫描) | hnsw (近似最近邻) | int8 (标量量化 + 精排，省内存)
+     * | scan (不常驻内存，每次查询游标流式扫描 Mongo 的向量投影)
+     */
+    private String type = "flat";
+
+    /**
+     * 索引快照文件名模板：每个租户一个分区，实际路径为 <path 所在目录>/tenants/<tenantId>/<文件名>
+     * 之后的写入记在同目录的 <文件名>.wal.* 日志段里
+     * 分区加载时 快照 + 日志回放 与 Mongo 一致则直接采用，不再全量重建
+     */
+    private String path = "data/vector.idx";
+
+    private Tenants tenants = new Tenants();
+
+    private Hnsw hnsw = new Hnsw();
+
+    private Snapshot snapshot = new Snapshot();
+
+    private Compaction compaction = new Compaction();
+
+    private Quantization quantization = new Quantization();
+
+    private Lexical lexical = new Lexical();
+
+    @Data
+    public static class Hnsw {
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 64;
+    }
+
+    @Data
+    public static class Tenants {
+        /**
+         * 所有已加载分区的内存上限 (估算)，超出时按 LRU 淘汰冷分区：先做快照再卸载，下次用到时再加载
+         */
+        private DataSize memoryBudget = DataSize.ofGigabytes(1);
+
+        /**
+         * 启动时预先加载的租户 (加载完成才报告就绪)，其余租户第一次检索 / 写入时加载
+         */
+        private List<String> preload = List.of("default");
+    }
+
+    @Data
+    public static class Snapshot {
+        /**
+         * 定时快照间隔 (期间没有写入则跳过)；日志越短，重启回放越快
+         */
+        private Duration interval = Duration.ofMinutes(10);
+
+        /**
+         * 每条日志都 fsync：默认关闭，进程崩溃不丢 (已在页缓存)，只有整机掉电可能丢最后几批，
+         * 这种情况启动时条数对不上会从 Mongo 重建
+         */
+        private boolean fsync = false;
+    }
+
+    /**
+     * 删除墓碑的后台清理 (限速，不和检索、入库抢资源)
+     */
+    @Data
+    public static class Compaction {
+        private Duration interval = Duration.ofSeconds(5);
+
+        /**
+         * 每轮最多删除的片段数：interval 5s、每轮 5000 即上限约 1000 条/秒
+         */
+        private int maxChunksPerRun = 5000;
+
+        /**
+         * 单次 deleteMany 的片段数
+         */
+        private int batchSize = 500;
+
+        /**
+         * 墓碑至少保留这么久才收尾：删除时正在入库的批次可能还会再写进几条
+         */
+        private Duration settle = Duration.ofMinutes(1);
+    }
+
+    @Data
+    public static class Quantization {
+        /**
+         * 粗排候选数 = topK * rerankMultiple，再用全精度向量精排
+         */
+        private int rerankMultiple = 4;
+
+        /**
+         * 攒够多少条向量后做按维度的 min/max 校准 (之前按 float32 精确检索)
+         */
+        private int calibrationSampleSize = 10000;
+    }
+
+    /**
+     * 关键词 (BM25) 索引：与向量分区同生命周期，快照为 tenants/<tenantId>/lexical.idx
+     */
+    @Data
+    public static class Lexical {
+        private boolean enabled = true;
+
+        /**
+         * 词频饱和参数：越大，词频高的文档越占优
+         */
+        private float k1 = 1.2f;
+
+        /**
+         * 文档长度归一化强度 (0 ~ 1)：越大，长片段被压得越多
+         */
+        private float b = 0.75f;
+    }
+}
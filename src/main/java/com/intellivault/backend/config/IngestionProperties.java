@@ -0,0 +1,156 @@
+package com.intellivault.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 入库流水线配置 (application.yml 中的 intellivault.ingestion.*)
+ */
+@Data
+@ConfigurationProperties(prefix = "intellivault.ingestion")
+public class IngestionProperties {
+
+    private Embedding embedding = new Embedding();
+
+    private Streaming streaming = new Streaming();
+
+    private Dedup dedup = new Dedup();
+
+    private Jobs jobs = new Jobs();
+
+    private Persist persist = new Persist();
+
+    private Upload upload = new Upload();
+
+    @Data
+    public static class Embedding {
+        /**
+         * 每次送进 embeddingModel.embed(List) 的片段数，ONNX 按批推理比逐条快得多
+         */
+        private int batchSize = 32;
+
+        /**
+         * 向量化专用线程数；ONNX Runtime 自己也会开多线程，默认取一半核数避免互相抢
+         */
+        private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        /**
+         * 等待中的批次上限，满了提交方阻塞等空位 (背压)
+         */
+        private int queueCapacity = 256;
+    }
+
+    @Data
+    public static class Streaming {
+        /**
+         * 流式入库：Tika SAX -> 增量切片 -> 按批向量化 -> 批量插入，单个任务的内存与文档大小无关
+         * 关掉则退回 "整篇解析成 String 再切" 的老路径
+         */
+        private boolean enabled = true;
+
+        /**
+         * 切片窗口 (字符数)，攒满一个窗口切一次
+         */
+        private int windowChars = 32 * 1024;
+
+        /**
+         * 每攒够多少个片段做一次 "向量化 + insertMany + 进索引"
+         */
+        private int flushChunks = 256;
+    }
+
+    @Data
+    public static class Dedup {
+        /**
+         * 按内容哈希复用已有向量，相同片段不再重复跑 ONNX
+         */
+        private boolean enabled = true;
+
+        /**
+         * 向量只在 chunk_embeddings 里存一份，knowledge_docs 不再各自保存 embedding 副本
+         */
+        private boolean sharedVectors = false;
+    }
+
+    @Data
+    public static class Jobs {
+        /**
+         * 单节点同时处理的入库任务数 (解析阶段，CPU 密集，默认等于核数)
+         */
+        private int concurrency = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * 短作业优先 + 老化：任务的排队优先级 = 入队时间 + 文件大小(MB) * sizePenaltyPerMb
+         * 小文件插到大文件前面，但大文件最多被推迟 size * penalty，不会饿死
+         */
+        private Duration sizePenaltyPerMb = Duration.ofSeconds(2);
+
+        /**
+         * 空闲时轮询 ingestion_jobs 的间隔
+         */
+        private Duration pollInterval = Duration.ofSeconds(1);
+
+        /**
+         * 租约时长；每写完一批会续约，worker 宕机后最多这么久任务就会被别人接手
+         */
+        private Duration lease = Duration.ofMinutes(5);
+
+        /**
+         * 超过后进入 DEAD (死信) 状态，不再自动重试
+         */
+        private int maxAttempts = 5;
+
+        /**
+         * 指数退避：第 n 次失败后等待 backoff * 2^(n-1)，最多 maxBackoff
+         */
+        private Duration backoff = Duration.ofSeconds(30);
+
+        private Duration maxBackoff = Duration.ofMinutes(30);
+    }
+
+    @Data
+    public static class Persist {
+        /**
+         * 落库阶段 (Mongo bulkWrite + 进索引) 跑在虚拟线程上，这里限制全局并发数
+         */
+        private int maxConcurrent = 64;
+
+        /**
+         * 单个任务最多有几批在等待落库；超过后解析线程阻塞等待 (背压)
+         */
+        private int maxInFlightBatches = 2;
+    }
+
+    @Data
+    public static class Upload {
+        /**
+         * 排队中的入库任务超过这个数就拒绝新的上传 (429 + Retry-After)，而不是继续堆积
+         */
+        private int maxBacklog = 2000;
+
+        /**
+         * 批量上传时同时写 GridFS 的文件数
+         */
+        private int maxParallelWrites = 8;
+
+        /**
+         * 压缩包里不超过这个大小的条目先读进内存再并行写 GridFS；更大的条目直接流式写，不落盘也不占内存
+         * 内存占用上限约为 maxParallelWrites * inMemoryEntryLimit
+         */
+        private DataSize inMemoryEntryLimit = DataSize.ofMegabytes(8);
+
+        /**
+         * 压缩包上传途中下游饱和时最多等待多久；超时就停止读取，返回已接收的部分
+         */
+        private Duration saturationWait = Duration.ofSeconds(30);
+
+        /**
+         * 429 响应里建议客户端的重试间隔
+         */
+        private Duration retryAfter = Duration.ofSeconds(30);
+    }
+}
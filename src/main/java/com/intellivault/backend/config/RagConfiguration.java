@@ -1,18 +1,103 @@
 package com.intellivault.backend.config;
 
+import com.intellivault.backend.memory.ChatMemoryNearCache;
+import com.intellivault.backend.memory.ConversationSummarizer;
+import com.intellivault.backend.memory.ReactiveChatMemory;
+import com.intellivault.backend.memory.ReactiveRedisChatMemory;
 import com.intellivault.backend.memory.RedisChatMemory;
+import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
 
 @Configuration
 public class RagConfiguration {
 
+    /**
+     * 同步 / 流式两个实现共用的近端缓存：任何一边写入都会更新它
+     */
+    @Bean
+    public ChatMemoryNearCache chatMemoryNearCache(ChatMemoryProperties properties) {
+        return new ChatMemoryNearCache(properties);
+    }
+
+    /**
+     * 会话记忆用的模板：key 是字符串，值是二进制编码的消息 (见 ChatMessageCodec)
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> chatMemoryRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    /**
+     * 滚动摘要：用一个不带记忆的 ChatClient 把较早的几轮压成摘要 (未开启时不会调用模型)
+     */
+    @Bean
+    public ConversationSummarizer conversationSummarizer(RedisTemplate<String, byte[]> chatMemoryRedisTemplate,
+                                                         ChatClient.Builder chatClientBuilder,
+                                                         ChatMemoryNearCache nearCache,
+                                                         @Qualifier("summaryExecutor") Executor executor,
+                                                         ChatMemoryProperties properties) {
+        return new ConversationSummarizer(chatMemoryRedisTemplate, chatClientBuilder.build(), nearCache,
+                executor, properties);
+    }
+
     @Bean
-    public ChatMemory chatMemory(StringRedisTemplate redisTemplate) {
+    public ChatMemory chatMemory(RedisTemplate<String, byte[]> chatMemoryRedisTemplate,
+                                 ChatMemoryProperties properties,
+                                 ChatMemoryNearCache nearCache,
+                                 ConversationSummarizer summarizer) {
         // 替换掉原来的 InMemoryChatMemory
-        // 传入 RedisTemplate，保留最近 20 条记录
-        return new RedisChatMemory(redisTemplate, 20);
+        return new RedisChatMemory(chatMemoryRedisTemplate, properties, nearCache, summarizer);
+    }
+
+    /**
+     * 流式对话用的非阻塞版本 (Lettuce 响应式连接)
+     */
+    @Bean
+    public ReactiveChatMemory reactiveChatMemory(ReactiveRedisConnectionFactory connectionFactory,
+                                                 ChatMemoryProperties properties,
+                                                 ChatMemoryNearCache nearCache,
+                                                 ConversationSummarizer summarizer) {
+        RedisSerializationContext<String, byte[]> context = RedisSerializationContext
+                .<String, byte[]>newSerializationContext(RedisSerializer.byteArray())
+                .key(RedisSerializer.string())
+                .hashKey(RedisSerializer.string())
+                .build();
+        return new ReactiveRedisChatMemory(new ReactiveRedisTemplate<>(connectionFactory, context),
+                properties, nearCache, summarizer);
+    }
+
+    /**
+     * 订阅别的节点发出的会话记忆失效通知，只在开启近端缓存时需要
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "intellivault.memory.near-cache", name = "enabled", matchIfMissing = true)
+    public RedisMessageListenerContainer chatMemoryInvalidationListener(RedisConnectionFactory connectionFactory,
+                                                                        ChatMemoryProperties properties,
+                                                                        ChatMemoryNearCache nearCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(
+                (message, pattern) -> nearCache.onInvalidation(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(properties.getNearCache().getChannel()));
+        return container;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package com.intellivault.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 检索配置 (application.yml 中的 intellivault.search.*)
+ */
+@Data
+@ConfigurationProperties(prefix = "intellivault.search")
+public class SearchProperties {
+
+    private QueryCache queryCache = new QueryCache();
+
+    private Hybrid hybrid = new Hybrid();
+
+    private Retrieval retrieval = new Retrieval();
+
+    private Inference inference = new Inference();
+
+    @Data
+    public static class QueryCache {
+        private boolean enabled = true;
+
+        /**
+         * 本地缓存的内存上限 (按文本 + 向量字节数估算)
+         */
+        private DataSize maxBytes = DataSize.ofMegabytes(16);
+
+        private Duration ttl = Duration.ofMinutes(30);
+
+        /**
+         * 是否再叠一层 Redis，让多个节点共享查询向量
+         */
+        private boolean redisEnabled = false;
+    }
+
+    /**
+     * 混合检索：向量和关键词 (BM25) 两路并行召回，按倒数排名融合 (RRF)
+     * 需要 intellivault.index.lexical.enabled
+     */
+    @Data
+    public static class Hybrid {
+        private boolean enabled = true;
+
+        /**
+         * RRF 平滑常数：第 r 名得 1 / (rrfK + r)，越大各名次之间差得越少
+         */
+        private int rrfK = 60;
+
+        /**
+         * 关键词一路的权重 (向量一路为 1)
+         */
+        private float keywordWeight = 1.0f;
+
+        /**
+         * 每一路至少召回的候选数 (实际取它和 topK * 2 的较大者)
+         */
+        private int candidates = 20;
+    }
+
+    /**
+     * 流式对话的检索线程 (有界弹性调度器)：查询向量化、索引扫描、回 Mongo 补正文都是阻塞调用，
+     * 统一放到这里跑，请求线程和 Netty / Lettuce 的事件循环线程不碰阻塞 IO
+     */
+    @Data
+    public static class Retrieval {
+        /**
+         * 线程上限：检索里 ONNX 推理占 CPU、Mongo 补正文是 IO，默认取两倍核数
+         */
+        private int threads = Runtime.getRuntime().availableProcessors() * 2;
+
+        /**
+         * 排队的检索任务上限，超出时新请求直接失败，而不是无限堆积
+         */
+        private int queueCapacity = 1000;
+    }
+
+    /**
+     * 查询向量化 (ONNX 推理，CPU 密集) 的并发上限：请求跑在虚拟线程上时线程数不再封顶，
+     * 不限流的话几千个请求会同时抢 CPU 推理，每个都变慢
+     */
+    @Data
+    public static class Inference {
+        /**
+         * 同时进行的查询推理数，默认等于核数 (ONNX Runtime 单次推理本身也会用多线程)
+         */
+        private int maxConcurrent = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * 排队等待推理槽位的最长时间，超时返回 503 而不是无限排队
+         */
+        private Duration acquireTimeout = Duration.ofSeconds(10);
+    }
+}
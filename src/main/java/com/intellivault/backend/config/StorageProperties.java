@@ -0,0 +1,45 @@
+package com.intellivault.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.List;
+
+/**
+ * 原文件存储配置 (application.yml 中的 intellivault.storage.*)
+ */
+@Data
+@ConfigurationProperties(prefix = "intellivault.storage")
+public class StorageProperties {
+
+    private Compression compression = new Compression();
+
+    @Data
+    public static class Compression {
+        private boolean enabled = true;
+
+        /**
+         * 目前只有 deflate (JDK 自带)
+         */
+        private String codec = "deflate";
+
+        /**
+         * 1 (最快) ~ 9 (最小)
+         */
+        private int level = 6;
+
+        /**
+         * 只压缩这些类型：纯文本类格式通常能压到 1/3 ~ 1/10
+         * DOCX / XLSX / PPTX / PDF / 图片本身已经是压缩格式，再压几乎没有收益，默认不在列表里
+         */
+        private List<String> contentTypes = List.of(
+                "text/*",
+                "application/xml",
+                "application/json",
+                "application/xhtml+xml",
+                "application/rtf",
+                "application/msword",
+                "application/vnd.ms-excel",
+                "application/vnd.ms-powerpoint");
+    }
+}
@@ -0,0 +1,51 @@
+package com.intellivault.backend.config;
+
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * 租户标识：请求头 X-Tenant-Id，不带时归属默认租户
+ * 租户 id 会出现在索引分区的目录名里，只允许字母、数字、下划线和短横线
+ */
+public final class Tenants {
+
+    public static final String HEADER = "X-Tenant-Id";
+    public static final String DEFAULT = "default";
+
+    private static final Pattern VALID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private Tenants() {
+    }
+
+    /**
+     * 解析请求头，格式不对直接 400
+     */
+    public static String resolve(String header) {
+        if (header == null || header.isBlank()) return DEFAULT;
+        String tenantId = header.strip();
+        if (!VALID.matcher(tenantId).matches()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "非法的租户标识: " + tenantId);
+        }
+        return tenantId;
+    }
+
+    /**
+     * 引入租户之前写入的数据没有 tenantId，一律算默认租户
+     */
+    public static String orDefault(String tenantId) {
+        return tenantId == null ? DEFAULT : tenantId;
+    }
+
+    /**
+     * 按租户过滤的查询条件；默认租户同时匹配没有 tenantId 的老数据
+     */
+    public static Criteria where(String field, String tenantId) {
+        return DEFAULT.equals(tenantId)
+                ? Criteria.where(field).in(Arrays.asList(DEFAULT, null))
+                : Criteria.where(field).is(tenantId);
+    }
+}
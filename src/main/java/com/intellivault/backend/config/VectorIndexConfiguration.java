@@ -0,0 +1,41 @@
+package com.intellivault.backend.config;
+
+import com.intellivault.backend.index.FlatVectorIndex;
+import com.intellivault.backend.index.HnswVectorIndex;
+import com.intellivault.backend.index.MongoScanVectorIndex;
+import com.intellivault.backend.index.ScalarQuantizedVectorIndex;
+import com.intellivault.backend.index.TenantIndexRegistry;
+import com.intellivault.backend.repository.KnowledgeRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class VectorIndexConfiguration {
+
+    @Bean
+    public TenantIndexRegistry tenantIndexRegistry(EmbeddingModel embeddingModel,
+                                                   KnowledgeRepository knowledgeRepository,
+                                                   IndexProperties properties,
+                                                   MeterRegistry meterRegistry) {
+        // 维度跟着模型走 (all-MiniLM-L6-v2 是 384 维)
+        int dimension = embeddingModel.dimensions();
+        // 每个租户一个分区；常驻分区由 registry 套上预写日志 (快照路径按租户分目录)
+        TenantIndexRegistry.Factory factory = tenantId -> switch (properties.getType()) {
+            case "flat" -> new FlatVectorIndex(dimension);
+            case "hnsw" -> new HnswVectorIndex(dimension,
+                    properties.getHnsw().getM(),
+                    properties.getHnsw().getEfConstruction(),
+                    properties.getHnsw().getEfSearch());
+            case "int8" -> new ScalarQuantizedVectorIndex(dimension,
+                    properties.getQuantization().getRerankMultiple(),
+                    properties.getQuantization().getCalibrationSampleSize(),
+                    // 精排用的全精度向量直接从 Mongo 取 (只投影 embedding)
+                    knowledgeRepository::findEmbeddingsByIds);
+            case "scan" -> new MongoScanVectorIndex(dimension, knowledgeRepository, tenantId);
+            default -> throw new IllegalStateException("未知的索引类型: " + properties.getType());
+        };
+        return new TenantIndexRegistry(factory, knowledgeRepository, properties, meterRegistry);
+    }
+}
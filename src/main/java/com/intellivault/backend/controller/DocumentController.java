@@ -1,55 +1,99 @@
 package com.intellivault.backend.controller;
 
+import com.intellivault.backend.config.Tenants;
 import com.intellivault.backend.event.DocumentUploadEvent;
-import com.intellivault.backend.service.DocumentService; // [1] 确保导入
+import com.intellivault.backend.model.DownloadableFile;
+import com.intellivault.backend.model.StoredFile;
+import com.intellivault.backend.model.UploadResult;
+import com.intellivault.backend.service.BatchUploadService;
 import com.intellivault.backend.service.DocumentStorageService;
+import com.intellivault.backend.service.IngestionJobService;
+import com.intellivault.backend.service.TombstoneService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
+/**
+ * 文档接口：所有接口按请求头 X-Tenant-Id 区分租户 (不带为默认租户)，访问别的租户的文件一律 404
+ */
 @RestController
 @RequestMapping("/api/documents")
 public class DocumentController {
 
     private final DocumentStorageService storageService;
     private final ApplicationEventPublisher publisher;
-    private final DocumentService documentService; // [2] 加回这个字段
+    private final IngestionJobService jobService;
+    private final BatchUploadService batchUploadService;
+    private final TombstoneService tombstoneService;
 
-    // [3] 构造器注入 DocumentService，以便 delete 方法使用
     public DocumentController(DocumentStorageService storageService,
                               ApplicationEventPublisher publisher,
-                              DocumentService documentService) {
+                              IngestionJobService jobService,
+                              BatchUploadService batchUploadService,
+                              TombstoneService tombstoneService) {
         this.storageService = storageService;
         this.publisher = publisher;
-        this.documentService = documentService;
+        this.jobService = jobService;
+        this.batchUploadService = batchUploadService;
+        this.tombstoneService = tombstoneService;
     }
 
     /**
      * 1. 上传接口 (异步)
      */
     @PostMapping("/upload")
-    public ResponseEntity<?> upload(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> upload(@RequestParam("file") MultipartFile file,
+                                    @RequestHeader(value = Tenants.HEADER, required = false) String tenant) {
+        String tenantId = Tenants.resolve(tenant);
         if (file.isEmpty()) return ResponseEntity.badRequest().body("文件不能为空");
+        if (batchUploadService.saturated()) return tooBusy();
 
         try {
-            // 1. IO 操作：存 GridFS
-            String fileId = storageService.storeFile(file);
+            // 1. IO 操作：存 GridFS (边写边算 SHA-256)
+            StoredFile stored = storageService.storeFile(file, tenantId);
+            String fileId = stored.fileId();
 
-            // 2. 发布事件 (由 Listener 异步调用 DocumentService 进行解析和入库)
-            publisher.publishEvent(new DocumentUploadEvent(this, fileId, file.getOriginalFilename(), "user_001"));
+            if (stored.deduplicated()) {
+                // 完全相同的文件已经上传过：不再解析、向量化，直接指向已有文件的片段
+                jobService.requeueIfDead(fileId);
+                return ResponseEntity.ok(Map.of(
+                        "status", "deduplicated",
+                        "fileId", fileId,
+                        "statusUrl", "/api/documents/" + fileId + "/status",
+                        "deduplicated", true,
+                        "message", "文件内容与已有文档相同，已复用"
+                ));
+            }
+
+            // 2. 发布事件 (由 Listener 写入持久化的入库任务)
+            publisher.publishEvent(new DocumentUploadEvent(this, fileId, file.getOriginalFilename(), "user_001",
+                    tenantId, stored.size()));
 
             return ResponseEntity.accepted().body(Map.of(
                     "status", "processing",
                     "fileId", fileId,
+                    "statusUrl", "/api/documents/" + fileId + "/status",
+                    "deduplicated", false,
                     "message", "文档已进入后台处理队列"
             ));
 
@@ -58,38 +102,239 @@ public class DocumentController {
         }
     }
 
+    /**
+     * 1.1 批量上传 (multipart，多个 files 字段)
+     * 每个文件一个入库任务，响应里按请求顺序返回各自的 fileId / 进度查询地址
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> uploadBatch(@RequestParam("files") MultipartFile[] files,
+                                         @RequestHeader(value = Tenants.HEADER, required = false) String tenant) {
+        String tenantId = Tenants.resolve(tenant);
+        if (files.length == 0) return ResponseEntity.badRequest().body("文件不能为空");
+        if (batchUploadService.saturated()) return tooBusy();
+
+        List<UploadResult> results = batchUploadService.storeAll(files, "user_001", tenantId);
+        return ResponseEntity.accepted().body(batchBody(results, false));
+    }
+
+    /**
+     * 1.2 压缩包上传：请求体直接是 ZIP / TAR (Content-Type: application/zip | application/x-tar)
+     * 边读请求体边解包写 GridFS，不落盘；目录结构保留在文件名里
+     */
+    @PostMapping(value = "/archive", consumes = {"application/zip", "application/x-zip-compressed",
+            "application/x-tar", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<?> uploadArchive(HttpServletRequest request,
+                                           @RequestParam(value = "format", required = false) String format,
+                                           @RequestHeader(value = Tenants.HEADER, required = false) String tenant) {
+        String tenantId = Tenants.resolve(tenant);
+        BatchUploadService.ArchiveFormat archiveFormat = archiveFormat(request.getContentType(), format);
+        if (archiveFormat == null) return ResponseEntity.badRequest().body("无法识别的压缩包格式，请指定 format=zip|tar");
+        if (batchUploadService.saturated()) return tooBusy();
+
+        try {
+            BatchUploadService.ArchiveResult result =
+                    batchUploadService.storeArchive(request.getInputStream(), archiveFormat, "user_001", tenantId);
+            if (result.saturatedStop()) {
+                // 只处理了一部分：客户端拿着已接收的列表，稍后从剩下的文件重新上传
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(batchUploadService.retryAfterSeconds()))
+                        .body(batchBody(result.files(), true));
+            }
+            return ResponseEntity.accepted().body(batchBody(result.files(), false));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body("压缩包读取失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 2. 下载接口
+     * - Range：单区间返回 206 + Content-Range；多区间返回 multipart/byteranges；
+     *   每个区间各开一个 GridFS 下载流，skip() 直接定位到目标分块，不从头读
+     * - 强 ETag (内容 SHA-256)、Last-Modified，If-None-Match / If-Modified-Since 命中返回 304
+     * - If-Range 与当前版本不符时忽略 Range，返回完整文件
+     * - 压缩存储的文件：客户端接受该编码且不带 Range 时，直接发送存储的字节 + Content-Encoding，不解压；
+     *   否则服务端流式解压 (此时 Range 需要从头解压到起点)
+     * GridFS 里的文件写入后不会再变，所以可以放心让浏览器缓存
      */
     @GetMapping("/download/{id}")
-    public ResponseEntity<?> download(@PathVariable String id) {
-        return storageService.getFile(id)
-                .map(gridFsResource -> {
-                    try {
-                        String filename = URLEncoder.encode(gridFsResource.getFilename(), StandardCharsets.UTF_8);
-                        return ResponseEntity.ok()
-                                .contentType(MediaType.parseMediaType(gridFsResource.getContentType()))
-                                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + filename)
-                                .body((Resource) gridFsResource);
-                    } catch (Exception e) {
-                        return ResponseEntity.internalServerError().build();
-                    }
+    public ResponseEntity<?> download(@PathVariable String id,
+                                      @RequestHeader HttpHeaders requestHeaders,
+                                      @RequestHeader(value = Tenants.HEADER, required = false) String tenant,
+                                      ServletWebRequest webRequest) {
+        if (tombstoneService.isDeleted(id)) return ResponseEntity.notFound().build();
+        Optional<DownloadableFile> found = findOwned(id, Tenants.resolve(tenant));
+        if (found.isEmpty()) return ResponseEntity.notFound().build();
+        DownloadableFile file = found.get();
+
+        String encoding = file.codec().contentEncoding();
+        boolean sendEncoded = encoding != null
+                && !requestHeaders.containsKey(HttpHeaders.RANGE)
+                && acceptsEncoding(requestHeaders, encoding);
+        // 编码后的字节与原文不同，ETag 也必须不同，否则缓存会把两种表示混用
+        String etag = etagOf(file, sendEncoded ? encoding : null);
+        long lastModified = file.uploadDate().toEpochMilli();
+        CacheControl cacheControl = CacheControl.maxAge(Duration.ofDays(1)).cachePrivate();
+        if (webRequest.checkNotModified(etag, lastModified)) {
+            // 304 和 ETag / Last-Modified 已由 checkNotModified 写好，补上缓存策略后返回 null 即可
+            webRequest.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+            return null;
+        }
+
+        MediaType contentType = file.contentType() != null
+                ? MediaType.parseMediaType(file.contentType())
+                : MediaType.APPLICATION_OCTET_STREAM;
+        String filename = URLEncoder.encode(file.filename(), StandardCharsets.UTF_8);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + filename)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .eTag(etag)
+                .lastModified(lastModified)
+                .cacheControl(cacheControl);
+        if (encoding != null) {
+            response.varyBy(HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (sendEncoded) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, encoding)
+                    .contentLength(file.stored().contentLength())
+                    .body(file.stored());
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = requestHeaders.getRange();
+        } catch (IllegalArgumentException e) {
+            ranges = List.of(); // 语法错误的 Range 头按规范忽略
+        }
+        if (ranges.isEmpty()) {
+            return response.contentLength(file.length()).body(file.content());
+        }
+        if (!ifRangeMatches(requestHeaders, etag, lastModified)) {
+            // 客户端手里的版本已过期：返回完整文件
+            // (不能直接返回 Resource，否则 Spring 看到 Range 头又会自动切成 206)
+            StreamingResponseBody whole = out -> {
+                try (InputStream in = file.content().getInputStream()) {
+                    in.transferTo(out);
+                }
+            };
+            return response.contentLength(file.length()).body(whole);
+        }
+
+        List<ResourceRegion> regions;
+        try {
+            regions = HttpRange.toResourceRegions(ranges, file.content());
+        } catch (IllegalArgumentException e) {
+            // 区间越界 / 区间过多：416，并告诉客户端文件实际大小
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + file.length())
+                    .build();
+        }
+        // Content-Range / multipart/byteranges 由 ResourceRegionHttpMessageConverter 写出
+        response.status(HttpStatus.PARTIAL_CONTENT);
+        return regions.size() == 1 ? response.body(regions.get(0)) : response.body(regions);
+    }
+
+    // GridFS 文件不可变：有内容哈希用哈希，老文件没有哈希就用 id (同一个 id 内容永远不变，同样是强校验)
+    private static String etagOf(DownloadableFile file, String encoding) {
+        String tag = file.sha256() != null ? file.sha256() : file.id();
+        return "\"" + (encoding != null ? tag + "-" + encoding : tag) + "\"";
+    }
+
+    // Accept-Encoding: gzip, deflate;q=0.5 —— 列出且 q 不为 0 才算接受
+    private static boolean acceptsEncoding(HttpHeaders headers, String encoding) {
+        for (String value : headers.getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+            for (String token : value.split(",")) {
+                String[] parts = token.trim().split(";");
+                if (!parts[0].trim().equalsIgnoreCase(encoding)) continue;
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    // If-Range 只能是强 ETag 或 HTTP 日期；与当前版本不符就应该返回完整内容
+    private static boolean ifRangeMatches(HttpHeaders headers, String etag, long lastModified) {
+        String ifRange = headers.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange == null) return true;
+        if (ifRange.startsWith("\"")) return ifRange.equals(etag);
+        try {
+            return headers.getFirstDate(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 入库进度查询：阶段检查点 + 已落库片段数 + 重试情况
+     */
+    @GetMapping("/{id}/status")
+    public ResponseEntity<?> status(@PathVariable String id,
+                                    @RequestHeader(value = Tenants.HEADER, required = false) String tenant) {
+        String tenantId = Tenants.resolve(tenant);
+        return jobService.findById(id)
+                .filter(job -> Tenants.orDefault(job.getTenantId()).equals(tenantId))
+                .<ResponseEntity<?>>map(job -> {
+                    Map<String, Object> body = new LinkedHashMap<>();
+                    body.put("fileId", job.getId());
+                    body.put("fileName", job.getFileName());
+                    body.put("status", job.getStatus());
+                    body.put("stage", job.getStage());
+                    body.put("chunksWritten", job.getChunksWritten());
+                    body.put("totalChunks", job.getTotalChunks());
+                    body.put("attempts", job.getAttempts());
+                    body.put("nextAttemptAt", job.getNextAttemptAt());
+                    body.put("lastError", job.getLastError());
+                    body.put("updatedAt", job.getUpdatedAt());
+                    return ResponseEntity.ok(body);
                 })
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    // 不属于当前租户的文件和不存在一样处理，不暴露别的租户有哪些 fileId
+    private Optional<DownloadableFile> findOwned(String id, String tenantId) {
+        return storageService.findDownloadable(id).filter(file -> file.tenantId().equals(tenantId));
+    }
+
+    // 入库队列饱和：拒绝而不是继续堆积，告诉客户端多久后再试
+    private ResponseEntity<?> tooBusy() {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(batchUploadService.retryAfterSeconds()))
+                .body(Map.of("status", "busy", "message", "入库队列已满，请稍后重试"));
+    }
+
+    private static Map<String, Object> batchBody(List<UploadResult> results, boolean truncated) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", truncated ? "partial" : "processing");
+        body.put("accepted", results.stream().filter(UploadResult::ok).count());
+        body.put("failed", results.stream().filter(r -> !r.ok()).count());
+        body.put("deduplicated", results.stream().filter(UploadResult::deduplicated).count());
+        body.put("files", results);
+        return body;
+    }
+
+    private static BatchUploadService.ArchiveFormat archiveFormat(String contentType, String format) {
+        String hint = format != null ? format.toLowerCase() : String.valueOf(contentType).toLowerCase();
+        if (hint.contains("zip")) return BatchUploadService.ArchiveFormat.ZIP;
+        if (hint.contains("tar")) return BatchUploadService.ArchiveFormat.TAR;
+        return null;
+    }
+
     /**
-     * 3. 删除接口 (同步)
-     * 因为删除操作很快，不需要异步，直接调用 DocumentService 即可
+     * 3. 删除接口：只写墓碑，立即返回 202
+     * 检索马上不再返回这个文件；片段、原文件、索引行由 TombstoneCompactor 在后台限速清理
      */
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> delete(@PathVariable String id) {
-        // 1. 删原文件
-        storageService.deleteFile(id);
+    public ResponseEntity<?> delete(@PathVariable String id,
+                                    @RequestHeader(value = Tenants.HEADER, required = false) String tenant) {
+        String tenantId = Tenants.resolve(tenant);
+        if (findOwned(id, tenantId).isEmpty()) return ResponseEntity.notFound().build();
+
+        // 0. 删任务：正在处理的 worker 写下一个检查点时会发现任务没了并停止
+        jobService.delete(id);
 
-        // 2. 删向量数据 (这里现在可以正常调用了)
-        documentService.deleteByFileId(id);
+        // 1. 写墓碑 (记下租户，后台清理时从这个租户的索引分区里删)
+        tombstoneService.tombstone(tenantId, id);
 
-        return ResponseEntity.ok(Map.of("status", "deleted", "id", id));
+        return ResponseEntity.accepted().body(Map.of("status", "deleting", "id", id));
     }
-}
\ No newline at end of file
+}
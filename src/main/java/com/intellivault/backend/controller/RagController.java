@@ -1,18 +1,29 @@
 package com.intellivault.backend.controller;
 
+import com.intellivault.backend.config.Tenants;
+import com.intellivault.backend.index.SearchFilter;
+import com.intellivault.backend.memory.ReactiveChatMemory;
+import com.intellivault.backend.model.ScoredChunk;
 import com.intellivault.backend.service.SearchService;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import org.springframework.http.MediaType;
 import reactor.core.publisher.Flux; // [需要 reactive 依赖，见下方]
+import reactor.core.publisher.Mono;
 
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_RETRIEVE_SIZE_KEY;
@@ -20,60 +31,61 @@ import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvis
 @RestController
 public class RagController {
 
+    // 每次带上最近 10 条历史
+    private static final int MEMORY_SIZE = 10;
+
+    private static final String PROMPT_TEXT = """
+            [参考资料]:
+            {context}
+            
+            [用户问题]:
+            {question}
+            """;
+
     private final ChatClient chatClient;
     private final SearchService searchService;
+    private final MessageChatMemoryAdvisor memoryAdvisor;
+    private final ReactiveChatMemory reactiveChatMemory;
 
-    // 注入 ChatMemory
+    // 注入 ChatMemory (同步接口用) 和 ReactiveChatMemory (流式接口用)，两者读写同一份 Redis 历史
     public RagController(ChatClient.Builder chatClientBuilder,
                          SearchService searchService,
-                         ChatMemory chatMemory) {
+                         ChatMemory chatMemory,
+                         ReactiveChatMemory reactiveChatMemory) {
         this.searchService = searchService;
+        this.reactiveChatMemory = reactiveChatMemory;
 
-        // [核心改造] 构建带记忆的 ChatClient
+        // [核心改造] 记忆 Advisor 只挂在同步接口上 (它内部是阻塞读写)；流式接口自己用响应式 Redis 取 / 存历史
+        this.memoryAdvisor = new MessageChatMemoryAdvisor(chatMemory);
         this.chatClient = chatClientBuilder
                 .defaultSystem("你是一个专业的知识库助手，请根据提供的参考资料回答问题。")
-                // 挂载记忆 Advisor
-                .defaultAdvisors(new MessageChatMemoryAdvisor(chatMemory))
                 .build();
     }
 
     /**
      * 带记忆的 RAG 接口
-     * 请求示例: /chat?query=它有哪些特性？&userId=user_001
+     * 请求示例: /chat?query=它有哪些特性？&userId=user_001 (请求头 X-Tenant-Id 指定租户，只检索该租户的文档)
+     * 可选的检索范围: &fileId=...&filename=...&meta=key=value&uploadedFrom=2024-01-01，见 SearchFilterParams
      */
     @GetMapping("/chat")
     public String chat(@RequestParam String query,
-                       @RequestParam(defaultValue = "default_user") String userId) {
-        // 1. 检索阶段 (Retrieval)
-        var relatedDocs = searchService.search(query, 3);
-
-        // 组装上下文 String
-        String context = relatedDocs.isEmpty() ? "" : relatedDocs.stream()
-                .map(doc -> doc.getContent())
-                .collect(Collectors.joining("\n---\n"));
+                       @RequestParam(defaultValue = "default_user") String userId,
+                       @RequestHeader(value = Tenants.HEADER, required = false) String tenant,
+                       SearchFilterParams scope) {
+        // 1. 检索阶段 (Retrieval)，只在指定范围内找
+        var relatedDocs = searchService.search(Tenants.resolve(tenant), query, 3, scope.toFilter());
 
         // 2. 提示词工程 (Prompt Engineering)
         // 注意：这里我们简化提示词，因为 Advisor 会自动把历史记录塞进 Prompt 里
-        String promptText = """
-                [参考资料]:
-                {context}
-                
-                [用户问题]:
-                {question}
-                """;
-
-        PromptTemplate promptTemplate = new PromptTemplate(promptText);
-        var prompt = promptTemplate.create(Map.of(
-                "context", context,
-                "question", query
-        ));
+        var prompt = new Prompt(userMessage(relatedDocs, query));
 
         // 3. 生成阶段 (Generation)
         return chatClient.prompt(prompt)
+                .advisors(memoryAdvisor)
                 // 传入会话 ID，区分不同用户/会话
                 .advisors(a -> a
                         .param(CHAT_MEMORY_CONVERSATION_ID_KEY, userId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10) // 只记最近 10 轮
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, MEMORY_SIZE) // 只记最近 10 轮
                 )
                 .call()
                 .content();
@@ -83,36 +95,46 @@ public class RagController {
      * [新增] 流式对话接口
      * 返回类型是 Flux<String>，配合 produces = TEXT_EVENT_STREAM_VALUE
      * 前端可以像打字机一样一个字一个字接收
+     * <p>
+     * 全程不阻塞请求线程：方法本身只组装 Flux 就返回，检索 (查询向量化 + 索引扫描 + 回 Mongo) 在有界的检索调度器上跑，
+     * 会话历史走响应式 Redis，两者同时进行；模型的流式输出也是异步的。
+     * 几千个 SSE 连接同时在线时，连接只挂在事件上，不各占一个线程
      */
     @GetMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<String> chatStream(@RequestParam String query,
-                                   @RequestParam(defaultValue = "default_user") String userId) {
-        // 1. 检索 (Retrieval)
-        var relatedDocs = searchService.search(query, 3);
+                                   @RequestParam(defaultValue = "default_user") String userId,
+                                   @RequestHeader(value = Tenants.HEADER, required = false) String tenant,
+                                   SearchFilterParams scope) {
+        String tenantId = Tenants.resolve(tenant);
+        SearchFilter filter = scope.toFilter();
+
+        // 1. 检索 (Retrieval) 与取会话历史并行：查询向量化和 Redis 往返互相重叠
+        Mono<List<ScoredChunk>> retrieval = searchService.searchAsync(tenantId, query, 3, filter);
+        Mono<List<Message>> history = reactiveChatMemory.get(userId, MEMORY_SIZE);
+
+        return Mono.zip(retrieval, history).flatMapMany(ready -> {
+            // 2. 提示词 (Prompt)：历史在前，本轮问题 (带参考资料) 在后
+            Message question = userMessage(ready.getT1(), query);
+            List<Message> messages = new ArrayList<>(ready.getT2());
+            messages.add(question);
+
+            // 3. 流式生成 (Streaming Generation)，完整生成后再把本轮问答写回历史 (中途断开的不记)
+            StringBuilder answer = new StringBuilder();
+            return chatClient.prompt(new Prompt(messages))
+                    .stream() // [关键] 切换为 stream() 模式
+                    .content() // 返回 Flux<String>
+                    .doOnNext(answer::append)
+                    .concatWith(Mono.defer(() -> reactiveChatMemory.add(userId,
+                                    List.of(question, new AssistantMessage(answer.toString()))))
+                            .then(Mono.<String>empty()));
+        });
+    }
 
+    // 参考资料 + 问题，两个接口共用同一个模板
+    private static Message userMessage(List<ScoredChunk> relatedDocs, String query) {
         String context = relatedDocs.isEmpty() ? "" : relatedDocs.stream()
-                .map(doc -> doc.getContent())
+                .map(ScoredChunk::content)
                 .collect(Collectors.joining("\n---\n"));
-
-        // 2. 提示词 (Prompt)
-        String promptText = """
-                [参考资料]:
-                {context}
-                
-                [用户问题]:
-                {question}
-                """;
-
-        PromptTemplate promptTemplate = new PromptTemplate(promptText);
-        var prompt = promptTemplate.create(Map.of("context", context, "question", query));
-
-        // 3. 流式生成 (Streaming Generation)
-        return chatClient.prompt(prompt)
-                .advisors(a -> a
-                        .param(CHAT_MEMORY_CONVERSATION_ID_KEY, userId)
-                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10)
-                )
-                .stream() // [关键] 切换为 stream() 模式
-                .content(); // 返回 Flux<String>
+        return new PromptTemplate(PROMPT_TEXT).createMessage(Map.of("context", context, "question", query));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,53 @@
+package com.intellivault.backend.controller;
+
+import com.intellivault.backend.index.SearchFilter;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 检索范围的查询参数，同名参数可以重复 (同一字段内是 OR)
+ * 例如: ?fileId=a&fileId=b&filename=合同.pdf&meta=lang=zh&uploadedFrom=2024-01-01&uploadedTo=2024-03-31
+ *
+ * @param meta         metadata 条件，格式 key=value
+ * @param uploadedFrom 上传日期下限 (含当天，按服务器时区)
+ * @param uploadedTo   上传日期上限 (含当天)
+ */
+public record SearchFilterParams(List<String> fileId,
+                                 List<String> filename,
+                                 List<String> meta,
+                                 @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate uploadedFrom,
+                                 @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate uploadedTo) {
+
+    public SearchFilter toFilter() {
+        SearchFilter.Builder builder = SearchFilter.builder();
+        if (fileId != null && !fileId.isEmpty()) builder.fileIds(fileId);
+        if (filename != null && !filename.isEmpty()) builder.sourceFilenames(filename);
+        if (meta != null) {
+            Map<String, List<String>> values = new LinkedHashMap<>();
+            for (String condition : meta) {
+                int eq = condition.indexOf('=');
+                if (eq <= 0) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "metadata 条件应为 key=value: " + condition);
+                }
+                values.computeIfAbsent(condition.substring(0, eq), k -> new ArrayList<>())
+                        .add(condition.substring(eq + 1));
+            }
+            values.forEach(builder::metadata);
+        }
+        if (uploadedFrom != null || uploadedTo != null) {
+            ZoneId zone = ZoneId.systemDefault();
+            builder.uploadedBetween(
+                    uploadedFrom == null ? null : uploadedFrom.atStartOfDay(zone).toInstant(),
+                    uploadedTo == null ? null : uploadedTo.plusDays(1).atStartOfDay(zone).toInstant());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,29 @@
+package com.intellivault.backend.convert;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * float[] <-> 小端 float32 字节数组
+ * 384 维向量固定 1536 字节，比 384 个 BSON double (每个还带类型标记和下标 key) 小一半以上
+ */
+public final class FloatVectorCodec {
+
+    private FloatVectorCodec() {
+    }
+
+    public static byte[] encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    public static float[] decode(byte[] bytes) {
+        if (bytes.length % Float.BYTES != 0) {
+            throw new IllegalArgumentException("向量字节长度不是 4 的倍数: " + bytes.length);
+        }
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
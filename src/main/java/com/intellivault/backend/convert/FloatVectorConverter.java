@@ -0,0 +1,35 @@
+package com.intellivault.backend.convert;
+
+import org.bson.types.Binary;
+import org.springframework.data.mongodb.core.convert.MongoConversionContext;
+import org.springframework.data.mongodb.core.convert.MongoValueConverter;
+
+import java.util.List;
+
+/**
+ * KnowledgeDocument.embedding 的字段级转换器
+ * 写：float[] -> BinData (小端 float32)
+ * 读：BinData -> float[]；同时兼容迁移前的旧格式 (BSON double 数组)，迁移期间读写都不受影响
+ */
+public class FloatVectorConverter implements MongoValueConverter<float[], Object> {
+
+    @Override
+    public float[] read(Object value, MongoConversionContext context) {
+        if (value instanceof Binary binary) {
+            return FloatVectorCodec.decode(binary.getData());
+        }
+        if (value instanceof List<?> list) {
+            float[] vector = new float[list.size()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = ((Number) list.get(i)).floatValue();
+            }
+            return vector;
+        }
+        throw new IllegalArgumentException("无法识别的向量存储格式: " + value.getClass().getName());
+    }
+
+    @Override
+    public Object write(float[] value, MongoConversionContext context) {
+        return new Binary(FloatVectorCodec.encode(value));
+    }
+}
@@ -0,0 +1,74 @@
+package com.intellivault.backend.convert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * GridFS 原文件的存储编码，记录在 fs.files 的 metadata.codec
+ * 编码、解码都是拉模式的流：边读边压缩 / 解压，任何时候都不需要把整个文件放进内存
+ * <p>
+ * DEFLATE 输出 zlib 格式 (RFC 1950)，与 HTTP 的 Content-Encoding: deflate 一致，下载时可以原样发给浏览器
+ */
+public enum StorageCodec {
+
+    NONE {
+        @Override
+        public InputStream encode(InputStream raw, int level) {
+            return raw;
+        }
+
+        @Override
+        public InputStream decode(InputStream stored) {
+            return stored;
+        }
+    },
+
+    DEFLATE {
+        @Override
+        public InputStream encode(InputStream raw, int level) {
+            Deflater deflater = new Deflater(level);
+            // 自带的 Deflater 不会随流关闭释放，这里自己 end() 掉原生内存
+            return new DeflaterInputStream(raw, deflater) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream decode(InputStream stored) {
+            return new InflaterInputStream(stored);
+        }
+
+        @Override
+        public String contentEncoding() {
+            return "deflate";
+        }
+    };
+
+    public abstract InputStream encode(InputStream raw, int level);
+
+    public abstract InputStream decode(InputStream stored);
+
+    /**
+     * 对应的 HTTP Content-Encoding；null 表示不能直接下发
+     */
+    public String contentEncoding() {
+        return null;
+    }
+
+    /**
+     * metadata 里没有 codec 字段的老文件按 NONE 处理
+     */
+    public static StorageCodec of(String name) {
+        return name == null ? NONE : valueOf(name.toUpperCase());
+    }
+}
@@ -10,11 +10,16 @@ public class DocumentUploadEvent extends ApplicationEvent {
     private final String fileId;
     private final String fileName;
     private final String userId; // 预留，方便后续扩展
+    private final String tenantId; // 片段写进哪个租户的索引分区
+    private final long fileSize; // 入库排队时小文件优先
 
-    public DocumentUploadEvent(Object source, String fileId, String fileName, String userId) {
+    public DocumentUploadEvent(Object source, String fileId, String fileName, String userId, String tenantId,
+                               long fileSize) {
         super(source);
         this.fileId = fileId;
         this.fileName = fileName;
         this.userId = userId;
+        this.tenantId = tenantId;
+        this.fileSize = fileSize;
     }
 }
\ No newline at end of file
@@ -0,0 +1,225 @@
+package com.intellivault.backend.index;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 给常驻索引加上预写日志：每次写入 / 删除先作用到索引，再追加到 IndexWal
+ * 重启时 快照 (内存映射读取) + 回放快照之后的日志 即可恢复，不再从 Mongo 全量重建
+ * <p>
+ * 写入之间共享读锁，只有切日志段 (checkpoint) 和恢复时拿写锁：
+ * 保证切段之前的每条日志都已作用到索引上，随后写出的快照一定包含它们
+ */
+public class DurableVectorIndex implements VectorIndex {
+
+    private final VectorIndex delegate;
+    private final Path snapshotFile;
+    private final IndexWal wal;
+    private final ReentrantReadWriteLock walLock = new ReentrantReadWriteLock();
+    // 上次快照之后的写入次数，为 0 时定时快照直接跳过
+    private final AtomicLong pendingWrites = new AtomicLong();
+
+    /**
+     * @param replayedRecords 回放的日志记录数
+     * @param tornTail        日志末尾有残缺记录 (上次进程被杀)，最后一批写入可能丢失
+     */
+    public record Recovery(int replayedRecords, boolean tornTail) {
+    }
+
+    public DurableVectorIndex(VectorIndex delegate, Path snapshotFile, boolean fsync) {
+        this.delegate = delegate;
+        this.snapshotFile = snapshotFile;
+        try {
+            this.wal = new IndexWal(snapshotFile, fsync);
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法打开索引日志: " + snapshotFile, e);
+        }
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public long estimatedBytes() {
+        return delegate.estimatedBytes();
+    }
+
+    @Override
+    public void add(String id, String fileId, float[] vector) {
+        addAll(List.of(id), Collections.singletonList(fileId), List.of(vector));
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<String> fileIds, List<float[]> vectors,
+                       List<Map<String, String>> attributes) {
+        logged(() -> delegate.addAll(ids, fileIds, vectors, attributes),
+                () -> wal.appendUpserts(ids, fileIds, vectors, attributes));
+    }
+
+    @Override
+    public int removeByFileId(String fileId) {
+        int[] removed = new int[1];
+        logged(() -> removed[0] = delegate.removeByFileId(fileId), () -> wal.appendDelete(fileId));
+        return removed[0];
+    }
+
+    @Override
+    public int removeByFileIds(Set<String> fileIds) {
+        int[] removed = new int[1];
+        logged(() -> removed[0] = delegate.removeByFileIds(fileIds), () -> wal.appendDeletes(fileIds));
+        return removed[0];
+    }
+
+    @Override
+    public void clear() {
+        logged(delegate::clear, wal::appendClear);
+    }
+
+    @Override
+    public List<SearchHit> search(float[] query, int topK, float minScore, SearchFilter filter) {
+        return delegate.search(query, topK, minScore, filter);
+    }
+
+    /**
+     * 只写快照本身，不动日志 (例如导出备份)；常规持久化用 checkpoint()
+     */
+    @Override
+    public void save(Path file) throws IOException {
+        delegate.save(file);
+    }
+
+    @Override
+    public void load(Path file) throws IOException {
+        delegate.load(file);
+    }
+
+    /**
+     * 上次快照之后的写入次数
+     */
+    public long pendingWrites() {
+        return pendingWrites.get();
+    }
+
+    /**
+     * 做一次快照：切到新的日志段 -> 写快照 (原子替换) -> 删除旧日志段
+     * 只有切段时短暂阻塞写入；写快照期间的新写入进新段，下次启动回放
+     */
+    public void checkpoint() throws IOException {
+        long generation;
+        long covered;
+        walLock.writeLock().lock();
+        try {
+            generation = wal.rotate();
+            covered = pendingWrites.getAndSet(0);
+        } finally {
+            walLock.writeLock().unlock();
+        }
+        try {
+            delegate.save(snapshotFile);
+        } catch (IOException | RuntimeException e) {
+            // 旧日志段还在，下次启动照样能恢复；计数加回去，下一轮再试
+            pendingWrites.addAndGet(covered);
+            throw e;
+        }
+        wal.deleteBefore(generation);
+    }
+
+    /**
+     * 启动恢复：加载快照 (没有就从空索引开始)，按顺序回放全部日志段
+     * 恢复期间阻塞写入
+     * @throws IOException 快照损坏 / 维度不符，调用方应改为从 Mongo 重建
+     */
+    public Recovery recover() throws IOException {
+        walLock.writeLock().lock();
+        try {
+            if (Files.exists(snapshotFile)) {
+                delegate.load(snapshotFile);
+            } else {
+                delegate.clear();
+            }
+            IndexWal.Replay replay = wal.replay(new IndexWal.Visitor() {
+                @Override
+                public void upserts(List<String> ids, List<String> fileIds, List<float[]> vectors,
+                                    List<Map<String, String>> attributes) {
+                    delegate.addAll(ids, fileIds, vectors, attributes);
+                }
+
+                @Override
+                public void deleteFile(String fileId) {
+                    delegate.removeByFileId(fileId);
+                }
+
+                @Override
+                public void deleteFiles(Set<String> fileIds) {
+                    delegate.removeByFileIds(fileIds);
+                }
+
+                @Override
+                public void clear() {
+                    delegate.clear();
+                }
+            });
+            return new Recovery(replay.records(), replay.tornTail());
+        } catch (IOException | RuntimeException e) {
+            delegate.clear();
+            throw e;
+        } finally {
+            walLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 全量重建：清空后由 source 直接灌入底层索引 (不写日志，否则日志和索引一样大)，完成后立刻做一次快照
+     * 重建期间的正常写入照常记日志，快照之后回放也不会丢
+     */
+    public void rebuild(Consumer<VectorIndex> source) throws IOException {
+        walLock.writeLock().lock();
+        try {
+            wal.rotate();
+            delegate.clear();
+        } finally {
+            walLock.writeLock().unlock();
+        }
+        source.accept(delegate);
+        checkpoint();
+    }
+
+    public void close() throws IOException {
+        wal.close();
+    }
+
+    @FunctionalInterface
+    private interface WalWrite {
+        void run() throws IOException;
+    }
+
+    // 先改索引再记日志：非法写入 (维度不符等) 在索引这一步就抛出，不会进日志
+    private void logged(Runnable apply, WalWrite append) {
+        walLock.readLock().lock();
+        try {
+            apply.run();
+            append.run();
+            pendingWrites.incrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException("索引日志写入失败", e);
+        } finally {
+            walLock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.intellivault.backend.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 常驻内存的扁平向量索引 (精确检索)
+ * 亮点：所有向量按行连续存放在一个 float[] 矩阵里，写入时预先归一化，
+ * 查询时余弦相似度退化成点积，整个扫描没有装箱、没有 Mongo IO
+ */
+public class FlatVectorIndex implements VectorIndex {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int FILE_MAGIC = 0x49564658; // "IVFX"
+    // 2：每行追加可过滤属性
+    private static final int FILE_VERSION = 2;
+
+    private final int dimension;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 行主序矩阵：第 i 行 = vectors[i * dimension, (i + 1) * dimension)
+    private float[] vectors;
+    // 与矩阵行一一对应的平行数组
+    private String[] ids;
+    private String[] fileIds;
+    private int size;
+
+    // id -> 行号，用于重复写入时原地覆盖 (任务重试不会产生重复行)
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    // 过滤倒排：(字段, 值) -> 行号位图
+    private final RowAttributes attributes = new RowAttributes();
+
+    public FlatVectorIndex(int dimension) {
+        if (dimension <= 0) throw new IllegalArgumentException("向量维度必须为正数: " + dimension);
+        this.dimension = dimension;
+        this.vectors = new float[INITIAL_CAPACITY * dimension];
+        this.ids = new String[INITIAL_CAPACITY];
+        this.fileIds = new String[INITIAL_CAPACITY];
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) size * (dimension * Float.BYTES + 96) + attributes.estimatedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(String id, String fileId, float[] vector) {
+        checkDimension(vector);
+        lock.writeLock().lock();
+        try {
+            upsert(id, fileId, vector, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 批量写入：一次加锁，适合入库和启动加载
+     */
+    @Override
+    public void addAll(List<String> idList, List<String> fileIdList, List<float[]> vectorList,
+                       List<Map<String, String>> attributeList) {
+        vectorList.forEach(this::checkDimension);
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(size + idList.size());
+            for (int i = 0; i < idList.size(); i++) {
+                upsert(idList.get(i), fileIdList.get(i), vectorList.get(i),
+                        attributeList == null ? null : attributeList.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int removeByFileId(String fileId) {
+        return removeByFileIds(Collections.singleton(fileId));
+    }
+
+    /**
+     * 一趟原地压缩删掉多个文件的行，后台压缩攒一批墓碑一起处理
+     */
+    @Override
+    public int removeByFileIds(Set<String> fileIdSet) {
+        lock.writeLock().lock();
+        try {
+            // 原地压缩矩阵 (保持行的相对顺序)
+            int write = 0;
+            for (int read = 0; read < size; read++) {
+                if (fileIdSet.contains(fileIds[read])) {
+                    ordinals.remove(ids[read]);
+                    continue;
+                }
+                if (write != read) {
+                    System.arraycopy(vectors, read * dimension, vectors, write * dimension, dimension);
+                    ids[write] = ids[read];
+                    fileIds[write] = fileIds[read];
+                    ordinals.put(ids[write], write);
+                    attributes.move(read, write);
+                }
+                write++;
+            }
+            int removed = size - write;
+            Arrays.fill(ids, write, size, null);
+            Arrays.fill(fileIds, write, size, null);
+            size = write;
+            if (removed > 0) attributes.reindex(size);
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(ids, 0, size, null);
+            Arrays.fill(fileIds, 0, size, null);
+            ordinals.clear();
+            attributes.clear();
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> search(float[] query, int topK, float minScore, SearchFilter filter) {
+        // 精确 TopK：全量点积扫描；有过滤条件时只扫位图命中的行
+        checkDimension(query);
+        if (topK <= 0) return List.of();
+        float[] q = VectorMath.normalize(query);
+
+        lock.readLock().lock();
+        try {
+            RowBitmap allowed = attributes.select(filter);
+            if (allowed != null && allowed.isEmpty()) return List.of();
+            float[] matrix = vectors;
+            PartitionedScan.RowScorer scorer = row -> VectorMath.dot(matrix, row * dimension, q, dimension);
+            TopKSelector top = allowed == null
+                    ? PartitionedScan.topK(size, topK, minScore, scorer)
+                    : PartitionedScan.topK(allowed.toArray(), topK, minScore, scorer);
+
+            List<SearchHit> hits = new ArrayList<>(top.size());
+            for (int i = 0; i < top.size(); i++) {
+                hits.add(new SearchHit(ids[top.row(i)], fileIds[top.row(i)], top.score(i)));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void save(Path file) throws IOException {
+        // 读锁即可：持久化期间检索照常进行，只挡住写入
+        lock.readLock().lock();
+        try {
+            IndexFiles.writeAtomically(file, FILE_MAGIC, FILE_VERSION, out -> {
+                out.writeInt(dimension);
+                out.writeInt(size);
+                for (int row = 0; row < size; row++) {
+                    out.writeUTF(ids[row]);
+                    IndexFiles.writeNullableString(out, fileIds[row]);
+                    IndexFiles.writeAttributes(out, attributes.attributes(row));
+                    int offset = row * dimension;
+                    for (int i = 0; i < dimension; i++) {
+                        out.writeFloat(vectors[offset + i]);
+                    }
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void load(Path file) throws IOException {
+        lock.writeLock().lock();
+        try {
+            clear();
+            IndexFiles.read(file, FILE_MAGIC, FILE_VERSION, in -> {
+                int fileDimension = in.readInt();
+                if (fileDimension != dimension) {
+                    throw new IOException("索引文件维度 " + fileDimension + " 与模型维度 " + dimension + " 不一致");
+                }
+                int rows = in.readInt();
+                ensureCapacity(rows);
+                for (int row = 0; row < rows; row++) {
+                    ids[row] = in.readUTF();
+                    fileIds[row] = IndexFiles.readNullableString(in);
+                    attributes.put(row, fileIds[row], IndexFiles.readAttributes(in));
+                    in.readFloats(vectors, row * dimension, dimension);
+                    ordinals.put(ids[row], row);
+                    size = row + 1;
+                }
+            });
+        } catch (IOException e) {
+            clear();
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---------------- 内部方法 (调用方持有写锁) ----------------
+
+    private void upsert(String id, String fileId, float[] vector, Map<String, String> rowAttributes) {
+        Integer existing = ordinals.get(id);
+        int row;
+        if (existing != null) {
+            row = existing;
+        } else {
+            ensureCapacity(size + 1);
+            row = size++;
+            ordinals.put(id, row);
+        }
+        ids[row] = id;
+        fileIds[row] = fileId;
+        attributes.put(row, fileId, rowAttributes);
+        System.arraycopy(vector, 0, vectors, row * dimension, dimension);
+        VectorMath.normalizeInPlace(vectors, row * dimension, dimension);
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows <= ids.length) return;
+        int newCapacity = Math.max(rows, ids.length + (ids.length >> 1));
+        vectors = Arrays.copyOf(vectors, newCapacity * dimension);
+        ids = Arrays.copyOf(ids, newCapacity);
+        fileIds = Arrays.copyOf(fileIds, newCapacity);
+    }
+
+    private void checkDimension(float[] vector) {
+        if (vector == null || vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: 期望 " + dimension + ", 实际 "
+                    + (vector == null ? "null" : vector.length));
+        }
+    }
+}
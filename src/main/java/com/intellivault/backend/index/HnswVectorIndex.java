@@ -0,0 +1,742 @@
+package com.intellivault.backend.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * HNSW (Hierarchical Navigable Small World) 近似最近邻索引
+ * 多层小世界图：上层稀疏负责"跳远"，第 0 层稠密负责精排，单次查询约 O(log N)
+ * <p>
+ * 参数：
+ * - m：每个节点每层保留的邻居数 (第 0 层为 2m)
+ * - efConstruction：建图时的候选集大小，越大图质量越好、写入越慢
+ * - efSearch：查询时的候选集大小，越大召回越高、延迟越高 (可运行时调整)
+ * <p>
+ * 并发：检索和写入都只拿读锁，互不阻塞。写入时分配序号 (及节点数组扩容) 在一把很小的分配锁里完成，
+ * 建图不持有任何全局锁：每个节点的邻居表由节点自身的锁保护并整体替换 (写时复制)，多个入库线程同时建图；
+ * 只有整体清空 / 加载 / 持久化 / 压缩才拿写锁。
+ * 删除是打标记：被删节点仍参与图的导航，但不会出现在结果里；被删节点超过 1024 个且超过总数的 1/4 时
+ * 拿写锁压缩一次 (与 {@link LexicalIndex} 相同的阈值)，绕过被删节点重连邻居并重新编号。
+ * <p>
+ * 过滤检索：命中行少时直接暴力扫这些行 (精确)，多时在图上搜索并按命中放大候选集，只收命中的节点。
+ */
+public class HnswVectorIndex implements VectorIndex {
+
+    private static final int FILE_MAGIC = 0x49564857; // "IVHW"
+    // 2：每个节点追加可过滤属性
+    private static final int FILE_VERSION = 2;
+    private static final int MAX_LEVEL = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int[] NO_LINKS = new int[0];
+    // 已删除的节点超过这个数、且超过总数的 1/4 时压缩
+    private static final int COMPACT_MIN_DELETED = 1024;
+
+    private static final Comparator<Candidate> BY_SCORE = Comparator.comparingDouble(Candidate::score);
+
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private volatile int efSearch;
+
+    // 读锁：检索、写入和删除；写锁：清空 / 加载 / 持久化 / 压缩
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // 分配节点序号、扩容节点数组
+    private final Object allocationLock = new Object();
+    private final Object entryLock = new Object();
+
+    // 扩容时整体替换；节点先放进数组再连进图，读到序号的线程一定能在当前数组里找到它
+    private volatile Node[] nodes = new Node[INITIAL_CAPACITY];
+    private volatile int nodeCount; // 已分配的节点数 (含已删除)，只在分配锁或写锁下修改
+    private volatile Node entryPoint;
+
+    private final Map<String, Node> byId = new ConcurrentHashMap<>();
+    private final Map<String, Queue<Node>> byFileId = new ConcurrentHashMap<>();
+    private final AtomicInteger liveCount = new AtomicInteger();
+
+    // visited 标记数组按需借还，不用 ThreadLocal：检索跑在虚拟线程上时每个请求都是新线程，
+    // ThreadLocal 起不到复用作用，反而每个在途请求各留一份和节点数一样长的数组
+    private final Queue<VisitedSet> visitedSets = new ConcurrentLinkedQueue<>();
+    // 过滤倒排 (按节点序号)；写入在读锁下并发进行，访问时对它本身加锁
+    private final RowAttributes attributes = new RowAttributes();
+
+    public HnswVectorIndex(int dimension, int m, int efConstruction, int efSearch) {
+        if (dimension <= 0) throw new IllegalArgumentException("向量维度必须为正数: " + dimension);
+        if (m < 2) throw new IllegalArgumentException("HNSW 参数 m 至少为 2: " + m);
+        this.dimension = dimension;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = Math.max(efSearch, 1);
+        this.levelMultiplier = 1.0 / Math.log(m);
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        return liveCount.get();
+    }
+
+    // 已标记删除的节点仍留在图里占内存；第 0 层最多 2m 条边，上层平均很少
+    @Override
+    public long estimatedBytes() {
+        long filterBytes;
+        synchronized (attributes) {
+            filterBytes = attributes.estimatedBytes();
+        }
+        return (long) nodeCount * (dimension * Float.BYTES + 2L * m * Integer.BYTES + 128) + filterBytes;
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = Math.max(efSearch, 1);
+    }
+
+    @Override
+    public void add(String id, String fileId, float[] vector) {
+        add(id, fileId, vector, null);
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<String> fileIds, List<float[]> vectors,
+                       List<Map<String, String>> attributeList) {
+        for (int i = 0; i < ids.size(); i++) {
+            add(ids.get(i), fileIds.get(i), vectors.get(i), attributeList == null ? null : attributeList.get(i));
+        }
+    }
+
+    private void add(String id, String fileId, float[] vector, Map<String, String> rowAttributes) {
+        checkDimension(vector);
+        float[] normalized = VectorMath.normalize(vector);
+        int level = randomLevel();
+
+        lock.readLock().lock();
+        try {
+            // 同一个 id 重复写入 (重新入库、断点续传、日志回放)：原地更新，不再分配新节点
+            Node existing = byId.get(id);
+            if (existing != null && Objects.equals(existing.fileId, fileId) && update(existing, normalized, rowAttributes)) {
+                return;
+            }
+            Node node;
+            synchronized (allocationLock) {
+                // 只做分配 (很快)，建图在锁外并发进行
+                int ordinal = nodeCount;
+                ensureCapacity(ordinal + 1);
+                node = new Node(ordinal, id, fileId, normalized, level);
+                nodes[ordinal] = node;
+                nodeCount = ordinal + 1;
+            }
+            synchronized (attributes) {
+                attributes.put(node.ordinal, fileId, rowAttributes);
+            }
+            Node previous = byId.put(id, node);
+            if (previous != null) markDeleted(previous);
+            byFileId.computeIfAbsent(fileKey(fileId), k -> new ConcurrentLinkedQueue<>()).add(node);
+            liveCount.incrementAndGet();
+            link(node);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 原地更新已有节点 (调用方持有读锁)：向量没变只换属性；变了就替换向量并重新挑选它的邻居
+     * @return false 表示节点已被删除，调用方按新节点写入
+     */
+    private boolean update(Node node, float[] normalized, Map<String, String> rowAttributes) {
+        boolean moved;
+        synchronized (node) {
+            if (node.deleted) return false;
+            synchronized (attributes) {
+                attributes.put(node.ordinal, node.fileId, rowAttributes);
+            }
+            moved = !Arrays.equals(node.vector, normalized);
+            if (moved) node.vector = normalized;
+        }
+        // 指向它的旧边保留 (仍可导航)，它自己的邻居按新位置重新挑选
+        if (moved) link(node);
+        return true;
+    }
+
+    /**
+     * 已分配的节点数 (含已删除、待回收的)
+     */
+    int allocatedNodes() {
+        return nodeCount;
+    }
+
+    @Override
+    public int removeByFileId(String fileId) {
+        return removeByFileIds(Collections.singleton(fileId));
+    }
+
+    @Override
+    public int removeByFileIds(Set<String> fileIdSet) {
+        int removed = 0;
+        lock.readLock().lock();
+        try {
+            for (String fileId : fileIdSet) {
+                Queue<Node> fileNodes = byFileId.remove(fileKey(fileId));
+                if (fileNodes == null) continue;
+                for (Node node : fileNodes) {
+                    if (markDeleted(node)) removed++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (removed > 0) compactIfNeeded();
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            nodes = new Node[INITIAL_CAPACITY];
+            nodeCount = 0;
+            entryPoint = null;
+            byId.clear();
+            byFileId.clear();
+            liveCount.set(0);
+            synchronized (attributes) {
+                attributes.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> search(float[] query, int topK, float minScore, SearchFilter filter) {
+        checkDimension(query);
+        if (topK <= 0) return List.of();
+        float[] q = VectorMath.normalize(query);
+
+        lock.readLock().lock();
+        try {
+            Node ep = entryPoint;
+            if (ep == null) return List.of();
+
+            RowBitmap allowed;
+            synchronized (attributes) {
+                allowed = attributes.select(filter);
+            }
+            int ef = Math.max(efSearch, topK);
+            int live = liveCount.get();
+            if (allowed != null) {
+                long matched = allowed.cardinality();
+                if (matched == 0) return List.of();
+                // 暴力扫命中行约 matched 次点积；图搜索要把 ef 放大 live / matched 倍才凑得够命中，约 ef' * 2m 次
+                long scaledEf = Math.max(ef, ef * (long) live / matched);
+                if (matched <= scaledEf * maxM0) return exactScan(q, allowed.toArray(), topK, minScore);
+                ef = (int) Math.min(scaledEf, Integer.MAX_VALUE);
+            }
+
+            // 1. 上层贪心下降，找到第 0 层的入口
+            Node current = ep;
+            for (int layer = ep.level; layer > 0; layer--) {
+                current = greedyClosest(q, current, layer);
+            }
+
+            // 2. 第 0 层 beam search；有删除标记时适当放大候选集，保证过滤后还凑得够 TopK
+            if (live > 0 && live < nodeCount) {
+                ef = (int) Math.min((long) ef * nodeCount / live, ef * 4L);
+            }
+            List<Candidate> candidates = searchLayer(q, current, ef, 0);
+
+            List<SearchHit> hits = new ArrayList<>(Math.min(topK, candidates.size()));
+            for (Candidate candidate : candidates) {
+                if (hits.size() == topK || candidate.score() <= minScore) break;
+                Node node = nodes[candidate.ordinal()];
+                if (node.deleted || (allowed != null && !allowed.contains(node.ordinal))) continue;
+                hits.add(new SearchHit(node.id, node.fileId, candidate.score()));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 只扫给定的节点 (调用方持有读锁)；选出之后才被删除的节点跳过
+    private List<SearchHit> exactScan(float[] q, int[] ordinals, int topK, float minScore) {
+        Node[] snapshot = nodes;
+        TopKSelector top = PartitionedScan.topK(ordinals, topK, minScore, ordinal -> {
+            Node node = snapshot[ordinal];
+            return node.deleted ? Float.NEGATIVE_INFINITY : similarity(node.vector, q);
+        });
+        List<SearchHit> hits = new ArrayList<>(top.size());
+        for (int i = 0; i < top.size(); i++) {
+            Node node = snapshot[top.row(i)];
+            hits.add(new SearchHit(node.id, node.fileId, top.score(i)));
+        }
+        return hits;
+    }
+
+    @Override
+    public void save(Path file) throws IOException {
+        // 建图是在读锁下并发进行的，这里必须拿写锁才能得到一致的图
+        lock.writeLock().lock();
+        try {
+            IndexFiles.writeAtomically(file, FILE_MAGIC, FILE_VERSION, out -> {
+                out.writeInt(dimension);
+                out.writeInt(m);
+                out.writeInt(nodeCount);
+                Node ep = entryPoint;
+                out.writeInt(ep == null ? -1 : ep.ordinal);
+                for (int i = 0; i < nodeCount; i++) {
+                    Node node = nodes[i];
+                    out.writeUTF(node.id);
+                    IndexFiles.writeNullableString(out, node.fileId);
+                    out.writeBoolean(node.deleted);
+                    Map<String, String> rowAttributes;
+                    synchronized (attributes) {
+                        rowAttributes = node.deleted ? null : attributes.attributes(i);
+                    }
+                    IndexFiles.writeAttributes(out, rowAttributes);
+                    out.writeByte(node.level);
+                    for (float v : node.vector) {
+                        out.writeFloat(v);
+                    }
+                    for (int layer = 0; layer <= node.level; layer++) {
+                        int[] links = node.links[layer];
+                        out.writeShort(links.length);
+                        for (int link : links) {
+                            out.writeInt(link);
+                        }
+                    }
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void load(Path file) throws IOException {
+        lock.writeLock().lock();
+        try {
+            clear();
+            IndexFiles.read(file, FILE_MAGIC, FILE_VERSION, in -> {
+                int fileDimension = in.readInt();
+                if (fileDimension != dimension) {
+                    throw new IOException("索引文件维度 " + fileDimension + " 与模型维度 " + dimension + " 不一致");
+                }
+                in.readInt(); // 建图时的 m，仅作记录；新写入按当前配置
+                int count = in.readInt();
+                int entryOrdinal = in.readInt();
+                ensureCapacity(count);
+                for (int i = 0; i < count; i++) {
+                    String id = in.readUTF();
+                    String fileId = IndexFiles.readNullableString(in);
+                    boolean deleted = in.readBoolean();
+                    Map<String, String> rowAttributes = IndexFiles.readAttributes(in);
+                    int level = in.readByte();
+                    float[] vector = new float[dimension];
+                    in.readFloats(vector, 0, dimension);
+                    Node node = new Node(i, id, fileId, vector, level);
+                    for (int layer = 0; layer <= level; layer++) {
+                        int[] links = new int[in.readUnsignedShort()];
+                        for (int k = 0; k < links.length; k++) {
+                            links[k] = in.readInt();
+                        }
+                        node.links[layer] = links;
+                    }
+                    node.deleted = deleted;
+                    nodes[i] = node;
+                    nodeCount = i + 1;
+                    if (!deleted) {
+                        synchronized (attributes) {
+                            attributes.put(i, fileId, rowAttributes);
+                        }
+                        byId.put(id, node);
+                        byFileId.computeIfAbsent(fileKey(fileId), k -> new ConcurrentLinkedQueue<>()).add(node);
+                        liveCount.incrementAndGet();
+                    }
+                }
+                entryPoint = entryOrdinal < 0 ? null : nodes[entryOrdinal];
+            });
+        } catch (IOException e) {
+            clear();
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---------------- 压缩 ----------------
+
+    private void compactIfNeeded() {
+        if (!compactionDue()) return;
+        lock.writeLock().lock();
+        try {
+            if (compactionDue()) compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean compactionDue() {
+        int dead = nodeCount - liveCount.get();
+        return dead >= COMPACT_MIN_DELETED && dead * 4L >= nodeCount;
+    }
+
+    /**
+     * 去掉已删除的节点 (调用方持有写锁)：存活节点按原顺序重新编号，
+     * 邻居表里的被删节点换成穿过它们能走到的存活节点，再按启发式重新挑选
+     */
+    private void compact() {
+        int count = nodeCount;
+        int[] mapping = new int[count];
+        int live = 0;
+        for (int i = 0; i < count; i++) mapping[i] = nodes[i].deleted ? -1 : live++;
+
+        Node[] compacted = new Node[Math.max(INITIAL_CAPACITY, live + (live >> 1))];
+        for (int i = 0; i < count; i++) {
+            if (mapping[i] < 0) continue;
+            Node node = nodes[i];
+            Node moved = new Node(mapping[i], node.id, node.fileId, node.vector, node.level);
+            for (int layer = 0; layer <= node.level; layer++) {
+                int[] links = repairLinks(node, layer);
+                for (int k = 0; k < links.length; k++) links[k] = mapping[links[k]];
+                moved.links[layer] = links;
+            }
+            compacted[mapping[i]] = moved;
+        }
+
+        Node ep = entryPoint;
+        Node newEntry = null;
+        if (ep != null && !ep.deleted) {
+            newEntry = compacted[mapping[ep.ordinal]];
+        } else {
+            for (int i = 0; i < live; i++) {
+                if (newEntry == null || compacted[i].level > newEntry.level) newEntry = compacted[i];
+            }
+        }
+
+        synchronized (attributes) {
+            for (int i = 0; i < count; i++) {
+                if (mapping[i] >= 0 && mapping[i] != i) attributes.move(i, mapping[i]);
+            }
+            attributes.reindex(live);
+        }
+        byId.clear();
+        byFileId.clear();
+        for (int i = 0; i < live; i++) {
+            Node node = compacted[i];
+            byId.put(node.id, node);
+            byFileId.computeIfAbsent(fileKey(node.fileId), k -> new ConcurrentLinkedQueue<>()).add(node);
+        }
+        nodes = compacted;
+        nodeCount = live;
+        entryPoint = newEntry;
+        liveCount.set(live);
+        visitedSets.clear(); // 按压缩前的节点数分配的，丢掉重新借
+    }
+
+    /**
+     * node 在该层压缩后的邻居 (旧序号)：没有指向被删节点时原样保留；
+     * 否则穿过被删节点收集存活的候选 (最多 efConstruction 个)，按启发式重新挑选
+     */
+    private int[] repairLinks(Node node, int layer) {
+        int[] links = node.links[layer];
+        boolean broken = false;
+        for (int link : links) {
+            if (nodes[link].deleted) {
+                broken = true;
+                break;
+            }
+        }
+        if (!broken) return links.clone();
+
+        Set<Integer> seen = new HashSet<>();
+        seen.add(node.ordinal);
+        Deque<Integer> pending = new ArrayDeque<>();
+        for (int link : links) pending.add(link);
+        List<Candidate> candidates = new ArrayList<>();
+        while (!pending.isEmpty() && candidates.size() < efConstruction) {
+            int ordinal = pending.poll();
+            if (!seen.add(ordinal)) continue;
+            Node neighbour = nodes[ordinal];
+            if (!neighbour.deleted) {
+                candidates.add(new Candidate(ordinal, similarity(neighbour.vector, node.vector)));
+            } else {
+                for (int next : neighbour.links[layer]) pending.add(next);
+            }
+        }
+        candidates.sort(BY_SCORE.reversed());
+        return selectNeighbours(candidates, layer == 0 ? maxM0 : m);
+    }
+
+    // ---------------- 建图 (调用方持有读锁，可能有多个线程同时在建) ----------------
+
+    private void link(Node node) {
+        Node ep = entryPoint;
+        if (ep == null) {
+            synchronized (entryLock) {
+                if (entryPoint == null) {
+                    entryPoint = node;
+                    return;
+                }
+                ep = entryPoint;
+            }
+        }
+
+        Node current = ep;
+        for (int layer = ep.level; layer > node.level; layer--) {
+            current = greedyClosest(node.vector, current, layer);
+        }
+
+        for (int layer = Math.min(node.level, ep.level); layer >= 0; layer--) {
+            List<Candidate> candidates = searchLayer(node.vector, current, efConstruction, layer);
+            candidates.removeIf(c -> c.ordinal() == node.ordinal);
+            if (candidates.isEmpty()) continue;
+
+            int[] neighbours = selectNeighbours(candidates, m);
+            node.setLinks(layer, neighbours);
+            for (int neighbour : neighbours) {
+                connect(nodes[neighbour], node, layer);
+            }
+            current = nodes[candidates.get(0).ordinal()];
+        }
+
+        if (node.level > ep.level) {
+            synchronized (entryLock) {
+                if (node.level > entryPoint.level) entryPoint = node;
+            }
+        }
+    }
+
+    /**
+     * 把 node 加进 neighbour 在该层的邻居表；超过上限时用启发式重新挑选
+     */
+    private void connect(Node neighbour, Node node, int layer) {
+        int maxM = layer == 0 ? maxM0 : m;
+        synchronized (neighbour) {
+            int[] current = neighbour.links[layer];
+            for (int link : current) {
+                if (link == node.ordinal) return;
+            }
+            if (current.length < maxM) {
+                int[] extended = Arrays.copyOf(current, current.length + 1);
+                extended[current.length] = node.ordinal;
+                neighbour.links[layer] = extended;
+                return;
+            }
+            List<Candidate> candidates = new ArrayList<>(current.length + 1);
+            for (int link : current) {
+                candidates.add(new Candidate(link, similarity(nodes[link].vector, neighbour.vector)));
+            }
+            candidates.add(new Candidate(node.ordinal, similarity(node.vector, neighbour.vector)));
+            candidates.sort(BY_SCORE.reversed());
+            neighbour.links[layer] = selectNeighbours(candidates, maxM);
+        }
+    }
+
+    /**
+     * 论文中的启发式选邻居：候选离"已选邻居"比离基准点还近就跳过，
+     * 让邻居分布在不同方向上，图的连通性比单纯取最近的 M 个好很多
+     * @param candidates 按与基准点的相似度降序排列
+     */
+    private int[] selectNeighbours(List<Candidate> candidates, int max) {
+        int[] selected = new int[Math.min(max, candidates.size())];
+        int count = 0;
+        for (Candidate candidate : candidates) {
+            if (count == selected.length) break;
+            float[] vector = nodes[candidate.ordinal()].vector;
+            boolean keep = true;
+            for (int i = 0; i < count; i++) {
+                if (similarity(nodes[selected[i]].vector, vector) > candidate.score()) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) selected[count++] = candidate.ordinal();
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    // ---------------- 图上搜索 (调用方持有读锁) ----------------
+
+    private Node greedyClosest(float[] q, Node start, int layer) {
+        Node current = start;
+        float best = similarity(current.vector, q);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int link : current.links(layer)) {
+                Node candidate = nodes[link];
+                float score = similarity(candidate.vector, q);
+                if (score > best) {
+                    best = score;
+                    current = candidate;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 单层 beam search
+     * @return 最多 ef 个候选，按相似度降序
+     */
+    private List<Candidate> searchLayer(float[] q, Node entry, int ef, int layer) {
+        VisitedSet visited = visitedSets.poll();
+        if (visited == null) visited = new VisitedSet();
+        visited.reset(nodeCount); // 搜索途中并发写入的新节点序号可能超出，visit 时按需扩容
+        try {
+            return searchLayer(q, entry, ef, layer, visited);
+        } finally {
+            visitedSets.offer(visited);
+        }
+    }
+
+    private List<Candidate> searchLayer(float[] q, Node entry, int ef, int layer, VisitedSet visited) {
+
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>(BY_SCORE.reversed()); // 先扩展最像的
+        PriorityQueue<Candidate> results = new PriorityQueue<>(BY_SCORE);             // 堆顶是当前最差的
+
+        Candidate start = new Candidate(entry.ordinal, similarity(entry.vector, q));
+        visited.visit(entry.ordinal);
+        frontier.add(start);
+        results.add(start);
+
+        while (!frontier.isEmpty()) {
+            Candidate current = frontier.poll();
+            if (results.size() >= ef && current.score() < results.peek().score()) break;
+
+            for (int link : nodes[current.ordinal()].links(layer)) {
+                if (!visited.visit(link)) continue;
+                float score = similarity(nodes[link].vector, q);
+                if (results.size() < ef || score > results.peek().score()) {
+                    Candidate next = new Candidate(link, score);
+                    frontier.add(next);
+                    results.add(next);
+                    if (results.size() > ef) results.poll();
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(BY_SCORE.reversed());
+        return sorted;
+    }
+
+    // ---------------- 工具方法 ----------------
+
+    private boolean markDeleted(Node node) {
+        synchronized (node) {
+            if (node.deleted) return false;
+            node.deleted = true;
+        }
+        byId.remove(node.id, node);
+        synchronized (attributes) {
+            attributes.remove(node.ordinal);
+        }
+        liveCount.decrementAndGet();
+        return true;
+    }
+
+    private float similarity(float[] a, float[] b) {
+        return VectorMath.dot(a, 0, b, dimension);
+    }
+
+    private int randomLevel() {
+        double r = 1.0 - ThreadLocalRandom.current().nextDouble(); // (0, 1]
+        return Math.min((int) (-Math.log(r) * levelMultiplier), MAX_LEVEL);
+    }
+
+    private void ensureCapacity(int count) {
+        if (count <= nodes.length) return;
+        nodes = Arrays.copyOf(nodes, Math.max(count, nodes.length + (nodes.length >> 1)));
+    }
+
+    private void checkDimension(float[] vector) {
+        if (vector == null || vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: 期望 " + dimension + ", 实际 "
+                    + (vector == null ? "null" : vector.length));
+        }
+    }
+
+    // ConcurrentHashMap 不接受 null key
+    private static String fileKey(String fileId) {
+        return Objects.toString(fileId, "");
+    }
+
+    private record Candidate(int ordinal, float score) {
+    }
+
+    private static final class Node {
+        final int ordinal;
+        final String id;
+        final String fileId;
+        volatile float[] vector; // 已归一化；重复写入时整体替换，不会原地修改
+        final int level;
+        final int[][] links;  // links[layer] 只会整体替换，不会原地修改
+        volatile boolean deleted;
+
+        Node(int ordinal, String id, String fileId, float[] vector, int level) {
+            this.ordinal = ordinal;
+            this.id = id;
+            this.fileId = fileId;
+            this.vector = vector;
+            this.level = level;
+            this.links = new int[level + 1][];
+            Arrays.fill(this.links, NO_LINKS);
+        }
+
+        synchronized int[] links(int layer) {
+            return links[layer];
+        }
+
+        synchronized void setLinks(int layer, int[] neighbours) {
+            links[layer] = neighbours;
+        }
+    }
+
+    private static final class VisitedSet {
+        private int[] marks = new int[0];
+        private int epoch;
+
+        void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[Math.max(capacity, marks.length * 2)];
+                epoch = 0;
+            }
+            if (++epoch == 0) { // 溢出回绕时整体清零
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        boolean visit(int ordinal) {
+            if (ordinal >= marks.length) marks = Arrays.copyOf(marks, Math.max(ordinal + 1, marks.length * 2));
+            if (marks[ordinal] == epoch) return false;
+            marks[ordinal] = epoch;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.intellivault.backend.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 索引文件读写的公共部分：文件头校验 + 原子替换 + 内存映射读取
+ */
+final class IndexFiles {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private IndexFiles() {
+    }
+
+    @FunctionalInterface
+    interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Reader {
+        void read(MappedDataInput in) throws IOException;
+    }
+
+    static void writeAtomically(Path file, int magic, int version, Writer writer) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            writer.write(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读快照走内存映射：数据直接从页缓存拷进索引结构，没有逐块 read() 系统调用和中间缓冲
+     * 向量用 {@link MappedDataInput#readFloats} 整段批量拷贝，不要逐个 readFloat (每个 float 4 次 read())
+     */
+    static void read(Path file, int magic, int version, Reader reader) throws IOException {
+        try (MappedDataInput in = openMapped(file)) {
+            if (in.readInt() != magic) throw new IOException("不是合法的索引文件: " + file);
+            int fileVersion = in.readInt();
+            if (fileVersion != version) throw new IOException("索引文件版本不兼容: " + fileVersion);
+            reader.read(in);
+        }
+    }
+
+    static MappedDataInput openMapped(Path file) throws IOException {
+        return openMapped(file, MappedInputStream.WINDOW);
+    }
+
+    // 测试用小窗口覆盖跨窗口边界的读取
+    static MappedDataInput openMapped(Path file, long window) throws IOException {
+        return new MappedDataInput(new MappedInputStream(file, window));
+    }
+
+    static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * 片段的可过滤属性：[对数][字段][值]...，空 map 和 null 都写成 0 对
+     */
+    static void writeAttributes(DataOutputStream out, Map<String, String> attributes) throws IOException {
+        if (attributes == null) {
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(attributes.size());
+        for (Map.Entry<String, String> e : attributes.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+        }
+    }
+
+    static Map<String, String> readAttributes(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        if (count == 0) return Map.of();
+        Map<String, String> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) attributes.put(in.readUTF(), in.readUTF());
+        return attributes;
+    }
+
+    /**
+     * 映射文件上的 DataInputStream，多一个批量读 float 的方法
+     * DataInputStream 自己不做预读，批量读和逐字段读交替进行时位置始终一致
+     */
+    static final class MappedDataInput extends DataInputStream {
+
+        private MappedDataInput(MappedInputStream in) {
+            super(in);
+        }
+
+        /**
+         * 读 len 个 float 到 dst[off..]：与逐个 readFloat 结果相同 (大端序)，但直接从映射缓冲区整段拷贝
+         */
+        void readFloats(float[] dst, int off, int len) throws IOException {
+            ((MappedInputStream) in).readFloats(dst, off, len);
+        }
+    }
+
+    /**
+     * 只读映射文件的输入流：超过 1GB 的文件按窗口依次映射 (单个 MappedByteBuffer 最大 2GB)
+     */
+    private static final class MappedInputStream extends InputStream {
+        private static final long WINDOW = 1L << 30;
+
+        private final FileChannel channel;
+        private final long size;
+        private final long windowSize;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        MappedInputStream(Path file, long windowSize) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.size = channel.size();
+            this.windowSize = windowSize;
+            map(0);
+        }
+
+        // 映射缓冲区默认大端序，与 DataOutputStream.writeFloat 写出的格式一致，快照格式不变
+        void readFloats(float[] dst, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!ensureRemaining()) throw new EOFException();
+                int n = Math.min(len, window.remaining() / Float.BYTES);
+                if (n == 0) {
+                    // 这个 float 跨在两个窗口之间，逐字节拼
+                    dst[off++] = Float.intBitsToFloat(readIntAcrossWindows());
+                    len--;
+                    continue;
+                }
+                window.asFloatBuffer().get(dst, off, n);
+                window.position(window.position() + n * Float.BYTES);
+                off += n;
+                len -= n;
+            }
+        }
+
+        private int readIntAcrossWindows() throws IOException {
+            int value = 0;
+            for (int i = 0; i < Float.BYTES; i++) {
+                int b = read();
+                if (b < 0) throw new EOFException();
+                value = (value << 8) | b;
+            }
+            return value;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return ensureRemaining() ? window.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!ensureRemaining()) return -1;
+            int n = Math.min(len, window.remaining());
+            window.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, size - windowStart - window.position());
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private boolean ensureRemaining() throws IOException {
+            if (window.hasRemaining()) return true;
+            long next = windowStart + window.capacity();
+            if (next >= size) return false;
+            map(next);
+            return true;
+        }
+
+        private void map(long start) throws IOException {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+        }
+    }
+}
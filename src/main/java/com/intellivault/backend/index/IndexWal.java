@@ -0,0 +1,285 @@
+package com.intellivault.backend.index;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 索引预写日志：记录上次快照之后的写入 / 删除，重启时在快照上回放
+ * <p>
+ * 按代分段：vector.idx.wal.000001、000002 ...，做快照前切到新的一段，快照写成功后删掉旧段
+ * 每条记录 = [长度][CRC32][内容]，进程被杀时最后一条可能只写了一半，回放时校验不过就丢弃
+ * 记录都是幂等的 (按 id 覆盖、按 fileId 删除)，回放到已经包含部分记录的快照上结果不变
+ */
+@Slf4j
+final class IndexWal implements Closeable {
+
+    private static final int FILE_MAGIC = 0x4956574C; // "IVWL"
+    private static final int FILE_VERSION = 1;
+
+    // 不带属性的老格式，只回放不再写
+    private static final byte UPSERT = 1;
+    private static final byte DELETE_FILE = 2;
+    private static final byte CLEAR = 3;
+    private static final byte DELETE_FILES = 4;
+    private static final byte UPSERT_WITH_ATTRIBUTES = 5;
+
+    interface Visitor {
+        /**
+         * @param attributes 老格式的记录为 null
+         */
+        void upserts(List<String> ids, List<String> fileIds, List<float[]> vectors, List<Map<String, String>> attributes);
+
+        void deleteFile(String fileId);
+
+        void deleteFiles(Set<String> fileIds);
+
+        void clear();
+    }
+
+    record Replay(int records, boolean tornTail) {
+    }
+
+    private final Path dir;
+    private final String prefix;
+    private final boolean fsync;
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private long generation;
+
+    IndexWal(Path indexFile, boolean fsync) throws IOException {
+        Path absolute = indexFile.toAbsolutePath();
+        this.dir = absolute.getParent();
+        this.prefix = absolute.getFileName() + ".wal.";
+        this.fsync = fsync;
+        Files.createDirectories(dir);
+        // 每次启动都开新的一段，不往上次可能残缺的段尾追加
+        List<Path> existing = segments();
+        open(existing.isEmpty() ? 1 : generationOf(existing.get(existing.size() - 1)) + 1);
+    }
+
+    void appendUpserts(List<String> ids, List<String> fileIds, List<float[]> vectors,
+                       List<Map<String, String>> attributes) throws IOException {
+        append(out -> {
+            out.writeByte(UPSERT_WITH_ATTRIBUTES);
+            out.writeInt(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                out.writeUTF(ids.get(i));
+                IndexFiles.writeNullableString(out, fileIds.get(i));
+                IndexFiles.writeAttributes(out, attributes == null ? null : attributes.get(i));
+                float[] vector = vectors.get(i);
+                out.writeInt(vector.length);
+                for (float v : vector) out.writeFloat(v);
+            }
+        });
+    }
+
+    void appendDelete(String fileId) throws IOException {
+        append(out -> {
+            out.writeByte(DELETE_FILE);
+            IndexFiles.writeNullableString(out, fileId);
+        });
+    }
+
+    void appendDeletes(Collection<String> fileIds) throws IOException {
+        append(out -> {
+            out.writeByte(DELETE_FILES);
+            out.writeInt(fileIds.size());
+            for (String fileId : fileIds) IndexFiles.writeNullableString(out, fileId);
+        });
+    }
+
+    void appendClear() throws IOException {
+        append(out -> out.writeByte(CLEAR));
+    }
+
+    /**
+     * 切到新的一段
+     * @return 新段的代号；此前所有段里的记录在下一次快照写成功后即可删除
+     */
+    long rotate() throws IOException {
+        lock.lock();
+        try {
+            channel.close();
+            open(generation + 1);
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除代号小于 generation 的段 (它们的内容已经在快照里)
+     */
+    void deleteBefore(long generation) throws IOException {
+        for (Path segment : segments()) {
+            if (generationOf(segment) < generation) Files.deleteIfExists(segment);
+        }
+    }
+
+    /**
+     * 按代号顺序回放全部段，包括当前正在写的这一段
+     * 调用方要保证回放期间没有并发写入
+     */
+    Replay replay(Visitor visitor) throws IOException {
+        int records = 0;
+        boolean torn = false;
+        for (Path segment : segments()) {
+            try (DataInputStream in = IndexFiles.openMapped(segment)) {
+                if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                    throw new IOException("不是合法的索引日志: " + segment);
+                }
+                while (true) {
+                    byte[] payload = readRecord(in);
+                    if (payload == null) break;
+                    if (payload.length == 0) {
+                        log.warn("⚠️ 索引日志 {} 末尾有残缺记录 (上次未正常关闭)，已丢弃", segment.getFileName());
+                        torn = true;
+                        break;
+                    }
+                    apply(payload, visitor);
+                    records++;
+                }
+            }
+        }
+        return new Replay(records, torn);
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------------- 内部方法 ----------------
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void append(RecordWriter writer) throws IOException {
+        // 先在内存里编码好，一条记录一次 write，减少半条记录的窗口
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        writer.write(new DataOutputStream(bytes));
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        lock.lock();
+        try {
+            while (record.hasRemaining()) channel.write(record);
+            if (fsync) channel.force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 正常结束返回 null；残缺 (长度 / 内容不完整、CRC 不符) 返回空数组
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        int checksum;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        try {
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return new byte[0];
+        }
+        if (length <= 0 || length > in.available()) return new byte[0];
+        byte[] payload = in.readNBytes(length);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == checksum ? payload : new byte[0];
+    }
+
+    private static void apply(byte[] payload, Visitor visitor) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        switch (type) {
+            case UPSERT, UPSERT_WITH_ATTRIBUTES -> {
+                boolean withAttributes = type == UPSERT_WITH_ATTRIBUTES;
+                int count = in.readInt();
+                List<String> ids = new ArrayList<>(count);
+                List<String> fileIds = new ArrayList<>(count);
+                List<float[]> vectors = new ArrayList<>(count);
+                List<Map<String, String>> attributes = withAttributes ? new ArrayList<>(count) : null;
+                for (int i = 0; i < count; i++) {
+                    ids.add(in.readUTF());
+                    fileIds.add(IndexFiles.readNullableString(in));
+                    if (withAttributes) attributes.add(IndexFiles.readAttributes(in));
+                    float[] vector = new float[in.readInt()];
+                    for (int d = 0; d < vector.length; d++) vector[d] = in.readFloat();
+                    vectors.add(vector);
+                }
+                visitor.upserts(ids, fileIds, vectors, attributes);
+            }
+            case DELETE_FILE -> visitor.deleteFile(IndexFiles.readNullableString(in));
+            case DELETE_FILES -> {
+                int count = in.readInt();
+                Set<String> fileIds = new HashSet<>(count);
+                for (int i = 0; i < count; i++) fileIds.add(IndexFiles.readNullableString(in));
+                visitor.deleteFiles(fileIds);
+            }
+            case CLEAR -> visitor.clear();
+            default -> throw new IOException("未知的索引日志记录类型: " + type);
+        }
+    }
+
+    private void open(long generation) throws IOException {
+        Path file = dir.resolve(prefix + String.format("%06d", generation));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(8).putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+        while (header.hasRemaining()) channel.write(header);
+        if (fsync) channel.force(true);
+        this.generation = generation;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> isSegment(f.getFileName().toString()))
+                    .sorted(Comparator.comparingLong(IndexWal::generationOf))
+                    .toList();
+        }
+    }
+
+    private boolean isSegment(String name) {
+        return name.startsWith(prefix) && name.length() > prefix.length()
+                && name.substring(prefix.length()).chars().allMatch(Character::isDigit);
+    }
+
+    private static long generationOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+}
@@ -0,0 +1,400 @@
+package com.intellivault.backend.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 常驻内存的关键词索引 (BM25)，补向量检索的短板：合同编号、错误码、SKU 这类精确标识
+ * 在 MiniLM 的向量里几乎没有区分度，按词项倒排却能一击命中
+ * <p>
+ * 结构：词项 -> {@link PostingList} (varint 压缩的 文档序号 / 词频)，外加每个文档的长度和 fileId
+ * - 增量写入：入库时随向量一起写，同一 id 再次写入时旧文档标记删除、新文档追加到末尾
+ * - 删除只打标记，标记过多时整体压缩一次 (重新编号，倒排按新序号重编码)
+ * - 过滤条件与向量索引共用 {@link RowAttributes}，两路召回的范围一致
+ * 检索：查询词逐个扫倒排累加 BM25 分数 (稠密数组，按文档序号直接寻址)，再用有界小根堆取 TopK
+ */
+public class LexicalIndex {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int FILE_MAGIC = 0x49564C58; // "IVLX"
+    private static final int FILE_VERSION = 1;
+    // 已删除的文档超过这个数、且超过总数的 1/4 时压缩
+    private static final int COMPACT_MIN_DELETED = 1024;
+
+    private final float k1;
+    private final float b;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 按文档序号的平行数组 (序号只增不减，压缩时整体重排)
+    private String[] ids;
+    private String[] fileIds;
+    private int[] lengths;
+    private final BitSet deleted = new BitSet();
+    private int size;
+    private int live;
+    private long liveLength;
+
+    // id -> 序号 (只记未删除的)
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final Map<String, PostingList> postings = new HashMap<>();
+    // 所有倒排编码后的字节数
+    private long postingBytes;
+    private final RowAttributes attributes = new RowAttributes();
+
+    // 检索用的累加器，按需借还 (检索可能跑在虚拟线程上，不用 ThreadLocal)
+    private final Queue<Accumulator> accumulators = new ConcurrentLinkedQueue<>();
+    // 上次快照以来的写入次数
+    private final AtomicLong pendingWrites = new AtomicLong();
+
+    /**
+     * @param k1 词频饱和参数 (常用 1.2)
+     * @param b  文档长度归一化强度 (常用 0.75)
+     */
+    public LexicalIndex(float k1, float b) {
+        this.k1 = k1;
+        this.b = b;
+        this.ids = new String[INITIAL_CAPACITY];
+        this.fileIds = new String[INITIAL_CAPACITY];
+        this.lengths = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * 未删除的文档数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            // 倒排按编码字节数 + 1/4 扩容余量，每个词项另计 HashMap 节点、字符串和 PostingList 对象头
+            return (long) ids.length * 20 + (long) live * 64 + postingBytes + (postingBytes >> 2)
+                    + postings.size() * 120L + attributes.estimatedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long pendingWrites() {
+        return pendingWrites.get();
+    }
+
+    /**
+     * 批量写入 (按 id 覆盖)
+     * @param attributeList 每个片段的可过滤属性，可以为 null
+     */
+    public void addAll(List<String> idList, List<String> fileIdList, List<String> contents,
+                       List<Map<String, String>> attributeList) {
+        // 分词在锁外做，持锁期间只改倒排
+        List<Map<String, int[]>> terms = new ArrayList<>(contents.size());
+        for (String content : contents) terms.add(termFrequencies(content));
+
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(size + idList.size());
+            for (int i = 0; i < idList.size(); i++) {
+                Integer existing = ordinals.get(idList.get(i));
+                if (existing != null) markDeleted(existing);
+                append(idList.get(i), fileIdList.get(i), terms.get(i),
+                        attributeList == null ? null : attributeList.get(i));
+            }
+            pendingWrites.addAndGet(idList.size());
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int removeByFileId(String fileId) {
+        return removeByFileIds(Set.of(fileId));
+    }
+
+    public int removeByFileIds(Set<String> fileIdSet) {
+        if (fileIdSet.isEmpty()) return 0;
+        lock.writeLock().lock();
+        try {
+            RowBitmap rows = attributes.select(SearchFilter.builder().fileIds(fileIdSet).build());
+            int[] matched = rows.toArray();
+            for (int row : matched) markDeleted(row);
+            if (matched.length > 0) {
+                pendingWrites.addAndGet(matched.length);
+                compactIfNeeded();
+            }
+            return matched.length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(ids, 0, size, null);
+            Arrays.fill(fileIds, 0, size, null);
+            deleted.clear();
+            ordinals.clear();
+            postings.clear();
+            attributes.clear();
+            size = 0;
+            live = 0;
+            liveLength = 0;
+            postingBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 检索
+     * @return 按分数降序的至多 topK 条 (分数是 BM25 原始分，与向量相似度不可直接比较)
+     */
+    public List<SearchHit> search(String query, int topK, SearchFilter filter) {
+        if (topK <= 0) return List.of();
+        Set<String> queryTerms = new LinkedHashSet<>(TextTokenizer.tokenize(query));
+        if (queryTerms.isEmpty()) return List.of();
+
+        lock.readLock().lock();
+        try {
+            if (live == 0) return List.of();
+            RowBitmap allowed = attributes.select(filter);
+            if (allowed != null && allowed.isEmpty()) return List.of();
+
+            Accumulator acc = borrow(size);
+            try {
+                float averageLength = Math.max(1f, (float) liveLength / live);
+                for (String term : queryTerms) {
+                    PostingList posting = postings.get(term);
+                    if (posting == null) continue;
+                    // 文档频率含未压缩的已删除文档，略偏大，对排序影响可以忽略
+                    int df = Math.min(posting.count(), live);
+                    float idf = (float) Math.log(1 + (live - df + 0.5) / (df + 0.5));
+                    PostingList.Cursor cursor = posting.cursor();
+                    while (cursor.next()) {
+                        int doc = cursor.doc();
+                        if (deleted.get(doc) || (allowed != null && !allowed.contains(doc))) continue;
+                        float tf = cursor.frequency();
+                        float norm = k1 * (1 - b + b * lengths[doc] / averageLength);
+                        acc.add(doc, idf * tf * (k1 + 1) / (tf + norm));
+                    }
+                }
+
+                TopKSelector top = new TopKSelector(topK);
+                for (int i = 0; i < acc.touched; i++) {
+                    int doc = acc.docs[i];
+                    top.offer(doc, acc.scores[doc]);
+                }
+                top.finish();
+                List<SearchHit> hits = new ArrayList<>(top.size());
+                for (int i = 0; i < top.size(); i++) {
+                    hits.add(new SearchHit(ids[top.row(i)], fileIds[top.row(i)], top.score(i)));
+                }
+                return hits;
+            } finally {
+                acc.reset();
+                accumulators.offer(acc);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 快照只写未删除的文档 (序号顺带压实)；读锁即可，检索照常进行
+     */
+    public void save(Path file) throws IOException {
+        lock.readLock().lock();
+        try {
+            long covered = pendingWrites.get();
+            int[] mapping = mapping();
+            IndexFiles.writeAtomically(file, FILE_MAGIC, FILE_VERSION, out -> {
+                out.writeInt(live);
+                for (int row = 0; row < size; row++) {
+                    if (deleted.get(row)) continue;
+                    out.writeUTF(ids[row]);
+                    IndexFiles.writeNullableString(out, fileIds[row]);
+                    out.writeInt(lengths[row]);
+                    IndexFiles.writeAttributes(out, attributes.attributes(row));
+                }
+                List<Map.Entry<String, PostingList>> entries = new ArrayList<>(postings.size());
+                for (Map.Entry<String, PostingList> e : postings.entrySet()) {
+                    PostingList posting = deleted.isEmpty() ? e.getValue() : e.getValue().remap(mapping);
+                    if (!posting.isEmpty()) entries.add(Map.entry(e.getKey(), posting));
+                }
+                out.writeInt(entries.size());
+                for (Map.Entry<String, PostingList> e : entries) {
+                    out.writeUTF(e.getKey());
+                    e.getValue().write(out);
+                }
+            });
+            pendingWrites.addAndGet(-covered);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void load(Path file) throws IOException {
+        lock.writeLock().lock();
+        try {
+            clear();
+            IndexFiles.read(file, FILE_MAGIC, FILE_VERSION, in -> {
+                int rows = in.readInt();
+                ensureCapacity(rows);
+                for (int row = 0; row < rows; row++) {
+                    ids[row] = in.readUTF();
+                    fileIds[row] = IndexFiles.readNullableString(in);
+                    lengths[row] = in.readInt();
+                    attributes.put(row, fileIds[row], IndexFiles.readAttributes(in));
+                    ordinals.put(ids[row], row);
+                    liveLength += lengths[row];
+                    size = row + 1;
+                    live = size;
+                }
+                int terms = in.readInt();
+                for (int i = 0; i < terms; i++) {
+                    String term = in.readUTF();
+                    PostingList posting = PostingList.read(in);
+                    postings.put(term, posting);
+                    postingBytes += posting.encodedBytes();
+                }
+            });
+            pendingWrites.set(0);
+        } catch (IOException e) {
+            clear();
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---------------- 内部方法 (调用方持有写锁) ----------------
+
+    private static Map<String, int[]> termFrequencies(String content) {
+        Map<String, int[]> frequencies = new HashMap<>();
+        TextTokenizer.tokenize(content, term -> frequencies.computeIfAbsent(term, k -> new int[1])[0]++);
+        return frequencies;
+    }
+
+    private void append(String id, String fileId, Map<String, int[]> terms, Map<String, String> rowAttributes) {
+        int row = size++;
+        int length = 0;
+        for (Map.Entry<String, int[]> e : terms.entrySet()) {
+            int frequency = e.getValue()[0];
+            length += frequency;
+            postingBytes += postings.computeIfAbsent(e.getKey(), k -> new PostingList()).add(row, frequency);
+        }
+        ids[row] = id;
+        fileIds[row] = fileId;
+        lengths[row] = length;
+        attributes.put(row, fileId, rowAttributes);
+        ordinals.put(id, row);
+        live++;
+        liveLength += length;
+    }
+
+    private void markDeleted(int row) {
+        if (deleted.get(row)) return;
+        deleted.set(row);
+        ordinals.remove(ids[row], row);
+        attributes.remove(row);
+        live--;
+        liveLength -= lengths[row];
+    }
+
+    private void compactIfNeeded() {
+        int dead = size - live;
+        if (dead < COMPACT_MIN_DELETED || dead * 4 < size) return;
+        int[] mapping = mapping();
+        int write = 0;
+        for (int read = 0; read < size; read++) {
+            if (mapping[read] < 0) continue;
+            if (write != read) {
+                ids[write] = ids[read];
+                fileIds[write] = fileIds[read];
+                lengths[write] = lengths[read];
+                ordinals.put(ids[write], write);
+                attributes.move(read, write);
+            }
+            write++;
+        }
+        Arrays.fill(ids, write, size, null);
+        Arrays.fill(fileIds, write, size, null);
+        size = write;
+        deleted.clear();
+        attributes.reindex(size);
+        postingBytes = 0;
+        postings.entrySet().removeIf(e -> {
+            PostingList remapped = e.getValue().remap(mapping);
+            if (remapped.isEmpty()) return true;
+            e.setValue(remapped);
+            postingBytes += remapped.encodedBytes();
+            return false;
+        });
+    }
+
+    // 旧序号 -> 去掉已删除文档后的新序号 (已删除为 -1)
+    private int[] mapping() {
+        int[] mapping = new int[size];
+        int next = 0;
+        for (int row = 0; row < size; row++) mapping[row] = deleted.get(row) ? -1 : next++;
+        return mapping;
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows <= ids.length) return;
+        int newCapacity = Math.max(rows, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, newCapacity);
+        fileIds = Arrays.copyOf(fileIds, newCapacity);
+        lengths = Arrays.copyOf(lengths, newCapacity);
+    }
+
+    private Accumulator borrow(int rows) {
+        Accumulator acc = accumulators.poll();
+        if (acc == null) acc = new Accumulator();
+        acc.ensureCapacity(rows);
+        return acc;
+    }
+
+    /**
+     * 稠密分数数组 + 命中过的文档列表：只清零碰过的位置，复用时不必整段清空
+     */
+    private static final class Accumulator {
+        float[] scores = new float[0];
+        int[] docs = new int[64];
+        int touched;
+
+        void ensureCapacity(int rows) {
+            if (scores.length < rows) scores = new float[Math.max(rows, scores.length + (scores.length >> 1))];
+        }
+
+        void add(int doc, float score) {
+            if (scores[doc] == 0) {
+                if (touched == docs.length) docs = Arrays.copyOf(docs, touched * 2);
+                docs[touched++] = doc;
+            }
+            scores[doc] += score;
+        }
+
+        void reset() {
+            for (int i = 0; i < touched; i++) scores[docs[i]] = 0;
+            touched = 0;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.intellivault.backend.index;
+
+import com.intellivault.backend.model.KnowledgeDocument;
+import com.intellivault.backend.repository.KnowledgeRepository;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 不常驻内存的"索引"：每次查询用游标流式扫描 Mongo 里本租户的 _id + fileId + embedding 投影
+ * 第一阶段只传向量，不传正文；堆里只留 TopK，整个过程不物化全量列表。
+ * 过滤条件直接下推成 Mongo 查询条件 (fileId / sourceFilename 上有索引)。
+ * 适合内存紧张或数据量很小的部署；写入/删除直接以 Mongo 为准，这里都是空操作。
+ */
+public class MongoScanVectorIndex implements VectorIndex {
+
+    private static final int CURSOR_BATCH_SIZE = 1000;
+
+    private final int dimension;
+    private final KnowledgeRepository knowledgeRepository;
+    private final String tenantId;
+
+    public MongoScanVectorIndex(int dimension, KnowledgeRepository knowledgeRepository, String tenantId) {
+        this.dimension = dimension;
+        this.knowledgeRepository = knowledgeRepository;
+        this.tenantId = tenantId;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public boolean resident() {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, knowledgeRepository.countByTenant(tenantId));
+    }
+
+    @Override
+    public void add(String id, String fileId, float[] vector) {
+        // 数据已经在 Mongo 里了
+    }
+
+    @Override
+    public int removeByFileId(String fileId) {
+        return 0;
+    }
+
+    @Override
+    public void clear() {
+    }
+
+    @Override
+    public List<SearchHit> search(float[] query, int topK, float minScore, SearchFilter filter) {
+        if (topK <= 0) return List.of();
+        float[] q = VectorMath.normalize(query);
+        float[] row = new float[dimension];
+
+        TopKSelector top = new TopKSelector(topK);
+        // 只为进过堆的行保留 id；随机顺序下进堆次数约 K·ln(N/K)，远小于 N
+        Map<Integer, SearchHit> accepted = new HashMap<>();
+        int ordinal = 0;
+        try (Stream<KnowledgeDocument> vectors = knowledgeRepository.streamVectors(tenantId, filter, CURSOR_BATCH_SIZE)) {
+            for (KnowledgeDocument doc : (Iterable<KnowledgeDocument>) vectors::iterator) {
+                float[] embedding = doc.getEmbedding();
+                if (embedding == null || embedding.length != dimension) continue;
+                System.arraycopy(embedding, 0, row, 0, dimension);
+                VectorMath.normalizeInPlace(row, 0, dimension);
+                float score = VectorMath.dot(row, 0, q, dimension);
+                if (score > minScore && top.offer(ordinal, score)) {
+                    accepted.put(ordinal, new SearchHit(doc.getId(), doc.getFileId(), score));
+                }
+                ordinal++;
+            }
+        }
+        top.finish();
+
+        List<SearchHit> hits = new ArrayList<>(top.size());
+        for (int i = 0; i < top.size(); i++) {
+            hits.add(accepted.get(top.row(i)));
+        }
+        return hits;
+    }
+
+    @Override
+    public void save(Path file) {
+    }
+
+    @Override
+    public void load(Path file) {
+    }
+}
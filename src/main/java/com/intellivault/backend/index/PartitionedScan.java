@@ -0,0 +1,75 @@
+package com.intellivault.backend.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 分区并行的暴力扫描：行数够多时切成若干段，每段一个 TopK 堆，最后合并
+ * 使用独立的 ForkJoinPool，不和 parallelStream 共用 common pool
+ */
+final class PartitionedScan {
+
+    // 少于这个行数时单线程扫描更快 (任务调度开销 > 收益)
+    private static final int MIN_ROWS_PER_PARTITION = 32_768;
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final ForkJoinPool SCAN_POOL = new ForkJoinPool(PARALLELISM);
+
+    @FunctionalInterface
+    interface RowScorer {
+        float score(int row);
+    }
+
+    private PartitionedScan() {
+    }
+
+    /**
+     * 调用方需持有索引的读锁，保证扫描期间行不被改动
+     * @return 已 finish 的 TopK 结果
+     */
+    static TopKSelector topK(int rows, int k, float minScore, RowScorer scorer) {
+        return topK(rows, null, k, minScore, scorer);
+    }
+
+    /**
+     * 只扫描给定的行 (过滤条件命中的行号，升序)
+     */
+    static TopKSelector topK(int[] candidates, int k, float minScore, RowScorer scorer) {
+        return topK(candidates.length, candidates, k, minScore, scorer);
+    }
+
+    // candidates 为 null 时扫描 [0, rows)，否则扫描 candidates[0, rows)
+    private static TopKSelector topK(int rows, int[] candidates, int k, float minScore, RowScorer scorer) {
+        int partitions = Math.min(PARALLELISM, rows / MIN_ROWS_PER_PARTITION);
+        if (partitions <= 1) {
+            TopKSelector top = scan(candidates, 0, rows, k, minScore, scorer);
+            top.finish();
+            return top;
+        }
+
+        int chunk = (rows + partitions - 1) / partitions;
+        List<ForkJoinTask<TopKSelector>> tasks = new ArrayList<>(partitions);
+        for (int from = 0; from < rows; from += chunk) {
+            int start = from;
+            int end = Math.min(rows, from + chunk);
+            tasks.add(SCAN_POOL.submit(() -> scan(candidates, start, end, k, minScore, scorer)));
+        }
+        TopKSelector merged = new TopKSelector(k);
+        for (ForkJoinTask<TopKSelector> task : tasks) {
+            merged.merge(task.join());
+        }
+        merged.finish();
+        return merged;
+    }
+
+    private static TopKSelector scan(int[] candidates, int from, int to, int k, float minScore, RowScorer scorer) {
+        TopKSelector top = new TopKSelector(k);
+        for (int i = from; i < to; i++) {
+            int row = candidates == null ? i : candidates[i];
+            float score = scorer.score(row);
+            if (score > minScore) top.offer(row, score);
+        }
+        return top;
+    }
+}
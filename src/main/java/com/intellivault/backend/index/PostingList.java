@@ -0,0 +1,131 @@
+package com.intellivault.backend.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 一个词项的倒排表：按文档序号升序追加，每条记成 (与上一条的序号差, 词频) 两个 varint
+ * 序号差和词频通常都小于 128，一条只占 2 字节 (int[] 存同样的内容要 8 字节)
+ * <p>
+ * 不是线程安全的，由所属索引的锁保护
+ */
+final class PostingList {
+
+    private byte[] bytes = new byte[8];
+    private int length;
+    private int last = -1;
+    // 文档频率 (含已标记删除、还没压缩掉的文档)
+    private int count;
+
+    /**
+     * @param doc 必须大于之前追加过的所有序号
+     * @return 编码占用的字节数
+     */
+    int add(int doc, int frequency) {
+        if (doc <= last) throw new IllegalArgumentException("文档序号必须递增: " + doc + " <= " + last);
+        if (length + 10 > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(length + 10, bytes.length * 2));
+        int before = length;
+        writeVarint(doc - last - 1);
+        writeVarint(frequency);
+        last = doc;
+        count++;
+        return length - before;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    // 编码后的字节数 (不含数组扩容留的余量)
+    int encodedBytes() {
+        return length;
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * 按新序号重新编码 (压缩 / 写快照时丢掉已删除的文档)
+     * @param mapping 旧序号 -> 新序号，负数表示丢弃；新序号必须保持原来的相对顺序
+     */
+    PostingList remap(int[] mapping) {
+        PostingList result = new PostingList();
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            int doc = mapping[cursor.doc()];
+            if (doc >= 0) result.add(doc, cursor.frequency());
+        }
+        if (result.bytes.length > result.length + 16) result.bytes = Arrays.copyOf(result.bytes, result.length);
+        return result;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(count);
+        out.writeInt(last);
+        out.writeInt(length);
+        out.write(bytes, 0, length);
+    }
+
+    static PostingList read(DataInputStream in) throws IOException {
+        PostingList list = new PostingList();
+        list.count = in.readInt();
+        list.last = in.readInt();
+        list.length = in.readInt();
+        list.bytes = new byte[list.length];
+        in.readFully(list.bytes);
+        return list;
+    }
+
+    /**
+     * 顺序解码，检索时每个词项一个
+     */
+    final class Cursor {
+        private int position;
+        private int doc = -1;
+        private int frequency;
+
+        boolean next() {
+            if (position >= length) return false;
+            doc += readVarint() + 1;
+            frequency = readVarint();
+            return true;
+        }
+
+        int doc() {
+            return doc;
+        }
+
+        int frequency() {
+            return frequency;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    // ---------------- 内部方法 ----------------
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+    }
+}
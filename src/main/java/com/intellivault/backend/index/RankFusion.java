@@ -0,0 +1,60 @@
+package com.intellivault.backend.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 多路召回的融合：倒数排名融合 (Reciprocal Rank Fusion)
+ * 向量相似度和 BM25 分数量纲不同，不直接相加，只看各自的名次：第 r 名 (从 1 开始) 得 weight / (k + r)，
+ * 同一片段在两路都出现时分数相加，再用有界小根堆取前 limit 名
+ */
+public final class RankFusion {
+
+    private RankFusion() {
+    }
+
+    /**
+     * @param vectorHits    向量一路，按相似度降序
+     * @param keywordHits   关键词一路，按 BM25 降序
+     * @param k             平滑常数 (常用 60)
+     * @param keywordWeight 关键词一路的权重，向量一路为 1
+     * @return 融合后的前 limit 名；关键词一路为空时原样返回向量结果 (分数仍是相似度)
+     */
+    public static List<SearchHit> reciprocalRank(List<SearchHit> vectorHits, List<SearchHit> keywordHits,
+                                                 int k, float keywordWeight, int limit) {
+        if (limit <= 0) return List.of();
+        if (keywordHits.isEmpty()) return vectorHits.size() <= limit ? vectorHits : vectorHits.subList(0, limit);
+
+        // 候选去重后按出现顺序编号，分数按编号累加
+        Map<String, Integer> slots = new HashMap<>();
+        List<SearchHit> candidates = new ArrayList<>(vectorHits.size() + keywordHits.size());
+        float[] scores = new float[vectorHits.size() + keywordHits.size()];
+        accumulate(vectorHits, 1f, k, slots, candidates, scores);
+        accumulate(keywordHits, keywordWeight, k, slots, candidates, scores);
+
+        TopKSelector top = new TopKSelector(limit);
+        for (int i = 0; i < candidates.size(); i++) top.offer(i, scores[i]);
+        top.finish();
+        List<SearchHit> fused = new ArrayList<>(top.size());
+        for (int i = 0; i < top.size(); i++) {
+            SearchHit hit = candidates.get(top.row(i));
+            fused.add(new SearchHit(hit.id(), hit.fileId(), top.score(i)));
+        }
+        return fused;
+    }
+
+    private static void accumulate(List<SearchHit> hits, float weight, int k, Map<String, Integer> slots,
+                                   List<SearchHit> candidates, float[] scores) {
+        for (int rank = 0; rank < hits.size(); rank++) {
+            SearchHit hit = hits.get(rank);
+            Integer slot = slots.putIfAbsent(hit.id(), candidates.size());
+            if (slot == null) {
+                slot = candidates.size();
+                candidates.add(hit);
+            }
+            scores[slot] += weight / (k + rank + 1);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.intellivault.backend.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 常驻索引的过滤倒排：(字段, 值) -> 行号位图，外加每行自己的属性 (删除 / 覆盖时据此撤销倒排)
+ * 相同的取值 (例如同一文件上千个片段的 sourceFilename) 全部共用倒排里的那一个字符串实例
+ * <p>
+ * 不是线程安全的，由所属索引的锁保护
+ */
+final class RowAttributes {
+
+    private final Map<String, Field> postings = new HashMap<>();
+    // 第 row 行的属性：字段、值交替存放 (fileId 也在其中)
+    private String[][] rows = new String[16][];
+    private long pairs;
+
+    private static final class Field {
+        final String name;
+        final Map<String, Posting> values = new HashMap<>();
+
+        Field(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Posting {
+        final String value;
+        final RowBitmap rows = new RowBitmap();
+
+        Posting(String value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * 写入或覆盖第 row 行的属性
+     */
+    void put(int row, String fileId, Map<String, String> attributes) {
+        remove(row);
+        int extra = attributes == null ? 0 : attributes.size();
+        String[] pairs = new String[2 + extra * 2];
+        int n = index(pairs, 0, row, SearchFilter.FILE_ID, fileId);
+        if (attributes != null) {
+            for (Map.Entry<String, String> e : attributes.entrySet()) {
+                n = index(pairs, n, row, e.getKey(), e.getValue());
+            }
+        }
+        ensureCapacity(row + 1);
+        rows[row] = n == pairs.length ? pairs : Arrays.copyOf(pairs, n);
+        this.pairs += n / 2;
+    }
+
+    void remove(int row) {
+        if (row >= rows.length || rows[row] == null) return;
+        String[] pairs = rows[row];
+        for (int i = 0; i < pairs.length; i += 2) {
+            Field field = postings.get(pairs[i]);
+            Posting posting = field.values.get(pairs[i + 1]);
+            posting.rows.remove(row);
+            if (posting.rows.isEmpty()) {
+                field.values.remove(pairs[i + 1]);
+                if (field.values.isEmpty()) postings.remove(pairs[i]);
+            }
+        }
+        this.pairs -= pairs.length / 2;
+        rows[row] = null;
+    }
+
+    /**
+     * 第 row 行除 fileId 以外的属性 (写快照 / 日志用)
+     */
+    Map<String, String> attributes(int row) {
+        String[] pairs = row < rows.length ? rows[row] : null;
+        if (pairs == null) return Map.of();
+        Map<String, String> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (!SearchFilter.FILE_ID.equals(pairs[i])) attributes.put(pairs[i], pairs[i + 1]);
+        }
+        return attributes;
+    }
+
+    /**
+     * 原地压缩时把 from 行的属性挪到 to 行，倒排此时已过期，压缩完调用 reindex
+     */
+    void move(int from, int to) {
+        rows[to] = rows[from];
+        rows[from] = null;
+    }
+
+    /**
+     * 按 [0, size) 行的属性重建倒排 (行号按升序追加，位图构建最快)，size 之后的行丢弃
+     */
+    void reindex(int size) {
+        postings.clear();
+        pairs = 0;
+        if (size < rows.length) Arrays.fill(rows, size, rows.length, null);
+        for (int row = 0; row < size; row++) {
+            String[] old = rows[row];
+            if (old == null) continue;
+            for (int i = 0; i < old.length; i += 2) index(old, i, row, old[i], old[i + 1]);
+            pairs += old.length / 2;
+        }
+    }
+
+    void clear() {
+        postings.clear();
+        Arrays.fill(rows, null);
+        pairs = 0;
+    }
+
+    /**
+     * 满足过滤条件的行
+     * @return 没有过滤条件时返回 null (不过滤)，否则返回命中行的位图 (可能为空)
+     */
+    RowBitmap select(SearchFilter filter) {
+        if (filter == null || filter.terms().isEmpty()) return null;
+        RowBitmap result = null;
+        for (Map.Entry<String, Set<String>> term : filter.terms().entrySet()) {
+            Field field = postings.get(term.getKey());
+            RowBitmap matched = field == null ? new RowBitmap() : union(field.values, term.getValue());
+            result = result == null ? matched : RowBitmap.and(result, matched);
+            if (result.isEmpty()) break;
+        }
+        return result;
+    }
+
+    /**
+     * 估算字节数：每对属性一个数组槽位 + 位图里的一个 char，每个不同取值一个 Posting
+     */
+    long estimatedBytes() {
+        long distinct = 0;
+        for (Field field : postings.values()) distinct += field.values.size();
+        return (long) rows.length * 8 + pairs * 18 + distinct * 96;
+    }
+
+    // ---------------- 内部方法 ----------------
+
+    private static RowBitmap union(Map<String, Posting> values, Set<String> allowed) {
+        RowBitmap result = new RowBitmap();
+        for (String value : allowed) {
+            Posting posting = values.get(value);
+            if (posting != null) result = RowBitmap.or(result, posting.rows);
+        }
+        return result;
+    }
+
+    // 把 row 加进 (name, value) 的倒排，并把共享的字符串实例写进 pairs[n, n + 2)；value 为空时跳过
+    private int index(String[] pairs, int n, int row, String name, String value) {
+        if (value == null) return n;
+        Field field = postings.computeIfAbsent(name, Field::new);
+        Posting posting = field.values.computeIfAbsent(value, Posting::new);
+        posting.rows.add(row);
+        pairs[n] = field.name;
+        pairs[n + 1] = posting.value;
+        return n + 2;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= rows.length) return;
+        rows = Arrays.copyOf(rows, Math.max(size, rows.length + (rows.length >> 1)));
+    }
+}
@@ -0,0 +1,400 @@
+package com.intellivault.backend.index;
+
+import java.util.Arrays;
+
+/**
+ * 行号集合的压缩位图 (Roaring 的做法)：按行号高 16 位分桶，每桶 65536 行
+ * - 稀疏桶 (≤ 4096 个) 存排好序的 char[]，每行 2 字节
+ * - 稠密桶存 1024 个 long 的位图，固定 8KB
+ * 过滤条件的倒排 (字段值 -> 行) 用它存，求交 / 求并按桶进行，结果按行号升序给出，扫描时只碰命中的行
+ * <p>
+ * 不是线程安全的，由所属索引的锁保护
+ */
+final class RowBitmap {
+
+    // 超过这个数的桶转成位图 (4096 * 2 字节 = 8KB，与位图一样大)
+    private static final int ARRAY_MAX = 4096;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int count;
+
+    void add(int row) {
+        char key = (char) (row >>> 16);
+        int i = find(key);
+        if (i >= 0) {
+            containers[i] = containers[i].add((char) row);
+            return;
+        }
+        insert(-i - 1, key, new ArrayContainer().add((char) row));
+    }
+
+    void remove(int row) {
+        int i = find((char) (row >>> 16));
+        if (i < 0) return;
+        Container container = containers[i].remove((char) row);
+        if (container != null) {
+            containers[i] = container;
+            return;
+        }
+        // 桶空了，整桶移除
+        System.arraycopy(keys, i + 1, keys, i, count - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, count - i - 1);
+        containers[--count] = null;
+    }
+
+    boolean contains(int row) {
+        int i = find((char) (row >>> 16));
+        return i >= 0 && containers[i].contains((char) row);
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    int cardinality() {
+        int total = 0;
+        for (int i = 0; i < count; i++) total += containers[i].cardinality();
+        return total;
+    }
+
+    /**
+     * 按行号升序展开
+     */
+    int[] toArray() {
+        int[] rows = new int[cardinality()];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            position = containers[i].fill(rows, position, keys[i] << 16);
+        }
+        return rows;
+    }
+
+    long estimatedBytes() {
+        long total = 32L + count * 18L;
+        for (int i = 0; i < count; i++) total += containers[i].bytes();
+        return total;
+    }
+
+    static RowBitmap and(RowBitmap a, RowBitmap b) {
+        RowBitmap result = new RowBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.count && j < b.count) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality() > 0) result.append(a.keys[i], c);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    static RowBitmap or(RowBitmap a, RowBitmap b) {
+        RowBitmap result = new RowBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.count || j < b.count) {
+            if (j == b.count || (i < a.count && a.keys[i] < b.keys[j])) {
+                result.append(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i == a.count || a.keys[i] > b.keys[j]) {
+                result.append(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    // ---------------- 内部方法 ----------------
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, count, key);
+    }
+
+    private void insert(int i, char key, Container container) {
+        ensureCapacity();
+        System.arraycopy(keys, i, keys, i + 1, count - i);
+        System.arraycopy(containers, i, containers, i + 1, count - i);
+        keys[i] = key;
+        containers[i] = container;
+        count++;
+    }
+
+    // 求交 / 求并时按 key 升序追加
+    private void append(char key, Container container) {
+        ensureCapacity();
+        keys[count] = key;
+        containers[count++] = container;
+    }
+
+    private void ensureCapacity() {
+        if (count < keys.length) return;
+        keys = Arrays.copyOf(keys, keys.length * 2);
+        containers = Arrays.copyOf(containers, containers.length * 2);
+    }
+
+    /**
+     * 一个桶 (行号低 16 位)；add / remove 可能换成另一种表示，返回新的容器
+     */
+    private abstract static class Container {
+        abstract Container add(char value);
+
+        // 桶空了返回 null
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        // 把 high | value 依次写进 out，返回新的写入位置
+        abstract int fill(int[] out, int position, int high);
+
+        abstract long bytes();
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) return this;
+            if (cardinality == ARRAY_MAX) return toBitmap().add(value);
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, values.length * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i < 0) return this;
+            System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+            cardinality--;
+            return cardinality == 0 ? null : this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] out = new char[cardinality];
+            int n = 0;
+            if (other instanceof ArrayContainer array) {
+                // 两个有序数组归并求交
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        out[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) out[n++] = values[i];
+                }
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer bitmap) return bitmap.or(this);
+            ArrayContainer array = (ArrayContainer) other;
+            char[] out = new char[cardinality + array.cardinality];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j == array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    out[n++] = values[i++];
+                } else if (i == cardinality || values[i] > array.values[j]) {
+                    out[n++] = array.values[j++];
+                } else {
+                    out[n++] = values[i++];
+                    j++;
+                }
+            }
+            ArrayContainer merged = new ArrayContainer(out, n);
+            return n > ARRAY_MAX ? merged.toBitmap() : merged;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        @Override
+        int fill(int[] out, int position, int high) {
+            for (int i = 0; i < cardinality; i++) out[position++] = high | values[i];
+            return position;
+        }
+
+        @Override
+        long bytes() {
+            return 24L + values.length * 2L;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) bitmap.add(values[i]);
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer() {
+            this(new long[1024], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long before = words[value >>> 6];
+            long after = before | (1L << value);
+            if (before != after) {
+                words[value >>> 6] = after;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long before = words[value >>> 6];
+            long after = before & ~(1L << value);
+            if (before == after) return this;
+            words[value >>> 6] = after;
+            cardinality--;
+            return cardinality <= ARRAY_MAX ? toArray() : this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer array) return array.and(this);
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] out = new long[words.length];
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                out[w] = words[w] & otherWords[w];
+                n += Long.bitCount(out[w]);
+            }
+            BitmapContainer result = new BitmapContainer(out, n);
+            return n <= ARRAY_MAX ? result.toArray() : result;
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if (other instanceof ArrayContainer array) {
+                for (int i = 0; i < array.cardinality; i++) result.add(array.values[i]);
+                return result;
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                result.words[w] |= otherWords[w];
+                n += Long.bitCount(result.words[w]);
+            }
+            result.cardinality = n;
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        int fill(int[] out, int position, int high) {
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    out[position++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return position;
+        }
+
+        @Override
+        long bytes() {
+            return 24L + words.length * 8L;
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+    }
+}
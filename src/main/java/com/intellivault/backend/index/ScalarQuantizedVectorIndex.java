@@ -0,0 +1,445 @@
+package com.intellivault.backend.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * int8 标量量化索引：每个维度用 1 个字节 (0~255) 存，内存是 float32 的 1/4
+ * <p>
+ * 校准：按维度统计已入库向量 (归一化后) 的 min/max，把区间均分成 255 档。
+ * 入库条数不足 calibrationSampleSize 时先按 float32 存、精确检索，攒够样本再一次性量化；
+ * 之后超出校准区间的分量会被截断到边界。
+ * <p>
+ * 查询：先在压缩码上做近似点积，取 topK * rerankMultiple 个候选，
+ * 再用全精度向量 (由 {@link FullPrecisionVectors} 从 Mongo 取回) 精排。
+ */
+public class ScalarQuantizedVectorIndex implements VectorIndex {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int FILE_MAGIC = 0x49565138; // "IVQ8"
+    // 2：每行追加可过滤属性
+    private static final int FILE_VERSION = 2;
+    private static final int LEVELS = 255;
+    // 查询侧量化到 ±8191：255 * 8191 * 维度(≤1024) 不会溢出 int
+    private static final int QUERY_LEVELS = 8191;
+    // 近似分数有误差，粗排阶段把门槛放宽一点，真正的过滤留给精排
+    private static final float APPROX_SLACK = 0.05f;
+
+    private static final Comparator<SearchHit> BY_SCORE_DESC =
+            Comparator.comparingDouble(SearchHit::score).reversed();
+
+    /**
+     * 按 id 取回全精度向量，用于精排
+     */
+    @FunctionalInterface
+    public interface FullPrecisionVectors {
+        Map<String, float[]> fetch(List<String> ids);
+    }
+
+    private final int dimension;
+    private final int rerankMultiple;
+    private final int calibrationSampleSize;
+    private final FullPrecisionVectors fullPrecision;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 校准前：归一化后的 float32 行；校准后置空
+    private float[] raw;
+    // 校准后：量化码，行主序
+    private byte[] codes;
+    private float[] mins;
+    private float[] steps;
+    private boolean calibrated;
+
+    private String[] ids;
+    private String[] fileIds;
+    private int size;
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final RowAttributes attributes = new RowAttributes();
+
+    public ScalarQuantizedVectorIndex(int dimension, int rerankMultiple, int calibrationSampleSize,
+                                      FullPrecisionVectors fullPrecision) {
+        if (dimension <= 0) throw new IllegalArgumentException("向量维度必须为正数: " + dimension);
+        this.dimension = dimension;
+        this.rerankMultiple = Math.max(rerankMultiple, 1);
+        this.calibrationSampleSize = Math.max(calibrationSampleSize, 1);
+        this.fullPrecision = fullPrecision;
+        reset();
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 校准前按 float32 存，校准后每维 1 字节
+    @Override
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            int bytesPerDimension = calibrated ? 1 : Float.BYTES;
+            return (long) size * (dimension * bytesPerDimension + 96) + attributes.estimatedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isCalibrated() {
+        lock.readLock().lock();
+        try {
+            return calibrated;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(String id, String fileId, float[] vector) {
+        addAll(List.of(id), Arrays.asList(fileId), List.of(vector));
+    }
+
+    @Override
+    public void addAll(List<String> idList, List<String> fileIdList, List<float[]> vectorList,
+                       List<Map<String, String>> attributeList) {
+        vectorList.forEach(this::checkDimension);
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(size + idList.size());
+            for (int i = 0; i < idList.size(); i++) {
+                upsert(idList.get(i), fileIdList.get(i), vectorList.get(i),
+                        attributeList == null ? null : attributeList.get(i));
+            }
+            if (!calibrated && size >= calibrationSampleSize) calibrate();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int removeByFileId(String fileId) {
+        return removeByFileIds(Collections.singleton(fileId));
+    }
+
+    @Override
+    public int removeByFileIds(Set<String> fileIdSet) {
+        lock.writeLock().lock();
+        try {
+            int write = 0;
+            for (int read = 0; read < size; read++) {
+                if (fileIdSet.contains(fileIds[read])) {
+                    ordinals.remove(ids[read]);
+                    continue;
+                }
+                if (write != read) {
+                    if (calibrated) {
+                        System.arraycopy(codes, read * dimension, codes, write * dimension, dimension);
+                    } else {
+                        System.arraycopy(raw, read * dimension, raw, write * dimension, dimension);
+                    }
+                    ids[write] = ids[read];
+                    fileIds[write] = fileIds[read];
+                    ordinals.put(ids[write], write);
+                    attributes.move(read, write);
+                }
+                write++;
+            }
+            int removed = size - write;
+            Arrays.fill(ids, write, size, null);
+            Arrays.fill(fileIds, write, size, null);
+            size = write;
+            if (removed > 0) attributes.reindex(size);
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> search(float[] query, int topK, float minScore, SearchFilter filter) {
+        checkDimension(query);
+        if (topK <= 0) return List.of();
+        float[] q = VectorMath.normalize(query);
+
+        List<SearchHit> candidates;
+        lock.readLock().lock();
+        try {
+            // 有过滤条件时只扫位图命中的行
+            RowBitmap allowed = attributes.select(filter);
+            if (allowed != null && allowed.isEmpty()) return List.of();
+            int[] rows = allowed == null ? null : allowed.toArray();
+            if (!calibrated) return exactScan(q, rows, topK, minScore);
+            candidates = approximateScan(q, rows, topK * rerankMultiple, minScore - APPROX_SLACK);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (fullPrecision == null || candidates.isEmpty()) {
+            return truncate(candidates, topK, minScore);
+        }
+
+        // 精排在锁外进行：取全精度向量是一次 IO
+        Map<String, float[]> exact = fullPrecision.fetch(candidates.stream().map(SearchHit::id).toList());
+        List<SearchHit> reranked = new ArrayList<>(candidates.size());
+        for (SearchHit candidate : candidates) {
+            float[] vector = exact.get(candidate.id());
+            if (vector == null || vector.length != dimension) continue; // 已被删除
+            float score = VectorMath.dot(VectorMath.normalize(vector), 0, q, dimension);
+            reranked.add(new SearchHit(candidate.id(), candidate.fileId(), score));
+        }
+        reranked.sort(BY_SCORE_DESC);
+        return truncate(reranked, topK, minScore);
+    }
+
+    @Override
+    public void save(Path file) throws IOException {
+        lock.readLock().lock();
+        try {
+            IndexFiles.writeAtomically(file, FILE_MAGIC, FILE_VERSION, out -> {
+                out.writeInt(dimension);
+                out.writeBoolean(calibrated);
+                if (calibrated) {
+                    for (int d = 0; d < dimension; d++) {
+                        out.writeFloat(mins[d]);
+                        out.writeFloat(steps[d]);
+                    }
+                }
+                out.writeInt(size);
+                for (int row = 0; row < size; row++) {
+                    out.writeUTF(ids[row]);
+                    IndexFiles.writeNullableString(out, fileIds[row]);
+                    IndexFiles.writeAttributes(out, attributes.attributes(row));
+                    if (calibrated) {
+                        out.write(codes, row * dimension, dimension);
+                    } else {
+                        for (int d = 0; d < dimension; d++) out.writeFloat(raw[row * dimension + d]);
+                    }
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void load(Path file) throws IOException {
+        lock.writeLock().lock();
+        try {
+            reset();
+            IndexFiles.read(file, FILE_MAGIC, FILE_VERSION, in -> {
+                int fileDimension = in.readInt();
+                if (fileDimension != dimension) {
+                    throw new IOException("索引文件维度 " + fileDimension + " 与模型维度 " + dimension + " 不一致");
+                }
+                if (in.readBoolean()) {
+                    calibrated = true;
+                    mins = new float[dimension];
+                    steps = new float[dimension];
+                    for (int d = 0; d < dimension; d++) {
+                        mins[d] = in.readFloat();
+                        steps[d] = in.readFloat();
+                    }
+                    raw = null;
+                    codes = new byte[ids.length * dimension];
+                }
+                int rows = in.readInt();
+                ensureCapacity(rows);
+                for (int row = 0; row < rows; row++) {
+                    ids[row] = in.readUTF();
+                    fileIds[row] = IndexFiles.readNullableString(in);
+                    attributes.put(row, fileIds[row], IndexFiles.readAttributes(in));
+                    if (calibrated) {
+                        in.readFully(codes, row * dimension, dimension);
+                    } else {
+                        in.readFloats(raw, row * dimension, dimension);
+                    }
+                    ordinals.put(ids[row], row);
+                    size = row + 1;
+                }
+            });
+        } catch (IOException e) {
+            reset();
+            throw e;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---------------- 扫描 (调用方持有读锁；rows 为 null 时扫全部行) ----------------
+
+    private List<SearchHit> exactScan(float[] q, int[] rows, int topK, float minScore) {
+        return toHits(scan(rows, topK, minScore, row -> VectorMath.dot(raw, row * dimension, q, dimension)));
+    }
+
+    private TopKSelector scan(int[] rows, int k, float minScore, PartitionedScan.RowScorer scorer) {
+        return rows == null
+                ? PartitionedScan.topK(size, k, minScore, scorer)
+                : PartitionedScan.topK(rows, k, minScore, scorer);
+    }
+
+    /**
+     * x[d] ≈ min[d] + code[d] * step[d]
+     * => q·x ≈ Σ q[d]*min[d] + Σ code[d] * (q[d]*step[d])
+     * 第一项与行无关，预先算好；第二项把 q[d]*step[d] 也量化成整数，
+     * 内循环就是纯 int 乘加，JIT 能直接向量化，比 byte -> float 逐个转换快
+     */
+    private List<SearchHit> approximateScan(float[] q, int[] rows, int candidateCount, float minScore) {
+        float[] scaled = new float[dimension];
+        float bias = 0f;
+        float maxAbs = 0f;
+        for (int d = 0; d < dimension; d++) {
+            scaled[d] = q[d] * steps[d];
+            bias += q[d] * mins[d];
+            maxAbs = Math.max(maxAbs, Math.abs(scaled[d]));
+        }
+        float queryScale = maxAbs == 0f ? 0f : maxAbs / QUERY_LEVELS;
+        int[] queryCodes = new int[dimension];
+        for (int d = 0; d < dimension; d++) {
+            queryCodes[d] = queryScale == 0f ? 0 : Math.round(scaled[d] / queryScale);
+        }
+
+        float offset = bias;
+        TopKSelector top = scan(rows, candidateCount, minScore,
+                row -> offset + queryScale * quantizedDot(row * dimension, queryCodes));
+        return toHits(top);
+    }
+
+    private int quantizedDot(int offset, int[] queryCodes) {
+        int sum = 0;
+        for (int d = 0; d < dimension; d++) {
+            sum += (codes[offset + d] & 0xFF) * queryCodes[d];
+        }
+        return sum;
+    }
+
+    private List<SearchHit> toHits(TopKSelector top) {
+        List<SearchHit> hits = new ArrayList<>(top.size());
+        for (int i = 0; i < top.size(); i++) {
+            hits.add(new SearchHit(ids[top.row(i)], fileIds[top.row(i)], top.score(i)));
+        }
+        return hits;
+    }
+
+    private static List<SearchHit> truncate(List<SearchHit> sorted, int topK, float minScore) {
+        List<SearchHit> result = new ArrayList<>(Math.min(topK, sorted.size()));
+        for (SearchHit hit : sorted) {
+            if (result.size() == topK || hit.score() <= minScore) break;
+            result.add(hit);
+        }
+        return result;
+    }
+
+    // ---------------- 写入与校准 (调用方持有写锁) ----------------
+
+    private void upsert(String id, String fileId, float[] vector, Map<String, String> rowAttributes) {
+        Integer existing = ordinals.get(id);
+        int row;
+        if (existing != null) {
+            row = existing;
+        } else {
+            row = size++;
+            ordinals.put(id, row);
+        }
+        ids[row] = id;
+        fileIds[row] = fileId;
+        attributes.put(row, fileId, rowAttributes);
+        float[] normalized = VectorMath.normalize(vector);
+        if (calibrated) {
+            quantize(normalized, row * dimension);
+        } else {
+            System.arraycopy(normalized, 0, raw, row * dimension, dimension);
+        }
+    }
+
+    private void calibrate() {
+        mins = new float[dimension];
+        float[] maxs = new float[dimension];
+        Arrays.fill(mins, Float.POSITIVE_INFINITY);
+        Arrays.fill(maxs, Float.NEGATIVE_INFINITY);
+        for (int row = 0; row < size; row++) {
+            for (int d = 0; d < dimension; d++) {
+                float v = raw[row * dimension + d];
+                if (v < mins[d]) mins[d] = v;
+                if (v > maxs[d]) maxs[d] = v;
+            }
+        }
+        steps = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            steps[d] = (maxs[d] - mins[d]) / LEVELS;
+        }
+
+        codes = new byte[ids.length * dimension];
+        calibrated = true;
+        float[] row = new float[dimension];
+        for (int r = 0; r < size; r++) {
+            System.arraycopy(raw, r * dimension, row, 0, dimension);
+            quantize(row, r * dimension);
+        }
+        raw = null;
+    }
+
+    private void quantize(float[] normalized, int offset) {
+        for (int d = 0; d < dimension; d++) {
+            int code = steps[d] == 0f ? 0 : Math.round((normalized[d] - mins[d]) / steps[d]);
+            codes[offset + d] = (byte) Math.max(0, Math.min(LEVELS, code));
+        }
+    }
+
+    private void reset() {
+        raw = new float[INITIAL_CAPACITY * dimension];
+        codes = null;
+        mins = null;
+        steps = null;
+        calibrated = false;
+        ids = new String[INITIAL_CAPACITY];
+        fileIds = new String[INITIAL_CAPACITY];
+        size = 0;
+        ordinals.clear();
+        attributes.clear();
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows <= ids.length) return;
+        int newCapacity = Math.max(rows, ids.length + (ids.length >> 1));
+        if (calibrated) {
+            codes = Arrays.copyOf(codes, newCapacity * dimension);
+        } else {
+            raw = Arrays.copyOf(raw, newCapacity * dimension);
+        }
+        ids = Arrays.copyOf(ids, newCapacity);
+        fileIds = Arrays.copyOf(fileIds, newCapacity);
+    }
+
+    private void checkDimension(float[] vector) {
+        if (vector == null || vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: 期望 " + dimension + ", 实际 "
+                    + (vector == null ? "null" : vector.length));
+        }
+    }
+}
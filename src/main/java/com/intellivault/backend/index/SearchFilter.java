@@ -0,0 +1,152 @@
+package com.intellivault.backend.index;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 检索过滤条件：字段之间是 AND，同一字段的多个取值之间是 OR
+ * 可过滤的字段：fileId、sourceFilename、metadata.&lt;key&gt; (值一律按字符串比较)
+ * <p>
+ * 索引为每个 (字段, 值) 维护一份行号位图，带过滤的检索只扫命中的行
+ * 上传时间不在片段上，由 SearchService 先查 GridFS 换成 fileId 条件 ({@link #withUploadedFileIds})
+ */
+public final class SearchFilter {
+
+    public static final String FILE_ID = "fileId";
+    public static final String SOURCE_FILENAME = "sourceFilename";
+    public static final String METADATA_PREFIX = "metadata.";
+
+    public static final SearchFilter NONE = builder().build();
+
+    // 字段 -> 允许的取值 (空集合表示什么都不匹配)
+    private final Map<String, Set<String>> terms;
+    // [uploadedFrom, uploadedBefore)，为空表示不限
+    private final Instant uploadedFrom;
+    private final Instant uploadedBefore;
+
+    private SearchFilter(Map<String, Set<String>> terms, Instant uploadedFrom, Instant uploadedBefore) {
+        this.terms = Collections.unmodifiableMap(terms);
+        this.uploadedFrom = uploadedFrom;
+        this.uploadedBefore = uploadedBefore;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Map<String, Set<String>> terms() {
+        return terms;
+    }
+
+    public Instant uploadedFrom() {
+        return uploadedFrom;
+    }
+
+    public Instant uploadedBefore() {
+        return uploadedBefore;
+    }
+
+    public boolean hasUploadRange() {
+        return uploadedFrom != null || uploadedBefore != null;
+    }
+
+    public boolean isEmpty() {
+        return terms.isEmpty() && !hasUploadRange();
+    }
+
+    /**
+     * 把上传时间范围换成 fileId 条件：与已有的 fileId 条件取交集，时间范围本身去掉
+     * @param fileIds 上传时间落在范围内的文件
+     */
+    public SearchFilter withUploadedFileIds(Collection<String> fileIds) {
+        Map<String, Set<String>> resolved = new LinkedHashMap<>(terms);
+        Set<String> allowed = new HashSet<>(fileIds);
+        Set<String> existing = terms.get(FILE_ID);
+        if (existing != null) allowed.retainAll(existing);
+        resolved.put(FILE_ID, Collections.unmodifiableSet(allowed));
+        return new SearchFilter(resolved, null, null);
+    }
+
+    /**
+     * 片段写入索引时的可过滤属性 (fileId 单独传，不在这里)
+     * metadata 里的值转成字符串，空值跳过
+     */
+    public static Map<String, String> attributesOf(String sourceFilename, Map<String, Object> metadata) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        if (sourceFilename != null) attributes.put(SOURCE_FILENAME, sourceFilename);
+        if (metadata != null) {
+            metadata.forEach((key, value) -> {
+                if (value != null) attributes.put(METADATA_PREFIX + key, String.valueOf(value));
+            });
+        }
+        return attributes;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchFilter" + terms + (hasUploadRange() ? " uploaded[" + uploadedFrom + ", " + uploadedBefore + ")" : "");
+    }
+
+    public static final class Builder {
+        private final Map<String, Set<String>> terms = new LinkedHashMap<>();
+        private Instant uploadedFrom;
+        private Instant uploadedBefore;
+
+        private Builder() {
+        }
+
+        public Builder fileIds(Collection<String> fileIds) {
+            return any(FILE_ID, fileIds);
+        }
+
+        public Builder fileId(String... fileIds) {
+            return fileIds(Arrays.asList(fileIds));
+        }
+
+        public Builder sourceFilenames(Collection<String> filenames) {
+            return any(SOURCE_FILENAME, filenames);
+        }
+
+        public Builder sourceFilename(String... filenames) {
+            return sourceFilenames(Arrays.asList(filenames));
+        }
+
+        public Builder metadata(String key, Collection<String> values) {
+            return any(METADATA_PREFIX + key, values);
+        }
+
+        public Builder metadata(String key, String... values) {
+            return metadata(key, Arrays.asList(values));
+        }
+
+        public Builder uploadedBetween(Instant from, Instant before) {
+            this.uploadedFrom = from;
+            this.uploadedBefore = before;
+            return this;
+        }
+
+        /**
+         * 同一字段多次调用时取交集 (AND)
+         */
+        public Builder any(String field, Collection<String> values) {
+            Set<String> allowed = new HashSet<>(values);
+            terms.merge(field, allowed, (a, b) -> {
+                a.retainAll(b);
+                return a;
+            });
+            return this;
+        }
+
+        public SearchFilter build() {
+            Map<String, Set<String>> copy = new LinkedHashMap<>();
+            terms.forEach((field, values) -> copy.put(field, Collections.unmodifiableSet(new HashSet<>(values))));
+            return new SearchFilter(copy, uploadedFrom, uploadedBefore);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.intellivault.backend.index;
+
+/**
+ * 索引命中结果：只带 id 和分数，正文由 SearchService 回 Mongo 补全
+ */
+public record SearchHit(String id, String fileId, float score) {
+}
@@ -0,0 +1,550 @@
+package com.intellivault.backend.index;
+
+import com.intellivault.backend.config.IndexProperties;
+import com.intellivault.backend.model.KnowledgeDocument;
+import com.intellivault.backend.repository.KnowledgeRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 按租户分区的向量索引：每个租户一个独立的 VectorIndex，检索只碰本租户的向量
+ * 开启关键词索引时，每个分区再带一个 LexicalIndex (BM25)，与向量索引一起加载、快照、淘汰
+ * <p>
+ * 分区第一次用到时加载 (快照 + 日志回放，条数与 Mongo 对不上则从 Mongo 重建)，
+ * 已加载分区的估算内存超过 memory-budget 时按 LRU 淘汰：先做快照再卸载，下次用到时再加载
+ * <p>
+ * 并发：每个分区一把读写锁，检索 / 写入持读锁，淘汰持写锁 (等正在用它的请求结束)；
+ * 同一租户的加载和淘汰通过 pending 串行，不会一边写快照一边又从旧快照加载
+ * <p>
+ * 就绪探针：preload 里的租户在 ApplicationReadyEvent 里同步加载，
+ * /actuator/health/readiness 为 UP 时它们一定已与 Mongo 一致
+ */
+@Slf4j
+public class TenantIndexRegistry {
+
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * 按租户创建 (空的) 底层索引，由 VectorIndexConfiguration 按 intellivault.index.type 提供
+     */
+    @FunctionalInterface
+    public interface Factory {
+        VectorIndex create(String tenantId);
+    }
+
+    private static final class Partition {
+        final String tenantId;
+        final VectorIndex index;
+        // 关键词索引关闭时为 null
+        final LexicalIndex lexical;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        Partition(String tenantId, VectorIndex index, LexicalIndex lexical) {
+            this.tenantId = tenantId;
+            this.index = index;
+            this.lexical = lexical;
+        }
+
+        long estimatedBytes() {
+            return index.estimatedBytes() + (lexical == null ? 0 : lexical.estimatedBytes());
+        }
+    }
+
+    private static final String LEXICAL_FILE_NAME = "lexical.idx";
+
+    private final Factory factory;
+    private final KnowledgeRepository knowledgeRepository;
+    private final Path root;
+    private final String fileName;
+    private final boolean fsync;
+    private final long budgetBytes;
+    private final List<String> preload;
+    private final IndexProperties.Lexical lexical;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // 访问顺序的 LinkedHashMap，迭代顺序即 LRU 顺序
+    private final LinkedHashMap<String, Partition> partitions = new LinkedHashMap<>(16, 0.75f, true);
+    // 正在加载 / 淘汰的租户，其他线程等它完成后重试
+    private final Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter loads;
+    private final Counter evictions;
+    private final Timer loadTimer;
+
+    public TenantIndexRegistry(Factory factory,
+                               KnowledgeRepository knowledgeRepository,
+                               IndexProperties properties,
+                               MeterRegistry meterRegistry) {
+        this.factory = factory;
+        this.knowledgeRepository = knowledgeRepository;
+        Path template = Path.of(properties.getPath()).toAbsolutePath();
+        this.root = template.getParent().resolve("tenants");
+        this.fileName = template.getFileName().toString();
+        this.fsync = properties.getSnapshot().isFsync();
+        this.budgetBytes = properties.getTenants().getMemoryBudget().toBytes();
+        this.preload = properties.getTenants().getPreload();
+        this.lexical = properties.getLexical();
+        this.hits = meterRegistry.counter("intellivault.index.partition", "result", "hit");
+        this.loads = meterRegistry.counter("intellivault.index.partition", "result", "load");
+        this.evictions = meterRegistry.counter("intellivault.index.partition.evictions");
+        this.loadTimer = meterRegistry.timer("intellivault.index.partition.load");
+        Gauge.builder("intellivault.index.partition.loaded", this, TenantIndexRegistry::loadedPartitions)
+                .register(meterRegistry);
+        Gauge.builder("intellivault.index.partition.bytes", this, TenantIndexRegistry::estimatedBytes)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 在租户分区上执行只读操作 (检索)，分区没加载时先加载
+     */
+    public <T> T read(String tenantId, Function<VectorIndex, T> action) {
+        return use(tenantId, partition -> action.apply(partition.index), false);
+    }
+
+    /**
+     * 在租户分区上执行写入 / 删除；写完按内存预算淘汰其他冷分区
+     */
+    public <T> T write(String tenantId, Function<VectorIndex, T> action) {
+        return use(tenantId, partition -> action.apply(partition.index), true);
+    }
+
+    public boolean lexicalEnabled() {
+        return lexical.isEnabled();
+    }
+
+    /**
+     * 在租户的关键词索引上执行只读操作；关键词索引关闭时不执行，返回 null
+     */
+    public <T> T readLexical(String tenantId, Function<LexicalIndex, T> action) {
+        if (!lexicalEnabled()) return null;
+        return use(tenantId, partition -> action.apply(partition.lexical), false);
+    }
+
+    /**
+     * 在租户的关键词索引上执行写入 / 删除；关键词索引关闭时不执行，返回 null
+     */
+    public <T> T writeLexical(String tenantId, Function<LexicalIndex, T> action) {
+        if (!lexicalEnabled()) return null;
+        return use(tenantId, partition -> action.apply(partition.lexical), true);
+    }
+
+    public int loadedPartitions() {
+        lock.lock();
+        try {
+            return partitions.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 已加载分区的估算内存总和
+     */
+    public long estimatedBytes() {
+        long total = 0;
+        for (Partition partition : snapshotPartitions()) total += partition.estimatedBytes();
+        return total;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        for (String tenantId : preload) {
+            read(tenantId, VectorIndex::size);
+        }
+        evictIfNeeded(null);
+    }
+
+    /**
+     * 定时快照：只处理已加载且有新写入的分区，之前的日志段随之删除
+     */
+    @Scheduled(fixedDelayString = "${intellivault.index.snapshot.interval:10m}",
+            initialDelayString = "${intellivault.index.snapshot.interval:10m}")
+    public void snapshot() {
+        List<Partition> held = new ArrayList<>();
+        lock.lock();
+        try {
+            // 持读锁期间分区不会被淘汰 (关闭日志)
+            for (Partition partition : partitions.values()) {
+                partition.lock.readLock().lock();
+                held.add(partition);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Partition partition : held) {
+            try {
+                if (partition.index instanceof DurableVectorIndex durable && durable.pendingWrites() > 0) {
+                    checkpoint(partition.tenantId, durable, durable.pendingWrites());
+                }
+                // 关键词快照放在向量快照之后：它总是覆盖到向量快照为止的全部写入 (见 loadLexical)
+                if (partition.lexical != null && partition.lexical.pendingWrites() > 0) saveLexical(partition);
+            } finally {
+                partition.lock.readLock().unlock();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void persist() {
+        List<Partition> all;
+        lock.lock();
+        try {
+            all = new ArrayList<>(partitions.values());
+            partitions.clear();
+        } finally {
+            lock.unlock();
+        }
+        all.forEach(this::unload);
+    }
+
+    // ---------------- 内部方法 ----------------
+
+    private record Lease(Partition partition, boolean loaded) {
+    }
+
+    private <T> T use(String tenantId, Function<Partition, T> action, boolean write) {
+        Lease lease = acquire(tenantId);
+        try {
+            return action.apply(lease.partition());
+        } finally {
+            // 先放掉自己的读锁再淘汰别的分区：两个线程互相等对方的分区会死锁
+            lease.partition().lock.readLock().unlock();
+            // 写入之后、或刚加载进来的分区占用了新的内存
+            if (write || lease.loaded()) evictIfNeeded(tenantId);
+        }
+    }
+
+    // 返回时已持有分区的读锁
+    private Lease acquire(String tenantId) {
+        while (true) {
+            CompletableFuture<Void> inFlight;
+            boolean loader = false;
+            lock.lock();
+            try {
+                Partition partition = partitions.get(tenantId);
+                if (partition != null) {
+                    // 在 map 里说明还没开始淘汰 (淘汰先移出 map 再拿写锁)，这里不会阻塞
+                    partition.lock.readLock().lock();
+                    hits.increment();
+                    return new Lease(partition, false);
+                }
+                inFlight = pending.get(tenantId);
+                if (inFlight == null) {
+                    inFlight = new CompletableFuture<>();
+                    pending.put(tenantId, inFlight);
+                    loader = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (!loader) {
+                // 别的线程正在加载 / 淘汰这个租户，等它结束再重试 (加载失败也会重试一次)
+                inFlight.exceptionally(e -> null).join();
+                continue;
+            }
+            try {
+                Partition partition = loadTimer.record(() -> load(tenantId));
+                loads.increment();
+                lock.lock();
+                try {
+                    partitions.put(tenantId, partition);
+                    partition.lock.readLock().lock();
+                } finally {
+                    lock.unlock();
+                }
+                return new Lease(partition, true);
+            } finally {
+                pending.remove(tenantId);
+                inFlight.complete(null);
+            }
+        }
+    }
+
+    private Partition load(String tenantId) {
+        VectorIndex index = factory.create(tenantId);
+        // 删除中的文件：Mongo 里的片段正被分批删，快照里的行还在 —— 一致性校验两边都不算它们
+        Set<String> pendingRemoval = knowledgeRepository.pendingRemovalFileIds(tenantId);
+        // scan 模式没有向量快照 / 日志，关键词快照只靠条数校验
+        if (!index.resident()) return new Partition(tenantId, index, loadLexical(tenantId, true, pendingRemoval));
+
+        long start = System.currentTimeMillis();
+        DurableVectorIndex durable = new DurableVectorIndex(index, root.resolve(tenantId).resolve(fileName), fsync);
+        DurableVectorIndex.Recovery recovery = recover(tenantId, durable, pendingRemoval);
+        if (recovery != null) {
+            log.info("🧠 租户 {} 的向量索引从快照恢复完成: {} 条, 耗时 {} ms",
+                    tenantId, durable.size(), System.currentTimeMillis() - start);
+            // 回放过日志说明上次快照之后还有写入，关键词快照必然落后，不能用
+            return new Partition(tenantId, durable,
+                    loadLexical(tenantId, recovery.replayedRecords() == 0, pendingRemoval));
+        }
+        int[] loaded = new int[1];
+        try {
+            durable.rebuild(target -> loaded[0] = rebuildFromMongo(tenantId, target));
+        } catch (IOException e) {
+            // 索引已经灌满，只是快照没写成功：日志还在，照常使用，下一轮定时快照再试
+            log.warn("⚠️ 租户 {} 的索引重建后快照失败: {}", tenantId, e.getMessage());
+        }
+        log.info("🧠 租户 {} 的向量索引从 Mongo 重建完成: {} 条, 耗时 {} ms",
+                tenantId, loaded[0], System.currentTimeMillis() - start);
+        return new Partition(tenantId, durable, loadLexical(tenantId, false, pendingRemoval));
+    }
+
+    // 快照 + 日志与 Mongo 一致时返回恢复结果，否则返回 null (调用方从 Mongo 重建)
+    private DurableVectorIndex.Recovery recover(String tenantId, DurableVectorIndex durable, Set<String> pendingRemoval) {
+        DurableVectorIndex.Recovery recovery;
+        try {
+            recovery = durable.recover();
+        } catch (IOException e) {
+            log.warn("⚠️ 租户 {} 的索引快照 / 日志不可用，改为从 Mongo 重建: {}", tenantId, e.getMessage());
+            return null;
+        }
+        // 删除中的文件检索本来就按墓碑过滤，这里提前摘掉 (之后压缩任务再摘是空操作)
+        if (!pendingRemoval.isEmpty()) durable.removeByFileIds(pendingRemoval);
+        // 轻量一致性校验：条数对不上说明快照 / 日志之外的地方改过库 (或日志尾部残缺)，直接重建
+        long expected = liveChunkCount(tenantId, pendingRemoval);
+        if (durable.size() != expected) {
+            log.warn("⚠️ 租户 {} 恢复后索引条数 {} 与 Mongo {} 不一致{}，改为从 Mongo 重建", tenantId,
+                    durable.size(), expected, recovery.tornTail() ? " (日志尾部残缺)" : "");
+            return null;
+        }
+        if (recovery.replayedRecords() > 0) {
+            log.info("📜 租户 {} 回放索引日志 {} 条", tenantId, recovery.replayedRecords());
+        }
+        return recovery;
+    }
+
+    /**
+     * 关键词索引没有自己的日志：快照总在向量快照之后写，只要向量那边不需要回放日志，它就是最新的
+     * 否则 (或条数与 Mongo 对不上) 从 Mongo 的正文重建
+     * @param trustSnapshot 向量索引是否原样从快照恢复 (没有回放日志、没有重建)
+     * @param pendingRemoval 删除中的文件，从快照里摘掉后再校验条数
+     */
+    private LexicalIndex loadLexical(String tenantId, boolean trustSnapshot, Set<String> pendingRemoval) {
+        if (!lexical.isEnabled()) return null;
+        LexicalIndex index = new LexicalIndex(lexical.getK1(), lexical.getB());
+        Path file = root.resolve(tenantId).resolve(LEXICAL_FILE_NAME);
+        long start = System.currentTimeMillis();
+        long expected = liveChunkCount(tenantId, pendingRemoval);
+        if (trustSnapshot && Files.exists(file)) {
+            try {
+                index.load(file);
+                index.removeByFileIds(pendingRemoval);
+                if (index.size() == expected) {
+                    log.info("🔤 租户 {} 的关键词索引从快照恢复完成: {} 条, 耗时 {} ms",
+                            tenantId, index.size(), System.currentTimeMillis() - start);
+                    return index;
+                }
+                log.warn("⚠️ 租户 {} 的关键词索引条数 {} 与 Mongo {} 不一致，改为从 Mongo 重建",
+                        tenantId, index.size(), expected);
+                index.clear();
+            } catch (IOException e) {
+                log.warn("⚠️ 租户 {} 的关键词索引快照不可用，改为从 Mongo 重建: {}", tenantId, e.getMessage());
+            }
+        }
+        if (expected == 0) return index;
+
+        int loaded = rebuildLexicalFromMongo(tenantId, index);
+        saveLexical(tenantId, index);
+        log.info("🔤 租户 {} 的关键词索引从 Mongo 重建完成: {} 条, 耗时 {} ms",
+                tenantId, loaded, System.currentTimeMillis() - start);
+        return index;
+    }
+
+    // 本租户不算删除中文件的片段数
+    private long liveChunkCount(String tenantId, Set<String> pendingRemoval) {
+        return pendingRemoval.isEmpty()
+                ? knowledgeRepository.countByTenant(tenantId)
+                : knowledgeRepository.countByTenantExcluding(tenantId, pendingRemoval);
+    }
+
+    // 游标流式读取本租户的向量投影 (不带正文)，攒满一批写一次索引
+    private int rebuildFromMongo(String tenantId, VectorIndex target) {
+        int loaded = 0;
+        List<String> ids = new ArrayList<>(BATCH_SIZE);
+        List<String> fileIds = new ArrayList<>(BATCH_SIZE);
+        List<float[]> vectors = new ArrayList<>(BATCH_SIZE);
+        List<Map<String, String>> attributes = new ArrayList<>(BATCH_SIZE);
+        try (Stream<KnowledgeDocument> rows = knowledgeRepository.streamVectors(tenantId, BATCH_SIZE)) {
+            for (KnowledgeDocument doc : (Iterable<KnowledgeDocument>) rows::iterator) {
+                if (doc.getEmbedding() == null || doc.getEmbedding().length != target.dimension()) continue;
+                ids.add(doc.getId());
+                fileIds.add(doc.getFileId());
+                vectors.add(doc.getEmbedding());
+                attributes.add(SearchFilter.attributesOf(doc.getSourceFilename(), doc.getMetadata()));
+                if (ids.size() == BATCH_SIZE) {
+                    loaded += flush(target, ids, fileIds, vectors, attributes);
+                }
+            }
+        }
+        return loaded + flush(target, ids, fileIds, vectors, attributes);
+    }
+
+    // 游标流式读取本租户的正文 (不带向量)，攒满一批写一次
+    private int rebuildLexicalFromMongo(String tenantId, LexicalIndex target) {
+        int loaded = 0;
+        List<String> ids = new ArrayList<>(BATCH_SIZE);
+        List<String> fileIds = new ArrayList<>(BATCH_SIZE);
+        List<String> contents = new ArrayList<>(BATCH_SIZE);
+        List<Map<String, String>> attributes = new ArrayList<>(BATCH_SIZE);
+        try (Stream<KnowledgeDocument> rows = knowledgeRepository.streamContents(tenantId, BATCH_SIZE)) {
+            for (KnowledgeDocument doc : (Iterable<KnowledgeDocument>) rows::iterator) {
+                ids.add(doc.getId());
+                fileIds.add(doc.getFileId());
+                contents.add(doc.getContent());
+                attributes.add(SearchFilter.attributesOf(doc.getSourceFilename(), doc.getMetadata()));
+                if (ids.size() == BATCH_SIZE) {
+                    loaded += ids.size();
+                    target.addAll(ids, fileIds, contents, attributes);
+                    ids.clear();
+                    fileIds.clear();
+                    contents.clear();
+                    attributes.clear();
+                }
+            }
+        }
+        if (!ids.isEmpty()) target.addAll(ids, fileIds, contents, attributes);
+        return loaded + ids.size();
+    }
+
+    private int flush(VectorIndex target, List<String> ids, List<String> fileIds, List<float[]> vectors,
+                      List<Map<String, String>> attributes) {
+        int count = ids.size();
+        if (count > 0) target.addAll(ids, fileIds, vectors, attributes);
+        ids.clear();
+        fileIds.clear();
+        vectors.clear();
+        attributes.clear();
+        return count;
+    }
+
+    /**
+     * 超出预算时从最久未用的分区开始淘汰，直到回到预算以内
+     * keep 是刚用过的租户，不淘汰 (单个分区本身超预算时也至少留着它)
+     */
+    private void evictIfNeeded(String keep) {
+        List<Partition> loaded = snapshotPartitions();
+        long total = 0;
+        Map<Partition, Long> sizes = new LinkedHashMap<>();
+        // 估算要拿各分区自己的读锁，不在全局锁里做
+        for (Partition partition : loaded) {
+            long bytes = partition.estimatedBytes();
+            sizes.put(partition, bytes);
+            total += bytes;
+        }
+        if (total <= budgetBytes) return;
+
+        List<Partition> victims = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Map.Entry<Partition, Long> entry : sizes.entrySet()) {
+                if (total <= budgetBytes) break;
+                Partition partition = entry.getKey();
+                if (partition.tenantId.equals(keep) || entry.getValue() == 0) continue;
+                // 期间可能已被别的线程淘汰
+                if (partitions.get(partition.tenantId) != partition || pending.containsKey(partition.tenantId)) continue;
+                partitions.remove(partition.tenantId);
+                pending.put(partition.tenantId, new CompletableFuture<>());
+                victims.add(partition);
+                total -= entry.getValue();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (Partition victim : victims) {
+            try {
+                unload(victim);
+                evictions.increment();
+                log.info("📤 内存超出预算，卸载租户 {} 的索引分区 ({} 条)", victim.tenantId, victim.index.size());
+            } finally {
+                pending.remove(victim.tenantId).complete(null);
+            }
+        }
+    }
+
+    // 调用方已把分区移出 map：等正在用它的请求结束，做快照，关闭日志
+    private void unload(Partition partition) {
+        partition.lock.writeLock().lock();
+        try {
+            if (partition.index instanceof DurableVectorIndex durable) {
+                if (durable.pendingWrites() > 0) checkpoint(partition.tenantId, durable, durable.pendingWrites());
+                durable.close();
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ 关闭租户 {} 的索引日志失败: {}", partition.tenantId, e.getMessage());
+        } finally {
+            try {
+                if (partition.lexical != null && partition.lexical.pendingWrites() > 0) saveLexical(partition);
+            } finally {
+                partition.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void saveLexical(Partition partition) {
+        saveLexical(partition.tenantId, partition.lexical);
+    }
+
+    // 写失败就删掉旧快照：旧快照已经落后，留着下次加载可能误用，删掉则从 Mongo 重建
+    private void saveLexical(String tenantId, LexicalIndex index) {
+        Path file = root.resolve(tenantId).resolve(LEXICAL_FILE_NAME);
+        try {
+            long start = System.currentTimeMillis();
+            index.save(file);
+            log.info("💾 租户 {} 的关键词索引快照完成 ({} 条, 耗时 {} ms)",
+                    tenantId, index.size(), System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            log.warn("⚠️ 租户 {} 的关键词索引快照失败，下次加载从 Mongo 重建: {}", tenantId, e.getMessage());
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // 删不掉也只能等下次加载时按条数校验
+            }
+        }
+    }
+
+    private void checkpoint(String tenantId, DurableVectorIndex durable, long pending) {
+        try {
+            long start = System.currentTimeMillis();
+            durable.checkpoint();
+            log.info("💾 租户 {} 的向量索引快照完成 ({} 条, 覆盖 {} 次写入, 耗时 {} ms)",
+                    tenantId, durable.size(), pending, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            log.warn("⚠️ 租户 {} 的向量索引快照失败，日志保留，下次加载照常回放: {}", tenantId, e.getMessage());
+        }
+    }
+
+    // LRU 顺序 (最久未用在前) 的已加载分区
+    private List<Partition> snapshotPartitions() {
+        lock.lock();
+        try {
+            return new ArrayList<>(partitions.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
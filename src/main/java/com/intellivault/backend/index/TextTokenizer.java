@@ -0,0 +1,111 @@
+package com.intellivault.backend.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 关键词索引的分词：不依赖词典，中英文混排和各种编号都能稳定切出可精确匹配的词项
+ * - 中日韩文字：连续一段切成重叠的二元组 ("合同编号" -> 合同 / 同编 / 编号)，只有一个字时保留单字
+ * - 字母数字：连续的一段为一个词，统一转小写；全角字母数字先折成半角
+ * - 编号 (ERR-1042、SKU_88.1、INV/2024/001)：连接符两侧都是字母数字时整体再出一个词项，
+ *   各段也照常输出，问 "err-1042" 和只问 "1042" 都能命中
+ * 入库和查询走同一套规则，两边切出来的词项一致
+ */
+final class TextTokenizer {
+
+    // 超长的 "词" 多半是 base64 / URL 之类，截断后仍可前缀匹配，整体编号直接丢弃
+    static final int MAX_TOKEN_LENGTH = 64;
+
+    private TextTokenizer() {
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        tokenize(text, tokens::add);
+        return tokens;
+    }
+
+    static void tokenize(String text, Consumer<String> sink) {
+        if (text == null) return;
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            int c = at(text, i);
+            if (isCjk(c)) {
+                i = cjkRun(text, i, sink);
+            } else if (Character.isLetterOrDigit(c)) {
+                i = wordRun(text, i, sink);
+            } else {
+                i += Character.charCount(c);
+            }
+        }
+    }
+
+    // ---------------- 内部方法 ----------------
+
+    private static int cjkRun(String text, int i, Consumer<String> sink) {
+        int prev = -1;
+        int count = 0;
+        while (i < text.length()) {
+            int c = at(text, i);
+            if (!isCjk(c)) break;
+            if (prev >= 0) sink.accept(new StringBuilder(4).appendCodePoint(prev).appendCodePoint(c).toString());
+            prev = c;
+            count++;
+            i += Character.charCount(c);
+        }
+        if (count == 1) sink.accept(Character.toString(prev));
+        return i;
+    }
+
+    private static int wordRun(String text, int i, Consumer<String> sink) {
+        int n = text.length();
+        StringBuilder compound = new StringBuilder();
+        int parts = 0;
+        while (true) {
+            int start = compound.length();
+            while (i < n) {
+                int c = at(text, i);
+                if (!isWord(c)) break;
+                compound.appendCodePoint(Character.toLowerCase(c));
+                i += Character.charCount(c);
+            }
+            int end = Math.min(compound.length(), start + MAX_TOKEN_LENGTH);
+            sink.accept(compound.substring(start, end));
+            parts++;
+            // 连接符后面紧跟字母数字才算编号的一部分 (句末的 "." 不算)
+            if (i + 1 < n && isConnector(at(text, i)) && isWord(at(text, i + 1))) {
+                compound.append((char) at(text, i));
+                i++;
+                continue;
+            }
+            break;
+        }
+        if (parts > 1 && compound.length() <= MAX_TOKEN_LENGTH) sink.accept(compound.toString());
+        return i;
+    }
+
+    // 全角 ASCII (U+FF01 ~ U+FF5E) 折成半角
+    private static int at(String text, int i) {
+        int c = text.codePointAt(i);
+        return c >= 0xFF01 && c <= 0xFF5E ? c - 0xFEE0 : c;
+    }
+
+    private static boolean isWord(int c) {
+        return Character.isLetterOrDigit(c) && !isCjk(c);
+    }
+
+    private static boolean isConnector(int c) {
+        return c == '-' || c == '_' || c == '.' || c == '/' || c == '#';
+    }
+
+    private static boolean isCjk(int c) {
+        if (c < 0x1100) return false; // 拉丁字母、数字、标点走快速路径 (韩文字母从 U+1100 开始)
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,106 @@
+package com.intellivault.backend.index;
+
+/**
+ * 有界 TopK 选择：固定大小的原始类型小根堆 (堆顶是当前第 K 名)
+ * 扫描时每个候选 O(log K)、零分配；并行分区各持一个，最后 merge
+ * <p>
+ * 用法：offer/merge 若干次 -> finish() -> 按 row(i)/score(i) 降序读取
+ */
+final class TopKSelector {
+
+    private final int[] rows;
+    private final float[] scores;
+    private int count;
+
+    TopKSelector(int k) {
+        this.rows = new int[k];
+        this.scores = new float[k];
+    }
+
+    /**
+     * 当前门槛：新分数不超过它就不可能进入 TopK
+     */
+    float threshold() {
+        return count < rows.length ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * @return 是否进入了 TopK (调用方可据此只为入选的行保留额外信息)
+     */
+    boolean offer(int row, float score) {
+        if (count < rows.length) {
+            rows[count] = row;
+            scores[count] = score;
+            siftUp(count++);
+            return true;
+        }
+        if (score > scores[0]) {
+            rows[0] = row;
+            scores[0] = score;
+            siftDown(0, count);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 合并另一个分区的结果 (对方必须还没 finish)
+     */
+    void merge(TopKSelector other) {
+        for (int i = 0; i < other.count; i++) {
+            offer(other.rows[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * 原地堆排序成降序，之后不能再 offer
+     */
+    void finish() {
+        for (int end = count - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    // finish() 之后：第 i 名 (0 为最高分)
+    int row(int i) {
+        return rows[i];
+    }
+
+    float score(int i) {
+        return scores[i];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= scores[i]) return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= end) return;
+            int smallest = left + 1 < end && scores[left + 1] < scores[left] ? left + 1 : left;
+            if (scores[i] <= scores[smallest]) return;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int row = rows[a];
+        rows[a] = rows[b];
+        rows[b] = row;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
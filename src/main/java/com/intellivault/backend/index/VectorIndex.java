@@ -0,0 +1,104 @@
+package com.intellivault.backend.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 向量索引抽象：SearchService 只认这个接口，具体是精确扫描还是 ANN 由配置决定
+ * (intellivault.index.type = flat | hnsw | int8 | scan)
+ */
+public interface VectorIndex {
+
+    int dimension();
+
+    /**
+     * 是否常驻内存：常驻的索引需要启动时加载、关闭时持久化
+     */
+    default boolean resident() {
+        return true;
+    }
+
+    /**
+     * 当前可被检索到的向量条数 (不含已删除的)
+     */
+    int size();
+
+    /**
+     * 常驻内存的估算字节数，按租户分区的 LRU 淘汰按它算预算
+     * 每行另计约 96 字节：id / fileId 字符串和 id -> 行号映射
+     */
+    default long estimatedBytes() {
+        return resident() ? (long) size() * (dimension() * Float.BYTES + 96) : 0;
+    }
+
+    /**
+     * 写入或覆盖一条向量 (以 id 为键，重复写入不会产生重复结果)
+     */
+    void add(String id, String fileId, float[] vector);
+
+    default void addAll(List<String> ids, List<String> fileIds, List<float[]> vectors) {
+        addAll(ids, fileIds, vectors, null);
+    }
+
+    /**
+     * 批量写入，附带每条的可过滤属性 (见 SearchFilter.attributesOf；fileId 总是可过滤，不用放进来)
+     * 不支持过滤倒排的实现忽略 attributes
+     * @param attributes 与 ids 一一对应，整体为 null 表示都没有
+     */
+    default void addAll(List<String> ids, List<String> fileIds, List<float[]> vectors,
+                        List<Map<String, String>> attributes) {
+        for (int i = 0; i < ids.size(); i++) {
+            add(ids.get(i), fileIds.get(i), vectors.get(i));
+        }
+    }
+
+    /**
+     * 删除某个原始文件的全部片段
+     * @return 删除的条数
+     */
+    int removeByFileId(String fileId);
+
+    /**
+     * 批量删除多个原始文件的片段 (后台压缩用)，能一趟扫完的实现应覆盖这个方法
+     * @return 删除的条数
+     */
+    default int removeByFileIds(Set<String> fileIds) {
+        int removed = 0;
+        for (String fileId : fileIds) {
+            removed += removeByFileId(fileId);
+        }
+        return removed;
+    }
+
+    void clear();
+
+    /**
+     * TopK 检索
+     * @param query    查询向量 (无需预先归一化)
+     * @param topK     返回条数
+     * @param minScore 相似度下限，低于它的直接丢弃
+     * @return 按分数降序排列的命中
+     */
+    default List<SearchHit> search(float[] query, int topK, float minScore) {
+        return search(query, topK, minScore, SearchFilter.NONE);
+    }
+
+    /**
+     * 带过滤条件的 TopK 检索：只在满足 filter 的行里找，条件越严扫得越少
+     * @param filter 上传时间范围须已由调用方换成 fileId 条件，这里只看 filter.terms()
+     */
+    List<SearchHit> search(float[] query, int topK, float minScore, SearchFilter filter);
+
+    /**
+     * 持久化到磁盘 (先写临时文件再原子替换，进程中途被杀也不会留下半个文件)
+     */
+    void save(Path file) throws IOException;
+
+    /**
+     * 用磁盘上的快照整体替换当前内容
+     */
+    void load(Path file) throws IOException;
+}
@@ -0,0 +1,52 @@
+package com.intellivault.backend.index;
+
+/**
+ * 向量计算工具
+ * 索引里的向量入库前都做过 L2 归一化，所以余弦相似度 = 点积
+ */
+public final class VectorMath {
+
+    private VectorMath() {
+    }
+
+    /**
+     * 点积：a 从 aOffset 开始的 dimension 个元素与 b 做内积
+     * 4 路累加器手动展开，打破浮点累加的依赖链，方便 JIT 流水线化
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int dimension) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = dimension & ~3;
+        for (; i < bound; i += 4) {
+            s0 += a[aOffset + i] * b[i];
+            s1 += a[aOffset + i + 1] * b[i + 1];
+            s2 += a[aOffset + i + 2] * b[i + 2];
+            s3 += a[aOffset + i + 3] * b[i + 3];
+        }
+        for (; i < dimension; i++) {
+            s0 += a[aOffset + i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * 返回归一化后的副本；零向量原样返回全 0 (与任何向量的相似度都是 0)
+     */
+    public static float[] normalize(float[] vector) {
+        float[] copy = vector.clone();
+        normalizeInPlace(copy, 0, copy.length);
+        return copy;
+    }
+
+    public static void normalizeInPlace(float[] data, int offset, int dimension) {
+        double norm = 0.0;
+        for (int i = 0; i < dimension; i++) {
+            norm += (double) data[offset + i] * data[offset + i];
+        }
+        if (norm == 0.0) return;
+        float inv = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < dimension; i++) {
+            data[offset + i] *= inv;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.intellivault.backend.ingestion;
+
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.Set;
+
+/**
+ * Tika SAX 回调 -> IncrementalChunker
+ * Tika 解析时边读边回调 characters()，文本直接进切片器，不会先拼成整篇 String
+ * <p>
+ * 需要套在 BodyContentHandler 里使用，只接收 &lt;body&gt; 内的内容；
+ * 文档结束后由调用方 finish() 切片器
+ */
+public class ChunkingContentHandler extends DefaultHandler {
+
+    // 块级元素结束时补换行：切片器优先在换行/句号处断开
+    private static final Set<String> BLOCK_ELEMENTS = Set.of(
+            "p", "div", "br", "li", "tr", "h1", "h2", "h3", "h4", "h5", "h6", "pre", "blockquote", "table");
+
+    private static final char[] NEWLINE = {'\n'};
+
+    private final IncrementalChunker chunker;
+
+    public ChunkingContentHandler(IncrementalChunker chunker) {
+        this.chunker = chunker;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        chunker.append(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        chunker.append(ch, start, length);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        if (BLOCK_ELEMENTS.contains(localName)) chunker.append(NEWLINE, 0, 1);
+    }
+}
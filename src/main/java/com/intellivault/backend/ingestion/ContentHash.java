@@ -0,0 +1,29 @@
+package com.intellivault.backend.ingestion;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+
+/**
+ * 片段内容哈希：SHA-256(归一化文本)
+ * 归一化只做不改变语义的处理 (NFKC、合并空白、去首尾空白)，同一段话换个排版仍是同一个哈希
+ */
+public final class ContentHash {
+
+    private ContentHash() {
+    }
+
+    public static String of(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC)
+                .replaceAll("\\s+", " ")
+                .strip();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
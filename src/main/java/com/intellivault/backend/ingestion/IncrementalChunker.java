@@ -0,0 +1,83 @@
+package com.intellivault.backend.ingestion;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 增量切片器：文本一段段喂进来，攒满一个窗口就用 TokenTextSplitter 切一次
+ * <p>
+ * 窗口里最后一个片段可能被窗口边界截断，所以不发出去，而是留在缓冲区里和后面的文本拼起来重新切；
+ * 其余片段立刻交给 sink。任意时刻缓冲区只有 "一个窗口 + 一个尾巴"，与文档总大小无关
+ * <p>
+ * 非线程安全，一个文件一个实例
+ */
+public class IncrementalChunker {
+
+    private final TokenTextSplitter splitter = new TokenTextSplitter();
+    private final int windowChars;
+    private final Consumer<String> sink;
+    private final StringBuilder buffer = new StringBuilder();
+    // 下一次切分的触发长度：尾巴本身就很长时 (整窗只切出一个片段) 要再攒一个窗口，避免每次 append 都重切
+    private int drainAt;
+    private int emitted;
+
+    public IncrementalChunker(int windowChars, Consumer<String> sink) {
+        this.windowChars = Math.max(1024, windowChars);
+        this.sink = sink;
+        this.drainAt = this.windowChars;
+    }
+
+    public void append(char[] chars, int start, int length) {
+        buffer.append(chars, start, length);
+        if (buffer.length() >= drainAt) drain(false);
+    }
+
+    public void append(CharSequence text) {
+        // 按窗口大小分段追加，一次塞进来一整篇也不会让单次切分的输入无限变大
+        for (int from = 0; from < text.length(); from += windowChars) {
+            buffer.append(text, from, Math.min(from + windowChars, text.length()));
+            if (buffer.length() >= drainAt) drain(false);
+        }
+    }
+
+    /**
+     * 文档结束：把剩下的尾巴全部切完发出
+     */
+    public void finish() {
+        drain(true);
+    }
+
+    public int emitted() {
+        return emitted;
+    }
+
+    private void drain(boolean last) {
+        if (buffer.toString().isBlank()) {
+            buffer.setLength(0);
+            drainAt = windowChars;
+            return;
+        }
+
+        String window = buffer.toString();
+        List<Document> chunks = splitter.apply(List.of(new Document(window)));
+        buffer.setLength(0);
+
+        int complete = last ? chunks.size() : chunks.size() - 1;
+        for (int i = 0; i < complete; i++) {
+            sink.accept(chunks.get(i).getContent());
+            emitted++;
+        }
+
+        if (!last && !chunks.isEmpty()) {
+            // 尾巴取原文：从最后一个片段的起点一直到窗口末尾
+            // (切分器会 trim，还会丢掉过短的残片，直接用片段内容可能吞字或把两个词粘在一起)
+            String tail = chunks.get(chunks.size() - 1).getContent();
+            int at = window.lastIndexOf(tail);
+            buffer.append(at >= 0 ? window.substring(at) : tail);
+        }
+        drainAt = buffer.length() + windowChars;
+    }
+}
@@ -0,0 +1,35 @@
+package com.intellivault.backend.ingestion;
+
+import com.intellivault.backend.model.IngestionStage;
+
+/**
+ * 入库过程的检查点回调：DocumentService 每写完一批、每到一个阶段就汇报一次
+ * 任务队列借此持久化进度，崩溃重启后从 committedChunks() 之后继续
+ */
+public interface IngestionCheckpoint {
+
+    // 不需要断点续传的调用 (测试、直接传文本)
+    IngestionCheckpoint NONE = new IngestionCheckpoint() {
+    };
+
+    /**
+     * 上次已确认落库的片段数；重新切片时前这么多个片段不再向量化和写入
+     */
+    default int committedChunks() {
+        return 0;
+    }
+
+    /**
+     * 又一批片段已落库并进入索引
+     * @param chunks 累计落库的片段数 (含之前跳过的)
+     */
+    default void committed(int chunks) {
+    }
+
+    /**
+     * 到达一个新阶段
+     * @param totalChunks 到目前为止切出的片段总数
+     */
+    default void reached(IngestionStage stage, int totalChunks) {
+    }
+}
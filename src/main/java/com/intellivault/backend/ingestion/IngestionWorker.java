@@ -0,0 +1,162 @@
+package com.intellivault.backend.ingestion;
+
+import com.intellivault.backend.config.IngestionProperties;
+import com.intellivault.backend.config.Tenants;
+import com.intellivault.backend.model.IngestionJob;
+import com.intellivault.backend.model.IngestionStage;
+import com.intellivault.backend.service.DocumentService;
+import com.intellivault.backend.service.DocumentStorageService;
+import com.intellivault.backend.service.IngestionJobService;
+import com.intellivault.backend.service.IngestionJobService.LeaseLostException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 入库任务 worker：定时从 ingestion_jobs 领取任务，在 ingestionExecutor 上执行
+ * 只在有空闲槽位时才领取，任务不会在内存里排队，节点重启也不会丢
+ * 节点未就绪 (向量索引还在恢复) 时不领取，恢复完成后再开始
+ */
+@Slf4j
+@Component
+public class IngestionWorker {
+
+    private final IngestionJobService jobService;
+    private final DocumentStorageService storageService;
+    private final DocumentService documentService;
+    private final Executor executor;
+    private final ApplicationAvailability availability;
+    private final Semaphore slots;
+    private final String owner;
+
+    public IngestionWorker(IngestionJobService jobService,
+                           DocumentStorageService storageService,
+                           DocumentService documentService,
+                           @Qualifier("ingestionExecutor") Executor executor,
+                           ApplicationAvailability availability,
+                           IngestionProperties properties) {
+        this.jobService = jobService;
+        this.storageService = storageService;
+        this.documentService = documentService;
+        this.executor = executor;
+        this.availability = availability;
+        this.slots = new Semaphore(properties.getJobs().getConcurrency());
+        this.owner = hostName() + ":" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @Scheduled(fixedDelayString = "${intellivault.ingestion.jobs.poll-interval:1s}")
+    public void poll() {
+        if (availability.getReadinessState() != ReadinessState.ACCEPTING_TRAFFIC) return;
+        while (slots.tryAcquire()) {
+            Optional<IngestionJob> leased;
+            try {
+                leased = jobService.lease(owner);
+            } catch (RuntimeException e) {
+                slots.release();
+                log.warn("⚠️ 领取入库任务失败: {}", e.getMessage());
+                return;
+            }
+            if (leased.isEmpty()) {
+                slots.release();
+                return;
+            }
+            IngestionJob job = leased.get();
+            try {
+                executor.execute(() -> {
+                    try {
+                        run(job);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 槽位在任务的 finally 里归还，那时线程还没空出来，线程池可能拒绝：归还槽位、交还租约，下一轮再领
+                slots.release();
+                giveBack(job);
+                return;
+            }
+        }
+    }
+
+    private void giveBack(IngestionJob job) {
+        try {
+            jobService.release(job, owner);
+            log.warn("⚠️ [入库任务] 线程池繁忙，交还任务: {}", job.getId());
+        } catch (RuntimeException e) {
+            // 交还失败也不要紧：租约到期后任务会被重新领取
+            log.warn("⚠️ [入库任务] 交还任务 {} 失败，等租约过期后重新领取: {}", job.getId(), e.getMessage());
+        }
+    }
+
+    private void run(IngestionJob job) {
+        log.info("⚡ [入库任务] 开始处理文档: ID={}, Name={}, 第 {} 次尝试, 已完成 {} 个片段",
+                job.getId(), job.getFileName(), job.getAttempts(), job.getChunksWritten());
+        try {
+            // 1. 从 GridFS 捞回文件流；文件不存在重试也没用，直接进死信
+            Optional<? extends Resource> resource = storageService.getFile(job.getId());
+            if (resource.isEmpty()) {
+                jobService.fail(job, owner, new IllegalStateException("GridFS 中找不到文件: " + job.getId()), false);
+                return;
+            }
+
+            // 2. 解析 -> 切片 -> 向量化 -> 落库 -> 进索引，每批落库后写检查点
+            documentService.ingest(resource.get(), job.getFileName(), job.getId(),
+                    Tenants.orDefault(job.getTenantId()), new JobCheckpoint(job));
+
+            jobService.complete(job.getId(), owner);
+            log.info("✅ [入库任务] 文档处理成功结束: {}", job.getFileName());
+        } catch (LeaseLostException e) {
+            // 租约过期被别的节点接手，或文件已被删除：放手即可，不算失败
+            log.warn("⚠️ [入库任务] {}，停止处理", e.getMessage());
+        } catch (Exception e) {
+            log.error("❌ [入库任务] 处理失败: ID={}, {}", job.getId(), e.getMessage(), e);
+            try {
+                jobService.fail(job, owner, e, true);
+            } catch (LeaseLostException ignored) {
+                // 已经不归我们管了
+            }
+        }
+    }
+
+    private class JobCheckpoint implements IngestionCheckpoint {
+        private final IngestionJob job;
+
+        JobCheckpoint(IngestionJob job) {
+            this.job = job;
+        }
+
+        @Override
+        public int committedChunks() {
+            return job.getChunksWritten();
+        }
+
+        @Override
+        public void committed(int chunks) {
+            jobService.progress(job.getId(), owner, chunks);
+        }
+
+        @Override
+        public void reached(IngestionStage stage, int totalChunks) {
+            jobService.advance(job.getId(), owner, stage, totalChunks);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.intellivault.backend.memory;
+
+import com.intellivault.backend.config.ChatMemoryProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 会话记忆的本节点近端缓存：conversationId -> 最近 retention 条消息 (开启滚动摘要时连同摘要)
+ * 同一会话连续几轮对话 (以及同步 / 流式两个实现之间) 直接读本地，不再回 Redis 取历史
+ * <p>
+ * - 本节点写入：Redis 写成功后把新消息追加到本地副本 (写穿)，不需要再读一次
+ * - 别的节点写入：同一个 Lua 脚本里 PUBLISH 失效通知 "节点 id:会话 id"，收到后丢弃本地副本
+ * - 读未命中回 Redis 加载时，期间若有写入或失效 (按会话分段的代数变了)，加载结果不回填，避免把旧历史写进缓存
+ * - 失效通知最多投递一次，本地副本另有 TTL 兜底
+ */
+@Slf4j
+public class ChatMemoryNearCache {
+
+    // 代数按会话 id 的哈希分段，段内任何写入 / 失效都让正在进行的加载作废
+    private static final int GENERATION_STRIPES = 256;
+
+    private final boolean enabled;
+    private final int maxConversations;
+    private final long ttlMillis;
+    private final int retention;
+    private final String channel;
+    // 本节点的标识：忽略自己发出的失效通知 (本地副本已经写穿过了)
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final long[] generations = new long[GENERATION_STRIPES];
+
+    public ChatMemoryNearCache(ChatMemoryProperties properties) {
+        ChatMemoryProperties.NearCache config = properties.getNearCache();
+        this.enabled = config.isEnabled();
+        this.maxConversations = config.getMaxConversations();
+        this.ttlMillis = config.getTtl().toMillis();
+        this.retention = properties.getRetention();
+        this.channel = config.getChannel();
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * 写入时随脚本一起发布的频道，未开启时为空串 (脚本里跳过 PUBLISH)
+     */
+    String channel() {
+        return enabled ? channel : "";
+    }
+
+    String invalidation(String conversationId) {
+        return nodeId + ":" + conversationId;
+    }
+
+    /**
+     * 最近 lastN 条 (有摘要时摘要在最前，不计入 lastN)，未缓存时返回 null
+     */
+    List<Message> get(String conversationId, int lastN) {
+        if (!enabled) return null;
+        lock.lock();
+        try {
+            Entry entry = entries.get(conversationId);
+            if (entry == null) return null;
+            if (entry.expireAt() <= System.currentTimeMillis()) {
+                entries.remove(conversationId);
+                return null;
+            }
+            return RedisChatMemory.recent(entry.summary(), entry.messages(), lastN);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 开始回 Redis 加载前取一个代数，加载完用它回填
+     */
+    long stamp(String conversationId) {
+        lock.lock();
+        try {
+            return generations[stripe(conversationId)];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 回填加载结果 (Redis 里最近 retention 条)；加载期间有过写入或失效则放弃
+     */
+    void fill(String conversationId, List<Message> messages, long stamp) {
+        fill(conversationId, null, messages, stamp);
+    }
+
+    /**
+     * @param summary 摘要消息，没有摘要时为 null
+     */
+    void fill(String conversationId, Message summary, List<Message> messages, long stamp) {
+        if (!enabled) return;
+        lock.lock();
+        try {
+            if (generations[stripe(conversationId)] != stamp) return;
+            put(conversationId, summary, List.copyOf(messages));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 本节点写入 Redis 成功后调用：已缓存的会话直接追加并截断，未缓存的等下次读再加载
+     */
+    void appended(String conversationId, List<Message> messages) {
+        if (!enabled) return;
+        lock.lock();
+        try {
+            generations[stripe(conversationId)]++;
+            Entry entry = entries.get(conversationId);
+            if (entry == null) return;
+            List<Message> merged = new ArrayList<>(entry.messages().size() + messages.size());
+            merged.addAll(entry.messages());
+            merged.addAll(messages);
+            put(conversationId, entry.summary(),
+                    List.copyOf(merged.subList(Math.max(0, merged.size() - retention), merged.size())));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void evict(String conversationId) {
+        if (!enabled) return;
+        lock.lock();
+        try {
+            generations[stripe(conversationId)]++;
+            entries.remove(conversationId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 失效通知的消息体 "节点 id:会话 id"；自己发的忽略
+     */
+    public void onInvalidation(String payload) {
+        int split = payload.indexOf(':');
+        if (split < 0) {
+            log.warn("⚠️ 忽略格式不对的会话记忆失效通知: {}", payload);
+            return;
+        }
+        if (payload.regionMatches(0, nodeId, 0, split) && split == nodeId.length()) return;
+        evict(payload.substring(split + 1));
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 调用方持有锁
+    private void put(String conversationId, Message summary, List<Message> messages) {
+        entries.put(conversationId, new Entry(messages, summary, System.currentTimeMillis() + ttlMillis));
+        if (entries.size() > maxConversations) {
+            Map.Entry<String, Entry> eldest = entries.entrySet().iterator().next();
+            entries.remove(eldest.getKey());
+        }
+    }
+
+    private static int stripe(String conversationId) {
+        return (conversationId.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    private record Entry(List<Message> messages, Message summary, long expireAt) {
+    }
+}
@@ -0,0 +1,172 @@
+package com.intellivault.backend.memory;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 会话消息的二进制编码 (Redis List 里的一个元素)
+ * <pre>
+ * [格式版本 1B][消息类型 1B][metadata 条数 varint]
+ * { [key 长度 varint][key UTF-8][值类型 1B][值] } * 条数
+ * [正文 UTF-8，直到末尾]
+ * </pre>
+ * 值只保留字符串 / 整数 (zigzag varint) / 浮点 (8B) / 布尔 (1B)，其余类型的 metadata 不落 Redis
+ * <p>
+ * 兼容老格式 "TYPE|content"：老数据首字节是可打印字符，不会等于格式版本号，读到就按老格式解析
+ */
+final class ChatMessageCodec {
+
+    private static final byte FORMAT = 1;
+
+    private static final byte TYPE_USER = 0;
+    private static final byte TYPE_ASSISTANT = 1;
+    private static final byte TYPE_SYSTEM = 2;
+
+    private static final byte STRING = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte BOOLEAN = 3;
+
+    // AbstractMessage 自己放进 metadata 的消息类型，已经单独编码
+    private static final String MESSAGE_TYPE_KEY = "messageType";
+
+    private ChatMessageCodec() {
+    }
+
+    static byte[] encode(Message message) {
+        byte[] content = message.getContent() == null ? new byte[0]
+                : message.getContent().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 8);
+        out.write(FORMAT);
+        out.write(switch (message.getMessageType()) {
+            case ASSISTANT -> TYPE_ASSISTANT;
+            case SYSTEM -> TYPE_SYSTEM;
+            default -> TYPE_USER; // 工具消息不进记忆，万一有按用户消息处理 (与老格式一致)
+        });
+
+        Map<String, Object> metadata = new HashMap<>();
+        message.getMetadata().forEach((key, value) -> {
+            if (!MESSAGE_TYPE_KEY.equals(key) && (value instanceof String || value instanceof Number
+                    || value instanceof Boolean)) {
+                metadata.put(key, value);
+            }
+        });
+        writeVarint(out, metadata.size());
+        metadata.forEach((key, value) -> {
+            writeString(out, key);
+            switch (value) {
+                case String text -> {
+                    out.write(STRING);
+                    writeString(out, text);
+                }
+                case Boolean flag -> {
+                    out.write(BOOLEAN);
+                    out.write(flag ? 1 : 0);
+                }
+                case Double number -> writeDouble(out, number);
+                case Float number -> writeDouble(out, number);
+                case Number number -> {
+                    out.write(LONG);
+                    long v = number.longValue();
+                    writeVarint(out, (v << 1) ^ (v >> 63));
+                }
+                default -> throw new IllegalStateException("不支持的 metadata 类型: " + value.getClass());
+            }
+        });
+
+        out.writeBytes(content);
+        return out.toByteArray();
+    }
+
+    static Message decode(byte[] raw) {
+        if (raw.length == 0 || raw[0] != FORMAT) {
+            return decodeLegacy(new String(raw, StandardCharsets.UTF_8));
+        }
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        in.get(); // 格式版本
+        byte type = in.get();
+
+        int count = (int) readVarint(in);
+        Map<String, Object> metadata = new HashMap<>(Math.max(4, count * 2));
+        for (int i = 0; i < count; i++) {
+            String key = readString(in);
+            Object value = switch (in.get()) {
+                case STRING -> readString(in);
+                case LONG -> {
+                    long v = readVarint(in);
+                    yield (v >>> 1) ^ -(v & 1);
+                }
+                case DOUBLE -> in.getDouble();
+                case BOOLEAN -> in.get() != 0;
+                default -> throw new IllegalStateException("损坏的会话消息: 未知的 metadata 类型");
+            };
+            metadata.put(key, value);
+        }
+        String content = new String(raw, in.position(), in.remaining(), StandardCharsets.UTF_8);
+
+        return switch (type) {
+            case TYPE_ASSISTANT -> new AssistantMessage(content, metadata);
+            case TYPE_SYSTEM -> new SystemMessage(content);
+            default -> new UserMessage(content, List.of(), metadata);
+        };
+    }
+
+    // 老格式：Type|Content
+    private static Message decodeLegacy(String raw) {
+        int splitIndex = raw.indexOf('|');
+        String type = splitIndex < 0 ? "" : raw.substring(0, splitIndex);
+        String content = raw.substring(splitIndex + 1);
+        return switch (type) {
+            case "ASSISTANT" -> new AssistantMessage(content);
+            case "SYSTEM" -> new SystemMessage(content);
+            default -> new UserMessage(content);
+        };
+    }
+
+    // ---------------- 编码工具 ----------------
+
+    private static void writeDouble(ByteArrayOutputStream out, double value) {
+        out.write(DOUBLE);
+        out.writeBytes(ByteBuffer.allocate(Double.BYTES).putDouble(value).array());
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = (int) readVarint(in);
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalStateException("损坏的会话消息: varint 过长");
+    }
+}
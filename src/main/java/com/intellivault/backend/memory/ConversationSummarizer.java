@@ -0,0 +1,193 @@
+package com.intellivault.backend.memory;
+
+import com.intellivault.backend.config.ChatMemoryProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 滚动摘要：会话的原始历史超过 token 预算后，在后台把较早的几轮折叠进一段摘要
+ * <p>
+ * - 摘要存在会话旁边 (chat:memory:&lt;会话&gt;:summary)，读取时作为一条系统消息放在历史最前
+ * - 每次写入后按需触发 (写入路径不等它)，同一会话同时只折叠一次；线程池排满就跳过，下一轮再试
+ * - 提交用 Lua 脚本做 "比较后截断"：确认被折叠的那几条还在列表头部才截断并写摘要，
+ *   期间被别的节点折叠或被 retention 截掉时放弃，不会丢消息也不会重复摘要
+ */
+@Slf4j
+public class ConversationSummarizer {
+
+    /**
+     * KEYS[1] 历史，KEYS[2] 摘要；ARGV[1] 折叠条数，ARGV[2] 第一条，ARGV[3] 最后一条被折叠的，
+     * ARGV[4] 新摘要，ARGV[5] 过期秒数，ARGV[6] 失效通知频道 (空串不发)，ARGV[7] 通知内容
+     */
+    static final RedisScript<Long> FOLD_SCRIPT = RedisScript.of("""
+            local n = tonumber(ARGV[1])
+            if redis.call('LINDEX', KEYS[1], 0) ~= ARGV[2] or redis.call('LINDEX', KEYS[1], n - 1) ~= ARGV[3] then
+                return 0
+            end
+            redis.call('LTRIM', KEYS[1], n, -1)
+            redis.call('SET', KEYS[2], ARGV[4], 'EX', ARGV[5])
+            if ARGV[6] ~= '' then redis.call('PUBLISH', ARGV[6], ARGV[7]) end
+            return 1
+            """, Long.class);
+
+    private static final String SUMMARY_PREFIX = "以下是之前对话的摘要：\n";
+
+    private static final String INSTRUCTION = """
+            你负责压缩对话历史。把【已有摘要】和【新的对话】合并成一段新的摘要：
+            保留用户的身份和偏好、提到的文件名 / 编号 / 数字、已经得出的结论和还没解决的问题；
+            不要编造，不要评价，用第三人称陈述，不超过 %d 字。只输出摘要正文。
+            """;
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final ChatClient chatClient;
+    private final ChatMemoryNearCache nearCache;
+    private final Executor executor;
+    private final ChatMemoryProperties.Summary config;
+    private final long ttlSeconds;
+    // 正在折叠的会话
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    public ConversationSummarizer(RedisTemplate<String, byte[]> redisTemplate,
+                                  ChatClient chatClient,
+                                  ChatMemoryNearCache nearCache,
+                                  Executor executor,
+                                  ChatMemoryProperties properties) {
+        this.redisTemplate = redisTemplate;
+        this.chatClient = chatClient;
+        this.nearCache = nearCache;
+        this.executor = executor;
+        this.config = properties.getSummary();
+        this.ttlSeconds = properties.getTtl().toSeconds();
+    }
+
+    public boolean enabled() {
+        return config.isEnabled();
+    }
+
+    static String getSummaryKey(String conversationId) {
+        return RedisChatMemory.getKey(conversationId) + ":summary";
+    }
+
+    static Message summaryMessage(String summary) {
+        return new SystemMessage(SUMMARY_PREFIX + summary);
+    }
+
+    /**
+     * 写入成功后调用 (可能在 Lettuce 的事件循环线程上，这里只提交任务，不阻塞)
+     * @param length 写入后列表的长度，不超过 keepRecent 时不可能需要折叠
+     */
+    void onAppended(String conversationId, long length) {
+        if (!enabled() || length <= config.getKeepRecent()) return;
+        if (!running.add(conversationId)) return;
+        try {
+            executor.execute(() -> {
+                try {
+                    fold(conversationId);
+                } catch (Exception e) {
+                    // 折叠失败只是这一轮提示词长一点，下次写入再试
+                    log.warn("⚠️ 会话 {} 的历史摘要失败: {}", conversationId, e.getMessage());
+                } finally {
+                    running.remove(conversationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.remove(conversationId);
+        }
+    }
+
+    void fold(String conversationId) {
+        String key = RedisChatMemory.getKey(conversationId);
+        List<byte[]> raw = redisTemplate.opsForList().range(key, 0, -1);
+        if (raw == null) return;
+        List<Message> messages = new ArrayList<>(raw.size());
+        for (byte[] value : raw) messages.add(ChatMessageCodec.decode(value));
+
+        int folded = foldCount(messages, config.getTokenBudget(), config.getKeepRecent());
+        if (folded == 0) return;
+
+        byte[] previous = redisTemplate.opsForValue().get(getSummaryKey(conversationId));
+        String summary = summarize(previous == null ? null : new String(previous, StandardCharsets.UTF_8),
+                messages.subList(0, folded));
+        if (summary == null || summary.isBlank()) return;
+
+        Long committed = redisTemplate.execute(FOLD_SCRIPT, List.of(key, getSummaryKey(conversationId)),
+                utf8(String.valueOf(folded)), raw.get(0), raw.get(folded - 1), utf8(summary.strip()),
+                utf8(String.valueOf(ttlSeconds)), utf8(nearCache.channel()),
+                utf8(nearCache.invalidation(conversationId)));
+        if (committed != null && committed == 1) {
+            // 本节点的副本还带着被折叠的原文，丢掉重新加载 (别的节点由脚本里的通知处理)
+            nearCache.evict(conversationId);
+            log.info("🗜️ 会话 {} 折叠了 {} 条历史消息进摘要", conversationId, folded);
+        }
+    }
+
+    /**
+     * 需要折叠的条数 (从头部算起)：原始历史不超预算时为 0；
+     * 否则至少保留最近 keepRecent 条，保留部分从用户消息开始，不把一问一答拆开
+     */
+    static int foldCount(List<Message> messages, int tokenBudget, int keepRecent) {
+        if (messages.size() <= keepRecent) return 0;
+        int total = 0;
+        for (Message message : messages) total += estimateTokens(message.getContent());
+        if (total <= tokenBudget) return 0;
+
+        int folded = messages.size() - keepRecent;
+        while (folded > 0 && messages.get(folded).getMessageType() != MessageType.USER) folded--;
+        return folded;
+    }
+
+    /**
+     * 粗略估算 token 数：汉字 / 假名 / 谚文按一字一个，其余字符按四个一个，每条消息另加 4 个的格式开销
+     */
+    static int estimateTokens(String text) {
+        if (text == null) return 4;
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+            if (script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                    || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL) {
+                cjk++;
+            } else {
+                other++;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return 4 + cjk + (other + 3) / 4;
+    }
+
+    private String summarize(String previous, List<Message> messages) {
+        StringBuilder transcript = new StringBuilder("【已有摘要】\n")
+                .append(previous == null ? "(无)" : previous)
+                .append("\n\n【新的对话】\n");
+        for (Message message : messages) {
+            if (message.getMessageType() == MessageType.SYSTEM) continue;
+            transcript.append(message.getMessageType() == MessageType.ASSISTANT ? "助手: " : "用户: ")
+                    .append(message.getContent())
+                    .append('\n');
+        }
+        return chatClient.prompt()
+                .system(INSTRUCTION.formatted(config.getMaxSummaryChars()))
+                .user(transcript.toString())
+                .call()
+                .content();
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
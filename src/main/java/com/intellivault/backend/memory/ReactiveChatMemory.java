@@ -0,0 +1,21 @@
+package com.intellivault.backend.memory;
+
+import org.springframework.ai.chat.messages.Message;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * 非阻塞的会话记忆 (流式对话用)：和 ChatMemory 同样的语义，返回 Mono，不占调用线程
+ */
+public interface ReactiveChatMemory {
+
+    Mono<Void> add(String conversationId, List<Message> messages);
+
+    /**
+     * 最近 lastN 条，按时间先后
+     */
+    Mono<List<Message>> get(String conversationId, int lastN);
+
+    Mono<Void> clear(String conversationId);
+}
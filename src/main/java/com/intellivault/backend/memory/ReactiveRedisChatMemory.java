@@ -0,0 +1,90 @@
+package com.intellivault.backend.memory;
+
+import com.intellivault.backend.config.ChatMemoryProperties;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 基于响应式 Redis (Lettuce) 的会话记忆：与 RedisChatMemory 同一个 key、同一个写入脚本、同一种编码，
+ * 也共用同一个近端缓存和滚动摘要，同步接口 (/chat) 和流式接口 (/chat/stream) 看到的是同一份历史
+ * 所有命令都挂在 Lettuce 的事件循环上，没有线程在等 Redis 返回
+ */
+public class ReactiveRedisChatMemory implements ReactiveChatMemory {
+
+    private final ReactiveRedisTemplate<String, byte[]> redisTemplate;
+    private final ChatMemoryNearCache nearCache;
+    private final ConversationSummarizer summarizer;
+    private final int retentionSize; // 只保留最近 N 条
+    private final long ttlSeconds;
+
+    public ReactiveRedisChatMemory(ReactiveRedisTemplate<String, byte[]> redisTemplate,
+                                   ChatMemoryProperties properties,
+                                   ChatMemoryNearCache nearCache,
+                                   ConversationSummarizer summarizer) {
+        this.redisTemplate = redisTemplate;
+        this.nearCache = nearCache;
+        this.summarizer = summarizer;
+        this.retentionSize = properties.getRetention();
+        this.ttlSeconds = properties.getTtl().toSeconds();
+    }
+
+    @Override
+    public Mono<Void> add(String conversationId, List<Message> messages) {
+        if (messages.isEmpty()) return Mono.empty();
+        // 整轮 (问 + 答) 一个脚本：写入、截断、续期、失效通知一次往返
+        // 折叠摘要只是提交到后台线程池，不在 Lettuce 的事件循环上做
+        return Mono.defer(() -> redisTemplate.execute(RedisChatMemory.APPEND_SCRIPT,
+                        RedisChatMemory.scriptKeys(conversationId),
+                        Arrays.asList(RedisChatMemory.appendArgs(conversationId, messages, retentionSize, ttlSeconds,
+                                nearCache)))
+                .next()
+                .doOnNext(length -> {
+                    nearCache.appended(conversationId, messages);
+                    summarizer.onAppended(conversationId, length);
+                })
+                .then());
+    }
+
+    @Override
+    public Mono<List<Message>> get(String conversationId, int lastN) {
+        if (lastN <= 0) return Mono.just(List.of());
+        return Mono.defer(() -> {
+            List<Message> cached = nearCache.get(conversationId, lastN);
+            if (cached != null) return Mono.just(cached);
+
+            // 负下标直接取尾部，不把整段历史拉回来；开启近端缓存时取整个保留窗口以便回填
+            int window = nearCache.enabled() ? Math.max(lastN, retentionSize) : lastN;
+            long stamp = nearCache.stamp(conversationId);
+            Mono<List<Message>> history = redisTemplate.opsForList()
+                    .range(RedisChatMemory.getKey(conversationId), -window, -1)
+                    .map(ChatMessageCodec::decode)
+                    .collectList();
+            // 摘要和历史两条命令同时发出 (同一条连接上流水线)
+            Mono<Optional<Message>> summary = summarizer.enabled()
+                    ? redisTemplate.opsForValue().get(ConversationSummarizer.getSummaryKey(conversationId))
+                    .map(raw -> Optional.of(
+                            ConversationSummarizer.summaryMessage(new String(raw, StandardCharsets.UTF_8))))
+                    .defaultIfEmpty(Optional.empty())
+                    : Mono.just(Optional.empty());
+            return Mono.zip(summary, history).map(loaded -> {
+                Message summaryMessage = loaded.getT1().orElse(null);
+                nearCache.fill(conversationId, summaryMessage, loaded.getT2(), stamp);
+                return RedisChatMemory.recent(summaryMessage, loaded.getT2(), lastN);
+            });
+        });
+    }
+
+    @Override
+    public Mono<Void> clear(String conversationId) {
+        return Mono.defer(() -> redisTemplate.execute(RedisChatMemory.CLEAR_SCRIPT,
+                        RedisChatMemory.scriptKeys(conversationId),
+                        Arrays.asList(RedisChatMemory.clearArgs(conversationId, nearCache)))
+                .then(Mono.<Void>fromRunnable(() -> nearCache.evict(conversationId))));
+    }
+}
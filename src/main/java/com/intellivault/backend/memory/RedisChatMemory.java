@@ -1,77 +1,157 @@
 package com.intellivault.backend.memory;
 
+import com.intellivault.backend.config.ChatMemoryProperties;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
-import org.springframework.ai.chat.messages.UserMessage;
-import org.springframework.ai.chat.messages.AssistantMessage;
-import org.springframework.ai.chat.messages.SystemMessage;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.lang.NonNull;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * 手写 Redis 记忆存储
  * 亮点：利用 Redis List 数据结构存储对话历史，设置 TTL 自动过期
+ * <p>
+ * - 写：一轮的消息连同截断、续期、失效通知在一个 Lua 脚本里完成，一次往返且原子
+ * - 读：负下标 LRANGE 只取尾部，不把整段历史拉回来；开启近端缓存时连续几轮直接读本地
+ * - 值：紧凑的二进制编码 (见 ChatMessageCodec)，带上消息的 metadata
+ * - 开启滚动摘要时，摘要和尾部历史在一次流水线往返里一起取回，摘要放在最前 (见 ConversationSummarizer)
  */
 public class RedisChatMemory implements ChatMemory {
 
-    private final StringRedisTemplate redisTemplate;
+    /**
+     * KEYS[1] 历史 key，KEYS[2] 摘要 key (一起续期)；ARGV[1] 保留条数，ARGV[2] 过期秒数，
+     * ARGV[3] 失效通知频道 (空串不发)，ARGV[4] 通知内容，ARGV[5..] 本轮消息
+     */
+    static final RedisScript<Long> APPEND_SCRIPT = RedisScript.of("""
+            local length = redis.call('RPUSH', KEYS[1], unpack(ARGV, 5))
+            redis.call('LTRIM', KEYS[1], -tonumber(ARGV[1]), -1)
+            redis.call('EXPIRE', KEYS[1], ARGV[2])
+            redis.call('EXPIRE', KEYS[2], ARGV[2])
+            if ARGV[3] ~= '' then redis.call('PUBLISH', ARGV[3], ARGV[4]) end
+            return length
+            """, Long.class);
+
+    /**
+     * KEYS[1] 历史 key，KEYS[2] 摘要 key；ARGV[1] 失效通知频道 (空串不发)，ARGV[2] 通知内容
+     */
+    static final RedisScript<Long> CLEAR_SCRIPT = RedisScript.of("""
+            local removed = redis.call('DEL', KEYS[1], KEYS[2])
+            if ARGV[1] ~= '' then redis.call('PUBLISH', ARGV[1], ARGV[2]) end
+            return removed
+            """, Long.class);
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final ChatMemoryNearCache nearCache;
+    private final ConversationSummarizer summarizer;
     private final int retentionSize; // 只保留最近 N 条
+    private final long ttlSeconds;
 
-    public RedisChatMemory(StringRedisTemplate redisTemplate, int retentionSize) {
+    public RedisChatMemory(RedisTemplate<String, byte[]> redisTemplate,
+                           ChatMemoryProperties properties,
+                           ChatMemoryNearCache nearCache,
+                           ConversationSummarizer summarizer) {
         this.redisTemplate = redisTemplate;
-        this.retentionSize = retentionSize;
+        this.nearCache = nearCache;
+        this.summarizer = summarizer;
+        this.retentionSize = properties.getRetention();
+        this.ttlSeconds = properties.getTtl().toSeconds();
     }
 
-    private String getKey(String conversationId) {
+    // 同步 / 响应式两个实现共用 key、脚本和编码，读写的是同一份历史
+    static String getKey(String conversationId) {
         return "chat:memory:" + conversationId;
     }
 
+    // 脚本用到的两个 key：历史和摘要
+    static List<String> scriptKeys(String conversationId) {
+        return List.of(getKey(conversationId), ConversationSummarizer.getSummaryKey(conversationId));
+    }
+
     @Override
     public void add(@NonNull String conversationId, @NonNull List<Message> messages) {
-        String key = getKey(conversationId);
-        for (Message msg : messages) {
-            // 简单序列化：Type|Content
-            String value = msg.getMessageType().name() + "|" + msg.getContent();
-            redisTemplate.opsForList().rightPush(key, value);
-        }
-        // 截断历史，防止无限增长 (保留最后 retentionSize 条)
-        redisTemplate.opsForList().trim(key, -retentionSize, -1);
-        // 设置 1 小时过期，节省空间
-        redisTemplate.expire(key, 60, java.util.concurrent.TimeUnit.MINUTES);
+        if (messages.isEmpty()) return;
+        Long length = redisTemplate.execute(APPEND_SCRIPT, scriptKeys(conversationId),
+                appendArgs(conversationId, messages, retentionSize, ttlSeconds, nearCache));
+        nearCache.appended(conversationId, messages);
+        if (length != null) summarizer.onAppended(conversationId, length);
     }
 
     @Override
     public List<Message> get(@NonNull String conversationId, int lastN) {
-        String key = getKey(conversationId);
-        // 取出所有历史
-        List<String> rawData = redisTemplate.opsForList().range(key, 0, -1);
-        if (rawData == null) return new ArrayList<>();
-
-        return rawData.stream()
-                .map(this::deserialize)
-                .collect(Collectors.toList());
+        if (lastN <= 0) return new ArrayList<>();
+        List<Message> cached = nearCache.get(conversationId, lastN);
+        if (cached != null) return cached;
+
+        // 开启近端缓存时把保留窗口整个取回来 (最多 retentionSize 条，仍是一次 LRANGE)，下一轮直接命中
+        int window = nearCache.enabled() ? Math.max(lastN, retentionSize) : lastN;
+        long stamp = nearCache.stamp(conversationId);
+        byte[] summary = null;
+        List<byte[]> raw;
+        if (summarizer.enabled()) {
+            // 摘要 + 尾部历史，流水线里一次往返
+            byte[] summaryKey = ConversationSummarizer.getSummaryKey(conversationId).getBytes(StandardCharsets.UTF_8);
+            byte[] key = getKey(conversationId).getBytes(StandardCharsets.UTF_8);
+            List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.stringCommands().get(summaryKey);
+                connection.listCommands().lRange(key, -window, -1);
+                return null;
+            });
+            summary = (byte[]) results.get(0);
+            @SuppressWarnings("unchecked")
+            List<byte[]> range = (List<byte[]>) results.get(1);
+            raw = range;
+        } else {
+            raw = redisTemplate.opsForList().range(getKey(conversationId), -window, -1);
+        }
+        if (raw == null) return new ArrayList<>();
+
+        List<Message> messages = new ArrayList<>(raw.size());
+        for (byte[] value : raw) messages.add(ChatMessageCodec.decode(value));
+        Message summaryMessage = summary == null ? null
+                : ConversationSummarizer.summaryMessage(new String(summary, StandardCharsets.UTF_8));
+        nearCache.fill(conversationId, summaryMessage, messages, stamp);
+        return recent(summaryMessage, messages, lastN);
     }
 
     @Override
     public void clear(@NonNull String conversationId) {
-        redisTemplate.delete(getKey(conversationId));
+        redisTemplate.execute(CLEAR_SCRIPT, scriptKeys(conversationId),
+                clearArgs(conversationId, nearCache));
+        nearCache.evict(conversationId);
+    }
+
+    // 摘要 (如果有) 在最前，后面是最近 lastN 条原文
+    static List<Message> recent(Message summary, List<Message> messages, int lastN) {
+        List<Message> recent = new ArrayList<>(Math.min(lastN, messages.size()) + 1);
+        if (summary != null) recent.add(summary);
+        recent.addAll(messages.subList(Math.max(0, messages.size() - lastN), messages.size()));
+        return recent;
     }
 
-    // 反序列化辅助方法
-    private Message deserialize(String raw) {
-        int splitIndex = raw.indexOf("|");
-        String type = raw.substring(0, splitIndex);
-        String content = raw.substring(splitIndex + 1);
-
-        switch (type) {
-            case "USER": return new UserMessage(content);
-            case "ASSISTANT": return new AssistantMessage(content);
-            case "SYSTEM": return new SystemMessage(content);
-            default: return new UserMessage(content);
+    // 脚本参数都走值序列化器 (byte[])，数字按十进制文本传
+    static Object[] appendArgs(String conversationId, List<Message> messages, int retention, long ttlSeconds,
+                               ChatMemoryNearCache nearCache) {
+        Object[] args = new Object[4 + messages.size()];
+        args[0] = utf8(String.valueOf(retention));
+        args[1] = utf8(String.valueOf(ttlSeconds));
+        args[2] = utf8(nearCache.channel());
+        args[3] = utf8(nearCache.invalidation(conversationId));
+        for (int i = 0; i < messages.size(); i++) {
+            args[4 + i] = ChatMessageCodec.encode(messages.get(i));
         }
+        return args;
+    }
+
+    static Object[] clearArgs(String conversationId, ChatMemoryNearCache nearCache) {
+        return new Object[]{utf8(nearCache.channel()), utf8(nearCache.invalidation(conversationId))};
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,84 @@
+package com.intellivault.backend.migration;
+
+import com.intellivault.backend.convert.FloatVectorCodec;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 一次性在线迁移：把 knowledge_docs.embedding 从 BSON double 数组改写成 BinData(float32)
+ * - 后台执行，不阻塞启动；迁移期间 FloatVectorConverter 两种格式都能读
+ * - 按批 bulkWrite，过滤条件带上 $type: array，已被新代码覆盖写入的文档不会被改回去
+ * - 完成后在 migrations 集合里打标记，之后启动直接跳过
+ */
+@Slf4j
+@Component
+public class EmbeddingFormatMigration {
+
+    private static final String MIGRATION_ID = "embedding-binary-float32-v1";
+    private static final String COLLECTION = "knowledge_docs";
+    private static final int BATCH_SIZE = 500;
+
+    private final MongoTemplate mongoTemplate;
+
+    public EmbeddingFormatMigration(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrate() {
+        MongoCollection<Document> migrations = mongoTemplate.getCollection("migrations");
+        if (migrations.find(Filters.eq("_id", MIGRATION_ID)).first() != null) return;
+
+        long start = System.currentTimeMillis();
+        MongoCollection<Document> collection = mongoTemplate.getCollection(COLLECTION);
+        Bson legacyFormat = Filters.type("embedding", BsonType.ARRAY);
+
+        long migrated = 0;
+        List<UpdateOneModel<Document>> batch = new ArrayList<>(BATCH_SIZE);
+        for (Document doc : collection.find(legacyFormat)
+                .projection(Projections.include("embedding"))
+                .batchSize(BATCH_SIZE)) {
+            List<?> legacy = doc.getList("embedding", Object.class);
+            float[] vector = new float[legacy.size()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = ((Number) legacy.get(i)).floatValue();
+            }
+            batch.add(new UpdateOneModel<>(
+                    Filters.and(Filters.eq("_id", doc.get("_id")), legacyFormat),
+                    Updates.set("embedding", new Binary(FloatVectorCodec.encode(vector)))));
+            if (batch.size() == BATCH_SIZE) {
+                migrated += flush(collection, batch);
+            }
+        }
+        migrated += flush(collection, batch);
+
+        migrations.insertOne(new Document("_id", MIGRATION_ID).append("completedAt", new Date()));
+        log.info("🔁 向量存储格式迁移完成: {} 条, 耗时 {} ms", migrated, System.currentTimeMillis() - start);
+    }
+
+    private long flush(MongoCollection<Document> collection, List<UpdateOneModel<Document>> batch) {
+        if (batch.isEmpty()) return 0;
+        long modified = collection.bulkWrite(batch, new BulkWriteOptions().ordered(false)).getModifiedCount();
+        batch.clear();
+        return modified;
+    }
+}
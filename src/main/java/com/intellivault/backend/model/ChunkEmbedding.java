@@ -0,0 +1,27 @@
+package com.intellivault.backend.model;
+
+import com.intellivault.backend.convert.FloatVectorConverter;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.convert.ValueConverter;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * 片段向量库：内容哈希 -> 向量
+ * 同一段文字 (跨文件、重复上传) 只向量化一次，之后直接复用
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "chunk_embeddings")
+public class ChunkEmbedding {
+
+    // 归一化文本的 SHA-256 (见 ContentHash)
+    @Id
+    private String hash;
+
+    @ValueConverter(FloatVectorConverter.class)
+    private float[] embedding;
+}
@@ -0,0 +1,24 @@
+package com.intellivault.backend.model;
+
+import com.intellivault.backend.convert.StorageCodec;
+import org.springframework.core.io.Resource;
+
+import java.time.Instant;
+
+/**
+ * 下载所需的文件元信息 + 内容
+ * content 可以反复打开：每次 getInputStream() 都是一个新的 GridFS 下载流，skip() 直接跳到目标分块
+ * tenantId 是上传时的租户 (老文件没有，按默认租户处理)
+ * length / content 是原始内容；压缩存储时 stored 是 GridFS 里的原样字节 (codec 编码)，可直接作为 Content-Encoding 下发
+ */
+public record DownloadableFile(String id,
+                               String tenantId,
+                               String filename,
+                               String contentType,
+                               long length,
+                               Instant uploadDate,
+                               String sha256,
+                               Resource content,
+                               StorageCodec codec,
+                               Resource stored) {
+}
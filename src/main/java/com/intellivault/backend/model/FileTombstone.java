@@ -0,0 +1,35 @@
+package com.intellivault.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * 文件墓碑：删除接口只写这一条，检索立刻按 fileId 过滤；
+ * 片段、原文件、索引行由后台压缩任务分批清理，清理完再删掉墓碑
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "file_tombstones")
+public class FileTombstone {
+
+    @Id
+    private String fileId;
+
+    // 清理索引行时写回哪个租户的分区
+    private String tenantId;
+
+    @Indexed
+    private Instant deletedAt;
+
+    // 已从 knowledge_docs 删掉的片段数 (清理进度)
+    private long chunksRemoved;
+}
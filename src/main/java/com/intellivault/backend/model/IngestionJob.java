@@ -0,0 +1,66 @@
+package com.intellivault.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * 持久化的入库任务：节点重启后未完成的任务会被重新领取，从上次的检查点继续
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "ingestion_jobs")
+@CompoundIndex(name = "claimable", def = "{'status': 1, 'priority': 1}")
+public class IngestionJob {
+
+    // 与 GridFS 的 fileId 相同，一个文件一个任务
+    @Id
+    private String id;
+
+    private String fileName;
+
+    private String userId;
+
+    // 引入租户之前入队的任务没有这个字段，按默认租户处理
+    private String tenantId;
+
+    // 原文件字节数，参与排队优先级
+    private long fileSize;
+
+    // 排队优先级 (越早越先领)：入队时间 + 文件大小带来的推迟量，见 IngestionProperties.Jobs#sizePenaltyPerMb
+    private Instant priority;
+
+    private JobStatus status;
+
+    // 已到达的最后一个检查点
+    private IngestionStage stage;
+
+    // 已确认落库的片段数，重试时前这么多个片段直接跳过
+    private int chunksWritten;
+
+    // CHUNKED 之后才知道
+    private Integer totalChunks;
+
+    private int attempts;
+
+    // 租约：持有者 + 到期时间；持有者宕机后租约过期，任务可被其它 worker 领走
+    private String leaseOwner;
+
+    private Instant leaseUntil;
+
+    private Instant nextAttemptAt;
+
+    private String lastError;
+
+    private Instant createdAt;
+
+    private Instant updatedAt;
+}
@@ -0,0 +1,17 @@
+package com.intellivault.backend.model;
+
+/**
+ * 入库流水线的检查点，按顺序推进
+ */
+public enum IngestionStage {
+    // 原文件已写入 GridFS，任务已入队
+    STORED,
+    // Tika 已读完整个文件
+    PARSED,
+    // 切片完成，片段总数已知
+    CHUNKED,
+    // 全部片段已向量化并落库 (knowledge_docs)
+    EMBEDDED,
+    // 全部片段已进入向量索引，可被检索
+    INDEXED
+}
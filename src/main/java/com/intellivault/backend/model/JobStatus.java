@@ -0,0 +1,13 @@
+package com.intellivault.backend.model;
+
+public enum JobStatus {
+    // 排队中，等待 worker 领取
+    PENDING,
+    // 已被某个 worker 租约持有
+    RUNNING,
+    // 上次失败，到 nextAttemptAt 后重试
+    RETRYING,
+    SUCCEEDED,
+    // 超过最大重试次数或不可重试的错误 (死信)，需要人工处理
+    DEAD
+}
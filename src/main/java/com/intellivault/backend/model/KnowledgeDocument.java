@@ -1,14 +1,15 @@
 package com.intellivault.backend.model;
 
+import com.intellivault.backend.convert.FloatVectorConverter;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.convert.ValueConverter;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
-import java.util.List;
 import java.util.Map;
 
 @Data
@@ -26,9 +27,20 @@ public class KnowledgeDocument {
     @Indexed
     private String fileId;
 
+    // 所属租户：检索只扫本租户的索引分区 (老数据为空，视为默认租户)
+    @Indexed
+    private String tenantId;
+
     private String content;
 
-    private List<Double> embedding;
+    // [新增] 归一化正文的 SHA-256，相同内容的片段共用 chunk_embeddings 里的同一个向量
+    @Indexed
+    private String contentHash;
+
+    // 开启 intellivault.ingestion.dedup.shared-vectors 后为空，向量只存在 chunk_embeddings 里
+    // [优化] 以 BinData(小端 float32) 存储，读写全程 float[]，不再装箱成 List<Double>
+    @ValueConverter(FloatVectorConverter.class)
+    private float[] embedding;
 
     private Map<String, Object> metadata;
 
@@ -0,0 +1,26 @@
+package com.intellivault.backend.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 检索结果：不可变的 "片段 + 分数"
+ * 分数不再写进 KnowledgeDocument.metadata，并发查询之间不会互相污染
+ */
+public record ScoredChunk(String id,
+                          String fileId,
+                          String sourceFilename,
+                          String content,
+                          Map<String, Object> metadata,
+                          double score) {
+
+    public ScoredChunk {
+        metadata = metadata == null ? Map.of() : Collections.unmodifiableMap(new HashMap<>(metadata));
+    }
+
+    public static ScoredChunk of(KnowledgeDocument doc, double score) {
+        return new ScoredChunk(doc.getId(), doc.getFileId(), doc.getSourceFilename(),
+                doc.getContent(), doc.getMetadata(), score);
+    }
+}
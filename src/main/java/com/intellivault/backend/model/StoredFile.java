@@ -0,0 +1,8 @@
+package com.intellivault.backend.model;
+
+/**
+ * 原文件写入 GridFS 的结果
+ * @param deduplicated true 表示内容与已有文件完全相同，本次写入已撤销，fileId 指向已有文件
+ */
+public record StoredFile(String fileId, String sha256, long size, boolean deduplicated) {
+}
@@ -0,0 +1,20 @@
+package com.intellivault.backend.model;
+
+/**
+ * 上传中单个文件的结果：成功时带 fileId (同时也是入库任务 id)，失败时带 error
+ * deduplicated 为 true 表示内容与已有文件相同，fileId 指向已有文件，没有新的入库任务
+ */
+public record UploadResult(String fileName, String fileId, String statusUrl, boolean deduplicated, String error) {
+
+    public static UploadResult accepted(String fileName, String fileId, boolean deduplicated) {
+        return new UploadResult(fileName, fileId, "/api/documents/" + fileId + "/status", deduplicated, null);
+    }
+
+    public static UploadResult failed(String fileName, String error) {
+        return new UploadResult(fileName, null, null, false, error);
+    }
+
+    public boolean ok() {
+        return fileId != null;
+    }
+}
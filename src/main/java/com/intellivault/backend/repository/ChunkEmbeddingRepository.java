@@ -0,0 +1,9 @@
+package com.intellivault.backend.repository;
+
+import com.intellivault.backend.model.ChunkEmbedding;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ChunkEmbeddingRepository extends MongoRepository<ChunkEmbedding, String> {
+}
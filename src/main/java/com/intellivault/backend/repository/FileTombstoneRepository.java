@@ -0,0 +1,15 @@
+package com.intellivault.backend.repository;
+
+import com.intellivault.backend.model.FileTombstone;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface FileTombstoneRepository extends MongoRepository<FileTombstone, String> {
+
+    // 先删的先清理
+    List<FileTombstone> findAllByOrderByDeletedAtAsc(Pageable pageable);
+}
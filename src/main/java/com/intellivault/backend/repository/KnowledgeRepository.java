@@ -7,7 +7,7 @@ import org.springframework.stereotype.Repository;
 import java.util.List;
 
 @Repository
-public interface KnowledgeRepository extends MongoRepository<KnowledgeDocument, String> {
+public interface KnowledgeRepository extends MongoRepository<KnowledgeDocument, String>, KnowledgeRepositoryCustom {
 
     // 基础查询，后续我们会用 MongoTemplate 做复杂的向量查询
     List<KnowledgeDocument> findBySourceFilename(String sourceFilename);
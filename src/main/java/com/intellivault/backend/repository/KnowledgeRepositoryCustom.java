@@ -0,0 +1,70 @@
+package com.intellivault.backend.repository;
+
+import com.intellivault.backend.index.SearchFilter;
+import com.intellivault.backend.model.KnowledgeDocument;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * 需要投影 / 游标的查询，派生查询方法表达不了，交给 MongoTemplate 实现
+ */
+public interface KnowledgeRepositoryCustom {
+
+    /**
+     * 游标流式读取某个租户的 _id + fileId + embedding + 可过滤字段 (sourceFilename、metadata；不带正文)，按批从服务端拉取
+     * 共享向量的片段会按 contentHash 从 chunk_embeddings 补齐 embedding
+     * 调用方必须关闭返回的 Stream (try-with-resources)
+     */
+    Stream<KnowledgeDocument> streamVectors(String tenantId, int batchSize);
+
+    /**
+     * 同上，只读满足过滤条件的片段 (条件下推给 Mongo)
+     */
+    Stream<KnowledgeDocument> streamVectors(String tenantId, SearchFilter filter, int batchSize);
+
+    /**
+     * 游标流式读取某个租户的 _id + fileId + 正文 + 可过滤字段 (不带 embedding)，重建关键词索引用
+     * 调用方必须关闭返回的 Stream (try-with-resources)
+     */
+    Stream<KnowledgeDocument> streamContents(String tenantId, int batchSize);
+
+    /**
+     * 某个租户的片段数 (索引分区加载后的一致性校验)
+     */
+    long countByTenant(String tenantId);
+
+    /**
+     * 同上，不算这些文件的片段
+     */
+    long countByTenantExcluding(String tenantId, Collection<String> fileIds);
+
+    /**
+     * 某个租户删除中的文件 (file_tombstones 里还没清理完的)：它们的片段正被分批删除，索引行要等清理完才摘
+     */
+    Set<String> pendingRemovalFileIds(String tenantId);
+
+    /**
+     * 按 id 批量补全正文 ($in 查询)，不返回 embedding
+     */
+    List<KnowledgeDocument> findChunksByIds(Collection<String> ids);
+
+    /**
+     * 按 id 批量取全精度向量 (只投影 embedding)
+     */
+    Map<String, float[]> findEmbeddingsByIds(Collection<String> ids);
+
+    /**
+     * 按 _id 批量覆盖写入 (一次无序 bulkWrite)，片段 id 固定时重复写入是幂等的
+     */
+    void upsertChunks(List<KnowledgeDocument> chunks);
+
+    /**
+     * 删除某个文件的至多 limit 个片段 (先按 fileId 索引取 _id，再按 _id 删)，供后台压缩限速分批删除
+     * @return 实际删除的条数，小于 limit 说明已经删完
+     */
+    int deleteChunkBatch(String fileId, int limit);
+}
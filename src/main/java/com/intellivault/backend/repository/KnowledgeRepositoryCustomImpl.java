@@ -0,0 +1,178 @@
+package com.intellivault.backend.repository;
+
+import com.intellivault.backend.config.Tenants;
+import com.intellivault.backend.index.SearchFilter;
+import com.intellivault.backend.model.ChunkEmbedding;
+import com.intellivault.backend.model.FileTombstone;
+import com.intellivault.backend.model.KnowledgeDocument;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class KnowledgeRepositoryCustomImpl implements KnowledgeRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    public KnowledgeRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Stream<KnowledgeDocument> streamVectors(String tenantId, int batchSize) {
+        return streamVectors(tenantId, SearchFilter.NONE, batchSize);
+    }
+
+    @Override
+    public Stream<KnowledgeDocument> streamVectors(String tenantId, SearchFilter filter, int batchSize) {
+        Query query = new Query(Tenants.where("tenantId", tenantId)).cursorBatchSize(batchSize);
+        filter.terms().forEach((field, values) -> query.addCriteria(Criteria.where(field).in(storedValues(field, values))));
+        query.fields().include("fileId", "contentHash", "embedding", "sourceFilename", "metadata");
+        Stream<KnowledgeDocument> docs = mongoTemplate.stream(query, KnowledgeDocument.class);
+
+        // 按游标批次分组，共享向量的片段每批一次 $in 补齐，不逐条回查
+        Iterator<KnowledgeDocument> it = docs.iterator();
+        Iterator<List<KnowledgeDocument>> batches = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public List<KnowledgeDocument> next() {
+                if (!it.hasNext()) throw new NoSuchElementException();
+                List<KnowledgeDocument> batch = new ArrayList<>(batchSize);
+                while (it.hasNext() && batch.size() < batchSize) batch.add(it.next());
+                fillSharedEmbeddings(batch);
+                return batch;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batches, Spliterator.ORDERED), false)
+                .flatMap(List::stream)
+                .onClose(docs::close);
+    }
+
+    @Override
+    public Stream<KnowledgeDocument> streamContents(String tenantId, int batchSize) {
+        Query query = new Query(Tenants.where("tenantId", tenantId)).cursorBatchSize(batchSize);
+        query.fields().include("fileId", "content", "sourceFilename", "metadata");
+        return mongoTemplate.stream(query, KnowledgeDocument.class);
+    }
+
+    @Override
+    public long countByTenant(String tenantId) {
+        return mongoTemplate.count(new Query(Tenants.where("tenantId", tenantId)), KnowledgeDocument.class);
+    }
+
+    @Override
+    public long countByTenantExcluding(String tenantId, Collection<String> fileIds) {
+        Query query = new Query(Tenants.where("tenantId", tenantId));
+        if (!fileIds.isEmpty()) query.addCriteria(Criteria.where("fileId").nin(fileIds));
+        return mongoTemplate.count(query, KnowledgeDocument.class);
+    }
+
+    @Override
+    public Set<String> pendingRemovalFileIds(String tenantId) {
+        Query query = new Query(Tenants.where("tenantId", tenantId));
+        query.fields().include("_id");
+        Set<String> fileIds = new HashSet<>();
+        mongoTemplate.find(query, FileTombstone.class).forEach(t -> fileIds.add(t.getFileId()));
+        return fileIds;
+    }
+
+    @Override
+    public List<KnowledgeDocument> findChunksByIds(Collection<String> ids) {
+        Query query = new Query(Criteria.where("_id").in(ids));
+        query.fields().exclude("embedding");
+        return mongoTemplate.find(query, KnowledgeDocument.class);
+    }
+
+    @Override
+    public Map<String, float[]> findEmbeddingsByIds(Collection<String> ids) {
+        Query query = new Query(Criteria.where("_id").in(ids));
+        query.fields().include("contentHash", "embedding");
+        List<KnowledgeDocument> docs = mongoTemplate.find(query, KnowledgeDocument.class);
+        fillSharedEmbeddings(docs);
+        Map<String, float[]> vectors = new HashMap<>();
+        for (KnowledgeDocument doc : docs) {
+            vectors.put(doc.getId(), doc.getEmbedding());
+        }
+        return vectors;
+    }
+
+    @Override
+    public void upsertChunks(List<KnowledgeDocument> chunks) {
+        if (chunks.isEmpty()) return;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, KnowledgeDocument.class);
+        for (KnowledgeDocument chunk : chunks) {
+            bulk.replaceOne(new Query(Criteria.where("_id").is(chunk.getId())), chunk,
+                    FindAndReplaceOptions.options().upsert());
+        }
+        bulk.execute();
+    }
+
+    @Override
+    public int deleteChunkBatch(String fileId, int limit) {
+        Query query = new Query(Criteria.where("fileId").is(fileId)).limit(limit);
+        query.fields().include("_id");
+        List<String> ids = mongoTemplate.find(query, KnowledgeDocument.class).stream()
+                .map(KnowledgeDocument::getId)
+                .toList();
+        if (ids.isEmpty()) return 0;
+        return (int) mongoTemplate.remove(new Query(Criteria.where("_id").in(ids)), KnowledgeDocument.class)
+                .getDeletedCount();
+    }
+
+    /**
+     * 过滤条件里的值都是字符串，metadata 里存的可能是数字 (例如 chunk_index)：能解析成整数的两种都带上
+     */
+    private static List<Object> storedValues(String field, Collection<String> values) {
+        List<Object> stored = new ArrayList<>(values);
+        if (!field.startsWith(SearchFilter.METADATA_PREFIX)) return stored;
+        for (String value : values) {
+            try {
+                stored.add(Long.parseLong(value));
+            } catch (NumberFormatException ignored) {
+                // 不是整数，只按字符串匹配
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * 共享向量模式下 knowledge_docs 不存 embedding，按 contentHash 从 chunk_embeddings 补上
+     */
+    private void fillSharedEmbeddings(List<KnowledgeDocument> docs) {
+        List<String> hashes = new ArrayList<>();
+        for (KnowledgeDocument doc : docs) {
+            if (doc.getEmbedding() == null && doc.getContentHash() != null) hashes.add(doc.getContentHash());
+        }
+        if (hashes.isEmpty()) return;
+
+        Map<String, float[]> shared = new HashMap<>();
+        for (ChunkEmbedding record : mongoTemplate.find(
+                new Query(Criteria.where("_id").in(hashes)), ChunkEmbedding.class)) {
+            shared.put(record.getHash(), record.getEmbedding());
+        }
+        for (KnowledgeDocument doc : docs) {
+            if (doc.getEmbedding() == null && doc.getContentHash() != null) {
+                doc.setEmbedding(shared.get(doc.getContentHash()));
+            }
+        }
+    }
+}
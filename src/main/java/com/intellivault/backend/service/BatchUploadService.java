@@ -0,0 +1,291 @@
+package com.intellivault.backend.service;
+
+import com.intellivault.backend.config.IngestionProperties;
+import com.intellivault.backend.event.DocumentUploadEvent;
+import com.intellivault.backend.model.StoredFile;
+import com.intellivault.backend.model.UploadResult;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 批量上传：一次请求多个文件，或一个 ZIP / TAR 包
+ * - 每个文件写进 GridFS 后立即入队一个入库任务，响应里返回每个文件的 fileId (即任务 id)
+ * - 内容与本租户已有文件相同 (SHA-256) 的直接复用已有 fileId，不再解析和向量化
+ * - GridFS 写入并行但有上限 (maxParallelWrites)，跑在虚拟线程上
+ * - 压缩包直接从请求体流式解开，条目边读边写 GridFS，不落盘
+ * - 下游入库队列积压超过 maxBacklog 时拒绝 (429) 或暂停读取请求体，靠 TCP 背压让客户端慢下来
+ */
+@Slf4j
+@Service
+public class BatchUploadService {
+
+    public enum ArchiveFormat { ZIP, TAR }
+
+    private final DocumentStorageService storageService;
+    private final IngestionJobService jobService;
+    private final ApplicationEventPublisher publisher;
+    private final Executor ioExecutor;
+    private final IngestionProperties.Upload config;
+    private final Semaphore writeSlots;
+
+    // backlog 是一次 count 查询，压缩包里每个条目都要判断一次，缓存 1 秒
+    private volatile long cachedBacklog;
+    private volatile long backlogCheckedAt;
+
+    public BatchUploadService(DocumentStorageService storageService,
+                              IngestionJobService jobService,
+                              ApplicationEventPublisher publisher,
+                              @Qualifier("persistExecutor") Executor ioExecutor,
+                              IngestionProperties properties) {
+        this.storageService = storageService;
+        this.jobService = jobService;
+        this.publisher = publisher;
+        this.ioExecutor = ioExecutor;
+        this.config = properties.getUpload();
+        this.writeSlots = new Semaphore(config.getMaxParallelWrites());
+    }
+
+    /**
+     * 入库队列是否已饱和 (上传接口据此返回 429)
+     */
+    public boolean saturated() {
+        long now = System.currentTimeMillis();
+        if (now - backlogCheckedAt > 1000) {
+            cachedBacklog = jobService.backlog();
+            backlogCheckedAt = now;
+        }
+        return cachedBacklog >= config.getMaxBacklog();
+    }
+
+    public long retryAfterSeconds() {
+        return config.getRetryAfter().toSeconds();
+    }
+
+    /**
+     * 多文件 multipart 上传：并行写 GridFS，结果顺序与请求中的文件顺序一致
+     */
+    public List<UploadResult> storeAll(MultipartFile[] files, String userId, String tenantId) {
+        List<CompletableFuture<UploadResult>> futures = new ArrayList<>(files.length);
+        for (MultipartFile file : files) {
+            String name = file.getOriginalFilename();
+            if (file.isEmpty()) {
+                futures.add(CompletableFuture.completedFuture(UploadResult.failed(name, "文件不能为空")));
+                continue;
+            }
+            futures.add(submit(name, file::getInputStream, file.getContentType(), userId, tenantId));
+        }
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    /**
+     * 压缩包上传：从请求体流式解包
+     * @return 已处理的条目结果；下游持续饱和时提前停止，saturatedStop 为 true
+     */
+    public ArchiveResult storeArchive(InputStream body, ArchiveFormat format, String userId, String tenantId)
+            throws IOException {
+        List<CompletableFuture<UploadResult>> futures = new ArrayList<>();
+        boolean stopped = false;
+
+        try (ArchiveReader reader = format == ArchiveFormat.ZIP ? new ZipReader(body) : new TarReader(body)) {
+            String name;
+            while ((name = reader.nextFile()) != null) {
+                // 下游饱和：先暂停读取请求体 (TCP 背压)，等太久就停下，把已接收的部分返回给客户端
+                if (!awaitCapacity()) {
+                    stopped = true;
+                    break;
+                }
+                futures.add(storeEntry(name, reader.entryStream(), userId, tenantId));
+            }
+        }
+
+        List<UploadResult> results = futures.stream().map(CompletableFuture::join).toList();
+        log.info("📦 压缩包上传完成: {} 个文件, 失败 {} 个{}", results.size(),
+                results.stream().filter(r -> !r.ok()).count(), stopped ? ", 因入库队列饱和提前停止" : "");
+        return new ArchiveResult(results, stopped);
+    }
+
+    public record ArchiveResult(List<UploadResult> files, boolean saturatedStop) {
+    }
+
+    // 小条目读进内存后并行写；大条目直接在当前线程流式写 (条目流只能顺序读)
+    private CompletableFuture<UploadResult> storeEntry(String name, InputStream entry, String userId, String tenantId)
+            throws IOException {
+        String contentType = MediaTypeFactory.getMediaType(name).orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+        int limit = (int) config.getInMemoryEntryLimit().toBytes();
+        byte[] head = entry.readNBytes(limit + 1);
+        if (head.length <= limit) {
+            return submit(name, () -> new ByteArrayInputStream(head), contentType, userId, tenantId);
+        }
+
+        InputStream whole = new SequenceInputStream(new ByteArrayInputStream(head), entry);
+        return CompletableFuture.completedFuture(store(name, () -> whole, contentType, userId, tenantId));
+    }
+
+    private CompletableFuture<UploadResult> submit(String name, StreamSupplier source, String contentType,
+                                                   String userId, String tenantId) {
+        try {
+            writeSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(UploadResult.failed(name, "上传被中断"));
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return store(name, source, contentType, userId, tenantId);
+                } finally {
+                    writeSlots.release();
+                }
+            }, ioExecutor);
+        } catch (RuntimeException e) {
+            writeSlots.release();
+            throw e;
+        }
+    }
+
+    // 写 GridFS；内容没见过才入队入库任务，重复文件直接复用已有 fileId
+    private UploadResult store(String name, StreamSupplier source, String contentType,
+                               String userId, String tenantId) {
+        try (InputStream in = source.open()) {
+            StoredFile stored = storageService.storeStream(in, name, contentType, tenantId);
+            if (stored.deduplicated()) {
+                // 已有文件的片段早已入库；只有它上次彻底失败 (死信) 时才重新入队
+                jobService.requeueIfDead(stored.fileId());
+            } else {
+                publisher.publishEvent(new DocumentUploadEvent(this, stored.fileId(), name, userId, tenantId,
+                        stored.size()));
+            }
+            return UploadResult.accepted(name, stored.fileId(), stored.deduplicated());
+        } catch (Exception e) {
+            log.warn("⚠️ 批量上传中的文件写入失败: {}, {}", name, e.getMessage());
+            return UploadResult.failed(name, e.getMessage());
+        }
+    }
+
+    private boolean awaitCapacity() {
+        long deadline = System.currentTimeMillis() + config.getSaturationWait().toMillis();
+        while (saturated()) {
+            if (System.currentTimeMillis() >= deadline) return false;
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @FunctionalInterface
+    private interface StreamSupplier {
+        InputStream open() throws IOException;
+    }
+
+    // ---------------- 压缩包读取 ----------------
+
+    private interface ArchiveReader extends AutoCloseable {
+        /**
+         * 前进到下一个普通文件条目，跳过目录和系统垃圾文件；没有了返回 null
+         */
+        String nextFile() throws IOException;
+
+        /**
+         * 当前条目的内容；关闭它不会关闭整个压缩包流
+         */
+        InputStream entryStream();
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static final class ZipReader implements ArchiveReader {
+        private final ZipInputStream zip;
+
+        ZipReader(InputStream body) {
+            this.zip = new ZipInputStream(body);
+        }
+
+        @Override
+        public String nextFile() throws IOException {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.isDirectory() && !ignored(entry.getName())) return entry.getName();
+            }
+            return null;
+        }
+
+        @Override
+        public InputStream entryStream() {
+            return new UnclosableInputStream(zip);
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    private static final class TarReader implements ArchiveReader {
+        private final TarArchiveInputStream tar;
+
+        TarReader(InputStream body) {
+            this.tar = new TarArchiveInputStream(body);
+        }
+
+        @Override
+        public String nextFile() throws IOException {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                if (entry.isFile() && !ignored(entry.getName())) return entry.getName();
+            }
+            return null;
+        }
+
+        @Override
+        public InputStream entryStream() {
+            return new UnclosableInputStream(tar);
+        }
+
+        @Override
+        public void close() throws IOException {
+            tar.close();
+        }
+    }
+
+    // macOS 打包时带的 __MACOSX/、._xxx 资源叉文件，以及 .DS_Store
+    private static boolean ignored(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return path.startsWith("__MACOSX/") || name.startsWith("._") || name.equals(".DS_Store") || name.isEmpty();
+    }
+
+    private static final class UnclosableInputStream extends FilterInputStream {
+        UnclosableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // 只结束当前条目，压缩包流由 ArchiveReader 关闭
+        }
+    }
+}
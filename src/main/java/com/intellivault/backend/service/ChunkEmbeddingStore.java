@@ -0,0 +1,87 @@
+package com.intellivault.backend.service;
+
+import com.intellivault.backend.config.IngestionProperties;
+import com.intellivault.backend.ingestion.ContentHash;
+import com.intellivault.backend.model.ChunkEmbedding;
+import com.intellivault.backend.repository.ChunkEmbeddingRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 带去重的向量化：先按内容哈希查 chunk_embeddings，只有没见过的文本才交给 EmbeddingBatcher
+ * 同一批里重复的片段也只算一次
+ * <p>
+ * 指标：intellivault.embedding.dedup{result=hit|miss}，hit / (hit + miss) 即去重命中率
+ */
+@Service
+public class ChunkEmbeddingStore {
+
+    private final EmbeddingBatcher embeddingBatcher;
+    private final ChunkEmbeddingRepository chunkEmbeddingRepository;
+    private final boolean enabled;
+    private final Counter hits;
+    private final Counter misses;
+
+    public ChunkEmbeddingStore(EmbeddingBatcher embeddingBatcher,
+                               ChunkEmbeddingRepository chunkEmbeddingRepository,
+                               IngestionProperties properties,
+                               MeterRegistry meterRegistry) {
+        this.embeddingBatcher = embeddingBatcher;
+        this.chunkEmbeddingRepository = chunkEmbeddingRepository;
+        this.enabled = properties.getDedup().isEnabled();
+        this.hits = meterRegistry.counter("intellivault.embedding.dedup", "result", "hit");
+        this.misses = meterRegistry.counter("intellivault.embedding.dedup", "result", "miss");
+    }
+
+    /**
+     * @return 与 texts 一一对应的哈希和向量，以及其中复用了多少个
+     */
+    public Resolved resolve(List<String> texts) {
+        List<String> hashes = texts.stream().map(ContentHash::of).toList();
+        if (!enabled) {
+            return new Resolved(hashes, embeddingBatcher.embedAll(texts), 0);
+        }
+
+        // 1. 已经向量化过的直接复用
+        Map<String, float[]> known = new HashMap<>();
+        for (ChunkEmbedding existing : chunkEmbeddingRepository.findAllById(new LinkedHashSet<>(hashes))) {
+            known.put(existing.getHash(), existing.getEmbedding());
+        }
+
+        // 2. 剩下的按哈希去重后再向量化 (保留每个哈希第一次出现的文本)
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!known.containsKey(hashes.get(i))) missing.putIfAbsent(hashes.get(i), texts.get(i));
+        }
+        if (!missing.isEmpty()) {
+            List<String> newHashes = new ArrayList<>(missing.keySet());
+            List<float[]> vectors = embeddingBatcher.embedAll(new ArrayList<>(missing.values()));
+            List<ChunkEmbedding> records = new ArrayList<>(newHashes.size());
+            for (int i = 0; i < newHashes.size(); i++) {
+                known.put(newHashes.get(i), vectors.get(i));
+                records.add(new ChunkEmbedding(newHashes.get(i), vectors.get(i)));
+            }
+            // save 按 _id upsert：两个任务同时算出同一段文本的向量也只会留一条
+            chunkEmbeddingRepository.saveAll(records);
+        }
+
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (String hash : hashes) vectors.add(known.get(hash));
+
+        int reused = texts.size() - missing.size();
+        hits.increment(reused);
+        misses.increment(missing.size());
+        return new Resolved(hashes, vectors, reused);
+    }
+
+    public record Resolved(List<String> hashes, List<float[]> vectors, int reused) {
+    }
+}
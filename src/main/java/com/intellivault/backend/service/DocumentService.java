@@ -1,74 +1,271 @@
 package com.intellivault.backend.service;
 
+import com.intellivault.backend.config.IngestionProperties;
+import com.intellivault.backend.index.SearchFilter;
+import com.intellivault.backend.index.TenantIndexRegistry;
+import com.intellivault.backend.ingestion.ChunkingContentHandler;
+import com.intellivault.backend.ingestion.IncrementalChunker;
+import com.intellivault.backend.ingestion.IngestionCheckpoint;
+import com.intellivault.backend.model.IngestionStage;
 import com.intellivault.backend.model.KnowledgeDocument;
 import com.intellivault.backend.repository.KnowledgeRepository;
-import org.springframework.ai.document.Document;
-import org.springframework.ai.embedding.EmbeddingModel;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream; // 引入这个
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
+@Slf4j
 @Service
 public class DocumentService {
 
-    private final EmbeddingModel embeddingModel;
+    private final ChunkEmbeddingStore chunkEmbeddingStore;
     private final KnowledgeRepository knowledgeRepository;
+    private final TenantIndexRegistry indexRegistry;
+    private final FileParseService parseService;
+    private final Executor persistExecutor;
+    private final IngestionProperties.Streaming streaming;
+    private final IngestionProperties.Persist persist;
+    private final boolean sharedVectors;
 
-    public DocumentService(EmbeddingModel embeddingModel, KnowledgeRepository knowledgeRepository) {
-        this.embeddingModel = embeddingModel;
+    public DocumentService(ChunkEmbeddingStore chunkEmbeddingStore,
+                           KnowledgeRepository knowledgeRepository,
+                           TenantIndexRegistry indexRegistry,
+                           FileParseService parseService,
+                           @Qualifier("persistExecutor") Executor persistExecutor,
+                           IngestionProperties properties) {
+        this.chunkEmbeddingStore = chunkEmbeddingStore;
         this.knowledgeRepository = knowledgeRepository;
+        this.indexRegistry = indexRegistry;
+        this.parseService = parseService;
+        this.persistExecutor = persistExecutor;
+        this.streaming = properties.getStreaming();
+        this.persist = properties.getPersist();
+        this.sharedVectors = properties.getDedup().isSharedVectors();
     }
 
-    public void processAndStore(String content, String sourceFilename, String fileId) {
+    /**
+     * 已经在内存里的整段文本入库 (测试、小文本)
+     */
+    public void processAndStore(String content, String sourceFilename, String fileId, String tenantId) {
         if (!StringUtils.hasText(content)) return;
+        try {
+            store(sourceFilename, fileId, tenantId, IngestionCheckpoint.NONE, chunker -> chunker.append(content));
+        } catch (RuntimeException e) {
+            // 没有任务队列兜底重试：已经写进去的前几批一起撤掉，不留半个文件
+            deleteByFileId(tenantId, fileId);
+            throw e;
+        }
+    }
+
+    /**
+     * 从原文件入库，由入库任务 worker 调用
+     * 流式模式：Tika SAX -> 增量切片 -> 按批向量化 -> 落库 -> 进索引，峰值内存与文档大小无关
+     * 每批落库后通过 checkpoint 汇报进度；重试时跳过 checkpoint.committedChunks() 之前的片段
+     */
+    public void ingest(Resource resource, String sourceFilename, String fileId, String tenantId,
+                       IngestionCheckpoint checkpoint) {
+        store(sourceFilename, fileId, tenantId, checkpoint, chunker -> {
+            if (streaming.isEnabled()) {
+                parseService.parse(resource, new ChunkingContentHandler(chunker));
+            } else {
+                String content = parseService.parse(resource);
+                log.info("📄 文档解析完成，长度: {}", content.length());
+                chunker.append(content);
+            }
+            checkpoint.reached(IngestionStage.PARSED, chunker.emitted());
+        });
+    }
+
+    private void store(String sourceFilename, String fileId, String tenantId, IngestionCheckpoint checkpoint,
+                       Consumer<IncrementalChunker> source) {
+        long start = System.nanoTime();
+        ChunkWriter writer = new ChunkWriter(sourceFilename, fileId, tenantId, checkpoint);
+
+        // 1. 文本切片 (边读边切，片段攒够一批就提交出去)
+        IncrementalChunker chunker = new IncrementalChunker(streaming.getWindowChars(), writer::accept);
+        try {
+            source.accept(chunker);
+            chunker.finish();
+            checkpoint.reached(IngestionStage.CHUNKED, chunker.emitted());
 
-        // 1. 文本切片
-        var splitter = new TokenTextSplitter();
-        List<Document> splitDocuments = splitter.apply(List.of(new Document(content)));
-
-        // 2. 向量化处理 & 实体转换(注意这里的paralleSream是个坑点)
-        List<KnowledgeDocument> knowledgeDocs = splitDocuments.parallelStream()
-                .map(chunk -> {
-                    // [修复点]：接收 float[] 数组
-                    float[] embeddingArray = embeddingModel.embed(chunk.getContent());
-
-                    // [修复点]：将 float[] 转换为 List<Double>
-                    // 使用 IntStream 进行高效转换，或者用普通的 for 循环
-                    List<Double> vector = IntStream.range(0,embeddingArray.length)
-                            .mapToDouble(i -> embeddingArray[i])
-                            .boxed()
-                            .toList();
-//                    List<Double> vector = new ArrayList<>(embeddingArray.length);
-//                    for (float f : embeddingArray) {
-//                        vector.add((double) f);
-//                    }
-
-                    // 构建实体
-                    return KnowledgeDocument.builder()
-                            .content(chunk.getContent())
-                            .embedding(vector)
-                            .sourceFilename(sourceFilename)
-                            .fileId(fileId)
-                            .metadata(Map.of("chunk_index", splitDocuments.indexOf(chunk)))
-                            .build();
-                })
-                .collect(Collectors.toList());
-
-        // 3. 批量入库
-        knowledgeRepository.saveAll(knowledgeDocs);
-        System.out.println("✅ 成功入库 " + knowledgeDocs.size() + " 个片段: " + sourceFilename);
+            writer.flush();
+            writer.awaitAll();
+        } catch (RuntimeException e) {
+            // 解析中途失败：等已提交的批次停下来再往上抛，避免和调用方的清理 / 重试交错写入
+            writer.abandon();
+            throw e;
+        }
+        checkpoint.reached(IngestionStage.EMBEDDED, chunker.emitted());
+
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+        log.info("✅ 成功入库 {} 个片段: {} (跳过已完成 {} 个, 耗时 {} ms, {} chunks/s, 去重命中 {}/{} = {}%)",
+                writer.written, sourceFilename, writer.skip, Math.round(seconds * 1000), Math.round(writer.written / seconds),
+                writer.reused, writer.written, writer.written == 0 ? 0 : Math.round(writer.reused * 100.0 / writer.written));
     }
 
     // [新增] 级联删除：根据 fileId 删除所有的向量片段
-    public void deleteByFileId(String fileId) {
+    public void deleteByFileId(String tenantId, String fileId) {
         // 这里需要去 Repository 加一个方法，或者用 MongoTemplate
         // 简单起见，我们先去 KnowledgeRepository 加一个 deleteByFileId
         knowledgeRepository.deleteByFileId(fileId);
+        indexRegistry.write(tenantId, index -> index.removeByFileId(fileId));
+        indexRegistry.writeLexical(tenantId, lexical -> lexical.removeByFileId(fileId));
+    }
+
+    /**
+     * 片段攒批写出：每满 flushChunks 个提交一批 向量化 -> 批量落库 -> 进索引 -> 写检查点
+     * 三个阶段各跑在自己的线程上：解析线程 (本线程) 只负责切片和提交；
+     * 向量化在 embeddingExecutor (按核数)；落库在 persistExecutor (虚拟线程)
+     * 每批提交后立即开始向量化 (第 N+1 批向量化与第 N 批落库重叠)，只有 "落库 + 写检查点" 按批次顺序串成一条链，
+     * 保证检查点按顺序推进；在途批次 (含正在向量化的) 有上限，超过时解析线程等待
+     * 片段 id 固定为 fileId_序号，重试时重复写入只是覆盖，不会产生重复片段
+     */
+    private class ChunkWriter {
+        private final String sourceFilename;
+        private final String fileId;
+        private final String tenantId;
+        private final IngestionCheckpoint checkpoint;
+        // 上次已确认落库的片段数：这些片段只计数，不再向量化和写入
+        private final int skip;
+        private final List<String> pending = new ArrayList<>();
+        private final Deque<CompletableFuture<Void>> inFlight = new ArrayDeque<>();
+        // 已提交、可能还没结束的向量化 (不在批次链上，链断了它们也照样在跑)
+        private final List<CompletableFuture<?>> embeddings = new ArrayList<>();
+        private volatile boolean abandoned;
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private int seen;
+        private int submitted;
+        // 以下两个只在批次链上按顺序修改，awaitAll() 之后读取
+        private int written;
+        private int reused;
+
+        ChunkWriter(String sourceFilename, String fileId, String tenantId, IngestionCheckpoint checkpoint) {
+            this.sourceFilename = sourceFilename;
+            this.fileId = fileId;
+            this.tenantId = tenantId;
+            this.checkpoint = checkpoint;
+            this.skip = checkpoint.committedChunks();
+        }
+
+        void accept(String chunk) {
+            if (seen++ < skip) return;
+            pending.add(chunk);
+            if (pending.size() >= streaming.getFlushChunks()) flush();
+        }
+
+        void flush() {
+            if (pending.isEmpty()) return;
+            List<String> batch = List.copyOf(pending);
+            int firstIndex = skip + submitted;
+            submitted += batch.size();
+            pending.clear();
+
+            // 背压：在途批次满了就等最早的一批写完，解析不会无限领先于落库
+            while (inFlight.size() >= persist.getMaxInFlightBatches()) {
+                await(inFlight.removeFirst());
+            }
+            // 2. 批量向量化：不等前一批，马上开始；落库接在前一批落库之后 (两者都完成才执行，前一批失败则不再写)
+            CompletableFuture<ChunkEmbeddingStore.Resolved> embedded = CompletableFuture.supplyAsync(() -> {
+                // 放弃之后还排着队的批次不再调用模型
+                if (abandoned) throw new CancellationException("入库已中止: " + fileId);
+                return chunkEmbeddingStore.resolve(batch);
+            }, persistExecutor);
+            embeddings.removeIf(CompletableFuture::isDone);
+            embeddings.add(embedded);
+            tail = tail.thenAcceptBothAsync(embedded, (previous, resolved) -> write(batch, firstIndex, resolved),
+                    persistExecutor);
+            inFlight.addLast(tail);
+        }
+
+        void awaitAll() {
+            await(tail);
+            inFlight.clear();
+            embeddings.clear();
+        }
+
+        /**
+         * 中止：排队的向量化直接跳过，已经在跑的和批次链都等它们结束
+         * 返回之后不会再有线程替这个文件调用模型或写库
+         */
+        void abandon() {
+            abandoned = true;
+            for (CompletableFuture<?> embedding : embeddings) {
+                embedding.handle((r, e) -> null).join();
+            }
+            tail.exceptionally(e -> null).join();
+            embeddings.clear();
+            inFlight.clear();
+        }
+
+        /**
+         * @param resolved 这一批的向量化结果：内容哈希命中的直接复用，其余走专用线程池 (顺序与片段一致)
+         */
+        private void write(List<String> batch, int firstIndex, ChunkEmbeddingStore.Resolved resolved) {
+            List<float[]> vectors = resolved.vectors();
+
+            // 实体转换，chunk_index 是片段在整个文件里的序号
+            List<KnowledgeDocument> knowledgeDocs = new ArrayList<>(batch.size());
+            List<String> ids = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                String id = fileId + "_" + (firstIndex + i);
+                ids.add(id);
+                knowledgeDocs.add(KnowledgeDocument.builder()
+                        .id(id)
+                        .content(batch.get(i))
+                        .contentHash(resolved.hashes().get(i))
+                        // 共享模式下向量只存在 chunk_embeddings，这里不再落一份副本
+                        .embedding(sharedVectors ? null : vectors.get(i))
+                        .sourceFilename(sourceFilename)
+                        .fileId(fileId)
+                        .tenantId(tenantId)
+                        .metadata(Map.of("chunk_index", firstIndex + i))
+                        .build());
+            }
+
+            // 3. 批量落库 (按 id upsert，一次 bulkWrite)
+            knowledgeRepository.upsertChunks(knowledgeDocs);
+
+            // 4. 同步进本租户的索引分区 (连同 sourceFilename / metadata 过滤倒排)，入库完成即可被检索到
+            List<Map<String, String>> attributes = knowledgeDocs.stream()
+                    .map(doc -> SearchFilter.attributesOf(doc.getSourceFilename(), doc.getMetadata()))
+                    .toList();
+            List<String> fileIds = Collections.nCopies(ids.size(), fileId);
+            indexRegistry.write(tenantId, index -> {
+                index.addAll(ids, fileIds, vectors, attributes);
+                return null;
+            });
+            // 正文同时进关键词索引 (BM25)，编号、错误码等精确标识靠它召回
+            indexRegistry.writeLexical(tenantId, lexical -> {
+                lexical.addAll(ids, fileIds, batch, attributes);
+                return null;
+            });
+
+            written += batch.size();
+            reused += resolved.reused();
+            checkpoint.committed(skip + written);
+        }
+
+        // 批次失败时把原始异常抛回解析线程 (链上后续批次不会再执行)
+        private void await(CompletableFuture<Void> future) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) throw cause;
+                throw e;
+            }
+        }
     }
-}
\ No newline at end of file
+}
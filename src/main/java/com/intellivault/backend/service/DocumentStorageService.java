@@ -1,48 +1,230 @@
 package com.intellivault.backend.service;
 
+import com.intellivault.backend.config.StorageProperties;
+import com.intellivault.backend.config.Tenants;
+import com.intellivault.backend.convert.StorageCodec;
+import com.intellivault.backend.model.DownloadableFile;
+import com.intellivault.backend.model.StoredFile;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
 import org.bson.types.ObjectId;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.gridfs.GridFsResource;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Optional;
 
+@Slf4j
 @Service
 public class DocumentStorageService {
 
+    private static final String FILES_COLLECTION = "fs.files";
+    private static final String SHA256_FIELD = "metadata.sha256";
+    private static final String ORIGINAL_LENGTH_FIELD = "metadata.originalLength";
+    private static final String CODEC_KEY = "codec";
+    private static final String TENANT_KEY = "tenantId";
+
     private final GridFsTemplate gridFsTemplate;
+    private final MongoTemplate mongoTemplate;
+    private final StorageProperties.Compression compression;
+    private final StorageCodec codec;
+    private final List<MediaType> compressibleTypes;
 
-    public DocumentStorageService(GridFsTemplate gridFsTemplate) {
+    public DocumentStorageService(GridFsTemplate gridFsTemplate, MongoTemplate mongoTemplate,
+                                  StorageProperties properties) {
         this.gridFsTemplate = gridFsTemplate;
+        this.mongoTemplate = mongoTemplate;
+        this.compression = properties.getCompression();
+        this.codec = compression.isEnabled() ? StorageCodec.of(compression.getCodec()) : StorageCodec.NONE;
+        this.compressibleTypes = compression.getContentTypes().stream().map(MediaType::parseMediaType).toList();
+    }
+
+    @PostConstruct
+    void ensureIndexes() {
+        // 同一租户同一内容只能有一个文件带着哈希：并发上传相同文件时只有一方写得进去，另一方据此收敛 (见 storeStream)
+        // 摘掉哈希的文件 (已标记删除) 不占位
+        Index uniqueContent = new Index()
+                .on(SHA256_FIELD, Sort.Direction.ASC)
+                .on("metadata." + TENANT_KEY, Sort.Direction.ASC)
+                .unique()
+                .partial(PartialIndexFilter.of(Criteria.where(SHA256_FIELD).exists(true)))
+                .named("sha256_tenant_unique");
+        try {
+            mongoTemplate.indexOps(FILES_COLLECTION).ensureIndex(uniqueContent);
+        } catch (DataAccessException e) {
+            // 老数据里已经有重复的 (加唯一索引之前的并发上传)：先退回普通索引，清理掉重复文件后重启即可建上
+            log.warn("⚠️ 无法建立 {} 的唯一索引 (已有重复内容?)，并发的相同上传可能各自入库: {}", SHA256_FIELD, e.getMessage());
+            mongoTemplate.indexOps(FILES_COLLECTION).ensureIndex(new Index(SHA256_FIELD, Sort.Direction.ASC));
+        }
+        mongoTemplate.indexOps(FILES_COLLECTION).ensureIndex(new Index("uploadDate", Sort.Direction.ASC));
     }
 
     /**
      * 1. 存储文件到 GridFS
      */
-    public String storeFile(MultipartFile file) throws IOException {
-        ObjectId fileId = gridFsTemplate.store(
-                file.getInputStream(),
-                file.getOriginalFilename(),
-                file.getContentType()
-        );
-        return fileId.toString();
+    public StoredFile storeFile(MultipartFile file, String tenantId) throws IOException {
+        return storeStream(file.getInputStream(), file.getOriginalFilename(), file.getContentType(), tenantId);
     }
 
     /**
-     * 2. 获取文件资源 (用于下载)
+     * 1.1 存储任意输入流 (批量上传、压缩包条目)，边读边写 GridFS 分块，不落盘
+     * <p>
+     * 写入的同时计算 SHA-256 (不需要再读一遍)，写完记到 metadata.sha256；
+     * 本租户已有相同内容的文件时撤销本次写入，返回已有文件的 fileId —— 它的片段早已入库，不用再解析、向量化
+     * 两个相同文件同时上传时由 (sha256, tenantId) 唯一索引裁决：先写上哈希的一方保留，另一方撤销并返回它的 fileId
+     * (去重不跨租户：别的租户的文件片段在它自己的索引分区里，这边检索不到)
+     * <p>
+     * 文本类文件边读边压缩后再写分块，编码记在 metadata.codec，原始大小记在 metadata.originalLength；
+     * SHA-256 和返回的 size 始终针对原始内容
      */
-    public Optional<GridFsResource> getFile(String id) {
-        GridFSFile gridFSFile = gridFsTemplate.findOne(new Query(Criteria.where("_id").is(id)));
-        if (gridFSFile == null) {
+    public StoredFile storeStream(InputStream in, String filename, String contentType, String tenantId)
+            throws IOException {
+        StorageCodec fileCodec = codecFor(contentType);
+        HashingInputStream hashing = new HashingInputStream(in);
+        ObjectId fileId;
+        try (InputStream encoded = fileCodec.encode(hashing, compression.getLevel())) {
+            Document metadata = new Document(CODEC_KEY, fileCodec.name()).append(TENANT_KEY, tenantId);
+            fileId = gridFsTemplate.store(encoded, filename, contentType, metadata);
+        }
+        String sha256 = hashing.hexDigest();
+
+        GridFSFile original;
+        try {
+            mongoTemplate.getCollection(FILES_COLLECTION).updateOne(Filters.eq("_id", fileId), Updates.combine(
+                    Updates.set(SHA256_FIELD, sha256),
+                    Updates.set(ORIGINAL_LENGTH_FIELD, hashing.count())));
+            // 哈希写上了：同租户不会再有别的新文件带着它，查到的要么是自己，要么是引入租户之前的老文件 (没有 tenantId)
+            original = findByContent(sha256, tenantId);
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) throw e;
+            // 唯一索引冲突：本租户已有相同内容的文件 (可能是同时上传、先写上哈希的那份)，它的哈希已提交，按理一定查得到
+            original = findByContent(sha256, tenantId);
+            if (original == null) {
+                // 那份刚好又被删掉了：本次写入保留，只是不带哈希 (不参与之后的去重)
+                mongoTemplate.getCollection(FILES_COLLECTION).updateOne(Filters.eq("_id", fileId),
+                        Updates.set(ORIGINAL_LENGTH_FIELD, hashing.count()));
+                return new StoredFile(fileId.toString(), sha256, hashing.count(), false);
+            }
+        }
+        if (original != null && !original.getObjectId().equals(fileId)) {
+            gridFsTemplate.delete(new Query(Criteria.where("_id").is(fileId)));
+            log.info("♻️ 重复上传，复用已有文件: {} -> {}", filename, original.getObjectId());
+            return new StoredFile(original.getObjectId().toString(), sha256, originalLength(original), true);
+        }
+        return new StoredFile(fileId.toString(), sha256, hashing.count(), false);
+    }
+
+    // 同租户同内容的文件里最早的一份 (默认租户包括没有 tenantId 的老文件)
+    private GridFSFile findByContent(String sha256, String tenantId) {
+        return gridFsTemplate.find(new Query(Criteria.where(SHA256_FIELD).is(sha256)
+                        .andOperator(Tenants.where("metadata." + TENANT_KEY, tenantId)))
+                .with(Sort.by("uploadDate", "_id"))
+                .limit(1)).first();
+    }
+
+    // 只压缩配置里列出的类型 (文本类)；DOCX / PDF 这类本身已压缩的格式原样存
+    private StorageCodec codecFor(String contentType) {
+        if (codec == StorageCodec.NONE || contentType == null) return StorageCodec.NONE;
+        try {
+            MediaType type = MediaType.parseMediaType(contentType);
+            return compressibleTypes.stream().anyMatch(t -> t.includes(type)) ? codec : StorageCodec.NONE;
+        } catch (InvalidMediaTypeException e) {
+            return StorageCodec.NONE;
+        }
+    }
+
+    /**
+     * 2. 获取文件内容 (入库解析用)，压缩存储的文件读取时流式解压
+     */
+    public Optional<Resource> getFile(String id) {
+        return findDownloadable(id).map(DownloadableFile::content);
+    }
+
+    /**
+     * 2.1 下载 (支持 Range)：不预先打开下载流，按需每个区间各开一个
+     * 未压缩的文件 skip() 直接跳到目标分块；压缩存储的文件只能边解压边跳过
+     */
+    public Optional<DownloadableFile> findDownloadable(String id) {
+        GridFSFile file = gridFsTemplate.findOne(new Query(Criteria.where("_id").is(id)));
+        if (file == null) {
             return Optional.empty();
         }
-        return Optional.of(gridFsTemplate.getResource(gridFSFile));
+        Document metadata = file.getMetadata() == null ? new Document() : file.getMetadata();
+        StorageCodec fileCodec = StorageCodec.of(metadata.getString(CODEC_KEY));
+        Resource stored = new GridFsFileResource(file, file.getLength(), StorageCodec.NONE);
+        Resource content = fileCodec == StorageCodec.NONE
+                ? stored
+                : new GridFsFileResource(file, originalLength(file), fileCodec);
+        return Optional.of(new DownloadableFile(
+                file.getObjectId().toString(),
+                Tenants.orDefault(metadata.getString(TENANT_KEY)),
+                file.getFilename(),
+                metadata.getString("_contentType"),
+                content.contentLength(),
+                file.getUploadDate().toInstant(),
+                metadata.getString("sha256"),
+                content,
+                fileCodec,
+                stored));
+    }
+
+    // 老文件没有 originalLength，它们都是未压缩存储的，分块总长就是原始大小
+    private static long originalLength(GridFSFile file) {
+        Document metadata = file.getMetadata();
+        Number length = metadata == null ? null : metadata.get("originalLength", Number.class);
+        return length != null ? length.longValue() : file.getLength();
+    }
+
+    /**
+     * 2.2 本租户在 [from, before) 之间上传的文件 (检索按上传时间过滤用)，只投影 _id
+     * @param from   为空表示不限
+     * @param before 为空表示不限
+     */
+    public List<String> findFileIdsUploadedBetween(String tenantId, Instant from, Instant before) {
+        Criteria uploadDate = Criteria.where("uploadDate");
+        if (from != null) uploadDate = uploadDate.gte(Date.from(from));
+        if (before != null) uploadDate = uploadDate.lt(Date.from(before));
+        Query query = new Query(Tenants.where("metadata." + TENANT_KEY, tenantId));
+        if (from != null || before != null) query.addCriteria(uploadDate);
+        query.fields().include("_id");
+        return mongoTemplate.find(query, Document.class, FILES_COLLECTION).stream()
+                .map(doc -> doc.getObjectId("_id").toString())
+                .toList();
+    }
+
+    /**
+     * 2.3 摘掉文件的内容哈希 (文件已标记删除)，之后相同内容的上传不再去重到它上面
+     */
+    public void forgetContentHash(String id) {
+        if (!ObjectId.isValid(id)) return;
+        mongoTemplate.getCollection(FILES_COLLECTION)
+                .updateOne(Filters.eq("_id", new ObjectId(id)), Updates.unset(SHA256_FIELD));
     }
 
     /**
@@ -51,4 +233,80 @@ public class DocumentStorageService {
     public void deleteFile(String id) {
         gridFsTemplate.delete(new Query(Criteria.where("_id").is(id)));
     }
-}
\ No newline at end of file
+
+    /**
+     * GridFS 文件内容，每次 getInputStream() 打开一个新的下载流，按 codec 解码
+     */
+    private final class GridFsFileResource extends AbstractResource {
+        private final GridFSFile file;
+        private final long length;
+        private final StorageCodec codec;
+
+        GridFsFileResource(GridFSFile file, long length, StorageCodec codec) {
+            this.file = file;
+            this.length = length;
+            this.codec = codec;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return codec.decode(gridFsTemplate.getResource(file).getInputStream());
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public String getFilename() {
+            return file.getFilename();
+        }
+
+        @Override
+        public String getDescription() {
+            return "GridFS file [" + file.getObjectId() + "]";
+        }
+    }
+
+    /**
+     * 边读边算 SHA-256 和字节数
+     */
+    private static final class HashingInputStream extends DigestInputStream {
+        private long count;
+
+        HashingInputStream(InputStream in) {
+            super(in, sha256());
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        long count() {
+            return count;
+        }
+
+        String hexDigest() {
+            return HexFormat.of().formatHex(getMessageDigest().digest());
+        }
+
+        private static MessageDigest sha256() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.intellivault.backend.service;
+
+import com.intellivault.backend.config.IngestionProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * 批量向量化：把片段按 batchSize 切批，丢到专用线程池调用 embeddingModel.embed(List)
+ * 返回结果与输入一一对应 (第 i 个向量就是第 i 个片段的)，调用方不需要再 indexOf
+ * <p>
+ * 指标：intellivault.embedding.chunks (片段计数，rate() 即 chunks/s)、
+ * intellivault.embedding.batch (单批耗时)
+ */
+@Component
+public class EmbeddingBatcher {
+
+    private final EmbeddingModel embeddingModel;
+    private final Executor executor;
+    private final int batchSize;
+    private final Counter chunks;
+    private final Timer batchTimer;
+
+    public EmbeddingBatcher(EmbeddingModel embeddingModel,
+                            @Qualifier("embeddingExecutor") Executor executor,
+                            IngestionProperties properties,
+                            MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.executor = executor;
+        this.batchSize = Math.max(1, properties.getEmbedding().getBatchSize());
+        this.chunks = meterRegistry.counter("intellivault.embedding.chunks");
+        this.batchTimer = meterRegistry.timer("intellivault.embedding.batch");
+    }
+
+    public List<float[]> embedAll(List<String> texts) {
+        if (texts.isEmpty()) return List.of();
+
+        float[][] results = new float[texts.size()][];
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int from = 0; from < texts.size(); from += batchSize) {
+            int start = from;
+            List<String> batch = texts.subList(start, Math.min(start + batchSize, texts.size()));
+            futures.add(CompletableFuture.runAsync(() -> embedBatch(batch, results, start), executor));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            // 任意一批失败整个文件都算失败，把原始异常抛给上层
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+        return Arrays.asList(results);
+    }
+
+    private void embedBatch(List<String> batch, float[][] results, int offset) {
+        List<float[]> vectors = batchTimer.record(() -> embeddingModel.embed(batch));
+        if (vectors == null || vectors.size() != batch.size()) {
+            throw new IllegalStateException("Embedding 批次结果数量不符: 期望 " + batch.size()
+                    + ", 实际 " + (vectors == null ? 0 : vectors.size()));
+        }
+        for (int i = 0; i < vectors.size(); i++) {
+            results[offset + i] = vectors.get(i);
+        }
+        chunks.increment(batch.size());
+    }
+}
@@ -1,10 +1,18 @@
 package com.intellivault.backend.service;
 
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
 import org.springframework.ai.reader.tika.TikaDocumentReader;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -13,6 +21,9 @@ import java.util.stream.Collectors;
 @Service
 public class FileParseService {
 
+    // AutoDetectParser 无状态、线程安全，全局复用一个
+    private final AutoDetectParser parser = new AutoDetectParser();
+
     // 1. 保持原有接口，适配 Controller 的直接调用（如果有的话）
     public String parse(MultipartFile file) {
         try {
@@ -34,4 +45,19 @@ public class FileParseService {
             throw new RuntimeException("文档解析内部错误", e);
         }
     }
-}
\ No newline at end of file
+
+    // 3. [流式] 不拼整篇文本：Tika 边读边把正文通过 SAX 回调推给 handler
+    public void parse(Resource resource, ContentHandler handler) {
+        Metadata metadata = new Metadata();
+        if (resource.getFilename() != null) {
+            // 文件名参与类型探测 (有些格式只靠魔数分不清)
+            metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, resource.getFilename());
+        }
+        try (InputStream in = resource.getInputStream()) {
+            // BodyContentHandler(handler) 不设字符上限，只转发 <body> 里的内容
+            parser.parse(in, new BodyContentHandler(handler), metadata, new ParseContext());
+        } catch (IOException | SAXException | TikaException e) {
+            throw new RuntimeException("文档解析内部错误", e);
+        }
+    }
+}
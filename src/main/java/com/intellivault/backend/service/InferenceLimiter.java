@@ -0,0 +1,77 @@
+package com.intellivault.backend.service;
+
+import com.intellivault.backend.config.SearchProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 查询推理 (ONNX) 的并发闸门：公平信号量，最多 maxConcurrent 个请求同时推理，其余排队
+ * <p>
+ * 请求线程是虚拟线程时，等待槽位只是挂起虚拟线程，不占平台线程；
+ * 平台线程的数量由 ONNX Runtime 和这里的上限共同决定，不随并发请求数增长
+ * <p>
+ * 指标：intellivault.inference.active / waiting、intellivault.inference.wait (排队耗时)、
+ * intellivault.inference.rejected (等待超时)
+ */
+@Component
+public class InferenceLimiter {
+
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final long timeoutNanos;
+    private final Timer waitTimer;
+    private final Counter rejected;
+
+    public InferenceLimiter(SearchProperties properties, MeterRegistry meterRegistry) {
+        SearchProperties.Inference config = properties.getInference();
+        this.maxConcurrent = Math.max(1, config.getMaxConcurrent());
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.timeoutNanos = config.getAcquireTimeout().toNanos();
+        this.waitTimer = meterRegistry.timer("intellivault.inference.wait");
+        this.rejected = meterRegistry.counter("intellivault.inference.rejected");
+        Gauge.builder("intellivault.inference.active", this, InferenceLimiter::active).register(meterRegistry);
+        Gauge.builder("intellivault.inference.waiting", permits, Semaphore::getQueueLength).register(meterRegistry);
+    }
+
+    /**
+     * 占一个槽位执行 task；等待超时抛 503，由调用方 (或前端) 稍后重试
+     */
+    public <T, R> R run(T input, Function<T, R> task) {
+        acquire();
+        try {
+            return task.apply(input);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int active() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    private void acquire() {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "等待推理资源时被中断");
+        } finally {
+            waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (!acquired) {
+            rejected.increment();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "推理资源繁忙，请稍后重试");
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.intellivault.backend.service;
+
+import com.intellivault.backend.config.IngestionProperties;
+import com.intellivault.backend.model.IngestionJob;
+import com.intellivault.backend.model.IngestionStage;
+import com.intellivault.backend.model.JobStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 基于 Mongo 的入库任务队列 (ingestion_jobs)
+ * - 领取：findAndModify 原子地把一条可执行任务改成 RUNNING 并写入租约，多个节点不会领到同一条
+ * - 续约：每个检查点顺带延长租约；写入时校验 leaseOwner，租约被别人接手后旧 worker 立刻停手
+ * - 失败：指数退避重试，超过 maxAttempts 或不可重试的错误进入 DEAD
+ */
+@Slf4j
+@Service
+public class IngestionJobService {
+
+    private final MongoTemplate mongoTemplate;
+    private final IngestionProperties.Jobs config;
+
+    public IngestionJobService(MongoTemplate mongoTemplate, IngestionProperties properties) {
+        this.mongoTemplate = mongoTemplate;
+        this.config = properties.getJobs();
+    }
+
+    public IngestionJob enqueue(String fileId, String fileName, String userId, String tenantId, long fileSize) {
+        Instant now = Instant.now();
+        IngestionJob job = IngestionJob.builder()
+                .id(fileId)
+                .fileName(fileName)
+                .userId(userId)
+                .tenantId(tenantId)
+                .fileSize(fileSize)
+                .priority(priority(now, fileSize))
+                .status(JobStatus.PENDING)
+                .stage(IngestionStage.STORED)
+                .nextAttemptAt(now)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        return mongoTemplate.insert(job);
+    }
+
+    public Optional<IngestionJob> findById(String id) {
+        return Optional.ofNullable(mongoTemplate.findById(id, IngestionJob.class));
+    }
+
+    /**
+     * 等待执行的任务数 (PENDING + RETRYING)
+     */
+    public long backlog() {
+        return mongoTemplate.count(new Query(Criteria.where("status").in(JobStatus.PENDING, JobStatus.RETRYING)),
+                IngestionJob.class);
+    }
+
+    /**
+     * 领取一条到期的任务；租约过期的 RUNNING 任务 (持有者宕机) 也会被重新领取
+     * 按 priority 升序领取：短作业优先，同时大文件随时间老化，不会被源源不断的小文件饿死
+     */
+    public Optional<IngestionJob> lease(String owner) {
+        Instant now = Instant.now();
+        Query query = new Query(new Criteria().orOperator(
+                Criteria.where("status").in(JobStatus.PENDING, JobStatus.RETRYING).and("nextAttemptAt").lte(now),
+                Criteria.where("status").is(JobStatus.RUNNING).and("leaseUntil").lt(now)))
+                .with(Sort.by("priority"));
+        Update update = new Update()
+                .set("status", JobStatus.RUNNING)
+                .set("leaseOwner", owner)
+                .set("leaseUntil", now.plus(config.getLease()))
+                .set("updatedAt", now)
+                .inc("attempts", 1);
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), IngestionJob.class));
+    }
+
+    /**
+     * 记录已落库的片段数并续约
+     */
+    public void progress(String jobId, String owner, int chunksWritten) {
+        updateOwned(jobId, owner, new Update()
+                .set("chunksWritten", chunksWritten)
+                .set("leaseUntil", Instant.now().plus(config.getLease()))
+                .set("updatedAt", Instant.now()));
+    }
+
+    /**
+     * 推进到下一个检查点并续约
+     */
+    public void advance(String jobId, String owner, IngestionStage stage, int totalChunks) {
+        updateOwned(jobId, owner, new Update()
+                .set("stage", stage)
+                .set("totalChunks", totalChunks)
+                .set("leaseUntil", Instant.now().plus(config.getLease()))
+                .set("updatedAt", Instant.now()));
+    }
+
+    public void complete(String jobId, String owner) {
+        updateOwned(jobId, owner, new Update()
+                .set("status", JobStatus.SUCCEEDED)
+                .set("stage", IngestionStage.INDEXED)
+                .set("lastError", null)
+                .unset("leaseOwner")
+                .unset("leaseUntil")
+                .set("updatedAt", Instant.now()));
+    }
+
+    /**
+     * 领到了但没能开始执行 (本节点线程池拒绝)：交还租约，撤销这次领取计入的尝试次数，立即可被再次领取
+     * 租约已经不归本节点时什么也不做
+     */
+    public void release(IngestionJob job, String owner) {
+        Instant now = Instant.now();
+        Query query = new Query(Criteria.where("_id").is(job.getId()).and("leaseOwner").is(owner));
+        mongoTemplate.updateFirst(query, new Update()
+                        .set("status", job.getAttempts() > 1 ? JobStatus.RETRYING : JobStatus.PENDING)
+                        .set("nextAttemptAt", now)
+                        .inc("attempts", -1)
+                        .unset("leaseOwner")
+                        .unset("leaseUntil")
+                        .set("updatedAt", now),
+                IngestionJob.class);
+    }
+
+    /**
+     * @param retryable false 表示重试也不会成功 (例如原文件已被删除)，直接进死信
+     */
+    public void fail(IngestionJob job, String owner, Exception error, boolean retryable) {
+        boolean dead = !retryable || job.getAttempts() >= config.getMaxAttempts();
+        Instant now = Instant.now();
+        Update update = new Update()
+                .set("status", dead ? JobStatus.DEAD : JobStatus.RETRYING)
+                .set("lastError", String.valueOf(error.getMessage()))
+                .set("nextAttemptAt", dead ? null : now.plus(backoff(job.getAttempts())))
+                .unset("leaseOwner")
+                .unset("leaseUntil")
+                .set("updatedAt", now);
+        updateOwned(job.getId(), owner, update);
+        if (dead) {
+            log.error("☠️ 入库任务进入死信: ID={}, 已尝试 {} 次, 原因: {}", job.getId(), job.getAttempts(), error.getMessage());
+        }
+    }
+
+    /**
+     * 重复上传命中一个死信任务的文件时，给它一次重新开始的机会 (检查点保留，从断点继续)
+     */
+    public void requeueIfDead(String jobId) {
+        Instant now = Instant.now();
+        mongoTemplate.updateFirst(
+                new Query(Criteria.where("_id").is(jobId).and("status").is(JobStatus.DEAD)),
+                new Update()
+                        .set("status", JobStatus.PENDING)
+                        .set("attempts", 0)
+                        .set("nextAttemptAt", now)
+                        .set("priority", now)
+                        .set("updatedAt", now),
+                IngestionJob.class);
+    }
+
+    /**
+     * 删除文件时一并删除任务；正在执行的 worker 下次写检查点时会发现租约丢失而停止
+     */
+    public void delete(String jobId) {
+        mongoTemplate.remove(new Query(Criteria.where("_id").is(jobId)), IngestionJob.class);
+    }
+
+    private void updateOwned(String jobId, String owner, Update update) {
+        Query query = new Query(Criteria.where("_id").is(jobId).and("leaseOwner").is(owner));
+        if (mongoTemplate.updateFirst(query, update, IngestionJob.class).getMatchedCount() == 0) {
+            throw new LeaseLostException(jobId);
+        }
+    }
+
+    /**
+     * 短作业优先 + 老化 合成一个可排序的 "虚拟截止时间"：入队时间 + 大小 * 每 MB 推迟量
+     * 一个 100MB 的文件会让位给之后 200 秒 (默认 2s/MB) 内入队的小文件，再往后就轮到它了
+     */
+    private Instant priority(Instant enqueuedAt, long fileSize) {
+        long penaltyMillis = (long) (fileSize / (1024.0 * 1024.0) * config.getSizePenaltyPerMb().toMillis());
+        return enqueuedAt.plusMillis(penaltyMillis);
+    }
+
+    // 带抖动的指数退避，避免一批同时失败的任务又同时重试
+    private Duration backoff(int attempts) {
+        long base = config.getBackoff().toMillis() << Math.min(Math.max(attempts - 1, 0), 20);
+        long capped = Math.min(base, config.getMaxBackoff().toMillis());
+        long jitter = ThreadLocalRandom.current().nextLong(capped / 4 + 1);
+        return Duration.ofMillis(capped - capped / 8 + jitter);
+    }
+
+    /**
+     * 租约已过期被别的 worker 接手，或任务已被删除
+     */
+    public static class LeaseLostException extends RuntimeException {
+        public LeaseLostException(String jobId) {
+            super("入库任务租约已失效: " + jobId);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.intellivault.backend.service;
+
+import com.intellivault.backend.config.SearchProperties;
+import com.intellivault.backend.convert.FloatVectorCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 查询向量缓存：归一化后的问题文本 -> float[]
+ * 用户反复问同一个问题、前端重试时，直接复用向量，不再跑一遍 ONNX 推理
+ * <p>
+ * - 本地：LinkedHashMap(访问顺序) 做 LRU，按估算字节数限容，条目带 TTL
+ * - 可选 Redis 二级缓存：多节点共享，值为小端 float32 的 Base64
+ * - 指标：intellivault.query.embedding.cache{result=hit|miss|redis_hit}、evictions、bytes
+ * <p>
+ * 返回的数组是共享的，调用方只读不写
+ */
+@Slf4j
+@Component
+public class QueryEmbeddingCache {
+
+    private static final String REDIS_KEY_PREFIX = "query:embedding:";
+    // 每个条目的固定开销估算 (Entry 对象、数组头、链表指针)
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final SearchProperties.QueryCache config;
+    private final StringRedisTemplate redisTemplate;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    private final Counter hits;
+    private final Counter redisHits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public QueryEmbeddingCache(SearchProperties properties,
+                               ObjectProvider<StringRedisTemplate> redisTemplate,
+                               MeterRegistry meterRegistry) {
+        this.config = properties.getQueryCache();
+        this.redisTemplate = config.isRedisEnabled() ? redisTemplate.getIfAvailable() : null;
+        this.hits = meterRegistry.counter("intellivault.query.embedding.cache", "result", "hit");
+        this.redisHits = meterRegistry.counter("intellivault.query.embedding.cache", "result", "redis_hit");
+        this.misses = meterRegistry.counter("intellivault.query.embedding.cache", "result", "miss");
+        this.evictions = meterRegistry.counter("intellivault.query.embedding.cache.evictions");
+        Gauge.builder("intellivault.query.embedding.cache.bytes", this, QueryEmbeddingCache::estimatedBytes)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 取缓存，未命中时用 embedder 计算并回填
+     */
+    public float[] get(String query, Function<String, float[]> embedder) {
+        if (!config.isEnabled()) return embedder.apply(query);
+
+        String key = normalize(query);
+        long now = System.currentTimeMillis();
+
+        float[] cached = getLocal(key, now);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        cached = getRemote(key);
+        if (cached != null) {
+            redisHits.increment();
+            putLocal(key, cached, now);
+            return cached;
+        }
+
+        misses.increment();
+        float[] vector = embedder.apply(query);
+        putLocal(key, vector, now);
+        putRemote(key, vector);
+        return vector;
+    }
+
+    public long estimatedBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归一化：全角转半角 (NFKC)、去首尾空白、合并连续空白、转小写、去掉句末标点
+     * "IntelliVault 是什么？" 与 "intellivault  是什么?" 视为同一个问题
+     */
+    static String normalize(String query) {
+        String text = Normalizer.normalize(query, Normalizer.Form.NFKC)
+                .strip()
+                .replaceAll("\\s+", " ")
+                .toLowerCase();
+        return text.replaceAll("[\\p{Punct}。？！，、\\s]+$", "");
+    }
+
+    // ---------------- 本地 LRU ----------------
+
+    private float[] getLocal(String key, long now) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) return null;
+            if (entry.expireAt() <= now) {
+                remove(key, entry);
+                return null;
+            }
+            return entry.vector();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void putLocal(String key, float[] vector, long now) {
+        Entry entry = new Entry(vector, now + config.getTtl().toMillis(), sizeOf(key, vector));
+        if (entry.bytes() > config.getMaxBytes().toBytes()) return;
+        lock.lock();
+        try {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) bytes -= previous.bytes();
+            bytes += entry.bytes();
+            // 超出预算：按 LRU 从最久未访问的开始淘汰
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (bytes > config.getMaxBytes().toBytes() && it.hasNext()) {
+                Map.Entry<String, Entry> eldest = it.next();
+                if (eldest.getValue() == entry) continue;
+                it.remove();
+                bytes -= eldest.getValue().bytes();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.bytes();
+        evictions.increment();
+    }
+
+    private static long sizeOf(String key, float[] vector) {
+        return ENTRY_OVERHEAD_BYTES + key.length() * 2L + (long) vector.length * Float.BYTES;
+    }
+
+    // ---------------- Redis 二级缓存 (失败只降级，不影响检索) ----------------
+
+    private float[] getRemote(String key) {
+        if (redisTemplate == null) return null;
+        try {
+            String value = redisTemplate.opsForValue().get(REDIS_KEY_PREFIX + sha256(key));
+            return value == null ? null : FloatVectorCodec.decode(Base64.getDecoder().decode(value));
+        } catch (Exception e) {
+            log.warn("⚠️ 查询向量缓存读取 Redis 失败，降级为本地计算: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void putRemote(String key, float[] vector) {
+        if (redisTemplate == null) return;
+        try {
+            redisTemplate.opsForValue().set(REDIS_KEY_PREFIX + sha256(key),
+                    Base64.getEncoder().encodeToString(FloatVectorCodec.encode(vector)),
+                    config.getTtl());
+        } catch (Exception e) {
+            log.warn("⚠️ 查询向量缓存写入 Redis 失败: {}", e.getMessage());
+        }
+    }
+
+    // 问题文本可能很长，Redis key 用摘要
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Entry(float[] vector, long expireAt, long bytes) {
+    }
+}
@@ -1,111 +1,158 @@
 package com.intellivault.backend.service;
 
+import com.intellivault.backend.config.SearchProperties;
+import com.intellivault.backend.index.RankFusion;
+import com.intellivault.backend.index.SearchFilter;
+import com.intellivault.backend.index.SearchHit;
+import com.intellivault.backend.index.TenantIndexRegistry;
 import com.intellivault.backend.model.KnowledgeDocument;
+import com.intellivault.backend.model.ScoredChunk;
 import com.intellivault.backend.repository.KnowledgeRepository;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 public class SearchService {
 
+    // 相似度下限：低于它的片段视为完全不相关
+    private static final float MIN_SCORE = 0.1f;
+    // 多取一些候选，折叠掉内容完全相同的片段 (同一份合同的多个版本) 后仍能凑够 TopK
+    private static final int DUPLICATE_HEADROOM = 2;
+
     private final EmbeddingModel embeddingModel;
     private final KnowledgeRepository knowledgeRepository;
+    private final TenantIndexRegistry indexRegistry;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final InferenceLimiter inferenceLimiter;
+    private final TombstoneService tombstoneService;
+    private final DocumentStorageService storageService;
+    private final SearchProperties.Hybrid hybrid;
+    private final Executor searchExecutor;
+    private final Scheduler retrievalScheduler;
 
-    public SearchService(EmbeddingModel embeddingModel, KnowledgeRepository knowledgeRepository) {
+    public SearchService(EmbeddingModel embeddingModel,
+                         KnowledgeRepository knowledgeRepository,
+                         TenantIndexRegistry indexRegistry,
+                         QueryEmbeddingCache queryEmbeddingCache,
+                         InferenceLimiter inferenceLimiter,
+                         TombstoneService tombstoneService,
+                         DocumentStorageService storageService,
+                         SearchProperties properties,
+                         @Qualifier("searchExecutor") Executor searchExecutor,
+                         @Qualifier("retrievalScheduler") Scheduler retrievalScheduler) {
         this.embeddingModel = embeddingModel;
         this.knowledgeRepository = knowledgeRepository;
+        this.indexRegistry = indexRegistry;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.inferenceLimiter = inferenceLimiter;
+        this.tombstoneService = tombstoneService;
+        this.storageService = storageService;
+        this.hybrid = properties.getHybrid();
+        this.searchExecutor = searchExecutor;
+        this.retrievalScheduler = retrievalScheduler;
     }
 
     /**
-     * 核心功能：语义搜索
+     * 核心功能：语义搜索 (只在本租户的索引分区里检索)
+     * @param tenantId 租户，见 Tenants
      * @param query 用户的问题，例如 "IntelliVault 的核心技术是什么？"
      * @param topK 返回最相似的几条结果
      */
-    public List<KnowledgeDocument> search(String query, int topK) {
-        // 1. 把用户的问题也变成向量 (Query Embedding)
-        // 注意：这里必须转换类型，跟入库时保持一致
-        float[] queryEmbeddingArray = embeddingModel.embed(query);
-        List<Double> queryVector = convertFloatArrayToList(queryEmbeddingArray);
-
-        // 2. 取出库里所有文档 (MVP阶段策略：全量取出在内存计算)
-        // 面试话术：对于百万级以下数据，内存计算比IO更像瓶颈；海量数据可升级为 PGVector 或 Mongo Atlas
-        List<KnowledgeDocument> allDocs = knowledgeRepository.findAll();
-
-        // 3. 内存计算相似度并排序
-        List<KnowledgeDocument> candidates = new ArrayList<>();
-        for (KnowledgeDocument doc : allDocs) {
-            double score = cosineSimilarity(queryVector, doc.getEmbedding());
-            if (score > 0.1) {
-                // 注意：这里依然有副作用(Side Effect)，但在 MVP 阶段可以容忍
-                doc.getMetadata().put("score", score);
-                candidates.add(doc);
-            }
-        }
-        candidates.sort((a, b) -> {
-            Double score1 = (Double) a.getMetadata().get("score");
-            Double score2 = (Double) b.getMetadata().get("score");
-            // 处理 null 安全（防止 metadata 里没有 score 导致空指针）
-            if (score1 == null) score1 = 0.0;
-            if (score2 == null) score2 = 0.0;
-            return Double.compare(score2, score1);
-        });
-
-        // 4. 截取 TopK (防御性复制，防止 subList 坑)
-        int limit = Math.min(topK, candidates.size());
-        return new ArrayList<>(candidates.subList(0, limit));
-
-        //(Lambda写法)
-//        return allDocs.stream()
-//                .map(doc -> {
-//                    // 计算相似度分数
-//                    double score = cosineSimilarity(queryVector, doc.getEmbedding());
-//                    doc.getMetadata().put("score", score); // 把分数暂存到 metadata 方便查看
-//                    return doc;
-//                })
-//                // 过滤掉完全不相关的 (可选，这里设个阈值 0.5)
-//                .filter(doc -> (double) doc.getMetadata().get("score") > 0.1)
-//                // 按分数降序排列 (最像的排前面)
-//                .sorted(Comparator.comparingDouble((KnowledgeDocument doc) ->
-//                        (Double) doc.getMetadata().get("score")).reversed())
-//                .peek(doc -> System.out.println("🔍 候选文档得分: " + doc.getMetadata().get("score") + " | 内容: " + doc.getContent().substring(0, Math.min(20, doc.getContent().length())))) // [修改点] 打印日志调试
-//                .limit(topK)
-//                .collect(Collectors.toList());
+    public List<ScoredChunk> search(String tenantId, String query, int topK) {
+        return search(tenantId, query, topK, SearchFilter.NONE);
     }
 
-    // 辅助工具：float[] 转 List<Double>
-    private List<Double> convertFloatArrayToList(float[] array) {
-        List<Double> list = new java.util.ArrayList<>(array.length);
-        for (float f : array) {
-            list.add((double) f);
+    /**
+     * 带过滤条件的语义搜索：只在指定文件 / 文件名 / metadata / 上传时间范围内找
+     * 条件在索引里按位图预先筛出候选行，不是检索完再过滤，条件越严扫得越少
+     * <p>
+     * 开启混合检索时，关键词 (BM25) 一路与向量一路并行召回，按名次融合 (RRF)：
+     * 编号、错误码这类向量区分不出来的精确标识靠关键词一路捞回来。
+     * 返回的分数在两路都有结果时是融合分，只有向量结果时仍是余弦相似度
+     */
+    public List<ScoredChunk> search(String tenantId, String query, int topK, SearchFilter filter) {
+        SearchFilter resolved = resolveUploadRange(tenantId, filter == null ? SearchFilter.NONE : filter);
+        int limit = topK * DUPLICATE_HEADROOM;
+        boolean hybridSearch = hybrid.isEnabled() && indexRegistry.lexicalEnabled();
+        int candidates = hybridSearch ? Math.max(limit, hybrid.getCandidates()) : limit;
+
+        // 1. 关键词一路先提交到检索线程池，与下面的向量化 + 向量扫描同时进行
+        CompletableFuture<List<SearchHit>> keywordHits = hybridSearch
+                ? CompletableFuture.supplyAsync(() -> indexRegistry.readLexical(tenantId,
+                        lexical -> lexical.search(query, candidates, resolved)), searchExecutor)
+                .exceptionally(e -> {
+                    // 关键词一路出错不影响向量结果
+                    log.warn("⚠️ 租户 {} 的关键词检索失败，仅用向量结果: {}", tenantId, e.getMessage());
+                    return List.of();
+                })
+                : CompletableFuture.completedFuture(List.of());
+
+        // 2. 把用户的问题也变成向量 (Query Embedding)，重复的问题直接走缓存
+        // 未命中才推理，推理要先拿到并发槽位：虚拟线程下请求数不封顶，CPU 不能跟着超卖
+        float[] queryVector = queryEmbeddingCache.get(query,
+                text -> inferenceLimiter.run(text, embeddingModel::embed));
+
+        // 3. 在本租户的向量索引分区里做点积扫描 (冷分区先加载)，只拿回候选的 id 和分数
+        List<SearchHit> vectorHits = indexRegistry.read(tenantId,
+                index -> index.search(queryVector, candidates, MIN_SCORE, resolved));
+
+        // 4. 两路按名次融合，有界堆只留前 topK * 2 名
+        // 已标记删除 (墓碑) 但还没被后台清理掉的文件在融合前过滤：既不占名额，也不抬高后面的名次
+        List<SearchHit> hits = RankFusion.reciprocalRank(withoutTombstoned(vectorHits),
+                withoutTombstoned(keywordHits.join()), hybrid.getRrfK(), hybrid.getKeywordWeight(), limit);
+        if (hits.isEmpty()) return new ArrayList<>();
+
+        // 5. 只为最终的 TopK 回 Mongo 补全正文 (一次 $in 查询，不带 embedding)
+        Map<String, KnowledgeDocument> docsById = knowledgeRepository
+                .findChunksByIds(hits.stream().map(SearchHit::id).toList())
+                .stream()
+                .collect(Collectors.toMap(KnowledgeDocument::getId, Function.identity()));
+
+        // 6. 按融合后的顺序组装不可变结果，相同 contentHash 只保留分数最高的那条
+        List<ScoredChunk> results = new ArrayList<>(topK);
+        Set<String> seenHashes = new HashSet<>();
+        for (SearchHit hit : hits) {
+            if (results.size() == topK) break;
+            KnowledgeDocument doc = docsById.get(hit.id());
+            if (doc == null) continue; // 索引和库之间的短暂不一致 (例如刚被删除)
+            if (doc.getContentHash() != null && !seenHashes.add(doc.getContentHash())) continue;
+            results.add(ScoredChunk.of(doc, hit.score()));
         }
-        return list;
+        return results;
     }
 
     /**
-     * 数学核心：余弦相似度计算
-     * 面试手写算法题级别的高频考点
+     * 非阻塞版本 (流式对话用)：订阅时才在检索调度器上执行，调用线程只拿到一个 Mono
+     * 和别的异步步骤 (例如取会话记忆) 一起 zip 时两边同时进行
      */
-    private double cosineSimilarity(List<Double> v1, List<Double> v2) {
-        if (v1 == null || v2 == null || v1.size() != v2.size()) {
-            return 0.0;
-        }
-
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
+    public Mono<List<ScoredChunk>> searchAsync(String tenantId, String query, int topK, SearchFilter filter) {
+        return Mono.fromCallable(() -> search(tenantId, query, topK, filter))
+                .subscribeOn(retrievalScheduler);
+    }
 
-        for (int i = 0; i < v1.size(); i++) {
-            dotProduct += v1.get(i) * v2.get(i);
-            normA += Math.pow(v1.get(i), 2);
-            normB += Math.pow(v2.get(i), 2);
-        }
+    private List<SearchHit> withoutTombstoned(List<SearchHit> hits) {
+        return hits.stream().filter(hit -> !tombstoneService.isDeleted(hit.fileId())).toList();
+    }
 
-        if (normA == 0 || normB == 0) return 0.0;
-        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    // 上传时间记在 GridFS 上而不是片段上：先查出范围内的文件，换成 fileId 条件再交给索引
+    private SearchFilter resolveUploadRange(String tenantId, SearchFilter filter) {
+        if (!filter.hasUploadRange()) return filter;
+        return filter.withUploadedFileIds(storageService.findFileIdsUploadedBetween(
+                tenantId, filter.uploadedFrom(), filter.uploadedBefore()));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,126 @@
+package com.intellivault.backend.service;
+
+import com.intellivault.backend.config.IndexProperties;
+import com.intellivault.backend.config.Tenants;
+import com.intellivault.backend.index.TenantIndexRegistry;
+import com.intellivault.backend.model.FileTombstone;
+import com.intellivault.backend.repository.KnowledgeRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 墓碑后台清理：定时执行，每轮删除的片段数有上限 (限速)
+ * 1. 按 fileId 分批删除 knowledge_docs 里的片段
+ * 2. 片段删完且过了 settle 的文件按租户攒成一批，每个分区一趟压缩掉索引里的行 (扁平 / int8 索引原地重排，随后的快照写出紧凑的新文件)
+ * 3. 删除 GridFS 原文件，撤掉墓碑
+ * 在此之前检索一直靠墓碑过滤，结果里不会出现已删除的文件
+ * 每个节点都跑这个任务，每轮先与 file_tombstones 对齐：别的节点已撤掉的墓碑，先删本节点索引里的行再停止过滤
+ */
+@Slf4j
+@Component
+public class TombstoneCompactor {
+
+    private static final int TOMBSTONES_PER_RUN = 100;
+
+    private final TombstoneService tombstoneService;
+    private final KnowledgeRepository knowledgeRepository;
+    private final TenantIndexRegistry indexRegistry;
+    private final DocumentStorageService storageService;
+    private final ApplicationAvailability availability;
+    private final IndexProperties.Compaction config;
+    private final Counter chunksRemoved;
+    private final Counter filesCleared;
+
+    public TombstoneCompactor(TombstoneService tombstoneService,
+                              KnowledgeRepository knowledgeRepository,
+                              TenantIndexRegistry indexRegistry,
+                              DocumentStorageService storageService,
+                              ApplicationAvailability availability,
+                              IndexProperties properties,
+                              MeterRegistry meterRegistry) {
+        this.tombstoneService = tombstoneService;
+        this.knowledgeRepository = knowledgeRepository;
+        this.indexRegistry = indexRegistry;
+        this.storageService = storageService;
+        this.availability = availability;
+        this.config = properties.getCompaction();
+        this.chunksRemoved = meterRegistry.counter("intellivault.compaction.chunks.removed");
+        this.filesCleared = meterRegistry.counter("intellivault.compaction.files.cleared");
+    }
+
+    @Scheduled(fixedDelayString = "${intellivault.index.compaction.interval:5s}")
+    public void compact() {
+        // 索引恢复完成前不动它
+        if (availability.getReadinessState() != ReadinessState.ACCEPTING_TRAFFIC) return;
+        Map<String, Set<String>> clearedElsewhere = tombstoneService.refresh();
+        if (!clearedElsewhere.isEmpty()) {
+            int rows = removeRows(clearedElsewhere);
+            clearedElsewhere.values().forEach(tombstoneService::forget);
+            log.info("🧹 同步其他节点的墓碑清理: {} 个文件, 索引移除 {} 行",
+                    clearedElsewhere.values().stream().mapToInt(Set::size).sum(), rows);
+        }
+
+        List<FileTombstone> pending = tombstoneService.pending(TOMBSTONES_PER_RUN);
+        if (pending.isEmpty()) return;
+
+        int budget = config.getMaxChunksPerRun();
+        Instant settledBefore = Instant.now().minus(config.getSettle());
+        List<String> drained = new ArrayList<>();
+        Map<String, Set<String>> drainedByTenant = new HashMap<>();
+        for (FileTombstone tombstone : pending) {
+            String fileId = tombstone.getFileId();
+            int removed = 0;
+            boolean empty = false;
+            while (budget > 0) {
+                int limit = Math.min(config.getBatchSize(), budget);
+                int n = knowledgeRepository.deleteChunkBatch(fileId, limit);
+                removed += n;
+                budget -= n;
+                if (n < limit) {
+                    empty = true;
+                    break;
+                }
+            }
+            if (removed > 0) {
+                tombstoneService.progress(fileId, removed);
+                chunksRemoved.increment(removed);
+            }
+            if (empty && tombstone.getDeletedAt().isBefore(settledBefore)) {
+                drained.add(fileId);
+                drainedByTenant.computeIfAbsent(Tenants.orDefault(tombstone.getTenantId()), t -> new HashSet<>())
+                        .add(fileId);
+            }
+            if (budget <= 0) break;
+        }
+        if (drained.isEmpty()) return;
+
+        int rows = removeRows(drainedByTenant);
+        drained.forEach(storageService::deleteFile);
+        tombstoneService.cleared(drained);
+        filesCleared.increment(drained.size());
+        log.info("🧹 墓碑清理完成: {} 个文件, 索引移除 {} 行", drained.size(), rows);
+    }
+
+    // 按租户分批从本节点的向量索引和关键词索引里删掉这些文件的行
+    private int removeRows(Map<String, Set<String>> fileIdsByTenant) {
+        int rows = 0;
+        for (Map.Entry<String, Set<String>> entry : fileIdsByTenant.entrySet()) {
+            rows += indexRegistry.write(entry.getKey(), index -> index.removeByFileIds(entry.getValue()));
+            indexRegistry.writeLexical(entry.getKey(), lexical -> lexical.removeByFileIds(entry.getValue()));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,124 @@
+package com.intellivault.backend.service;
+
+import com.intellivault.backend.config.Tenants;
+import com.intellivault.backend.model.FileTombstone;
+import com.intellivault.backend.repository.FileTombstoneRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 文件墓碑：删除 = 写一条墓碑 (O(1))，检索路径按内存里的 fileId 集合立即过滤
+ * 真正的清理交给 TombstoneCompactor；墓碑在 Mongo 里持久化，重启后继续清理
+ * 多节点：每个节点的内存集合在每轮压缩时与 file_tombstones 对齐 —— 别的节点删的文件在这里也被过滤，
+ * 别的节点清理完撤掉的墓碑，这里先把本地索引里的行删掉再撤
+ */
+@Slf4j
+@Service
+public class TombstoneService {
+
+    private final FileTombstoneRepository repository;
+    private final MongoTemplate mongoTemplate;
+    private final DocumentStorageService storageService;
+    // fileId -> 所属租户 (清理索引行时用)
+    private final Map<String, String> deleted = new ConcurrentHashMap<>();
+
+    public TombstoneService(FileTombstoneRepository repository,
+                            MongoTemplate mongoTemplate,
+                            DocumentStorageService storageService) {
+        this.repository = repository;
+        this.mongoTemplate = mongoTemplate;
+        this.storageService = storageService;
+    }
+
+    // 未清理完的墓碑数量有限 (清理速度远快于删除速度)，全量载入内存
+    @PostConstruct
+    void load() {
+        refresh();
+        if (!deleted.isEmpty()) log.info("🪦 载入 {} 个待清理的文件墓碑", deleted.size());
+    }
+
+    /**
+     * 标记删除：先落 Mongo，再进内存集合 (本节点检索立即生效)；重复删除是幂等的
+     * 顺序不能反：refresh 靠 "内存里有、Mongo 里没有" 判断墓碑已被别的节点撤掉
+     */
+    public void tombstone(String tenantId, String fileId) {
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(fileId)),
+                new Update().setOnInsert("tenantId", tenantId)
+                        .setOnInsert("deletedAt", Instant.now())
+                        .setOnInsert("chunksRemoved", 0L),
+                FileTombstone.class);
+        deleted.put(fileId, Tenants.orDefault(tenantId));
+        // 内容哈希摘掉：之后上传相同内容不会被去重到这个正在删除的文件上
+        storageService.forgetContentHash(fileId);
+    }
+
+    public boolean isDeleted(String fileId) {
+        return fileId != null && deleted.containsKey(fileId);
+    }
+
+    /**
+     * 与 file_tombstones 对齐：别的节点新写的墓碑加进内存集合
+     * @return 内存里有、Mongo 里已经没有的墓碑 (别的节点清理完撤掉了)，按租户分组；
+     *         调用方删掉本地索引里的行之后再 {@link #forget}，在此之前检索仍然过滤它们
+     */
+    Map<String, Set<String>> refresh() {
+        // 先取本地快照再查 Mongo：快照里的墓碑都已落库 (见 tombstone)，查询结果里没有就一定是被撤掉了
+        Map<String, String> known = new HashMap<>(deleted);
+        Query all = new Query();
+        all.fields().include("tenantId");
+        Set<String> current = new HashSet<>();
+        for (FileTombstone tombstone : mongoTemplate.find(all, FileTombstone.class)) {
+            current.add(tombstone.getFileId());
+            deleted.putIfAbsent(tombstone.getFileId(), Tenants.orDefault(tombstone.getTenantId()));
+        }
+        Map<String, Set<String>> clearedElsewhere = new HashMap<>();
+        known.forEach((fileId, tenantId) -> {
+            if (!current.contains(fileId)) {
+                clearedElsewhere.computeIfAbsent(tenantId, t -> new HashSet<>()).add(fileId);
+            }
+        });
+        return clearedElsewhere;
+    }
+
+    /**
+     * 本地索引已经不含这些文件的行，停止过滤
+     */
+    void forget(Collection<String> fileIds) {
+        fileIds.forEach(deleted::remove);
+    }
+
+    /**
+     * 待清理的墓碑，先删的在前
+     */
+    List<FileTombstone> pending(int limit) {
+        return repository.findAllByOrderByDeletedAtAsc(PageRequest.of(0, limit));
+    }
+
+    void progress(String fileId, int chunksRemoved) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(fileId)),
+                new Update().inc("chunksRemoved", chunksRemoved), FileTombstone.class);
+    }
+
+    /**
+     * 清理完成：片段和索引行都已不在，撤掉墓碑
+     */
+    void cleared(Collection<String> fileIds) {
+        repository.deleteAllById(fileIds);
+        forget(fileIds);
+    }
+}
@@ -0,0 +1,176 @@
+package com.intellivault.backend;
+
+import com.intellivault.backend.service.InferenceLimiter;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * /chat 的并发容量压测：同一份应用起两次 —— 默认配置 (Tomcat 平台线程池) 和 virtual-threads profile，
+ * 用同样多的并发客户端打真实的 /chat 接口 (Tomcat -> RagController -> SearchService -> 记忆 Advisor -> DeepSeek)，
+ * 对比吞吐、延迟和同时在途的大模型调用数
+ * <p>
+ * DeepSeek 用本地 HTTP 桩代替 (spring.ai.openai.base-url 指过去，固定延迟后返回 OpenAI 格式的应答)；
+ * 查询向量化是真实的本地 ONNX 模型，经过 InferenceLimiter。和 DocumentAgentApplicationTests 一样需要本机的 MongoDB 和 Redis
+ * <p>
+ * 默认不跑，手动开启 (Java 21)：mvn test -Dtest=ChatCapacityLoadTest -Dloadtest=true [-Dloadtest.clients=2000]
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+class ChatCapacityLoadTest {
+
+    // Tomcat 默认 server.tomcat.threads.max
+    private static final int PLATFORM_THREADS = 200;
+    private static final Duration LLM_LATENCY = Duration.ofMillis(300);
+    private static final int WARMUP_REQUESTS = 20;
+
+    private static final String COMPLETION = """
+            {"id":"chatcmpl-load","object":"chat.completion","created":0,"model":"deepseek-chat",
+             "choices":[{"index":0,"message":{"role":"assistant","content":"ok"},"finish_reason":"stop"}],
+             "usage":{"prompt_tokens":1,"completion_tokens":1,"total_tokens":2}}
+            """;
+
+    private final int clients = Integer.getInteger("loadtest.clients", 1000);
+
+    private HttpServer llm;
+    private HttpClient httpClient;
+    private Path dataDir;
+
+    // 大模型桩上同时在途的请求数
+    private final AtomicInteger llmInFlight = new AtomicInteger();
+    private final AtomicInteger llmPeak = new AtomicInteger();
+
+    @BeforeEach
+    void setUp(@TempDir Path dir) throws Exception {
+        dataDir = dir;
+        // 大模型桩：固定延迟后返回一句话，自身跑在虚拟线程上，不成为瓶颈
+        llm = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), clients);
+        llm.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        llm.createContext("/v1/chat/completions", exchange -> {
+            int current = llmInFlight.incrementAndGet();
+            llmPeak.accumulateAndGet(current, Math::max);
+            try (exchange) {
+                exchange.getRequestBody().readAllBytes();
+                Thread.sleep(LLM_LATENCY);
+                byte[] body = COMPLETION.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                llmInFlight.decrementAndGet();
+            }
+        });
+        llm.start();
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        llm.stop(0);
+        httpClient.close();
+    }
+
+    @Test
+    @DisplayName("同步对话：平台线程模式的在途上限是 Tomcat 线程数，virtual-threads 模式下只受推理槽位和下游限制")
+    void chatCapacity() throws Exception {
+        Result platform = run("平台线程 (默认)");
+        Result virtual = run("虚拟线程", "virtual-threads");
+
+        System.out.println("模式            | 请求数 | 耗时(ms) | 吞吐(req/s) | p50(ms) | p99(ms) | 大模型并发峰值");
+        for (Result result : List.of(platform, virtual)) {
+            System.out.printf("%-14s | %6d | %8d | %11.1f | %7d | %7d | %14d%n", result.mode(), clients,
+                    result.millis(), clients * 1000.0 / result.millis(), result.p50(), result.p99(), result.llmPeak());
+        }
+
+        assertTrue(platform.llmPeak() <= PLATFORM_THREADS, "平台线程模式下在途调用受 Tomcat 线程数限制");
+        if (clients > PLATFORM_THREADS) {
+            assertTrue(virtual.llmPeak() > PLATFORM_THREADS, "虚拟线程模式下在途调用应突破平台线程上限");
+            assertTrue(virtual.millis() < platform.millis(), "虚拟线程模式总耗时应更短");
+        }
+    }
+
+    private Result run(String mode, String... profiles) throws Exception {
+        try (ConfigurableApplicationContext app = new SpringApplicationBuilder(DocumentAgentApplication.class)
+                .profiles(profiles)
+                .properties(
+                        "server.port=0",
+                        "spring.ai.openai.api-key=sk-dummy-key-for-test-only",
+                        "spring.ai.openai.base-url=http://127.0.0.1:" + llm.getAddress().getPort(),
+                        "spring.ai.model.embedding=transformers",
+                        "spring.ai.embedding.transformer.tokenizer.uri=classpath:/onnx/all-MiniLM-L6-v2/tokenizer.json",
+                        "spring.ai.embedding.transformer.onnx.model-uri=classpath:/onnx/all-MiniLM-L6-v2/model.onnx",
+                        "intellivault.index.path=" + dataDir.resolve(profiles.length == 0 ? "platform" : "virtual")
+                                .resolve("vector.idx"))
+                .run()) {
+            int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+            String base = "http://127.0.0.1:" + port + "/chat";
+
+            // 预热：ONNX 首次推理、类加载、连接池，不计入结果
+            for (int i = 0; i < WARMUP_REQUESTS; i++) {
+                assertEquals("ok", chat(base, mode + " 预热 " + i, "warmup").join());
+            }
+            llmPeak.set(0);
+
+            long[] latencies = new long[clients];
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> replies = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                int n = i;
+                long sent = System.nanoTime();
+                // 每个问题、每个会话都不同：不走查询向量缓存，每次都真的占一个推理槽位，也不共用一条历史
+                replies.add(chat(base, mode + " 问题 " + i, "load_" + i).thenAccept(body -> {
+                    latencies[n] = (System.nanoTime() - sent) / 1_000_000;
+                    assertEquals("ok", body);
+                }));
+            }
+            CompletableFuture.allOf(replies.toArray(CompletableFuture[]::new)).join();
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            assertEquals(0, app.getBean(InferenceLimiter.class).active(), "请求都结束后推理槽位应全部归还");
+            Arrays.sort(latencies);
+            return new Result(mode, millis, latencies[clients / 2], latencies[Math.min(clients - 1, clients * 99 / 100)],
+                    llmPeak.get());
+        }
+    }
+
+    private CompletableFuture<String> chat(String base, String query, String userId) {
+        URI uri = URI.create(base + "?query=" + URLEncoder.encode(query, StandardCharsets.UTF_8) + "&userId=" + userId);
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofMinutes(2)).GET().build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            assertEquals(200, response.statusCode(), response.body());
+            return response.body();
+        });
+    }
+
+    private record Result(String mode, long millis, long p50, long p99, int llmPeak) {
+    }
+}
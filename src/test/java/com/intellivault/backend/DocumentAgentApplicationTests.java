@@ -1,5 +1,6 @@
 package com.intellivault.backend;
 
+import com.intellivault.backend.config.Tenants;
 import com.intellivault.backend.service.DocumentService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,7 +29,7 @@ class DocumentAgentApplicationTests {
         String content = "IntelliVault 本地向量化引擎测试文本。";
 
         System.out.println("🚀 开始执行文档入库测试...");
-        documentService.processAndStore(content, sourceFilename,"Test_id_001");
+        documentService.processAndStore(content, sourceFilename,"Test_id_001", Tenants.DEFAULT);
         System.out.println("✅ 测试结束，请检查 MongoDB。");
     }
 
@@ -39,19 +40,19 @@ class DocumentAgentApplicationTests {
     void testSearch() {
         // 1. 确保库里有数据 (先跑一次入库)
         String content = "Spring AI 支持多种大模型，包括 OpenAI, Azure, DeepSeek 等。IntelliVault 是一个基于 Spring AI 的项目。";
-        documentService.processAndStore(content, "search_test_doc.txt","test_id_002");
+        documentService.processAndStore(content, "search_test_doc.txt","test_id_002", Tenants.DEFAULT);
 
         // 2. 模拟搜索
         String query = "IntelliVault 是基于什么框架的？";
         System.out.println("🔍 正在搜索: " + query);
 
-        var results = searchService.search(query, 3);
+        var results = searchService.search(Tenants.DEFAULT, query, 3);
 
         // 3. 打印结果
-        results.forEach(doc -> {
+        results.forEach(chunk -> {
             System.out.println("------------------------------------------------");
-            System.out.println("📝 匹配片段: " + doc.getContent());
-            System.out.println("🎯 相似度分: " + doc.getMetadata().get("score"));
+            System.out.println("📝 匹配片段: " + chunk.content());
+            System.out.println("🎯 相似度分: " + chunk.score());
         });
     }
 
@@ -67,6 +68,6 @@ class DocumentAgentApplicationTests {
             """;
 
         // 入库 (注意文件名换一个，避免和之前的混淆)
-        documentService.processAndStore(content, "secret_project_info.txt","test_id_003");
+        documentService.processAndStore(content, "secret_project_info.txt","test_id_003", Tenants.DEFAULT);
     }
 }
\ No newline at end of file
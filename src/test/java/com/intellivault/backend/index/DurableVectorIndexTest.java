@@ -0,0 +1,83 @@
+package com.intellivault.backend.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DurableVectorIndexTest {
+
+    private static final int DIM = 16;
+
+    @Test
+    @DisplayName("快照 + 日志回放：重启后与重启前的索引内容一致")
+    void recoverFromSnapshotAndWal(@TempDir Path dir) throws Exception {
+        Path snapshot = dir.resolve("vector.idx");
+        float[][] data = randomVectors(new Random(3), 300);
+
+        DurableVectorIndex before = new DurableVectorIndex(new FlatVectorIndex(DIM), snapshot, false);
+        for (int i = 0; i < 200; i++) before.add("d" + i, "f" + (i % 4), data[i]);
+        before.checkpoint();
+        // 快照之后的写入和删除只在日志里
+        for (int i = 200; i < 300; i++) before.add("d" + i, "f" + (i % 4), data[i]);
+        before.removeByFileId("f1");
+        before.add("d0", "f0", data[299]);
+        before.close();
+
+        DurableVectorIndex after = new DurableVectorIndex(new FlatVectorIndex(DIM), snapshot, false);
+        DurableVectorIndex.Recovery recovery = after.recover();
+
+        assertEquals(102, recovery.replayedRecords());
+        assertFalse(recovery.tornTail());
+        assertEquals(before.size(), after.size());
+        assertEquals(before.search(data[5], 10, -2f), after.search(data[5], 10, -2f));
+        assertEquals(before.search(data[299], 10, -2f), after.search(data[299], 10, -2f));
+    }
+
+    @Test
+    @DisplayName("快照完成后旧日志段被删除，日志尾部残缺的记录回放时丢弃")
+    void truncateAndTornTail(@TempDir Path dir) throws Exception {
+        Path snapshot = dir.resolve("vector.idx");
+        float[][] data = randomVectors(new Random(5), 20);
+
+        DurableVectorIndex index = new DurableVectorIndex(new FlatVectorIndex(DIM), snapshot, false);
+        for (int i = 0; i < 10; i++) index.add("d" + i, "f", data[i]);
+        index.checkpoint();
+        assertEquals(0, index.pendingWrites());
+        assertEquals(1, walSegments(dir).size());
+
+        for (int i = 10; i < 20; i++) index.add("d" + i, "f", data[i]);
+        index.close();
+        // 模拟进程在写最后一条记录时被杀：只留下长度字段
+        Path current = walSegments(dir).get(0);
+        Files.write(current, new byte[]{0, 0, 1, 0}, StandardOpenOption.APPEND);
+
+        DurableVectorIndex recovered = new DurableVectorIndex(new FlatVectorIndex(DIM), snapshot, false);
+        DurableVectorIndex.Recovery recovery = recovered.recover();
+        assertTrue(recovery.tornTail());
+        assertEquals(10, recovery.replayedRecords());
+        assertEquals(20, recovered.size());
+    }
+
+    private static List<Path> walSegments(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().startsWith("vector.idx.wal.")).sorted().toList();
+        }
+    }
+
+    private static float[][] randomVectors(Random random, int n) {
+        float[][] data = new float[n][DIM];
+        for (float[] v : data) {
+            for (int d = 0; d < DIM; d++) v[d] = (float) random.nextGaussian();
+        }
+        return data;
+    }
+}
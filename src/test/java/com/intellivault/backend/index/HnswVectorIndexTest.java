@@ -0,0 +1,287 @@
+package com.intellivault.backend.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswVectorIndexTest {
+
+    private static final int DIM = 32;
+    private static final int N = 3000;
+    private static final int QUERIES = 100;
+    private static final int K = 10;
+
+    @Test
+    @DisplayName("召回率：以精确扫描为基准，efSearch 越大召回越高")
+    void recallAgainstExactScan() {
+        Random random = new Random(42);
+        float[][] data = clusteredVectors(random, N);
+        float[][] queries = clusteredVectors(random, QUERIES);
+
+        FlatVectorIndex exact = new FlatVectorIndex(DIM);
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIM, 16, 200, 16);
+        for (int i = 0; i < N; i++) {
+            exact.add("d" + i, "f" + (i % 10), data[i]);
+            hnsw.add("d" + i, "f" + (i % 10), data[i]);
+        }
+
+        double previous = 0;
+        for (int ef : new int[]{16, 32, 64, 128}) {
+            hnsw.setEfSearch(ef);
+            int hits = 0;
+            for (float[] q : queries) {
+                hits += overlap(exact.search(q, K, -2f), hnsw.search(q, K, -2f));
+            }
+            double recall = hits / (double) (QUERIES * K);
+            // 建图的层数是随机的，允许一点抖动
+            assertTrue(recall >= previous - 0.01,
+                    "efSearch=" + ef + " 的召回率 " + recall + " 低于更小的 efSearch: " + previous);
+            previous = recall;
+        }
+        assertTrue(previous > 0.95, "efSearch=128 时召回率应高于 0.95，实际 " + previous);
+    }
+
+    @Test
+    @DisplayName("按 fileId 删除后不再出现在结果里，持久化后重新加载结果一致")
+    void deleteAndPersist(@TempDir Path dir) throws Exception {
+        Random random = new Random(7);
+        float[][] data = clusteredVectors(random, 500);
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIM, 8, 100, 64);
+        for (int i = 0; i < data.length; i++) {
+            hnsw.add("d" + i, "f" + (i % 5), data[i]);
+        }
+
+        assertEquals(100, hnsw.removeByFileId("f0"));
+        assertEquals(400, hnsw.size());
+        hnsw.search(data[0], 50, -2f).forEach(hit -> assertNotEquals("f0", hit.fileId()));
+
+        Path file = dir.resolve("vector.idx");
+        hnsw.save(file);
+        HnswVectorIndex reloaded = new HnswVectorIndex(DIM, 8, 100, 64);
+        reloaded.load(file);
+
+        assertEquals(400, reloaded.size());
+        assertEquals(hnsw.search(data[1], K, -2f), reloaded.search(data[1], K, -2f));
+        SearchFilter onlyF1 = SearchFilter.builder().fileId("f1").build();
+        assertEquals(hnsw.search(data[1], K, -2f, onlyF1), reloaded.search(data[1], K, -2f, onlyF1));
+    }
+
+    @Test
+    @DisplayName("删除超过 1/4 时压缩：被删节点真正移出图，剩下的召回不下降，持久化后一致")
+    void compactAfterDeletes(@TempDir Path dir) throws Exception {
+        Random random = new Random(13);
+        float[][] data = clusteredVectors(random, N);
+        float[][] queries = clusteredVectors(random, QUERIES);
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIM, 16, 200, 128);
+        FlatVectorIndex exact = new FlatVectorIndex(DIM);
+        for (int i = 0; i < N; i++) {
+            hnsw.add("d" + i, "f" + (i % 10), data[i]);
+            if (i % 10 >= 4) exact.add("d" + i, "f" + (i % 10), data[i]);
+        }
+
+        // 300 个被删：没到 1024 个，只打标记
+        hnsw.removeByFileId("f0");
+        assertEquals(N, hnsw.allocatedNodes());
+        // 累计 1200 个 (超过 1/4)：压缩
+        assertEquals(900, hnsw.removeByFileIds(Set.of("f1", "f2", "f3")));
+        assertEquals(N - 1200, hnsw.allocatedNodes());
+        assertEquals(N - 1200, hnsw.size());
+
+        int hits = 0;
+        for (float[] q : queries) {
+            List<SearchHit> found = hnsw.search(q, K, -2f);
+            found.forEach(hit -> assertTrue(Integer.parseInt(hit.fileId().substring(1)) >= 4));
+            hits += overlap(exact.search(q, K, -2f), found);
+        }
+        double recall = hits / (double) (QUERIES * K);
+        assertTrue(recall > 0.95, "压缩后召回率应高于 0.95，实际 " + recall);
+        SearchFilter onlyF5 = SearchFilter.builder().fileId("f5").build();
+        assertEquals(exact.search(queries[0], K, -2f, onlyF5), hnsw.search(queries[0], K, -2f, onlyF5));
+
+        // 压缩后照常写入、覆盖、删除
+        hnsw.add("d5", "f5", data[5]);
+        hnsw.add("x", "f9", data[0]);
+        assertEquals(N - 1199, hnsw.size());
+        assertEquals(300, hnsw.removeByFileId("f4"));
+
+        Path file = dir.resolve("vector.idx");
+        hnsw.save(file);
+        HnswVectorIndex reloaded = new HnswVectorIndex(DIM, 16, 200, 128);
+        reloaded.load(file);
+        assertEquals(hnsw.size(), reloaded.size());
+        assertEquals(hnsw.search(queries[1], K, -2f), reloaded.search(queries[1], K, -2f));
+    }
+
+    @Test
+    @DisplayName("同一个 id 重复写入：复用原节点，节点数不增长；向量变了按新向量检索")
+    void reAddReusesNodes() {
+        Random random = new Random(5);
+        float[][] data = clusteredVectors(random, 500);
+        float[][] moved = clusteredVectors(random, 500);
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIM, 8, 100, 64);
+        for (int i = 0; i < data.length; i++) hnsw.add("d" + i, "f" + (i % 5), data[i]);
+        int allocated = hnsw.allocatedNodes();
+
+        // 原样重放 (断点续传 / 日志回放)
+        for (int i = 0; i < data.length; i++) hnsw.add("d" + i, "f" + (i % 5), data[i]);
+        assertEquals(allocated, hnsw.allocatedNodes());
+        assertEquals(500, hnsw.size());
+
+        // 内容变了重新入库
+        for (int i = 0; i < moved.length; i++) hnsw.add("d" + i, "f" + (i % 5), moved[i]);
+        assertEquals(allocated, hnsw.allocatedNodes());
+        assertEquals(500, hnsw.size());
+        FlatVectorIndex exact = new FlatVectorIndex(DIM);
+        for (int i = 0; i < moved.length; i++) exact.add("d" + i, "f" + (i % 5), moved[i]);
+        int hits = 0;
+        for (int q = 0; q < 50; q++) hits += overlap(exact.search(moved[q], K, -2f), hnsw.search(moved[q], K, -2f));
+        assertTrue(hits / (50.0 * K) > 0.9, "替换向量后召回率应高于 0.9，实际 " + hits / (50.0 * K));
+
+        // 删除后再写入同一个 id：按新节点写入
+        hnsw.removeByFileId("f0");
+        hnsw.add("d0", "f0", data[0]);
+        assertEquals(allocated + 1, hnsw.allocatedNodes());
+        assertEquals(401, hnsw.size());
+    }
+
+    @Test
+    @DisplayName("过滤检索：命中少时暴力扫命中行 (与精确扫描一致)，命中多时走图搜索，结果都满足条件")
+    void filteredSearch() {
+        Random random = new Random(11);
+        float[][] data = clusteredVectors(random, N);
+        float[][] queries = clusteredVectors(random, QUERIES);
+
+        FlatVectorIndex exact = new FlatVectorIndex(DIM);
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIM, 16, 200, 128);
+        List<String> ids = new ArrayList<>();
+        List<String> fileIds = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        List<Map<String, String>> attributes = new ArrayList<>();
+        for (int i = 0; i < N; i++) {
+            ids.add("d" + i);
+            fileIds.add("f" + (i % 10));
+            vectors.add(data[i]);
+            attributes.add(SearchFilter.attributesOf("doc" + (i % 10) + ".pdf", Map.of("half", i % 2)));
+        }
+        exact.addAll(ids, fileIds, vectors, attributes);
+        hnsw.addAll(ids, fileIds, vectors, attributes);
+
+        // 1/10 的行：暴力扫，和精确扫描完全一致
+        SearchFilter narrow = SearchFilter.builder().fileId("f3").build();
+        // 一半的行：图搜索，只返回命中的行
+        SearchFilter broad = SearchFilter.builder().metadata("half", "1").build();
+        int broadHits = 0;
+        for (float[] q : queries) {
+            assertEquals(exact.search(q, K, -2f, narrow), hnsw.search(q, K, -2f, narrow));
+            List<SearchHit> hits = hnsw.search(q, K, -2f, broad);
+            hits.forEach(hit -> assertEquals(1, Integer.parseInt(hit.id().substring(1)) % 2));
+            broadHits += overlap(exact.search(q, K, -2f, broad), hits);
+        }
+        double recall = broadHits / (double) (QUERIES * K);
+        assertTrue(recall > 0.9, "图上过滤检索的召回率应高于 0.9，实际 " + recall);
+
+        // 条件之间是 AND：f3 的行号都是奇数
+        SearchFilter both = SearchFilter.builder().sourceFilename("doc3.pdf").metadata("half", "1").build();
+        assertEquals(K, hnsw.search(queries[0], K, -2f, both).size());
+        SearchFilter none = SearchFilter.builder().sourceFilename("doc3.pdf").metadata("half", "0").build();
+        assertTrue(hnsw.search(queries[0], K, -2f, none).isEmpty());
+        assertTrue(exact.search(queries[0], K, -2f, none).isEmpty());
+
+        // 删除的文件从倒排里摘掉
+        hnsw.removeByFileId("f3");
+        exact.removeByFileId("f3");
+        assertTrue(hnsw.search(queries[0], K, -2f, narrow).isEmpty());
+        assertTrue(exact.search(queries[0], K, -2f, narrow).isEmpty());
+    }
+
+    @Test
+    @DisplayName("并发写入 + 查询：多个线程同时建图、同时检索，写完后图完整且召回不下降")
+    void concurrentAddAndSearch() throws Exception {
+        Random random = new Random(23);
+        float[][] data = clusteredVectors(random, N);
+        float[][] queries = clusteredVectors(random, QUERIES);
+        FlatVectorIndex exact = new FlatVectorIndex(DIM);
+        for (int i = 0; i < N; i++) exact.add("d" + i, "f" + (i % 10), data[i]);
+
+        // 初始容量 1024，写到 N 条途中节点数组要扩容两次
+        HnswVectorIndex hnsw = new HnswVectorIndex(DIM, 16, 200, 128);
+        int writers = 4;
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger searches = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(writers + 2);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                tasks.add(pool.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < N; i = next.getAndIncrement()) {
+                        hnsw.add("d" + i, "f" + (i % 10), data[i]);
+                    }
+                }));
+            }
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readers.add(pool.submit(() -> {
+                    SearchFilter onlyF1 = SearchFilter.builder().fileId("f1").build();
+                    for (int i = 0; writing.get(); i++) {
+                        float[] q = queries[i % QUERIES];
+                        hnsw.search(q, K, -2f).forEach(hit -> assertTrue(hit.id().startsWith("d")));
+                        hnsw.search(q, K, -2f, onlyF1).forEach(hit -> assertEquals("f1", hit.fileId()));
+                        searches.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) task.get(60, TimeUnit.SECONDS);
+            writing.set(false);
+            for (Future<?> reader : readers) reader.get(60, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(N, hnsw.size());
+        assertTrue(searches.get() > 0, "写入期间检索应该一直能进行");
+        int hits = 0;
+        for (float[] q : queries) {
+            hits += overlap(exact.search(q, K, -2f), hnsw.search(q, K, -2f));
+        }
+        double recall = hits / (double) (QUERIES * K);
+        assertTrue(recall > 0.95, "并发建图后召回率应高于 0.95，实际 " + recall);
+    }
+
+    private static int overlap(List<SearchHit> expected, List<SearchHit> actual) {
+        Set<String> ids = new HashSet<>();
+        expected.forEach(hit -> ids.add(hit.id()));
+        return (int) actual.stream().filter(hit -> ids.contains(hit.id())).count();
+    }
+
+    // 模拟真实语料：围绕若干主题中心的高斯噪声
+    private static float[][] clusteredVectors(Random random, int count) {
+        Random centers = new Random(1);
+        float[][] centroids = new float[20][DIM];
+        for (float[] c : centroids) {
+            for (int i = 0; i < DIM; i++) c[i] = (float) centers.nextGaussian();
+        }
+        float[][] vectors = new float[count][DIM];
+        for (float[] v : vectors) {
+            float[] c = centroids[random.nextInt(centroids.length)];
+            for (int i = 0; i < DIM; i++) v[i] = c[i] + (float) random.nextGaussian();
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,46 @@
+package com.intellivault.backend.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexFilesTest {
+
+    @Test
+    @DisplayName("批量读 float 与逐个 readFloat 结果一致，跨映射窗口边界、与其他字段交替读取都不错位")
+    void readFloatsAcrossWindows(@TempDir Path dir) throws Exception {
+        Random random = new Random(3);
+        float[][] rows = new float[20][13];
+        for (float[] row : rows) {
+            for (int i = 0; i < row.length; i++) row[i] = (float) random.nextGaussian();
+        }
+        Path file = dir.resolve("floats.idx");
+        IndexFiles.writeAtomically(file, 1, 1, out -> {
+            for (int r = 0; r < rows.length; r++) {
+                out.writeUTF("row" + r);
+                for (float v : rows[r]) out.writeFloat(v);
+            }
+        });
+
+        // 窗口 7 字节：几乎每一行都有 float 跨在两个窗口之间
+        for (long window : new long[]{7, 64, 1L << 30}) {
+            try (IndexFiles.MappedDataInput in = IndexFiles.openMapped(file, window)) {
+                assertEquals(1, in.readInt());
+                assertEquals(1, in.readInt());
+                for (int r = 0; r < rows.length; r++) {
+                    assertEquals("row" + r, in.readUTF());
+                    float[] read = new float[rows[r].length];
+                    in.readFloats(read, 0, read.length);
+                    assertArrayEquals(rows[r], read, "窗口 " + window + " 第 " + r + " 行");
+                }
+                assertThrows(EOFException.class, () -> in.readFloats(new float[1], 0, 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.intellivault.backend.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LexicalIndexTest {
+
+    @Test
+    @DisplayName("分词：汉字切二元组，编号整体和各段都保留，全角折成半角")
+    void tokenize() {
+        assertEquals(List.of("合同", "同编", "编号"), TextTokenizer.tokenize("合同编号"));
+        assertEquals(List.of("err", "1042", "err-1042"), TextTokenizer.tokenize("ERR-1042"));
+        assertEquals(List.of("见", "inv", "2024", "001", "inv/2024/001", "号"), TextTokenizer.tokenize("见INV/2024/001号"));
+        assertEquals(List.of("sku", "88", "sku88"), TextTokenizer.tokenize("ＳＫＵ 88 sku88").subList(0, 3));
+        // 句末的点不算连接符
+        assertEquals(List.of("end", "next"), TextTokenizer.tokenize("end. Next"));
+    }
+
+    @Test
+    @DisplayName("BM25：精确编号一击命中，短片段里的同一个词得分更高")
+    void rankByBm25() {
+        LexicalIndex index = new LexicalIndex(1.2f, 0.75f);
+        index.addAll(List.of("a", "b", "c"), List.of("f1", "f1", "f2"),
+                List.of("错误码 ERR-1042 表示签名校验失败，请重新获取证书后再试一次，如果仍然失败请联系管理员处理",
+                        "ERR-1042 处理流程",
+                        "合同编号 HT-2024-0007 的付款条款"),
+                null);
+
+        List<SearchHit> hits = index.search("ERR-1042", 10, SearchFilter.NONE);
+        assertEquals(List.of("b", "a"), hits.stream().map(SearchHit::id).toList());
+        assertTrue(hits.get(0).score() > hits.get(1).score());
+
+        assertEquals("c", index.search("ht-2024-0007 是哪份合同", 1, SearchFilter.NONE).get(0).id());
+        assertTrue(index.search("完全无关", 10, SearchFilter.NONE).isEmpty());
+        // 过滤条件与向量索引一致
+        assertEquals(List.of("a"), index.search("失败", 10, SearchFilter.builder().fileId("f1").build())
+                .stream().map(SearchHit::id).toList());
+        assertTrue(index.search("失败", 10, SearchFilter.builder().fileId("f2").build()).isEmpty());
+    }
+
+    @Test
+    @DisplayName("同一 id 重复写入只保留最新内容，按文件删除后搜不到")
+    void overwriteAndRemove() {
+        LexicalIndex index = new LexicalIndex(1.2f, 0.75f);
+        index.addAll(List.of("a"), List.of("f1"), List.of("旧版 alpha"), null);
+        index.addAll(List.of("a", "b"), List.of("f1", "f2"), List.of("新版 beta", "其他 beta"), null);
+
+        assertEquals(2, index.size());
+        assertTrue(index.search("alpha", 10, SearchFilter.NONE).isEmpty());
+        assertEquals(2, index.search("beta", 10, SearchFilter.NONE).size());
+
+        assertEquals(1, index.removeByFileIds(Set.of("f1")));
+        assertEquals(List.of("b"), index.search("beta", 10, SearchFilter.NONE).stream().map(SearchHit::id).toList());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    @DisplayName("删除过多时压缩重编号，快照只写存活文档，重新加载后结果一致")
+    void compactAndPersist(@TempDir Path dir) throws Exception {
+        LexicalIndex index = new LexicalIndex(1.2f, 0.75f);
+        int rows = 4000;
+        List<String> ids = new ArrayList<>();
+        List<String> fileIds = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            ids.add("c" + i);
+            fileIds.add("f" + (i % 4));
+            contents.add("片段 " + i + " 订单号 SO-" + i + (i % 10 == 0 ? " 加急" : ""));
+        }
+        index.addAll(ids, fileIds, contents, Collections.nCopies(rows, Map.of(SearchFilter.SOURCE_FILENAME, "orders.csv")));
+        long before = index.estimatedBytes();
+
+        // 删掉一半 (超过 1/4 触发压缩)
+        assertEquals(rows / 2, index.removeByFileIds(Set.of("f0", "f1")));
+        assertTrue(index.estimatedBytes() < before, "压缩后倒排缩小");
+        assertEquals(List.of("c3"), index.search("SO-3", 1, SearchFilter.NONE).stream().map(SearchHit::id).toList());
+        assertTrue(index.search("SO-4", 1, SearchFilter.NONE).stream().noneMatch(h -> h.id().equals("c4")));
+
+        Path file = dir.resolve("lexical.idx");
+        index.save(file);
+        assertEquals(0, index.pendingWrites());
+        LexicalIndex loaded = new LexicalIndex(1.2f, 0.75f);
+        loaded.load(file);
+
+        assertEquals(index.size(), loaded.size());
+        for (String query : List.of("SO-3", "加急", "订单号 SO-1999")) {
+            assertEquals(index.search(query, 5, SearchFilter.NONE), loaded.search(query, 5, SearchFilter.NONE));
+        }
+        assertEquals(rows / 2, loaded.search("订单号", rows,
+                SearchFilter.builder().sourceFilename("orders.csv").build()).size());
+    }
+}
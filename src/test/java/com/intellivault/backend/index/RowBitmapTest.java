@@ -0,0 +1,75 @@
+package com.intellivault.backend.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RowBitmapTest {
+
+    @Test
+    @DisplayName("稀疏 / 稠密桶混合时，增删查、求交、求并与 TreeSet 一致")
+    void matchesTreeSet() {
+        Random random = new Random(5);
+        RowBitmap a = new RowBitmap();
+        RowBitmap b = new RowBitmap();
+        TreeSet<Integer> expectedA = new TreeSet<>();
+        TreeSet<Integer> expectedB = new TreeSet<>();
+        // 第 0 桶稠密 (超过 4096 个，转成位图)，第 1、5 桶稀疏
+        for (int i = 0; i < 20_000; i++) {
+            int row = random.nextInt(65_536);
+            a.add(row);
+            expectedA.add(row);
+        }
+        for (int i = 0; i < 3_000; i++) {
+            int row = random.nextInt(65_536 * 2);
+            b.add(row);
+            expectedB.add(row);
+        }
+        for (int row : new int[]{65_536 * 5, 65_536 * 5 + 7}) {
+            a.add(row);
+            expectedA.add(row);
+        }
+        // 删掉大半，第 0 桶退回稀疏表示
+        for (int i = 0; i < 150_000; i++) {
+            int row = random.nextInt(65_536);
+            a.remove(row);
+            expectedA.remove(row);
+        }
+
+        assertContents(expectedA, a);
+        assertContents(expectedB, b);
+        for (int row = 0; row < 65_536 * 2; row += 97) {
+            assertEquals(expectedA.contains(row), a.contains(row));
+        }
+
+        TreeSet<Integer> intersection = new TreeSet<>(expectedA);
+        intersection.retainAll(expectedB);
+        assertContents(intersection, RowBitmap.and(a, b));
+
+        TreeSet<Integer> union = new TreeSet<>(expectedA);
+        union.addAll(expectedB);
+        assertContents(union, RowBitmap.or(a, b));
+    }
+
+    @Test
+    @DisplayName("删空的桶整桶移除")
+    void emptyContainerRemoved() {
+        RowBitmap bitmap = new RowBitmap();
+        bitmap.add(3);
+        bitmap.add(70_000);
+        bitmap.remove(3);
+        assertArrayEquals(new int[]{70_000}, bitmap.toArray());
+        bitmap.remove(70_000);
+        assertTrue(bitmap.isEmpty());
+        assertTrue(RowBitmap.and(bitmap, bitmap).isEmpty());
+    }
+
+    private static void assertContents(TreeSet<Integer> expected, RowBitmap actual) {
+        assertEquals(expected.size(), actual.cardinality());
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), actual.toArray());
+    }
+}
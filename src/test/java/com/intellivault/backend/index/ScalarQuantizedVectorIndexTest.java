@@ -0,0 +1,90 @@
+package com.intellivault.backend.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScalarQuantizedVectorIndexTest {
+
+    private static final int DIM = 64;
+    private static final int N = 5000;
+    private static final int QUERIES = 100;
+    private static final int K = 10;
+
+    @Test
+    @DisplayName("int8 量化：样本不足时精确检索，校准后近似检索，精排后召回接近精确扫描")
+    void recallPerMode() {
+        Random random = new Random(42);
+        float[][] data = randomVectors(random, N);
+        float[][] queries = randomVectors(random, QUERIES);
+        Map<String, float[]> store = new HashMap<>();
+
+        FlatVectorIndex exact = new FlatVectorIndex(DIM);
+        ScalarQuantizedVectorIndex approximate = new ScalarQuantizedVectorIndex(DIM, 1, 1000, null);
+        ScalarQuantizedVectorIndex reranked = new ScalarQuantizedVectorIndex(DIM, 4, 1000, ids -> {
+            Map<String, float[]> found = new HashMap<>();
+            ids.forEach(id -> found.put(id, store.get(id)));
+            return found;
+        });
+
+        for (int i = 0; i < N; i++) {
+            store.put("d" + i, data[i]);
+            exact.add("d" + i, "f", data[i]);
+            approximate.add("d" + i, "f", data[i]);
+            reranked.add("d" + i, "f", data[i]);
+        }
+        assertTrue(approximate.isCalibrated(), "超过样本数后应完成校准");
+
+        double approximateRecall = recall(exact, approximate, queries);
+        double rerankedRecall = recall(exact, reranked, queries);
+        assertTrue(approximateRecall > 0.85, "粗排召回过低: " + approximateRecall);
+        assertTrue(rerankedRecall > 0.98, "精排召回过低: " + rerankedRecall);
+    }
+
+    @Test
+    @DisplayName("精排分数是全精度分数，已删除的候选会被丢弃")
+    void rerankUsesFullPrecisionVectors() {
+        Map<String, float[]> store = new HashMap<>();
+        ScalarQuantizedVectorIndex index = new ScalarQuantizedVectorIndex(2, 4, 2, ids -> {
+            Map<String, float[]> found = new HashMap<>();
+            ids.stream().filter(store::containsKey).forEach(id -> found.put(id, store.get(id)));
+            return found;
+        });
+        store.put("A", new float[]{1f, 0f});
+        store.put("C", new float[]{0.9f, 0.1f});
+        index.add("A", "f1", store.get("A"));
+        index.add("B", "f2", new float[]{0f, 1f}); // Mongo 里已经没有 B
+        index.add("C", "f1", store.get("C"));
+
+        List<SearchHit> hits = index.search(new float[]{1f, 0f}, 5, -1f);
+
+        assertEquals(List.of("A", "C"), hits.stream().map(SearchHit::id).toList());
+        assertEquals(1.0f, hits.get(0).score(), 1e-6);
+    }
+
+    private static double recall(VectorIndex exact, VectorIndex candidate, float[][] queries) {
+        int hits = 0;
+        for (float[] q : queries) {
+            Set<String> expected = new HashSet<>();
+            exact.search(q, K, -2f).forEach(hit -> expected.add(hit.id()));
+            hits += (int) candidate.search(q, K, -2f).stream().filter(hit -> expected.contains(hit.id())).count();
+        }
+        return hits / (double) (queries.length * K);
+    }
+
+    private static float[][] randomVectors(Random random, int count) {
+        float[][] vectors = new float[count][DIM];
+        for (float[] v : vectors) {
+            for (int i = 0; i < DIM; i++) v[i] = (float) random.nextGaussian();
+        }
+        return vectors;
+    }
+}
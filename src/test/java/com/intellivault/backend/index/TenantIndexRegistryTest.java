@@ -0,0 +1,120 @@
+package com.intellivault.backend.index;
+
+import com.intellivault.backend.config.IndexProperties;
+import com.intellivault.backend.repository.KnowledgeRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TenantIndexRegistryTest {
+
+    private static final int DIM = 16;
+    private static final int ROWS = 100;
+
+    @Mock
+    private KnowledgeRepository knowledgeRepository;
+
+    @Test
+    @DisplayName("超出内存预算时淘汰最久未用的分区，再次访问时从快照加载")
+    void evictLeastRecentlyUsed(@TempDir Path dir) {
+        IndexProperties properties = new IndexProperties();
+        properties.setPath(dir.resolve("vector.idx").toString());
+        // 放得下两个分区，放不下三个 (每个分区 = 向量 + id 映射 + fileId 过滤倒排 + 空的关键词索引)
+        properties.getTenants().setMemoryBudget(DataSize.ofBytes(2L * partitionBytes() + 1));
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        TenantIndexRegistry registry = new TenantIndexRegistry(tenantId -> new FlatVectorIndex(DIM),
+                knowledgeRepository, properties, meters);
+        // 第一次加载时没有快照，从 (空的) Mongo 重建；之后的加载条数与 Mongo 一致，走快照
+        when(knowledgeRepository.countByTenant(anyString())).thenReturn((long) ROWS);
+        when(knowledgeRepository.streamVectors(anyString(), anyInt())).thenAnswer(inv -> Stream.empty());
+        when(knowledgeRepository.streamContents(anyString(), anyInt())).thenAnswer(inv -> Stream.empty());
+
+        fill(registry, "a");
+        fill(registry, "b");
+        registry.read("a", VectorIndex::size); // a 变成最近使用
+        fill(registry, "c");
+
+        assertEquals(2, registry.loadedPartitions());
+        assertEquals(1, meters.counter("intellivault.index.partition.evictions").count());
+        assertTrue(Files.exists(dir.resolve("tenants").resolve("b").resolve("vector.idx")), "淘汰前应先写快照");
+
+        // b 从快照恢复 (条数与 Mongo 一致，不重建)，同时挤掉此时最久未用的 a
+        assertEquals(ROWS, registry.read("b", VectorIndex::size));
+        assertEquals(4, meters.counter("intellivault.index.partition", "result", "load").count());
+        assertEquals(2, registry.loadedPartitions());
+        assertEquals(2, meters.counter("intellivault.index.partition.evictions").count());
+
+        float[] probe = vector(7, 3);
+        List<SearchHit> hits = registry.read("b", index -> index.search(probe, 1, -2f));
+        assertEquals("b_7", hits.get(0).id(), "恢复后的分区内容与淘汰前一致");
+        registry.persist();
+    }
+
+    @Test
+    @DisplayName("删除中的文件不参与恢复校验：片段在 Mongo 里删了一部分时快照照样可用，它的行被提前摘掉")
+    void recoverWhileFileIsBeingDeleted(@TempDir Path dir) {
+        IndexProperties properties = new IndexProperties();
+        properties.setPath(dir.resolve("vector.idx").toString());
+        when(knowledgeRepository.streamVectors(anyString(), anyInt())).thenAnswer(inv -> Stream.empty());
+        when(knowledgeRepository.streamContents(anyString(), anyInt())).thenAnswer(inv -> Stream.empty());
+        TenantIndexRegistry first = new TenantIndexRegistry(tenantId -> new FlatVectorIndex(DIM),
+                knowledgeRepository, properties, new SimpleMeterRegistry());
+        fill(first, "a");
+        first.write("a", index -> {
+            for (int i = 0; i < ROWS / 2; i++) index.add("gone_" + i, "gone_file", vector(i, 5));
+            return null;
+        });
+        first.persist();
+
+        // 重启时 gone_file 已写了墓碑，片段删了一部分 (countByTenant 介于两者之间，不再作为校验依据)
+        when(knowledgeRepository.pendingRemovalFileIds("a")).thenReturn(Set.of("gone_file"));
+        when(knowledgeRepository.countByTenantExcluding("a", Set.of("gone_file"))).thenReturn((long) ROWS);
+        TenantIndexRegistry second = new TenantIndexRegistry(tenantId -> new FlatVectorIndex(DIM),
+                knowledgeRepository, properties, new SimpleMeterRegistry());
+
+        assertEquals(ROWS, second.read("a", VectorIndex::size));
+        // 只有第一次 (没有快照) 从 Mongo 重建过向量
+        verify(knowledgeRepository, times(1)).streamVectors(anyString(), anyInt());
+        second.read("a", index -> index.search(vector(0, 5), 5, -2f))
+                .forEach(hit -> assertEquals("a_file", hit.fileId()));
+        second.persist();
+    }
+
+    private static long partitionBytes() {
+        FlatVectorIndex index = new FlatVectorIndex(DIM);
+        for (int i = 0; i < ROWS; i++) index.add("x_" + i, "x_file", vector(i, 3));
+        return index.estimatedBytes() + new LexicalIndex(1.2f, 0.75f).estimatedBytes();
+    }
+
+    private static void fill(TenantIndexRegistry registry, String tenantId) {
+        registry.write(tenantId, index -> {
+            for (int i = 0; i < ROWS; i++) index.add(tenantId + "_" + i, tenantId + "_file", vector(i, 3));
+            return null;
+        });
+    }
+
+    private static float[] vector(int i, int salt) {
+        float[] v = new float[DIM];
+        for (int d = 0; d < DIM; d++) v[d] = (float) Math.sin((i + 1) * (d + salt));
+        return v;
+    }
+}
@@ -0,0 +1,49 @@
+package com.intellivault.backend.index;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopKSelectorTest {
+
+    @Test
+    @DisplayName("分区各自取 TopK 再合并，结果与全量排序后截断一致")
+    void mergedPartitionsMatchFullSort() {
+        Random random = new Random(3);
+        float[] scores = new float[10_000];
+        for (int i = 0; i < scores.length; i++) scores[i] = random.nextFloat();
+
+        TopKSelector merged = new TopKSelector(10);
+        for (int from = 0; from < scores.length; from += 2500) {
+            TopKSelector partition = new TopKSelector(10);
+            for (int row = from; row < from + 2500; row++) partition.offer(row, scores[row]);
+            merged.merge(partition);
+        }
+        merged.finish();
+
+        float[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        assertEquals(10, merged.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(sorted[sorted.length - 1 - i], merged.score(i));
+            assertEquals(scores[merged.row(i)], merged.score(i));
+        }
+    }
+
+    @Test
+    @DisplayName("候选数不足 K 时按降序返回全部")
+    void fewerCandidatesThanK() {
+        TopKSelector top = new TopKSelector(5);
+        top.offer(7, 0.2f);
+        top.offer(8, 0.9f);
+        top.offer(9, 0.5f);
+        top.finish();
+
+        assertEquals(3, top.size());
+        assertArrayEquals(new int[]{8, 9, 7}, new int[]{top.row(0), top.row(1), top.row(2)});
+    }
+}
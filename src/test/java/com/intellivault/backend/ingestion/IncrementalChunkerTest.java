@@ -0,0 +1,53 @@
+package com.intellivault.backend.ingestion;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalChunkerTest {
+
+    @Test
+    @DisplayName("小段喂入：窗口满了就陆续发出片段，拼回来内容不丢不乱")
+    void testStreamingKeepsContentInOrder() {
+        List<String> chunks = new ArrayList<>();
+        IncrementalChunker chunker = new IncrementalChunker(4096, chunks::add);
+
+        int sentences = 2000;
+        for (int i = 0; i < sentences; i++) {
+            char[] text = ("This is sentence" + i + " of the streaming ingestion test document. ").toCharArray();
+            // 模拟 SAX 回调：一次只给一小段
+            for (int from = 0; from < text.length; from += 7) {
+                chunker.append(text, from, Math.min(7, text.length - from));
+            }
+        }
+
+        // 还没 finish 就已经发出了大部分片段：说明没有把整篇攒在内存里
+        int beforeFinish = chunks.size();
+        assertTrue(beforeFinish > 10, "应该边喂边发，实际 finish 前只有 " + beforeFinish + " 个片段");
+
+        chunker.finish();
+        assertEquals(chunks.size(), chunker.emitted());
+
+        String joined = String.join("", chunks).replaceAll("\\s+", "");
+        int cursor = 0;
+        for (int i = 0; i < sentences; i++) {
+            int at = joined.indexOf("sentence" + i + "of", cursor);
+            assertTrue(at >= 0, "第 " + i + " 句丢失或乱序");
+            cursor = at;
+        }
+    }
+
+    @Test
+    @DisplayName("空白文本不产生片段")
+    void testBlankInput() {
+        List<String> chunks = new ArrayList<>();
+        IncrementalChunker chunker = new IncrementalChunker(4096, chunks::add);
+        chunker.append("   \n\n  ");
+        chunker.finish();
+        assertTrue(chunks.isEmpty());
+    }
+}
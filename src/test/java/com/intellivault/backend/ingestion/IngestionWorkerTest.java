@@ -0,0 +1,117 @@
+package com.intellivault.backend.ingestion;
+
+import com.intellivault.backend.config.AsyncConfig;
+import com.intellivault.backend.config.IngestionProperties;
+import com.intellivault.backend.model.IngestionJob;
+import com.intellivault.backend.service.DocumentService;
+import com.intellivault.backend.service.DocumentStorageService;
+import com.intellivault.backend.service.IngestionJobService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IngestionWorkerTest {
+
+    private static final int CONCURRENCY = 2;
+
+    @Mock
+    private IngestionJobService jobService;
+
+    @Mock
+    private DocumentStorageService storageService;
+
+    @Mock
+    private DocumentService documentService;
+
+    @Mock
+    private ApplicationAvailability availability;
+
+    private final IngestionProperties properties = new IngestionProperties();
+    private final AtomicInteger leased = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        properties.getJobs().setConcurrency(CONCURRENCY);
+        when(availability.getReadinessState()).thenReturn(ReadinessState.ACCEPTING_TRAFFIC);
+        when(jobService.lease(anyString())).thenAnswer(invocation -> Optional.of(IngestionJob.builder()
+                .id("job_" + leased.incrementAndGet())
+                .fileName("a.txt")
+                .attempts(1)
+                .build()));
+    }
+
+    @Test
+    @DisplayName("线程池拒绝时归还槽位并交还租约，之后还能继续领取")
+    void rejectedTaskGivesSlotBack() {
+        IngestionWorker worker = new IngestionWorker(jobService, storageService, documentService,
+                task -> {
+                    throw new TaskRejectedException("busy");
+                }, availability, properties);
+
+        for (int round = 1; round <= 5; round++) {
+            assertDoesNotThrow(worker::poll);
+            // 每轮都还能领到一个 (槽位没有泄漏)，领到的马上交还
+            verify(jobService, times(round)).lease(anyString());
+            verify(jobService, times(round)).release(any(IngestionJob.class), anyString());
+        }
+    }
+
+    @Test
+    @DisplayName("线程池占满：没有空闲槽位时不领取；任务结束后槽位全部回来，紧接着领取也不会被拒绝")
+    void slotsComeBackAfterPoolFills() throws Exception {
+        ThreadPoolTaskExecutor executor = (ThreadPoolTaskExecutor) new AsyncConfig().ingestionExecutor(properties);
+        try {
+            CountDownLatch started = new CountDownLatch(CONCURRENCY);
+            CountDownLatch finish = new CountDownLatch(1);
+            when(storageService.getFile(anyString())).thenReturn(Optional.of(new ByteArrayResource(new byte[0])));
+            doAnswer(invocation -> {
+                started.countDown();
+                finish.await(10, TimeUnit.SECONDS);
+                return null;
+            }).when(documentService).ingest(any(), anyString(), anyString(), any(), any());
+            IngestionWorker worker = new IngestionWorker(jobService, storageService, documentService, executor,
+                    availability, properties);
+
+            worker.poll();
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            worker.poll(); // 槽位都占着，不再领取
+            verify(jobService, times(CONCURRENCY)).lease(anyString());
+
+            // 放行 (之后的任务不再阻塞) 后立刻连续领取：槽位归还时线程可能还没空出来，不能因此被拒绝
+            finish.countDown();
+            verify(jobService, timeout(10_000).times(CONCURRENCY)).complete(anyString(), anyString());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (leased.get() < 4 * CONCURRENCY && System.nanoTime() < deadline) worker.poll();
+
+            assertTrue(leased.get() >= 4 * CONCURRENCY, "第一波结束后应该能继续领取");
+            verify(jobService, never()).release(any(IngestionJob.class), anyString());
+            verify(jobService, timeout(10_000).times(leased.get())).complete(anyString(), anyString());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.intellivault.backend.memory;
+
+import com.intellivault.backend.config.ChatMemoryProperties;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatMemoryNearCacheTest {
+
+    @Test
+    @DisplayName("本节点写入直接追加到本地副本，按保留条数截断，读最近 N 条不回 Redis")
+    void appendAndTrim() {
+        ChatMemoryProperties properties = new ChatMemoryProperties();
+        properties.setRetention(4);
+        ChatMemoryNearCache cache = new ChatMemoryNearCache(properties);
+
+        // 未加载过的会话：写入不建副本，等下一次读回填
+        cache.appended("u1", List.of(new UserMessage("q0")));
+        assertNull(cache.get("u1", 10));
+
+        cache.fill("u1", turns(1, 1), cache.stamp("u1"));
+        cache.appended("u1", List.of(new UserMessage("q2"), new AssistantMessage("a2")));
+        cache.appended("u1", List.of(new UserMessage("q3"), new AssistantMessage("a3")));
+
+        assertEquals(List.of("q2", "a2", "q3", "a3"), contents(cache.get("u1", 10)));
+        assertEquals(List.of("q3", "a3"), contents(cache.get("u1", 2)));
+    }
+
+    @Test
+    @DisplayName("加载期间有写入则不回填；别的节点的失效通知清掉副本，自己的忽略")
+    void staleFillAndInvalidation() {
+        ChatMemoryNearCache cache = new ChatMemoryNearCache(new ChatMemoryProperties());
+
+        long stamp = cache.stamp("u1");
+        cache.appended("u1", List.of(new UserMessage("并发写入")));
+        cache.fill("u1", turns(1, 1), stamp);
+        assertNull(cache.get("u1", 10), "加载结果可能缺了刚写的消息，不能回填");
+
+        cache.fill("u1", turns(1, 1), cache.stamp("u1"));
+        cache.onInvalidation(cache.invalidation("u1"));
+        assertNotNull(cache.get("u1", 10), "自己发出的通知不影响本地副本");
+
+        cache.onInvalidation("other-node:u1");
+        assertNull(cache.get("u1", 10));
+        assertEquals(0, cache.size());
+    }
+
+    private static List<Message> turns(int from, int to) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            messages.add(new UserMessage("q" + i));
+            messages.add(new AssistantMessage("a" + i));
+        }
+        return messages;
+    }
+
+    private static List<String> contents(List<Message> messages) {
+        return messages.stream().map(Message::getContent).toList();
+    }
+}
@@ -0,0 +1,55 @@
+package com.intellivault.backend.memory;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatMessageCodecTest {
+
+    @Test
+    @DisplayName("二进制编码：类型、正文、metadata 原样往返，比老格式更短")
+    void roundTrip() {
+        UserMessage user = new UserMessage("合同 HT-2024-0007 的付款条款是什么？", List.of(),
+                Map.of("tenant", "acme", "turn", 3, "score", 0.75, "edited", true));
+        Message decoded = ChatMessageCodec.decode(ChatMessageCodec.encode(user));
+
+        assertEquals(MessageType.USER, decoded.getMessageType());
+        assertEquals(user.getContent(), decoded.getContent());
+        assertEquals("acme", decoded.getMetadata().get("tenant"));
+        assertEquals(3L, decoded.getMetadata().get("turn"));
+        assertEquals(0.75, decoded.getMetadata().get("score"));
+        assertEquals(true, decoded.getMetadata().get("edited"));
+
+        for (Message message : List.of(new AssistantMessage("分三期付款|每期 30%"), new SystemMessage(""))) {
+            Message back = ChatMessageCodec.decode(ChatMessageCodec.encode(message));
+            assertEquals(message.getMessageType(), back.getMessageType());
+            assertEquals(message.getContent(), back.getContent());
+        }
+
+        AssistantMessage plain = new AssistantMessage("好的");
+        assertTrue(ChatMessageCodec.encode(plain).length
+                < ("ASSISTANT|" + plain.getContent()).getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    @DisplayName("老格式 Type|Content 仍能读出 (升级前写进 Redis 的历史)")
+    void decodeLegacy() {
+        Message assistant = ChatMessageCodec.decode("ASSISTANT|答案里|也有竖线".getBytes(StandardCharsets.UTF_8));
+        assertEquals(MessageType.ASSISTANT, assistant.getMessageType());
+        assertEquals("答案里|也有竖线", assistant.getContent());
+
+        Message user = ChatMessageCodec.decode("USER|你好".getBytes(StandardCharsets.UTF_8));
+        assertEquals(MessageType.USER, user.getMessageType());
+        assertEquals("你好", user.getContent());
+    }
+}
@@ -0,0 +1,64 @@
+package com.intellivault.backend.memory;
+
+import com.intellivault.backend.config.ChatMemoryProperties;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationSummarizerTest {
+
+    @Test
+    @DisplayName("token 估算：汉字一字一个，其余四个字符一个，每条另加格式开销")
+    void estimateTokens() {
+        assertEquals(4 + 4, ConversationSummarizer.estimateTokens("合同编号"));
+        assertEquals(4 + 3, ConversationSummarizer.estimateTokens("hello world"));
+        assertEquals(4 + 2 + 2, ConversationSummarizer.estimateTokens("付款 SO-1042"));
+        assertEquals(4, ConversationSummarizer.estimateTokens(null));
+    }
+
+    @Test
+    @DisplayName("超出预算才折叠，至少保留最近几条，保留部分从用户消息开始")
+    void foldCount() {
+        List<Message> messages = turns(6, "请问合同里的付款条款是怎么约定的");
+
+        assertEquals(0, ConversationSummarizer.foldCount(messages, 10_000, 4), "没超预算不折叠");
+        assertEquals(8, ConversationSummarizer.foldCount(messages, 50, 4));
+        // 要保留 3 条时不能从助手消息开始，多留一条用户消息
+        assertEquals(8, ConversationSummarizer.foldCount(messages, 50, 3));
+        assertEquals(MessageType.USER, messages.get(8).getMessageType());
+        assertEquals(0, ConversationSummarizer.foldCount(messages.subList(0, 4), 1, 4), "不够保留条数时不折叠");
+    }
+
+    @Test
+    @DisplayName("近端缓存里的摘要放在最前，不占 lastN 的名额，追加新消息后仍保留")
+    void summaryServedFromNearCache() {
+        ChatMemoryNearCache cache = new ChatMemoryNearCache(new ChatMemoryProperties());
+        Message summary = ConversationSummarizer.summaryMessage("用户在问 HT-2024-0007 的付款条款");
+
+        cache.fill("u1", summary, turns(2, "问题"), cache.stamp("u1"));
+        cache.appended("u1", List.of(new UserMessage("第三问")));
+
+        List<Message> recent = cache.get("u1", 2);
+        assertEquals(3, recent.size());
+        assertEquals(MessageType.SYSTEM, recent.get(0).getMessageType());
+        assertTrue(recent.get(0).getContent().endsWith("HT-2024-0007 的付款条款"));
+        assertEquals("第三问", recent.get(2).getContent());
+    }
+
+    private static List<Message> turns(int count, String question) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            messages.add(new UserMessage(question + i));
+            messages.add(new AssistantMessage("回答" + i));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,235 @@
+package com.intellivault.backend.service;
+
+import com.intellivault.backend.config.IndexProperties;
+import com.intellivault.backend.config.IngestionProperties;
+import com.intellivault.backend.config.Tenants;
+import com.intellivault.backend.index.FlatVectorIndex;
+import com.intellivault.backend.index.LexicalIndex;
+import com.intellivault.backend.index.TenantIndexRegistry;
+import com.intellivault.backend.index.VectorIndex;
+import com.intellivault.backend.ingestion.IngestionCheckpoint;
+import com.intellivault.backend.model.IngestionStage;
+import com.intellivault.backend.model.KnowledgeDocument;
+import com.intellivault.backend.repository.KnowledgeRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DocumentServiceTest {
+
+    @Mock
+    private ChunkEmbeddingStore chunkEmbeddingStore;
+
+    @Mock
+    private KnowledgeRepository knowledgeRepository;
+
+    @Mock
+    private FileParseService parseService;
+
+    private TenantIndexRegistry indexRegistry;
+
+    private DocumentService documentService;
+
+    @BeforeEach
+    void setUp(@TempDir Path dir) {
+        IngestionProperties properties = new IngestionProperties();
+        properties.getStreaming().setEnabled(false);
+        properties.getStreaming().setFlushChunks(2);
+        IndexProperties indexProperties = new IndexProperties();
+        indexProperties.setPath(dir.resolve("vector.idx").toString());
+        indexRegistry = new TenantIndexRegistry(tenantId -> new FlatVectorIndex(2), knowledgeRepository,
+                indexProperties, new SimpleMeterRegistry());
+        // 落库阶段用同步执行器，断言时所有批次都已完成
+        documentService = new DocumentService(chunkEmbeddingStore, knowledgeRepository, indexRegistry, parseService,
+                Runnable::run, properties);
+
+        when(chunkEmbeddingStore.resolve(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            List<String> hashes = texts.stream().map(t -> "h" + t.hashCode()).toList();
+            List<float[]> vectors = texts.stream().map(t -> new float[]{1f, 0f}).toList();
+            return new ChunkEmbeddingStore.Resolved(hashes, vectors, 0);
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        indexRegistry.persist();
+    }
+
+    @Test
+    @DisplayName("断点续传：跳过已落库的片段，片段 id 与首次执行一致")
+    void testResumeSkipsCommittedChunks() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            text.append("Paragraph ").append(i).append(" describes clause ").append(i).append(" of the contract.\n");
+        }
+        Resource resource = new ByteArrayResource(new byte[0]);
+        when(parseService.parse(any(Resource.class))).thenReturn(text.toString());
+
+        RecordingCheckpoint checkpoint = new RecordingCheckpoint(1);
+        documentService.ingest(resource, "contract.txt", "file42", "acme", checkpoint);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<KnowledgeDocument>> written = ArgumentCaptor.forClass(List.class);
+        verify(knowledgeRepository, atLeastOnce()).upsertChunks(written.capture());
+
+        List<String> ids = written.getAllValues().stream().flatMap(List::stream).map(KnowledgeDocument::getId).toList();
+        assertEquals("file42_1", ids.get(0), "第 0 个片段已经落库，应从 1 开始");
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals("file42_" + (i + 1), ids.get(i));
+        }
+        assertTrue(written.getAllValues().stream().flatMap(List::stream).allMatch(d -> "acme".equals(d.getTenantId())));
+        assertEquals(ids.size(), indexRegistry.read("acme", VectorIndex::size));
+        assertEquals(0, indexRegistry.read(Tenants.DEFAULT, VectorIndex::size), "片段只进所属租户的分区");
+        assertEquals(ids.size(), indexRegistry.readLexical("acme", LexicalIndex::size), "正文同时进关键词索引");
+
+        // 进度单调递增，最后一次等于片段总数；阶段按顺序推进
+        assertEquals(ids.size() + 1, checkpoint.committed.get(checkpoint.committed.size() - 1));
+        assertEquals(List.of(IngestionStage.PARSED, IngestionStage.CHUNKED, IngestionStage.EMBEDDED), checkpoint.stages);
+    }
+
+    @Test
+    @DisplayName("流水线：第 N+1 批的向量化不等第 N 批落库，检查点仍按批次顺序推进")
+    void testEmbeddingOverlapsPersist() throws Exception {
+        IngestionProperties properties = new IngestionProperties();
+        properties.getStreaming().setEnabled(false);
+        properties.getStreaming().setFlushChunks(2);
+        ExecutorService persistExecutor = Executors.newCachedThreadPool();
+        try {
+            DocumentService pipelined = new DocumentService(chunkEmbeddingStore, knowledgeRepository, indexRegistry,
+                    parseService, persistExecutor, properties);
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 400; i++) {
+                text.append("Paragraph ").append(i).append(" describes clause ").append(i).append(" of the contract.\n");
+            }
+            when(parseService.parse(any(Resource.class))).thenReturn(text.toString());
+
+            // 第一批落库卡住，直到第二批开始向量化；批次之间串行时这里会一直等到超时
+            AtomicInteger resolves = new AtomicInteger();
+            CountDownLatch secondResolve = new CountDownLatch(1);
+            AtomicBoolean overlapped = new AtomicBoolean();
+            when(chunkEmbeddingStore.resolve(anyList())).thenAnswer(invocation -> {
+                if (resolves.incrementAndGet() == 2) secondResolve.countDown();
+                List<String> texts = invocation.getArgument(0);
+                return new ChunkEmbeddingStore.Resolved(texts.stream().map(t -> "h" + t.hashCode()).toList(),
+                        texts.stream().map(t -> new float[]{1f, 0f}).toList(), 0);
+            });
+            AtomicInteger upserts = new AtomicInteger();
+            doAnswer(invocation -> {
+                if (upserts.incrementAndGet() == 1) overlapped.set(secondResolve.await(10, TimeUnit.SECONDS));
+                return null;
+            }).when(knowledgeRepository).upsertChunks(anyList());
+
+            RecordingCheckpoint checkpoint = new RecordingCheckpoint(0);
+            pipelined.ingest(new ByteArrayResource(new byte[0]), "contract.txt", "file7", "acme", checkpoint);
+
+            assertTrue(overlapped.get(), "第二批应在第一批落库期间开始向量化");
+            assertTrue(checkpoint.committed.size() > 1);
+            for (int i = 1; i < checkpoint.committed.size(); i++) {
+                assertTrue(checkpoint.committed.get(i) > checkpoint.committed.get(i - 1), "检查点必须单调推进");
+            }
+            assertEquals(indexRegistry.read("acme", VectorIndex::size),
+                    checkpoint.committed.get(checkpoint.committed.size() - 1));
+        } finally {
+            persistExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("中途失败：排队的向量化不再执行，在跑的等它结束；ingest 抛出时没有线程还在替这个文件调用模型")
+    void testAbandonStopsEmbeddings() throws Exception {
+        IngestionProperties properties = new IngestionProperties();
+        properties.getStreaming().setEnabled(false);
+        properties.getStreaming().setFlushChunks(2);
+        // 两个线程：一批失败、一批在跑，其余排队
+        ExecutorService persistExecutor = Executors.newFixedThreadPool(2);
+        try {
+            DocumentService pipelined = new DocumentService(chunkEmbeddingStore, knowledgeRepository, indexRegistry,
+                    parseService, persistExecutor, properties);
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 400; i++) {
+                text.append("Paragraph ").append(i).append(" describes clause ").append(i).append(" of the contract.\n");
+            }
+            when(parseService.parse(any(Resource.class))).thenReturn(text.toString());
+
+            AtomicInteger resolves = new AtomicInteger();
+            AtomicInteger running = new AtomicInteger();
+            when(chunkEmbeddingStore.resolve(anyList())).thenAnswer(invocation -> {
+                if (resolves.incrementAndGet() == 1) throw new IllegalStateException("模型不可用");
+                running.incrementAndGet();
+                try {
+                    Thread.sleep(200);
+                } finally {
+                    running.decrementAndGet();
+                }
+                List<String> texts = invocation.getArgument(0);
+                return new ChunkEmbeddingStore.Resolved(texts.stream().map(t -> "h" + t.hashCode()).toList(),
+                        texts.stream().map(t -> new float[]{1f, 0f}).toList(), 0);
+            });
+
+            assertThrows(IllegalStateException.class, () -> pipelined.ingest(new ByteArrayResource(new byte[0]),
+                    "contract.txt", "file8", "acme", new RecordingCheckpoint(0)));
+
+            assertEquals(0, running.get(), "ingest 抛出时不应还有向量化在跑");
+            int started = resolves.get();
+            Thread.sleep(300);
+            assertEquals(started, resolves.get(), "中止后排队的批次不应再调用模型");
+        } finally {
+            persistExecutor.shutdownNow();
+        }
+    }
+
+    private static class RecordingCheckpoint implements IngestionCheckpoint {
+        private final int alreadyCommitted;
+        private final List<Integer> committed = new CopyOnWriteArrayList<>();
+        private final List<IngestionStage> stages = new ArrayList<>();
+
+        RecordingCheckpoint(int alreadyCommitted) {
+            this.alreadyCommitted = alreadyCommitted;
+        }
+
+        @Override
+        public int committedChunks() {
+            return alreadyCommitted;
+        }
+
+        @Override
+        public void committed(int chunks) {
+            committed.add(chunks);
+        }
+
+        @Override
+        public void reached(IngestionStage stage, int totalChunks) {
+            stages.add(stage);
+        }
+    }
+}
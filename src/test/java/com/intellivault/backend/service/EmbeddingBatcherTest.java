@@ -0,0 +1,66 @@
+package com.intellivault.backend.service;
+
+import com.intellivault.backend.config.IngestionProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EmbeddingBatcherTest {
+
+    @Test
+    @DisplayName("按批调用 embed(List)，结果顺序与输入一致")
+    void testBatchesPreserveOrder() {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        // 每个片段的向量 = [片段编号]，方便校验顺序
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> {
+            List<String> batch = invocation.getArgument(0);
+            return batch.stream().map(text -> new float[]{Float.parseFloat(text)}).toList();
+        });
+
+        IngestionProperties properties = new IngestionProperties();
+        properties.getEmbedding().setBatchSize(8);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            EmbeddingBatcher batcher = new EmbeddingBatcher(embeddingModel, executor, properties, new SimpleMeterRegistry());
+
+            List<String> texts = new ArrayList<>();
+            for (int i = 0; i < 50; i++) texts.add(String.valueOf(i));
+
+            List<float[]> vectors = batcher.embedAll(texts);
+
+            assertEquals(50, vectors.size());
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i, vectors.get(i)[0], "第 " + i + " 个向量错位");
+            }
+            // 50 个片段 / 每批 8 个 = 7 批
+            verify(embeddingModel, times(7)).embed(anyList());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("模型返回条数不对时整体失败，不产生错位数据")
+    void testBatchSizeMismatchFails() {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed(anyList())).thenReturn(List.of(new float[]{1f}));
+
+        EmbeddingBatcher batcher = new EmbeddingBatcher(embeddingModel, Runnable::run,
+                new IngestionProperties(), new SimpleMeterRegistry());
+
+        assertThrows(IllegalStateException.class, () -> batcher.embedAll(List.of("a", "b")));
+    }
+}
@@ -1,21 +1,41 @@
 package com.intellivault.backend.service;
 
+import com.intellivault.backend.config.IndexProperties;
+import com.intellivault.backend.config.SearchProperties;
+import com.intellivault.backend.config.Tenants;
+import com.intellivault.backend.index.FlatVectorIndex;
+import com.intellivault.backend.index.SearchFilter;
+import com.intellivault.backend.index.TenantIndexRegistry;
 import com.intellivault.backend.model.KnowledgeDocument;
+import com.intellivault.backend.model.ScoredChunk;
 import com.intellivault.backend.repository.KnowledgeRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class) // 使用 Mockito 扩展，不启动 Spring 容器，飞快
@@ -27,8 +47,39 @@ class SearchServiceTest {
     @Mock
     private KnowledgeRepository knowledgeRepository;
 
-    @InjectMocks
-    private SearchService searchService; // 自动把上面两个 Mock 注入到你要测的 Service 里
+    @Mock
+    private ObjectProvider<StringRedisTemplate> redisTemplateProvider;
+
+    @Mock
+    private TombstoneService tombstoneService;
+
+    @Mock
+    private DocumentStorageService storageService;
+
+    // 向量索引用真实实现 (纯内存 + 临时目录里的日志，不需要 Mock)
+    private TenantIndexRegistry indexRegistry;
+
+    private SearchService searchService;
+
+    @BeforeEach
+    void setUp(@TempDir Path dir) {
+        IndexProperties properties = new IndexProperties();
+        properties.setPath(dir.resolve("vector.idx").toString());
+        indexRegistry = new TenantIndexRegistry(tenantId -> new FlatVectorIndex(2), knowledgeRepository,
+                properties, new SimpleMeterRegistry());
+        SearchProperties searchProperties = new SearchProperties();
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(
+                searchProperties, redisTemplateProvider, new SimpleMeterRegistry());
+        // 关键词一路用同步执行器，断言时两路都已完成
+        searchService = new SearchService(embeddingModel, knowledgeRepository, indexRegistry, cache,
+                new InferenceLimiter(searchProperties, new SimpleMeterRegistry()), tombstoneService,
+                storageService, searchProperties, Runnable::run, Schedulers.boundedElastic());
+    }
+
+    @AfterEach
+    void tearDown() {
+        indexRegistry.persist();
+    }
 
     @Test
     @DisplayName("测试核心逻辑：过滤低分文档，并按相似度降序排列")
@@ -51,11 +102,13 @@ class SearchServiceTest {
         // 文档 D: 向量 [-1.0, 0.0] -> 完全相反，相似度 -1.0 -> 应该被过滤掉
         mockDocs.add(createDoc("Doc_D", -1.0, 0.0));
 
-        when(knowledgeRepository.findAll()).thenReturn(mockDocs);
+        mockDocs.forEach(doc -> index(Tenants.DEFAULT, doc.getId(), "file_1", doc.getEmbedding()));
+        // 索引只返回 id，命中的文档再回库补全
+        when(knowledgeRepository.findChunksByIds(anyCollection())).thenReturn(mockDocs);
 
         // 2. 执行你的代码 (Act)
         // 搜索 "test"，取前 5 个
-        List<KnowledgeDocument> results = searchService.search("test", 5);
+        List<ScoredChunk> results = searchService.search(Tenants.DEFAULT, "test", 5);
 
         // 3. 验证结果 (Assert)
 
@@ -63,22 +116,223 @@ class SearchServiceTest {
         assertEquals(2, results.size(), "应该只有 Doc_A 和 Doc_C 留下来");
 
         // 验证 2: 排序功能 (Doc_A 应该在 Doc_C 前面)
-        assertEquals("Doc_A", results.get(0).getContent(), "分数最高的应该排第一");
-        assertEquals("Doc_C", results.get(1).getContent(), "分数第二的应该排第二");
+        assertEquals("Doc_A", results.get(0).content(), "分数最高的应该排第一");
+        assertEquals("Doc_C", results.get(1).content(), "分数第二的应该排第二");
+
+        // 验证 3: 分数计算 (分数随结果返回)
+        assertTrue(results.get(0).score() > 0.99, "Doc_A 的分数应该是 1.0 左右");
 
-        // 验证 3: 分数计算 (校验你有没有把 Metadata 写进去)
-        Double scoreA = (Double) results.get(0).getMetadata().get("score");
-        assertTrue(scoreA > 0.99, "Doc_A 的分数应该是 1.0 左右");
+        // 验证 4: 无副作用 (实体的 metadata 不会被写入分数)
+        assertTrue(mockDocs.stream().noneMatch(doc -> doc.getMetadata().containsKey("score")),
+                "检索不应修改实体的 metadata");
 
         System.out.println("✅ 测试通过！你的 for 循环逻辑写得很完美！");
     }
 
+    @Test
+    @DisplayName("重复 / 仅大小写标点不同的问题只做一次向量化")
+    void testQueryEmbeddingCached() {
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{1.0f, 0.0f});
+
+        searchService.search(Tenants.DEFAULT, "IntelliVault 是什么？", 3);
+        searchService.search(Tenants.DEFAULT, "intellivault  是什么?", 3);
+
+        verify(embeddingModel, times(1)).embed(anyString());
+    }
+
+    @Test
+    @DisplayName("内容哈希相同的片段 (跨文件的重复内容) 只返回一次")
+    void testDuplicateContentCollapsed() {
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{1.0f, 0.0f});
+
+        KnowledgeDocument v1 = createDoc("Contract_v1", 1.0, 0.0);
+        KnowledgeDocument v2 = createDoc("Contract_v2", 1.0, 0.0);
+        KnowledgeDocument other = createDoc("Other", 0.8, 0.2);
+        v1.setContentHash("same-hash");
+        v2.setContentHash("same-hash");
+        other.setContentHash("other-hash");
+        List<KnowledgeDocument> mockDocs = List.of(v1, v2, other);
+
+        mockDocs.forEach(doc -> index(Tenants.DEFAULT, doc.getId(), doc.getId(), doc.getEmbedding()));
+        when(knowledgeRepository.findChunksByIds(anyCollection())).thenReturn(mockDocs);
+
+        List<ScoredChunk> results = searchService.search(Tenants.DEFAULT, "合同条款", 2);
+
+        assertEquals(2, results.size());
+        assertEquals(1, results.stream().filter(r -> r.content().startsWith("Contract")).count(),
+                "两个版本内容相同，只应保留一条");
+        assertEquals("Other", results.get(1).content());
+    }
+
+    @Test
+    @DisplayName("已标记删除 (墓碑) 的文件在清理完成前就不再出现在结果里")
+    void testTombstonedFileFiltered() {
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{1.0f, 0.0f});
+        when(tombstoneService.isDeleted(anyString())).thenAnswer(inv -> "deleted_file".equals(inv.getArgument(0)));
+
+        KnowledgeDocument deleted = createDoc("Deleted", 1.0, 0.0);
+        KnowledgeDocument live = createDoc("Live", 0.9, 0.1);
+        index(Tenants.DEFAULT, deleted.getId(), "deleted_file", deleted.getEmbedding());
+        index(Tenants.DEFAULT, live.getId(), "live_file", live.getEmbedding());
+        when(knowledgeRepository.findChunksByIds(anyCollection())).thenReturn(List.of(live));
+
+        List<ScoredChunk> results = searchService.search(Tenants.DEFAULT, "test", 5);
+
+        assertEquals(1, results.size());
+        assertEquals("Live", results.get(0).content());
+        verify(knowledgeRepository).findChunksByIds(List.of("Live"));
+    }
+
+    @Test
+    @DisplayName("检索只在本租户的分区里进行，看不到别的租户的片段")
+    void testSearchScopedToTenant() {
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{1.0f, 0.0f});
+
+        KnowledgeDocument mine = createDoc("Mine", 0.9, 0.1);
+        KnowledgeDocument theirs = createDoc("Theirs", 1.0, 0.0);
+        index("acme", mine.getId(), "acme_file", mine.getEmbedding());
+        index("globex", theirs.getId(), "globex_file", theirs.getEmbedding());
+        when(knowledgeRepository.findChunksByIds(anyCollection())).thenReturn(List.of(mine));
+
+        List<ScoredChunk> results = searchService.search("acme", "test", 5);
+
+        assertEquals(1, results.size());
+        assertEquals("Mine", results.get(0).content());
+        verify(knowledgeRepository).findChunksByIds(List.of("Mine"));
+        assertTrue(searchService.search(Tenants.DEFAULT, "test", 5).isEmpty(), "默认租户没有任何片段");
+    }
+
+    @Test
+    @DisplayName("按文件名 / 上传时间过滤：只在范围内的片段里检索，上传时间先换成 fileId")
+    void testSearchWithFilter() {
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{1.0f, 0.0f});
+
+        KnowledgeDocument contract = createDoc("Contract", 0.9, 0.1);
+        KnowledgeDocument report = createDoc("Report", 1.0, 0.0);
+        indexRegistry.write(Tenants.DEFAULT, index -> {
+            index.addAll(List.of("Contract", "Report"), List.of("contract_file", "report_file"),
+                    List.of(contract.getEmbedding(), report.getEmbedding()),
+                    List.of(SearchFilter.attributesOf("合同.pdf", Map.of()),
+                            SearchFilter.attributesOf("周报.docx", Map.of())));
+            return null;
+        });
+        when(knowledgeRepository.findChunksByIds(anyCollection())).thenReturn(List.of(contract));
+
+        List<ScoredChunk> byName = searchService.search(Tenants.DEFAULT, "test", 5,
+                SearchFilter.builder().sourceFilename("合同.pdf").build());
+        assertEquals(List.of("Contract"), byName.stream().map(ScoredChunk::content).toList());
+        verify(knowledgeRepository).findChunksByIds(List.of("Contract"));
+
+        Instant from = Instant.parse("2024-01-01T00:00:00Z");
+        when(storageService.findFileIdsUploadedBetween(Tenants.DEFAULT, from, null))
+                .thenReturn(List.of("contract_file"));
+        List<ScoredChunk> byDate = searchService.search(Tenants.DEFAULT, "test", 5,
+                SearchFilter.builder().uploadedBetween(from, null).build());
+        assertEquals(List.of("Contract"), byDate.stream().map(ScoredChunk::content).toList());
+
+        // 条件之间是 AND：合同不是这个时间段上传的
+        when(storageService.findFileIdsUploadedBetween(Tenants.DEFAULT, from, null))
+                .thenReturn(List.of("report_file"));
+        assertTrue(searchService.search(Tenants.DEFAULT, "test", 5, SearchFilter.builder()
+                .sourceFilename("合同.pdf").uploadedBetween(from, null).build()).isEmpty());
+    }
+
+    @Test
+    @DisplayName("混合检索：向量区分不出的错误码由关键词一路召回，两路都命中的排最前")
+    void testHybridSearchRecallsExactIdentifiers() {
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{1.0f, 0.0f});
+
+        // 向量只认 "语义"：Target 与问题的向量正交 (相似度 0，向量一路过滤掉)，但正文里有问的错误码
+        KnowledgeDocument generic = createDoc("Generic", 1.0, 0.0);
+        KnowledgeDocument both = createDoc("Both", 0.9, 0.1);
+        KnowledgeDocument target = createDoc("Target", 0.0, 1.0);
+        generic.setContent("合同的一般条款");
+        both.setContent("ERR-1042 的处理流程");
+        target.setContent("错误码 ERR-1042 表示签名校验失败，需要重新获取证书");
+        List<KnowledgeDocument> mockDocs = List.of(generic, both, target);
+        mockDocs.forEach(doc -> index(Tenants.DEFAULT, doc.getId(), "file_1", doc.getEmbedding()));
+        indexRegistry.writeLexical(Tenants.DEFAULT, lexical -> {
+            lexical.addAll(mockDocs.stream().map(KnowledgeDocument::getId).toList(), List.of("file_1", "file_1", "file_1"),
+                    mockDocs.stream().map(KnowledgeDocument::getContent).toList(), null);
+            return null;
+        });
+        when(knowledgeRepository.findChunksByIds(anyCollection())).thenReturn(mockDocs);
+
+        List<ScoredChunk> results = searchService.search(Tenants.DEFAULT, "ERR-1042 怎么处理", 3);
+
+        // Both: 向量第 2 + 关键词第 1；Generic: 向量第 1；Target: 关键词第 2
+        assertEquals(List.of("Both", "Generic", "Target"), results.stream().map(ScoredChunk::id).toList());
+        assertTrue(results.get(0).score() > results.get(1).score());
+    }
+
+    @Test
+    @DisplayName("混合检索：墓碑在融合前过滤，删除中的文件占满前几名时仍能返回存活的结果")
+    void testHybridSearchFiltersTombstonesBeforeFusion() {
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{1.0f, 0.0f});
+        when(tombstoneService.isDeleted(anyString())).thenAnswer(inv -> "deleted_file".equals(inv.getArgument(0)));
+
+        // 删除中的文件两路都排在前面，融合后的前 topK * 2 名全是它
+        List<KnowledgeDocument> docs = new ArrayList<>();
+        List<String> fileIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            KnowledgeDocument deleted = createDoc("Deleted_" + i, 1.0, 0.0);
+            deleted.setContent("ERR-1042 旧版说明 " + i);
+            docs.add(deleted);
+            fileIds.add("deleted_file");
+        }
+        KnowledgeDocument live = createDoc("Live", 0.8, 0.2);
+        live.setContent("ERR-1042 的处理流程：先检查证书是否过期，再确认签名算法与服务端配置一致，最后重新获取证书");
+        docs.add(live);
+        fileIds.add("live_file");
+        for (int i = 0; i < docs.size(); i++) {
+            index(Tenants.DEFAULT, docs.get(i).getId(), fileIds.get(i), docs.get(i).getEmbedding());
+        }
+        indexRegistry.writeLexical(Tenants.DEFAULT, lexical -> {
+            lexical.addAll(docs.stream().map(KnowledgeDocument::getId).toList(), fileIds,
+                    docs.stream().map(KnowledgeDocument::getContent).toList(), null);
+            return null;
+        });
+        when(knowledgeRepository.findChunksByIds(anyCollection())).thenReturn(List.of(live));
+
+        List<ScoredChunk> results = searchService.search(Tenants.DEFAULT, "ERR-1042", 1);
+
+        assertEquals(List.of("Live"), results.stream().map(ScoredChunk::id).toList());
+        verify(knowledgeRepository).findChunksByIds(List.of("Live"));
+    }
+
+    @Test
+    @DisplayName("非阻塞检索：订阅前不做任何事，订阅后在检索调度器上执行")
+    void testSearchAsyncDeferred() {
+        when(embeddingModel.embed(anyString())).thenReturn(new float[]{1.0f, 0.0f});
+        KnowledgeDocument doc = createDoc("Doc_A", 1.0, 0.0);
+        index(Tenants.DEFAULT, doc.getId(), "file_1", doc.getEmbedding());
+        when(knowledgeRepository.findChunksByIds(anyCollection())).thenReturn(List.of(doc));
+
+        Mono<List<ScoredChunk>> pending = searchService.searchAsync(Tenants.DEFAULT, "test", 3, SearchFilter.NONE);
+        verify(embeddingModel, times(0)).embed(anyString());
+
+        String caller = Thread.currentThread().getName();
+        List<String> threads = new ArrayList<>();
+        List<ScoredChunk> results = pending.doOnNext(r -> threads.add(Thread.currentThread().getName())).block();
+
+        assertEquals(List.of("Doc_A"), results.stream().map(ScoredChunk::id).toList());
+        assertNotEquals(caller, threads.get(0), "检索不应跑在调用线程上");
+    }
+
+    private void index(String tenantId, String id, String fileId, float[] vector) {
+        indexRegistry.write(tenantId, index -> {
+            index.add(id, fileId, vector);
+            return null;
+        });
+    }
+
     // 辅助方法：快速造文档
     private KnowledgeDocument createDoc(String content, double v1, double v2) {
         return KnowledgeDocument.builder()
+                .id(content)
                 .content(content)
-                .embedding(List.of(v1, v2))
-                .metadata(new HashMap<>()) // 必须 new 一个 Map，否则 put 会报错
+                .embedding(new float[]{(float) v1, (float) v2})
+                .metadata(new HashMap<>())
                 .build();
     }
 }
\ No newline at end of file